@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import io.github.mrcdnk.coverage.JacocoAdapter;
+import io.github.mrcdnk.coverage.LocalJacocoAdapter;
+import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.analysis.ParallelAnalyzer;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.apache.commons.io.FileUtils;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysis of a jar of synthetic classes, with the full coverage tree and with the counters only analysis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AnalysisBenchmark {
+
+    @Param({"1000", "10000"})
+    int classes;
+
+    private Path directory;
+    private Collection<File> classFiles;
+    private ExecutionDataStore executionData;
+    private JacocoAdapter<LocalJacocoConfig> jacocoAdapter;
+    private ParallelAnalyzer counterAnalyzer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticCorpus corpus = SyntheticCorpus.generate(classes);
+
+        directory = Files.createTempDirectory("jacoco-benchmark");
+        classFiles = List.of(corpus.writeJar(directory.resolve("corpus.jar")).toFile());
+        executionData = corpus.executionData(0.5, 42);
+        jacocoAdapter = new LocalJacocoAdapter(null);
+        counterAnalyzer = new ParallelAnalyzer(null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public IBundleCoverage analyze() throws IOException {
+        return jacocoAdapter.analyze(executionData, classFiles);
+    }
+
+    @Benchmark
+    public CoverageSnapshot analyzeCounters() throws IOException {
+        return counterAnalyzer.analyzeCounters(executionData, classFiles, false);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like JMH's own main class, but always with the {@link GCProfiler}, so the allocation rate of
+ * every benchmark is reported next to its score.
+ * <p>
+ * All JMH options are supported, e.g. <code>java -jar benchmarks.jar Analysis -p classes=10000</code>. The benchmarks
+ * run against 1000 and 10000 classes by default, the <code>large</code> profile adds 100000 classes:
+ * <code>java -Dbenchmarks.profile=large -jar benchmarks.jar</code>. A <code>classes</code> parameter given on the
+ * command line takes precedence over the profile.
+ */
+public final class BenchmarkMain {
+
+    private static final String[] LARGE_CLASSES = {"1000", "10000", "100000"};
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final OptionsBuilder options = new OptionsBuilder();
+
+        options.parent(commandLineOptions)
+                .addProfiler(GCProfiler.class);
+
+        if ("large".equals(System.getProperty("benchmarks.profile")) && !commandLineOptions.getParameter("classes").hasValue()) {
+            options.param("classes", LARGE_CLASSES);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import io.github.mrcdnk.coverage.inventory.ClassFileInventory;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Selection of the class files of a directory tree, as done by <code>LocalJacocoAdapter#getClazzFiles</code> on every
+ * scrape if neither the classes cache nor the watch is enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ClassFileInventoryBenchmark {
+
+    @Param({"1000", "10000"})
+    int classes;
+
+    /**
+     * <ul>
+     *     <li><code>default</code>: the default include patterns of the auto config</li>
+     *     <li><code>include</code>: a single package included</li>
+     *     <li><code>exclude</code>: the default include patterns and ten excluded packages</li>
+     * </ul>
+     */
+    @Param({"default", "include", "exclude"})
+    String patterns;
+
+    private Path directory;
+    private ClassFileInventory inventory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticCorpus corpus = SyntheticCorpus.generate(classes);
+
+        directory = corpus.writeDirectory(Files.createTempDirectory("jacoco-benchmark"));
+
+        final String[] defaultIncludes = {"glob:**.class", "glob:**.jar"};
+        final String[] locations = {directory.toString()};
+
+        inventory = switch (patterns) {
+            case "default" -> new ClassFileInventory(locations, defaultIncludes, new String[0]);
+            case "include" -> new ClassFileInventory(locations, new String[]{"glob:**/synthetic/p1/*.class"}, new String[0]);
+            case "exclude" -> new ClassFileInventory(locations, defaultIncludes, IntStream.range(0, 10)
+                    .mapToObj(i -> "glob:**/synthetic/p" + (i * corpus.getPackageCount() / 10) + "/**")
+                    .toArray(String[]::new));
+            default -> throw new IllegalArgumentException("Unknown pattern set [" + patterns + "]");
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        inventory.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public Collection<File> scan() throws IOException {
+        return inventory.scan();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import io.github.mrcdnk.coverage.probes.ProbeStore;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging the execution data of several replicas, once on the probe arrays of the execution data and once on packed
+ * {@link ProbeStore}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ProbeMergeBenchmark {
+
+    @Param({"1000", "10000"})
+    int classes;
+
+    @Param({"4"})
+    int replicas;
+
+    private final List<ExecutionDataStore> executionData = new ArrayList<>();
+    private final List<ProbeStore> probeStores = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticCorpus corpus = SyntheticCorpus.generate(classes);
+
+        for (int replica = 0; replica < replicas; replica++) {
+            final ExecutionDataStore replicaData = corpus.executionData(0.5, replica);
+
+            executionData.add(replicaData);
+            probeStores.add(ProbeStore.of(replicaData));
+        }
+    }
+
+    @Benchmark
+    public ExecutionDataStore mergeExecutionData() {
+        final ExecutionDataStore merged = new ExecutionDataStore();
+
+        for (ExecutionDataStore replicaData : executionData) {
+            for (ExecutionData data : replicaData.getContents()) {
+                final ExecutionData existing = merged.get(data.getId());
+
+                if (existing == null) {
+                    merged.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+                } else {
+                    existing.merge(data);
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    @Benchmark
+    public ProbeStore mergeProbeStores() {
+        final ProbeStore merged = new ProbeStore();
+
+        for (ProbeStore probeStore : probeStores) {
+            merged.or(probeStore);
+        }
+
+        return merged;
+    }
+
+    @Benchmark
+    public ExecutionDataStore mergeProbeStoresAndExport() {
+        return mergeProbeStores().toExecutionDataStore();
+    }
+}
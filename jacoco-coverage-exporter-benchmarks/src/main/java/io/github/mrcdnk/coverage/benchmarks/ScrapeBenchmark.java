@@ -0,0 +1,150 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import io.github.mrcdnk.coverage.JacocoMBeanProxy;
+import io.github.mrcdnk.coverage.LocalJacocoAdapter;
+import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.prometheus.LocalPrometheusMetricProvider;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshotCache;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jmx.access.MBeanProxyFactoryBean;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A complete Prometheus scrape of the local auto config: loading the execution data from the agent, analyzing the class
+ * files and rendering the metrics. The agent is replaced by a proxy returning a generated dump.
+ * <p>
+ * With <code>changingProbes</code> the proxy alternates between two dumps, so every scrape analyzes the class files.
+ * Otherwise the dump never changes and all scrapes but the first reuse the previous snapshot, like in steady state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ScrapeBenchmark {
+
+    @Param({"1000", "10000"})
+    int classes;
+
+    @Param({"true", "false"})
+    boolean enableProbeIndex;
+
+    @Param({"true", "false"})
+    boolean changingProbes;
+
+    private Path directory;
+    private LocalJacocoAdapter jacocoAdapter;
+    private CoverageSnapshotCache<LocalJacocoConfig> snapshotCache;
+    private PrometheusMeterRegistry meterRegistry;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticCorpus corpus = SyntheticCorpus.generate(classes);
+        final byte[] execFile = SyntheticCorpus.toExecFile(corpus.executionData(0.5, 42));
+        final byte[] changedExecFile = changingProbes ? SyntheticCorpus.toExecFile(corpus.executionData(0.5, 43)) : execFile;
+
+        directory = Files.createTempDirectory("jacoco-benchmark");
+        corpus.writeJar(directory.resolve("corpus.jar"));
+
+        final JacocoMBeanProxy agent = new BenchmarkAgent(new byte[][]{execFile, changedExecFile}, new AtomicInteger());
+        final MBeanProxyFactoryBean proxyFactoryBean = new MBeanProxyFactoryBean() {
+            @Override
+            public Object getObject() {
+                return agent;
+            }
+        };
+
+        final LocalJacocoConfig config = new LocalJacocoConfig("benchmark", new String[]{directory.toString()},
+                new String[]{"glob:**.class", "glob:**.jar"}, new String[0], true, false, enableProbeIndex, false);
+
+        jacocoAdapter = new LocalJacocoAdapter(proxyFactoryBean, 0);
+        // the snapshot is invalidated before every scrape, the freshness only makes all gauges of a scrape share it
+        snapshotCache = new CoverageSnapshotCache<>(jacocoAdapter, config, Duration.ofHours(1));
+        meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+        new LocalPrometheusMetricProvider(snapshotCache, meterRegistry, Map.of("application", "benchmark"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jacocoAdapter.close();
+        meterRegistry.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public String scrape() {
+        snapshotCache.invalidate();
+
+        return meterRegistry.scrape();
+    }
+
+    private record BenchmarkAgent(byte[][] execFiles, AtomicInteger dumps) implements JacocoMBeanProxy {
+
+        @Override
+        public String getVersion() {
+            return "benchmark";
+        }
+
+        @Override
+        public String getSessionId() {
+            return "benchmark";
+        }
+
+        @Override
+        public void setSessionId(String id) {
+        }
+
+        @Override
+        public byte[] getExecutionData(boolean reset) {
+            return execFiles[dumps.getAndIncrement() % execFiles.length];
+        }
+
+        @Override
+        public void dump(boolean reset) {
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.benchmarks;
+
+import io.github.mrcdnk.coverage.index.ClassProbeIndex;
+import io.github.mrcdnk.coverage.index.ClassProbeIndexer;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generated classes with loops and branches, spread over packages like a real application, and matching execution data.
+ */
+final class SyntheticCorpus {
+
+    private static final int CLASSES_PER_PACKAGE = 50;
+    private static final int METHODS_PER_CLASS = 8;
+
+    private final List<String> names;
+    private final List<byte[]> classes;
+    private final long[] classIds;
+    private final int[] probeCounts;
+
+    private SyntheticCorpus(List<String> names, List<byte[]> classes, long[] classIds, int[] probeCounts) {
+        this.names = names;
+        this.classes = classes;
+        this.classIds = classIds;
+        this.probeCounts = probeCounts;
+    }
+
+    static SyntheticCorpus generate(int classCount) throws IOException {
+        final List<String> names = new ArrayList<>(classCount);
+        final List<byte[]> classes = new ArrayList<>(classCount);
+        final long[] classIds = new long[classCount];
+        final int[] probeCounts = new int[classCount];
+
+        for (int i = 0; i < classCount; i++) {
+            final String name = "synthetic/p" + (i / CLASSES_PER_PACKAGE) + "/C" + i;
+            final byte[] bytes = generateClass(name);
+            final ClassProbeIndex index = ClassProbeIndexer.indexClass(bytes, name);
+
+            names.add(name);
+            classes.add(bytes);
+            classIds[i] = index.getClassId();
+            probeCounts[i] = index.getProbeCount();
+        }
+
+        return new SyntheticCorpus(names, classes, classIds, probeCounts);
+    }
+
+    int size() {
+        return classes.size();
+    }
+
+    int getPackageCount() {
+        return (classes.size() + CLASSES_PER_PACKAGE - 1) / CLASSES_PER_PACKAGE;
+    }
+
+    Path writeJar(Path jar) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < classes.size(); i++) {
+                out.putNextEntry(new JarEntry(names.get(i) + ".class"));
+                out.write(classes.get(i));
+                out.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+
+    Path writeDirectory(Path directory) throws IOException {
+        for (int i = 0; i < classes.size(); i++) {
+            final Path file = directory.resolve(names.get(i) + ".class");
+
+            Files.createDirectories(file.getParent());
+            Files.write(file, classes.get(i));
+        }
+
+        return directory;
+    }
+
+    /**
+     * @param executedClasses fraction of the classes that have been executed, half of their probes are set
+     */
+    ExecutionDataStore executionData(double executedClasses, long seed) {
+        final Random random = new Random(seed);
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+
+        for (int i = 0; i < classes.size(); i++) {
+            if (random.nextDouble() >= executedClasses) {
+                continue;
+            }
+
+            final boolean[] probes = new boolean[probeCounts[i]];
+
+            for (int probe = 0; probe < probes.length; probe++) {
+                probes[probe] = random.nextBoolean();
+            }
+
+            executionData.put(new ExecutionData(classIds[i], names.get(i), probes));
+        }
+
+        return executionData;
+    }
+
+    /**
+     * @return the execution data in the format of an exec file or a JMX dump of the agent
+     */
+    static byte[] toExecFile(ExecutionDataStore executionData) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ExecutionDataWriter writer = new ExecutionDataWriter(bytes);
+
+        writer.visitSessionInfo(new SessionInfo("benchmark", 0, 1));
+        executionData.accept(writer);
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Every method contains a loop with an if/else, so the classes have branches, several lines and several probes per
+     * method.
+     */
+    private static byte[] generateClass(String name) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+
+        final MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        lineNumber(constructor, 1);
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (int method = 0; method < METHODS_PER_CLASS; method++) {
+            generateMethod(writer, "m" + method, 10 + method * 10);
+        }
+
+        writer.visitEnd();
+
+        return writer.toByteArray();
+    }
+
+    private static void generateMethod(ClassWriter writer, String name, int firstLine) {
+        final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, name, "(I)I", null, null);
+        final Label loop = new Label();
+        final Label odd = new Label();
+        final Label next = new Label();
+        final Label end = new Label();
+
+        method.visitCode();
+        lineNumber(method, firstLine);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 3);
+
+        method.visitLabel(loop);
+        lineNumber(method, firstLine + 1);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+
+        lineNumber(method, firstLine + 2);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IAND);
+        method.visitJumpInsn(Opcodes.IFNE, odd);
+        lineNumber(method, firstLine + 3);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitVarInsn(Opcodes.ILOAD, 3);
+        method.visitInsn(Opcodes.IADD);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitJumpInsn(Opcodes.GOTO, next);
+
+        method.visitLabel(odd);
+        lineNumber(method, firstLine + 5);
+        method.visitIincInsn(2, -1);
+
+        method.visitLabel(next);
+        method.visitIincInsn(3, 1);
+        method.visitJumpInsn(Opcodes.GOTO, loop);
+
+        method.visitLabel(end);
+        lineNumber(method, firstLine + 7);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private static void lineNumber(MethodVisitor method, int line) {
+        final Label label = new Label();
+        method.visitLabel(label);
+        method.visitLineNumber(line, label);
+    }
+}
@@ -16,6 +16,11 @@
 
 package io.github.mrcdnk.coverage;
 
+import io.github.mrcdnk.coverage.configuration.ClassIndexConfiguration;
+import io.github.mrcdnk.coverage.configuration.CoverageCaptureConfiguration;
+import io.github.mrcdnk.coverage.configuration.CoverageHistoryConfiguration;
+import io.github.mrcdnk.coverage.configuration.ExecDataArchiveConfiguration;
+import io.github.mrcdnk.coverage.configuration.ProviderDiscoveryConfiguration;
 import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
 import io.github.mrcdnk.coverage.prometheus.PrometheusConfiguration;
 import org.springframework.boot.SpringApplication;
@@ -25,7 +30,9 @@ import org.springframework.context.annotation.ComponentScan;
 
 @SpringBootApplication
 @ComponentScan("io.github.mrcdnk.coverage")
-@EnableConfigurationProperties({RemoteCollectionConfiguration.class, PrometheusConfiguration.class})
+@EnableConfigurationProperties({RemoteCollectionConfiguration.class, PrometheusConfiguration.class, CoverageHistoryConfiguration.class,
+		ExecDataArchiveConfiguration.class, CoverageCaptureConfiguration.class, ClassIndexConfiguration.class,
+		ProviderDiscoveryConfiguration.class})
 public class JacocoCoverageExporter {
 
 	public static void main(String[] args) {
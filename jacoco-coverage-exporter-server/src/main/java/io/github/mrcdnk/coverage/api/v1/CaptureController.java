@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.api.v1;
+
+import io.github.mrcdnk.coverage.capture.CoverageCapture;
+import io.github.mrcdnk.coverage.capture.CoverageCaptures;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queries the execution data captured before the resets, see {@link CoverageCaptures}.
+ */
+@RestController
+@RequestMapping(path = "/v1/captures")
+public class CaptureController {
+
+	private final ProviderRegistry providerRegistry;
+	private final RemoteJacocoAdapter remoteJacocoAdapter;
+	private final CoverageCaptures coverageCaptures;
+
+	public CaptureController(
+			ProviderRegistry providerRegistry,
+			RemoteJacocoAdapter remoteJacocoAdapter,
+			CoverageCaptures coverageCaptures) {
+		this.providerRegistry = providerRegistry;
+		this.remoteJacocoAdapter = remoteJacocoAdapter;
+		this.coverageCaptures = coverageCaptures;
+	}
+
+	@GetMapping
+	public List<CaptureSummary> captures() {
+		return coverageCaptures.getAll().stream()
+				.map(capture -> new CaptureSummary(capture.getName(), capture.getTime(), capture.getProviders(), capture.getPendingProviders()))
+				.toList();
+	}
+
+	/**
+	 * Counters of every captured provider, the captured execution data is analyzed with the first request.
+	 */
+	@GetMapping("/{name}")
+	public Map<String, CaptureResponse> capture(@PathVariable String name) {
+		final CoverageCapture capture = findCapture(name);
+		final Map<String, CaptureResponse> providers = new LinkedHashMap<>();
+
+		for (String providerName : capture.getProviders()) {
+			final RemoteCoverageProvider provider = findProvider(providerName);
+			final CoverageSnapshot snapshot = capture.getSnapshot(providerName, executionData -> remoteJacocoAdapter.analyzeExecutionData(provider, executionData));
+
+			providers.put(providerName, CaptureResponse.of(capture, providerName, snapshot));
+		}
+
+		return providers;
+	}
+
+	private CoverageCapture findCapture(String name) {
+		final CoverageCapture capture = coverageCaptures.get(name);
+
+		if (capture == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown capture [" + name + "]");
+		}
+
+		return capture;
+	}
+
+	private RemoteCoverageProvider findProvider(String name) {
+		final RemoteCoverageProvider provider = providerRegistry.get(name);
+
+		if (provider == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown provider [" + name + "]");
+		}
+
+		return provider;
+	}
+
+	/**
+	 * @param pending providers whose reset is still running, their execution data is added once it finished
+	 */
+	public record CaptureSummary(String name, Instant time, Set<String> providers, Set<String> pending) {}
+
+	/**
+	 * @param capturedClasses number of classes with execution data in the capture
+	 */
+	public record CaptureResponse(Instant time, int capturedClasses, Map<ICoverageNode.CounterEntity, HistoryController.CounterResponse> counters) {
+
+		static CaptureResponse of(CoverageCapture capture, String providerName, CoverageSnapshot snapshot) {
+			final Map<ICoverageNode.CounterEntity, HistoryController.CounterResponse> counters = new EnumMap<>(ICoverageNode.CounterEntity.class);
+
+			for (ICoverageNode.CounterEntity entity : ICoverageNode.CounterEntity.values()) {
+				final ICounter counter = snapshot.getCounter(entity);
+				counters.put(entity, HistoryController.CounterResponse.of(counter));
+			}
+
+			return new CaptureResponse(capture.getTime(), capture.getExecutionData(providerName).getContents().size(), counters);
+		}
+	}
+}
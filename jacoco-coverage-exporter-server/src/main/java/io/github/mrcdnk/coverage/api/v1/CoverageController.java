@@ -16,70 +16,165 @@
 
 package io.github.mrcdnk.coverage.api.v1;
 
+import io.github.mrcdnk.coverage.capture.CoverageCapture;
+import io.github.mrcdnk.coverage.capture.CoverageCaptures;
 import io.github.mrcdnk.coverage.configuration.ApplicationList;
 import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
-import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
-import io.github.mrcdnk.coverage.jmx.JmxJacocoAdapter;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.remote.ProviderResult;
+import io.github.mrcdnk.coverage.remote.ProviderSnapshot;
+import io.github.mrcdnk.coverage.remote.RemoteCollectionScheduler;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.RemoteSnapshotCollector;
 import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.analysis.ICoverageNode;
 import org.jacoco.core.analysis.IPackageCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.management.MalformedObjectNameException;
-import java.io.IOException;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping(path = "/v1")
 public class CoverageController {
 
 	private final RemoteCollectionConfiguration remoteCollectionConfiguration;
-	private final JmxJacocoAdapter jmxJacocoAdapter;
+	private final ProviderRegistry providerRegistry;
+	private final RemoteJacocoAdapter remoteJacocoAdapter;
+	private final ProviderFanOut providerFanOut;
+	private final RemoteSnapshotCollector remoteSnapshotCollector;
+	private final ObjectProvider<RemoteCollectionScheduler> remoteCollectionScheduler;
+	private final CoverageCaptures coverageCaptures;
 
-	public CoverageController(RemoteCollectionConfiguration remoteCollectionConfiguration, JmxJacocoAdapter jmxJacocoAdapter) {
+	public CoverageController(
+			RemoteCollectionConfiguration remoteCollectionConfiguration,
+			ProviderRegistry providerRegistry,
+			RemoteJacocoAdapter remoteJacocoAdapter,
+			ProviderFanOut providerFanOut,
+			RemoteSnapshotCollector remoteSnapshotCollector,
+			ObjectProvider<RemoteCollectionScheduler> remoteCollectionScheduler,
+			CoverageCaptures coverageCaptures) {
 		this.remoteCollectionConfiguration = remoteCollectionConfiguration;
-		this.jmxJacocoAdapter = jmxJacocoAdapter;
+		this.providerRegistry = providerRegistry;
+		this.remoteJacocoAdapter = remoteJacocoAdapter;
+		this.providerFanOut = providerFanOut;
+		this.remoteSnapshotCollector = remoteSnapshotCollector;
+		this.remoteCollectionScheduler = remoteCollectionScheduler;
+		this.coverageCaptures = coverageCaptures;
 	}
 
+	/**
+	 * Dumps and resets all providers concurrently, every provider takes a single call to its agent. The execution data
+	 * dumped right before the reset is kept as a {@link CoverageCapture}. Resets that miss their deadline are not
+	 * cancelled, their execution data is added to the capture once they finished.
+	 *
+	 * @param capture name of the capture of the dumped execution data, defaults to <code>reset-</code> and the time
+	 */
 	@PostMapping(path = "/reset", consumes = MediaType.APPLICATION_JSON_VALUE)
-	public void reset(ApplicationList applicationList) throws IOException, MalformedObjectNameException {
+	public ResetResponse reset(@RequestBody(required = false) ApplicationList applicationList, @RequestParam(required = false) String capture) {
 
 		validateProviders();
 
-		final List<JmxCoverageProvider> relevantProviders;
+		final List<RemoteCoverageProvider> relevantProviders;
 
-		if (applicationList != null && applicationList.applications().length > 0) {
-			relevantProviders = Stream.of(remoteCollectionConfiguration.providers())
+		if (applicationList != null && applicationList.applications() != null && applicationList.applications().length > 0) {
+			relevantProviders = providerRegistry.getProviders().stream()
 					.filter(provider -> Arrays.stream(applicationList.applications())
 							.anyMatch(s -> Objects.equals(provider.name(), s)))
 					.toList();
 		} else {
-			relevantProviders = List.of(remoteCollectionConfiguration.providers());
+			relevantProviders = providerRegistry.getProviders();
 		}
 
-		for (var provider : relevantProviders) {
-			jmxJacocoAdapter.resetCoverage(provider);
-		}
+		final Instant time = Instant.now();
+		final Map<String, ProviderResult<ExecutionDataStore>> results = providerFanOut.executeDestructive("reset", relevantProviders, provider -> {
+			try {
+				return remoteJacocoAdapter.dumpAndReset(provider);
+			} finally {
+				// even a failed reset may have reset the agent
+				remoteSnapshotCollector.invalidate(provider);
+				remoteCollectionScheduler.ifAvailable(scheduler -> scheduler.refresh(provider));
+			}
+		});
+
+		final Map<String, ExecutionDataStore> captured = new LinkedHashMap<>();
+		final Map<String, CompletableFuture<ExecutionDataStore>> pending = new LinkedHashMap<>();
+		final Map<String, ProviderReset> providers = new LinkedHashMap<>();
+
+		results.forEach((name, result) -> {
+			final ProviderReset reset;
+
+			if (result.pending() != null) {
+				// the reset is still running, its execution data is added to the capture once it finished
+				pending.put(name, result.pending());
+				reset = new ProviderReset(ResetStatus.PENDING, true, result.latency().toMillis(), 0, List.of());
+			} else if (result.isSuccess()) {
+				captured.put(name, result.value());
+				reset = new ProviderReset(ResetStatus.RESET, false, result.latency().toMillis(), result.value().getContents().size(), List.of());
+			} else if (result.failure() instanceof PartialResetException partial) {
+				captured.put(name, partial.getExecutionData());
+				reset = new ProviderReset(ResetStatus.PARTIAL, false, result.latency().toMillis(), partial.getExecutionData().getContents().size(),
+						partial.getFailed());
+			} else {
+				reset = new ProviderReset(ResetStatus.FAILED, result.timedOut(), result.latency().toMillis(), 0, List.of());
+			}
+
+			providers.put(name, reset);
+		});
+
+		final String captureName = capture != null && !capture.isBlank() ? capture : "reset-" + time;
+		final CoverageCapture coverageCapture = new CoverageCapture(captureName, time, captured);
+
+		pending.forEach((name, future) -> {
+			coverageCapture.addPending(name);
+			future.whenComplete((executionData, failure) ->
+					coverageCapture.complete(name, failure instanceof PartialResetException partial ? partial.getExecutionData() : executionData));
+		});
+
+		coverageCaptures.add(coverageCapture);
+
+		return new ResetResponse(captureName, providers);
 	}
 
 	@GetMapping("/coverage")
-	public String coverage() throws MalformedObjectNameException, IOException {
+	public String coverage() {
 
 		StringBuilder builder = new StringBuilder();
 
 		validateProviders();
 
-		for (var provider : remoteCollectionConfiguration.providers()) {
-			IBundleCoverage bundleCoverage = jmxJacocoAdapter.fetchCoverage(provider);
+		if (remoteCollectionConfiguration.scheduled()) {
+			return scheduledCoverage();
+		}
+
+		final Map<String, ProviderResult<IBundleCoverage>> results = providerFanOut.execute("coverage",
+				providerRegistry.getProviders(), remoteJacocoAdapter::collectCoverage);
+
+		for (var result : results.entrySet()) {
+			if (!result.getValue().isSuccess()) {
+				builder.append("<h1>").append(result.getKey()).append(" unavailable</h1><br>");
+				continue;
+			}
+
+			IBundleCoverage bundleCoverage = result.getValue().value();
 
-			StringBuilder builder2 = new StringBuilder("<h1>" + provider.name() + " " + calculateInstructionCoverage(bundleCoverage) + "%</h2><br>");
+			StringBuilder builder2 = new StringBuilder("<h1>" + result.getKey() + " " + calculateInstructionCoverage(bundleCoverage) + "%</h2><br>");
 
 			for (IPackageCoverage packageCoverage : bundleCoverage.getPackages()) {
 				builder2.append(packageCoverage.getName())
@@ -96,8 +191,38 @@ public class CoverageController {
 		return builder.toString();
 	}
 
+	/**
+	 * Overview of the snapshots collected in the background, these only contain the totals of each provider.
+	 */
+	private String scheduledCoverage() {
+		StringBuilder builder = new StringBuilder();
+
+		for (var provider : providerRegistry.getProviders()) {
+			ProviderSnapshot providerSnapshot = remoteSnapshotCollector.getSnapshot(provider);
+
+			if (providerSnapshot.snapshot() == null) {
+				builder.append("<h1>").append(provider.name()).append(" ").append(providerSnapshot.status()).append("</h1><br>");
+				continue;
+			}
+
+			builder.append("<h1>")
+					.append(provider.name())
+					.append(" ")
+					.append(providerSnapshot.snapshot().getCounter(ICoverageNode.CounterEntity.INSTRUCTION).getCoveredRatio())
+					.append(", ")
+					.append(providerSnapshot.snapshot().getCounter(ICoverageNode.CounterEntity.BRANCH).getCoveredRatio())
+					.append("</h1>")
+					.append(providerSnapshot.status())
+					.append(", collected ")
+					.append(providerSnapshot.snapshot().getAge().toSeconds())
+					.append("s ago<br>");
+		}
+
+		return builder.toString();
+	}
+
 	private void validateProviders() {
-		if (remoteCollectionConfiguration.providers().length == 0) {
+		if (providerRegistry.getProviders().isEmpty()) {
 			throw new MissingProvidersException("No Providers have been configured, please add providers to collect the coverage from!");
 		}
 	}
@@ -112,4 +237,36 @@ public class CoverageController {
 		return coverageSum/bundle.getPackages().size();
 	}
 
+	/**
+	 * @param capture   name of the capture holding the execution data dumped right before the reset
+	 * @param providers outcome of the reset by provider
+	 */
+	public record ResetResponse(String capture, Map<String, ProviderReset> providers) {}
+
+	/**
+	 * @param latencyMillis   time until the provider answered, or until its deadline if it timed out
+	 * @param capturedClasses number of classes with execution data captured before the reset
+	 * @param failed          replicas of a group that failed to reset, the other replicas have been reset
+	 */
+	public record ProviderReset(ResetStatus status, boolean timedOut, long latencyMillis, int capturedClasses, List<String> failed) {}
+
+	public enum ResetStatus {
+		/**
+		 * The provider has been reset, its execution data has been captured.
+		 */
+		RESET,
+		/**
+		 * Some replicas of the group have been reset and their execution data has been captured, the others failed.
+		 */
+		PARTIAL,
+		/**
+		 * The reset missed the deadline and is still running, its execution data is added to the capture once it finished.
+		 */
+		PENDING,
+		/**
+		 * The reset failed, no execution data of the provider has been captured.
+		 */
+		FAILED
+	}
+
 }
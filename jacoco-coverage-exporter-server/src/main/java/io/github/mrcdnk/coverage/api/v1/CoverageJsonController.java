@@ -0,0 +1,389 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.api.v1;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.remote.ProviderSnapshot;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteSnapshotCollector;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import io.github.mrcdnk.coverage.snapshot.NodeCounters;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Coverage of the providers as JSON: totals per provider, packages, classes and the methods of a single class.
+ * <p>
+ * Responses are written row by row while they are sent. Packages and classes are paginated by name, the cursor of the
+ * next page stays valid across collections. Every response carries a weak ETag derived from the generations of the
+ * served snapshots, a request repeating the ETag of unchanged coverage is answered with <code>304</code> before
+ * anything is written. With scheduled collection this does not touch the providers at all, otherwise only the
+ * requested providers are collected.
+ */
+@RestController
+@RequestMapping(path = "/v1/coverage", produces = MediaType.APPLICATION_JSON_VALUE)
+public class CoverageJsonController {
+
+	static final int MAX_LIMIT = 5000;
+
+	private static final String INSTANCE = Long.toHexString(new SecureRandom().nextLong());
+
+	private final ProviderRegistry providerRegistry;
+	private final RemoteSnapshotCollector remoteSnapshotCollector;
+	private final RemoteAnalysisPool analysisPool;
+	private final JsonFactory jsonFactory;
+
+	public CoverageJsonController(
+			ProviderRegistry providerRegistry,
+			RemoteSnapshotCollector remoteSnapshotCollector,
+			RemoteAnalysisPool analysisPool,
+			ObjectMapper objectMapper) {
+		this.providerRegistry = providerRegistry;
+		this.remoteSnapshotCollector = remoteSnapshotCollector;
+		this.analysisPool = analysisPool;
+		this.jsonFactory = objectMapper.getFactory();
+	}
+
+	/**
+	 * @param providerNames providers to return, all providers if none is given
+	 */
+	@GetMapping("/bundles")
+	public ResponseEntity<StreamingResponseBody> bundles(@RequestParam(name = "provider", required = false) List<String> providerNames, WebRequest request) {
+		final List<RemoteCoverageProvider> providers = providerNames == null || providerNames.isEmpty()
+				? providerRegistry.getProviders()
+				: providerNames.stream().map(this::findProvider).toList();
+
+		final Map<String, ProviderSnapshot> snapshots = remoteSnapshotCollector.getSnapshots(providers);
+		final StringBuilder identity = new StringBuilder();
+
+		snapshots.forEach((name, snapshot) -> identity.append(name).append(':').append(getIdentity(snapshot)).append(';'));
+
+		final String etag = toETag(identity.toString());
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		return stream(etag, json -> {
+			json.writeStartObject();
+			json.writeArrayFieldStart("providers");
+
+			for (Map.Entry<String, ProviderSnapshot> snapshot : snapshots.entrySet()) {
+				json.writeStartObject();
+				json.writeStringField("name", snapshot.getKey());
+				writeSnapshot(json, snapshot.getValue());
+
+				if (snapshot.getValue().snapshot() != null) {
+					writeCounters(json, snapshot.getValue().snapshot()::getCounter);
+				}
+
+				json.writeEndObject();
+			}
+
+			json.writeEndArray();
+			json.writeEndObject();
+		});
+	}
+
+	/**
+	 * @param cursor <code>next</code> of the previous page, the first page if missing
+	 * @param limit  maximum number of packages on the page
+	 */
+	@GetMapping("/{provider}/packages")
+	public ResponseEntity<StreamingResponseBody> packages(@PathVariable String provider, @RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "500") int limit, WebRequest request) {
+		return page(findProvider(provider), CoverageSnapshot::getPackages, null, cursor, limit, request);
+	}
+
+	/**
+	 * @param packageName only return the classes of this package, e.g. <code>com/example</code>
+	 * @param cursor      <code>next</code> of the previous page, the first page if missing
+	 * @param limit       maximum number of classes on the page
+	 */
+	@GetMapping("/{provider}/classes")
+	public ResponseEntity<StreamingResponseBody> classes(@PathVariable String provider, @RequestParam(name = "package", required = false) String packageName,
+			@RequestParam(required = false) String cursor, @RequestParam(defaultValue = "500") int limit, WebRequest request) {
+		return page(findProvider(provider), CoverageSnapshot::getClasses, packageName, cursor, limit, request);
+	}
+
+	/**
+	 * Methods of a single class, only available for providers with an enabled probe index.
+	 *
+	 * @param className VM name of the class, e.g. <code>com/example/Foo</code>
+	 */
+	@GetMapping("/{provider}/methods")
+	public ResponseEntity<StreamingResponseBody> methods(@PathVariable String provider, @RequestParam(name = "class") String className, WebRequest request) {
+		final RemoteCoverageProvider coverageProvider = findProvider(provider);
+
+		if (!coverageProvider.enableProbeIndex()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Method coverage requires the probe index of provider [" + provider + "] to be enabled");
+		}
+
+		final ProviderSnapshot snapshot = getSnapshot(coverageProvider);
+		final String etag = toETag(getIdentity(snapshot) + ':' + className);
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		// same snapshot as the ETag, the probe index may already hold a newer collection
+		final List<NodeCounters> methods = snapshot.snapshot().getMethods(className);
+
+		if (methods == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown class [" + className + "] of provider [" + provider + "]");
+		}
+
+		return stream(etag, json -> {
+			json.writeStartObject();
+			json.writeStringField("provider", provider);
+			json.writeStringField("class", className);
+			writeSnapshot(json, snapshot);
+			json.writeArrayFieldStart("items");
+
+			for (NodeCounters method : methods) {
+				writeRow(json, method.name(), method::getCounter);
+			}
+
+			json.writeEndArray();
+			json.writeEndObject();
+		});
+	}
+
+	private ResponseEntity<StreamingResponseBody> page(RemoteCoverageProvider provider, Function<CoverageSnapshot, CoverageTable> tableGetter,
+			String packageName, String cursor, int limit, WebRequest request) {
+		if (limit < 1 || limit > MAX_LIMIT) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit has to be between 1 and " + MAX_LIMIT);
+		}
+
+		if (!analysisPool.isCollectDetails()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Package and class counters are not collected, enable them with coverage.collect.details");
+		}
+
+		final ProviderSnapshot snapshot = getSnapshot(provider);
+		final String etag = toETag(getIdentity(snapshot));
+
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+
+		final CoverageTable table = tableGetter.apply(snapshot.snapshot());
+		final int[] order = table.getNameOrder();
+		// class names of a package share its prefix, so they are a contiguous range of the ordered rows
+		final String prefix = packageName == null || packageName.isEmpty() ? "" : packageName + '/';
+		final String after = cursor != null ? decodeCursor(cursor) : null;
+
+		final int position = after != null && after.compareTo(prefix) >= 0
+				? findFirst(table, order, after, true)
+				: findFirst(table, order, prefix, false);
+
+		return stream(etag, json -> {
+			json.writeStartObject();
+			json.writeStringField("provider", provider.name());
+			writeSnapshot(json, snapshot);
+			json.writeArrayFieldStart("items");
+
+			int written = 0;
+			String last = null;
+			int current = position;
+
+			for (; current < order.length && written < limit; current++) {
+				final int row = order[current];
+				final String name = table.getName(row);
+
+				if (!name.startsWith(prefix)) {
+					break;
+				}
+
+				if (packageName != null && name.indexOf('/', prefix.length()) >= 0) {
+					// class of a sub package
+					continue;
+				}
+
+				writeRow(json, name, entity -> table.getCounter(row, entity));
+				last = name;
+				written++;
+			}
+
+			json.writeEndArray();
+
+			final boolean more = written == limit && current < order.length && table.getName(order[current]).startsWith(prefix);
+
+			if (more) {
+				json.writeStringField("next", encodeCursor(last));
+			} else {
+				json.writeNullField("next");
+			}
+
+			json.writeEndObject();
+		});
+	}
+
+	/**
+	 * @return position of the first row in name order whose name is greater than, or if not <code>exclusive</code> equal
+	 * to, the given name
+	 */
+	private static int findFirst(CoverageTable table, int[] order, String name, boolean exclusive) {
+		int low = 0;
+		int high = order.length;
+
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int comparison = table.getName(order[middle]).compareTo(name);
+
+			if (comparison < 0 || (exclusive && comparison == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private ProviderSnapshot getSnapshot(RemoteCoverageProvider provider) {
+		final ProviderSnapshot snapshot = remoteSnapshotCollector.getSnapshots(List.of(provider)).get(provider.name());
+
+		if (snapshot.snapshot() == null) {
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Coverage of provider [" + provider.name() + "] is " + snapshot.status());
+		}
+
+		return snapshot;
+	}
+
+	private RemoteCoverageProvider findProvider(String name) {
+		final RemoteCoverageProvider provider = providerRegistry.get(name);
+
+		if (provider == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown provider [" + name + "]");
+		}
+
+		return provider;
+	}
+
+	private static String getIdentity(ProviderSnapshot snapshot) {
+		return snapshot.status() + (snapshot.snapshot() != null ? "-" + snapshot.snapshot().getGeneration() : "");
+	}
+
+	/**
+	 * Weak, since the collection time in the responses may differ for unchanged coverage. Generations are only unique
+	 * within the process, so the ETag contains an id of the process as well. The identity is digested to keep the ETag
+	 * short for many providers.
+	 */
+	private static String toETag(String identity) {
+		final byte[] digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		return "W/\"" + INSTANCE + '-' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + '"';
+	}
+
+	private static String encodeCursor(String name) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decodeCursor(String cursor) {
+		try {
+			return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor [" + cursor + "]");
+		}
+	}
+
+	private ResponseEntity<StreamingResponseBody> stream(String etag, JsonWriter writer) {
+		return ResponseEntity.ok()
+				.eTag(etag)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(out -> {
+					try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+						json.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+						writer.write(json);
+					}
+				});
+	}
+
+	private static void writeSnapshot(JsonGenerator json, ProviderSnapshot snapshot) throws IOException {
+		json.writeStringField("status", snapshot.status().name());
+
+		if (snapshot.snapshot() != null) {
+			json.writeStringField("collectedAt", snapshot.snapshot().getCreatedAt().toString());
+		}
+	}
+
+	private static void writeRow(JsonGenerator json, String name, Function<ICoverageNode.CounterEntity, ICounter> counters) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("name", name);
+		writeCounters(json, counters);
+		json.writeEndObject();
+	}
+
+	private static void writeCounters(JsonGenerator json, Function<ICoverageNode.CounterEntity, ICounter> counters) throws IOException {
+		json.writeObjectFieldStart("counters");
+
+		for (ICoverageNode.CounterEntity entity : ICoverageNode.CounterEntity.values()) {
+			final ICounter counter = counters.apply(entity);
+
+			json.writeObjectFieldStart(entity.name());
+			json.writeNumberField("missed", counter.getMissedCount());
+			json.writeNumberField("covered", counter.getCoveredCount());
+			if (counter.getTotalCount() > 0) {
+				json.writeNumberField("ratio", counter.getCoveredRatio());
+			} else {
+				// nothing to cover, the ratio is NaN which JSON can't represent
+				json.writeNullField("ratio");
+			}
+			json.writeEndObject();
+		}
+
+		json.writeEndObject();
+	}
+
+	@FunctionalInterface
+	private interface JsonWriter {
+		void write(JsonGenerator json) throws IOException;
+	}
+}
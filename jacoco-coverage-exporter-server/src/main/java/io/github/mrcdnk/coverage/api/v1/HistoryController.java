@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.api.v1;
+
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.history.CoverageDelta;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.history.CoverageSample;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteJacocoAdapter;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries the sampled coverage of the providers, see {@link CoverageHistory}.
+ */
+@RestController
+@RequestMapping(path = "/v1/history")
+public class HistoryController {
+
+	private final ProviderRegistry providerRegistry;
+	private final RemoteJacocoAdapter remoteJacocoAdapter;
+	private final CoverageHistory coverageHistory;
+
+	public HistoryController(
+			ProviderRegistry providerRegistry,
+			RemoteJacocoAdapter remoteJacocoAdapter,
+			CoverageHistory coverageHistory) {
+		this.providerRegistry = providerRegistry;
+		this.remoteJacocoAdapter = remoteJacocoAdapter;
+		this.coverageHistory = coverageHistory;
+	}
+
+	@GetMapping("/{provider}")
+	public List<SampleResponse> samples(@PathVariable String provider) {
+		return coverageHistory.getSamples(findProvider(provider).name()).stream()
+				.map(SampleResponse::of)
+				.toList();
+	}
+
+	/**
+	 * @param time ISO-8601 instant, the latest sample taken at or before it is returned
+	 */
+	@GetMapping("/{provider}/at")
+	public SampleResponse at(@PathVariable String provider, @RequestParam Instant time) {
+		final CoverageSample sample = coverageHistory.getSample(findProvider(provider).name(), time);
+
+		if (sample == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No coverage of provider [" + provider + "] has been sampled before " + time);
+		}
+
+		return SampleResponse.of(sample);
+	}
+
+	/**
+	 * Classes, methods and lines that have been covered between the samples of the two points in time.
+	 *
+	 * @param to defaults to the latest sample
+	 */
+	@GetMapping("/{provider}/delta")
+	public CoverageDelta delta(@PathVariable String provider, @RequestParam Instant from, @RequestParam(required = false) Instant to) throws IOException {
+		final RemoteCoverageProvider coverageProvider = findProvider(provider);
+		final CoverageSample toSample = coverageHistory.getSample(coverageProvider.name(), to != null ? to : Instant.now());
+
+		if (toSample == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No coverage of provider [" + provider + "] has been sampled before " + to);
+		}
+
+		final CoverageSample fromSample = coverageHistory.getSample(coverageProvider.name(), from);
+
+		return CoverageDelta.between(remoteJacocoAdapter.getClassIndices(coverageProvider), fromSample, toSample);
+	}
+
+	private RemoteCoverageProvider findProvider(String name) {
+		if (!coverageHistory.isEnabled()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The coverage history is disabled, enable it with coverage.history.enabled");
+		}
+
+		final RemoteCoverageProvider provider = providerRegistry.get(name);
+
+		if (provider == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown provider [" + name + "]");
+		}
+
+		return provider;
+	}
+
+	/**
+	 * @param executedClasses number of classes with at least one executed probe
+	 */
+	public record SampleResponse(Instant time, int executedClasses, Map<ICoverageNode.CounterEntity, CounterResponse> counters) {
+
+		static SampleResponse of(CoverageSample sample) {
+			final Map<ICoverageNode.CounterEntity, CounterResponse> counters = new EnumMap<>(ICoverageNode.CounterEntity.class);
+
+			for (ICoverageNode.CounterEntity entity : ICoverageNode.CounterEntity.values()) {
+				final ICounter counter = sample.getCounter(entity);
+				counters.put(entity, CounterResponse.of(counter));
+			}
+
+			return new SampleResponse(sample.time(), sample.probes().getClassCount(), counters);
+		}
+	}
+
+	/**
+	 * @param ratio covered ratio, <code>null</code> if there is nothing to cover
+	 */
+	public record CounterResponse(int missed, int covered, Double ratio) {
+
+		static CounterResponse of(ICounter counter) {
+			return new CounterResponse(counter.getMissedCount(), counter.getCoveredCount(), counter.getTotalCount() > 0 ? counter.getCoveredRatio() : null);
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.archive;
+
+import io.github.mrcdnk.coverage.configuration.ExecDataArchiveConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.probes.ProbeStore;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the execution data of every provider, so the coverage survives restarts of the applications and of the
+ * exporter.
+ * <p>
+ * The probes of all sessions since the configured epoch are merged with OR into one {@link ProbeStore} per provider. Only classes that gained probes are appended to the provider's {@link SegmentLog}, the appends are written
+ * by a single background thread, so collections never wait for the disk. The same thread compacts the log of a provider
+ * once it spans several segments: all records of the same compaction window are merged into one, so the epoch still
+ * applies with the precision of a window.
+ * <p>
+ * The log of a provider is recovered by the writer as well, until then the archive serves the execution data of the
+ * current session. The log of a removed provider is closed by the writer once its pending appends are written, an
+ * archive of the same provider created in the meantime is recovered only after that.
+ */
+@Service
+public class ExecDataArchive implements InitializingBean, DisposableBean {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ExecDataArchiveConfiguration configuration;
+    private final RemoteCollectionConfiguration remoteCollectionConfiguration;
+
+    private final Map<String, ProviderArchive> archives = new ConcurrentHashMap<>();
+    // removed archives in the order of their removal, the logs of archives of the same provider are closed in that order
+    private final Queue<ProviderArchive> closing = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<Append> appends = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer = Thread.ofPlatform().name("jacoco-archive-writer").daemon(true).unstarted(this::write);
+
+    private volatile boolean running = true;
+
+    public ExecDataArchive(ExecDataArchiveConfiguration configuration, RemoteCollectionConfiguration remoteCollectionConfiguration) {
+        this.configuration = configuration;
+        this.remoteCollectionConfiguration = remoteCollectionConfiguration;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!configuration.enabled()) {
+            return;
+        }
+
+        for (RemoteCoverageProvider provider : remoteCollectionConfiguration.allProviders()) {
+            getArchive(provider.name());
+        }
+
+        writer.start();
+    }
+
+    public boolean isEnabled() {
+        return configuration.enabled();
+    }
+
+    /**
+     * Merges the execution data of the current session into the archive of the provider.
+     *
+     * @return the merged execution data of all archived sessions, or the given execution data if the archive is disabled
+     */
+    public ExecutionDataStore archive(String providerName, ExecutionDataStore executionData) {
+        if (!configuration.enabled()) {
+            return executionData;
+        }
+
+        while (true) {
+            final ProviderArchive archive = getArchive(providerName);
+
+            synchronized (archive) {
+                if (archive.closed) {
+                    // removed concurrently, the next archive recovers the log once it has been closed
+                    continue;
+                }
+
+                final long now = System.currentTimeMillis();
+                final ExecutionDataStore added = archive.merge(executionData);
+
+                if (!added.getContents().isEmpty() && !appends.offer(new Append(archive, now, added))) {
+                    // appended by the writer with its next cycle
+                    archive.unwritten.or(added);
+                    archive.unwrittenTimestamp = now;
+                    log.warn("Archive of provider [" + providerName + "] can't keep up, deferring the append");
+                }
+
+                return archive.recovered ? archive.merged.toExecutionDataStore() : executionData;
+            }
+        }
+    }
+
+    /**
+     * The archive is created under the lock of the map entry of the provider, its log is recovered by the writer.
+     */
+    private ProviderArchive getArchive(String providerName) {
+        final ProviderArchive existing = archives.get(providerName);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        return archives.computeIfAbsent(providerName, name -> {
+            final SegmentLog segmentLog = new SegmentLog(configuration.directory().resolve(name.replaceAll("[^A-Za-z0-9._-]", "_")),
+                    (int) Math.min(Integer.MAX_VALUE, configuration.segmentSize().toBytes()));
+
+            // wakes up the writer to recover the log
+            appends.offer(new Append(null, 0, null));
+
+            return new ProviderArchive(name, segmentLog);
+        });
+    }
+
+    boolean isRecovered(String providerName) {
+        final ProviderArchive archive = archives.get(providerName);
+
+        if (archive == null) {
+            return false;
+        }
+
+        synchronized (archive) {
+            return archive.recovered;
+        }
+    }
+
+    /**
+     * Recovers the log of the archive, unless an archive of the same provider removed before is still being closed.
+     *
+     * @return whether the log of the archive has been recovered
+     */
+    private boolean recoverIfRequired(ProviderArchive archive) throws IOException {
+        if (archive.recovered) {
+            return true;
+        }
+
+        for (ProviderArchive removed : closing) {
+            if (removed == archive) {
+                break;
+            }
+
+            if (removed.name.equals(archive.name)) {
+                return false;
+            }
+        }
+
+        final ProbeStore recovered = new ProbeStore();
+        final long start = System.nanoTime();
+        final long epoch = configuration.epoch() != null ? configuration.epoch().toEpochMilli() : Long.MIN_VALUE;
+
+        try {
+            archive.segmentLog.recover((timestamp, payload) -> {
+                if (timestamp >= epoch) {
+                    recovered.or(read(payload));
+                }
+            });
+        } catch (IOException e) {
+            throw new IOException("Failed to recover the archive of provider [" + archive.name + "]", e);
+        }
+
+        synchronized (archive) {
+            archive.merged.or(recovered);
+            archive.recovered = true;
+        }
+
+        log.info("Recovered " + recovered.size() + " classes of provider [" + archive.name + "] from "
+                + archive.segmentLog.getSegmentCount() + " segments in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+        return true;
+    }
+
+    /**
+     * Closes the archive of a removed provider once its pending appends are written. The files are kept, so the
+     * archive is recovered if the provider comes back. Never blocks.
+     */
+    public void remove(String providerName) {
+        if (!configuration.enabled()) {
+            return;
+        }
+
+        archives.computeIfPresent(providerName, (name, archive) -> {
+            synchronized (archive) {
+                archive.closed = true;
+            }
+
+            closing.add(archive);
+
+            return null;
+        });
+
+        // only wakes up the writer, if the queue is full the log is closed with one of the next cycles anyway
+        appends.offer(new Append(null, 0, null));
+    }
+
+    private void write() {
+        while (running || !appends.isEmpty()) {
+            try {
+                final Append append = appends.poll(1, TimeUnit.SECONDS);
+
+                if (append != null && append.archive() != null) {
+                    append(append);
+                }
+
+                closeRemoved();
+
+                for (ProviderArchive archive : archives.values()) {
+                    if (recoverIfRequired(archive)) {
+                        appendUnwritten(archive);
+                        compactIfRequired(archive);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to write the coverage archive", e);
+            }
+        }
+    }
+
+    /**
+     * Appends of an archive whose log has not been recovered yet are deferred until it has been.
+     */
+    private void append(Append append) throws IOException {
+        final ProviderArchive archive = append.archive();
+
+        if (archive.recovered) {
+            archive.segmentLog.append(append.timestamp(), write(append.executionData()));
+            return;
+        }
+
+        synchronized (archive) {
+            archive.unwritten.or(append.executionData());
+            archive.unwrittenTimestamp = append.timestamp();
+        }
+    }
+
+    private void appendUnwritten(ProviderArchive archive) throws IOException {
+        final ExecutionDataStore unwritten;
+        final long timestamp;
+
+        synchronized (archive) {
+            if (archive.unwritten.size() == 0) {
+                return;
+            }
+
+            unwritten = archive.unwritten.toExecutionDataStore();
+            timestamp = archive.unwrittenTimestamp;
+            archive.unwritten.clear();
+        }
+
+        archive.segmentLog.append(timestamp, write(unwritten));
+    }
+
+    /**
+     * Closes the logs of removed providers whose appends have all been written, no appends are added for them anymore.
+     */
+    private void closeRemoved() throws IOException {
+        final Set<String> waiting = new HashSet<>();
+
+        for (ProviderArchive archive : closing) {
+            if (waiting.contains(archive.name) || appends.stream().anyMatch(append -> append.archive() == archive)) {
+                // archives of the same provider removed later share the log, they wait for this one
+                waiting.add(archive.name);
+                continue;
+            }
+
+            try {
+                recoverIfRequired(archive);
+                appendUnwritten(archive);
+            } finally {
+                close(archive);
+            }
+        }
+    }
+
+    private void close(ProviderArchive archive) {
+        archive.segmentLog.close();
+        closing.remove(archive);
+    }
+
+    private void compactIfRequired(ProviderArchive archive) throws IOException {
+        final long now = System.currentTimeMillis();
+
+        if (archive.segmentLog.getSegmentCount() <= archive.compactedSegments) {
+            return;
+        }
+
+        if (now - archive.lastCompaction < configuration.compactionInterval().toMillis()) {
+            return;
+        }
+
+        final long window = Math.max(1, configuration.compactionWindow().toMillis());
+        final Map<Long, CompactionWindow> windows = new TreeMap<>();
+
+        archive.segmentLog.read((timestamp, payload) ->
+                windows.computeIfAbsent(Math.floorDiv(timestamp, window), start -> new CompactionWindow()).add(timestamp, read(payload)));
+
+        final List<SegmentLog.LogRecord> records = new ArrayList<>(windows.size());
+
+        for (CompactionWindow compactionWindow : windows.values()) {
+            // the record carries the time of its newest session, so an epoch within the window keeps the newer sessions
+            records.add(new SegmentLog.LogRecord(compactionWindow.newest, write(compactionWindow.probes.toExecutionDataStore())));
+        }
+
+        archive.segmentLog.replaceAll(records);
+        archive.lastCompaction = now;
+        archive.compactedSegments = Math.max(1, archive.segmentLog.getSegmentCount());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Compacted archive of provider [" + archive.name + "] to " + records.size() + " records");
+        }
+    }
+
+    private static byte[] write(ExecutionDataStore executionData) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        executionData.accept(new ExecutionDataWriter(bytes));
+
+        return bytes.toByteArray();
+    }
+
+    private static ExecutionDataStore read(byte[] payload) throws IOException {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+        final ExecutionDataReader reader = new ExecutionDataReader(new ByteArrayInputStream(payload));
+
+        reader.setExecutionDataVisitor(executionData);
+        reader.read();
+
+        return executionData;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        appends.offer(new Append(null, 0, null));
+
+        if (writer.isAlive()) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        for (ProviderArchive archive : closing) {
+            close(archive);
+        }
+
+        for (ProviderArchive archive : archives.values()) {
+            archive.segmentLog.close();
+        }
+    }
+
+    /**
+     * @param archive archive to append to, <code>null</code> for a marker that only wakes up the writer
+     */
+    private record Append(ProviderArchive archive, long timestamp, ExecutionDataStore executionData) {}
+
+    private static final class CompactionWindow {
+        private final ProbeStore probes = new ProbeStore();
+        private long newest = Long.MIN_VALUE;
+
+        private void add(long timestamp, ExecutionDataStore executionData) {
+            probes.or(executionData);
+            newest = Math.max(newest, timestamp);
+        }
+    }
+
+    private static final class ProviderArchive {
+        private final String name;
+        private final SegmentLog segmentLog;
+        private final ProbeStore merged = new ProbeStore();
+
+        // guarded by the archive, appends that did not fit into the queue or arrived before the recovery
+        private final ProbeStore unwritten = new ProbeStore();
+        private long unwrittenTimestamp;
+        private boolean closed;
+        // guarded by the archive, only set by the writer
+        private boolean recovered;
+
+        // only used by the writer
+        private int compactedSegments = 1;
+        private long lastCompaction;
+
+        private ProviderArchive(String name, SegmentLog segmentLog) {
+            this.name = name;
+            this.segmentLog = segmentLog;
+        }
+
+        /**
+         * @return copies of the probes of the session for the classes that gained probes, records only carry the probes
+         * of their own session so the epoch can exclude earlier sessions
+         */
+        private ExecutionDataStore merge(ExecutionDataStore executionData) {
+            final ExecutionDataStore added = new ExecutionDataStore();
+
+            for (ExecutionData data : executionData.getContents()) {
+                if (!data.hasHits()) {
+                    continue;
+                }
+
+                if (merged.or(data)) {
+                    added.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+                }
+            }
+
+            return added;
+        }
+    }
+}
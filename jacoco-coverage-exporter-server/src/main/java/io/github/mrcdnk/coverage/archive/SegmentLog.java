@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of records, split into memory mapped segment files of a fixed size.
+ * <p>
+ * Every record consists of its length, a checksum, a timestamp and the payload. Segments are zero filled when they are
+ * created, so a zero length marks the end of a segment. A record that has been torn by a crash fails its checksum and
+ * ends the recovery of its segment.
+ * <p>
+ * Not thread safe, a log is only ever written by a single thread.
+ */
+final class SegmentLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Path> segments = new ArrayList<>();
+
+    private MappedByteBuffer current;
+
+    SegmentLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long timestamp, byte[] payload) throws IOException;
+    }
+
+    record LogRecord(long timestamp, byte[] payload) {}
+
+    /**
+     * Reads all intact records in the order they have been appended, appends continue after the last intact record.
+     */
+    void recover(RecordVisitor visitor) throws IOException {
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+
+        for (Path segment : segments) {
+            current = read(segment, visitor);
+        }
+    }
+
+    /**
+     * Reads all intact records again, e.g. to compact them.
+     */
+    void read(RecordVisitor visitor) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+
+        for (Path segment : segments) {
+            read(segment, visitor);
+        }
+    }
+
+    /**
+     * @return the segment, positioned after its last intact record
+     */
+    private static MappedByteBuffer read(Path segment, RecordVisitor visitor) throws IOException {
+        final MappedByteBuffer buffer = map(segment, Files.size(segment));
+
+        while (buffer.remaining() >= HEADER_SIZE) {
+            buffer.mark();
+
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            final long timestamp = buffer.getLong();
+
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.reset();
+                break;
+            }
+
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+
+            if (checksum(timestamp, payload) != checksum) {
+                buffer.reset();
+                break;
+            }
+
+            visitor.visit(timestamp, payload);
+        }
+
+        return buffer;
+    }
+
+    void append(long timestamp, byte[] payload) throws IOException {
+        if (current == null || current.remaining() < HEADER_SIZE + payload.length) {
+            roll(HEADER_SIZE + payload.length);
+        }
+
+        write(current, timestamp, payload);
+    }
+
+    /**
+     * Writes the records to new segments and deletes all previous segments once they have been flushed.
+     */
+    void replaceAll(List<LogRecord> records) throws IOException {
+        final List<Path> obsolete = new ArrayList<>(segments);
+
+        // the records start in a new segment, so the obsolete ones can be deleted as a whole
+        if (current != null) {
+            current.force();
+            current = null;
+        }
+
+        for (LogRecord record : records) {
+            append(record.timestamp(), record.payload());
+        }
+
+        if (current != null) {
+            current.force();
+        }
+
+        for (Path segment : obsolete) {
+            Files.deleteIfExists(segment);
+        }
+
+        segments.removeAll(obsolete);
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void roll(int minimumSize) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+
+        final long sequence = segments.isEmpty() ? 1 : parseSequence(segments.getLast()) + 1;
+        final Path segment = directory.resolve(String.format("%016d%s", sequence, SEGMENT_SUFFIX));
+
+        current = map(segment, Math.max(segmentSize, minimumSize));
+        segments.add(segment);
+    }
+
+    private static void write(MappedByteBuffer buffer, long timestamp, byte[] payload) {
+        final int start = buffer.position();
+
+        // the length is written last, a record is only visible once it is complete
+        buffer.position(start + Integer.BYTES);
+        buffer.putInt(checksum(timestamp, payload));
+        buffer.putLong(timestamp);
+        buffer.put(payload);
+        buffer.putInt(start, payload.length);
+    }
+
+    private static MappedByteBuffer map(Path segment, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int checksum(long timestamp, byte[] payload) {
+        final CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, timestamp));
+        crc.update(payload);
+
+        return (int) crc.getValue();
+    }
+
+    private static long parseSequence(Path segment) {
+        final String name = segment.getFileName().toString();
+
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public void close() {
+        if (current != null) {
+            current.force();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.capture;
+
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Execution data of a set of providers captured at one point in time, e.g. right before their coverage was reset.
+ * <p>
+ * Capturing only keeps the execution data, it is analyzed once its snapshot is requested for the first time. The
+ * execution data of a provider may still be {@link #getPendingProviders() pending}, e.g. if its reset missed the
+ * deadline of the request, it is added once the reset finished.
+ */
+public final class CoverageCapture {
+
+    private final String name;
+    private final Instant time;
+    private final Map<String, CoverageSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private volatile Map<String, ExecutionDataStore> executionData;
+    private volatile Set<String> pending = Set.of();
+
+    /**
+     * @param executionData execution data by provider name
+     */
+    public CoverageCapture(String name, Instant time, Map<String, ExecutionDataStore> executionData) {
+        this.name = name;
+        this.time = time;
+        this.executionData = Collections.unmodifiableMap(new LinkedHashMap<>(executionData));
+    }
+
+    /**
+     * Marks the execution data of the provider as pending until it is {@link #complete(String, ExecutionDataStore)
+     * completed}.
+     */
+    public synchronized void addPending(String providerName) {
+        final Set<String> updated = new LinkedHashSet<>(pending);
+        updated.add(providerName);
+
+        pending = Collections.unmodifiableSet(updated);
+    }
+
+    /**
+     * @param providerExecutionData execution data of the pending provider, <code>null</code> if it can't be captured
+     *                              anymore
+     */
+    public synchronized void complete(String providerName, ExecutionDataStore providerExecutionData) {
+        if (!pending.contains(providerName)) {
+            return;
+        }
+
+        if (providerExecutionData != null) {
+            final Map<String, ExecutionDataStore> updated = new LinkedHashMap<>(executionData);
+            updated.put(providerName, providerExecutionData);
+
+            executionData = Collections.unmodifiableMap(updated);
+        }
+
+        final Set<String> updated = new LinkedHashSet<>(pending);
+        updated.remove(providerName);
+
+        pending = Collections.unmodifiableSet(updated);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    public Set<String> getProviders() {
+        return executionData.keySet();
+    }
+
+    /**
+     * @return providers whose execution data has not been captured yet
+     */
+    public Set<String> getPendingProviders() {
+        return pending;
+    }
+
+    /**
+     * @return captured execution data of the provider, <code>null</code> if it has not been captured
+     */
+    public ExecutionDataStore getExecutionData(String providerName) {
+        return executionData.get(providerName);
+    }
+
+    /**
+     * @param analysis analyzes the captured execution data of the provider, only called for the first request
+     * @return snapshot of the captured execution data of the provider, <code>null</code> if it has not been captured
+     */
+    public CoverageSnapshot getSnapshot(String providerName, Analysis analysis) {
+        final ExecutionDataStore providerExecutionData = executionData.get(providerName);
+
+        if (providerExecutionData == null) {
+            return null;
+        }
+
+        return snapshots.computeIfAbsent(providerName, name -> {
+            try {
+                return analysis.analyze(providerExecutionData);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to analyze the capture [" + this.name + "] of provider [" + name + "]", e);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    public interface Analysis {
+        CoverageSnapshot analyze(ExecutionDataStore executionData) throws IOException;
+    }
+}
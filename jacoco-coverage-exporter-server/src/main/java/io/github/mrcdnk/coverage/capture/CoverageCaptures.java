@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.capture;
+
+import io.github.mrcdnk.coverage.configuration.CoverageCaptureConfiguration;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The named {@link CoverageCapture}s, in the order they have been taken. Storing a capture under an existing name
+ * replaces the earlier one.
+ */
+@Service
+public class CoverageCaptures {
+
+    private final CoverageCaptureConfiguration configuration;
+    private final Map<String, CoverageCapture> captures = new LinkedHashMap<>();
+
+    public CoverageCaptures(CoverageCaptureConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public synchronized void add(CoverageCapture capture) {
+        captures.remove(capture.getName());
+        captures.put(capture.getName(), capture);
+
+        while (captures.size() > Math.max(1, configuration.maxCaptures())) {
+            captures.remove(captures.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @return the capture, <code>null</code> if there is none with that name
+     */
+    public synchronized CoverageCapture get(String name) {
+        return captures.get(name);
+    }
+
+    public synchronized List<CoverageCapture> getAll() {
+        return new ArrayList<>(captures.values());
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @param enabled    keep a history of the collected snapshots of every provider
+ * @param memory     memory budget of the history of all providers, old samples are thinned out to stay below it
+ * @param maxSamples maximum number of samples kept per provider
+ */
+@ConfigurationProperties(prefix = "coverage.history")
+public record CoverageHistoryConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("64MB") DataSize memory,
+        @DefaultValue("4096") int maxSamples) {}
@@ -0,0 +1,43 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * @param enabled            persist the execution data of every provider and report the coverage of all sessions
+ * @param directory          directory containing the segment logs, one subdirectory per provider
+ * @param segmentSize        size of a single memory mapped segment
+ * @param epoch              execution data archived before this time is ignored, <code>null</code> to use all of it
+ * @param compactionInterval minimum time between two compactions of the segments of a provider
+ * @param compactionWindow   records of the same window are merged by a compaction, the epoch applies with this
+ *                           precision
+ */
+@ConfigurationProperties(prefix = "coverage.archive")
+public record ExecDataArchiveConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("coverage-archive") Path directory,
+        @DefaultValue("16MB") DataSize segmentSize,
+        Instant epoch,
+        @DefaultValue("10m") Duration compactionInterval,
+        @DefaultValue("1h") Duration compactionWindow) {}
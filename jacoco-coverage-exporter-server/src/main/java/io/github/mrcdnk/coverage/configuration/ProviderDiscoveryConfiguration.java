@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * @param file     YAML or properties file listing providers in addition to <code>coverage.collect</code>, with the
+ *                 same <code>providers</code>, <code>tcpProviders</code>, <code>httpProviders</code> and
+ *                 <code>groups</code> keys. <code>null</code> disables the file discovery
+ * @param interval time between two checks of the file for changes
+ */
+@ConfigurationProperties(prefix = "coverage.discovery")
+public record ProviderDiscoveryConfiguration(
+        Path file,
+        @DefaultValue("10s") Duration interval) {}
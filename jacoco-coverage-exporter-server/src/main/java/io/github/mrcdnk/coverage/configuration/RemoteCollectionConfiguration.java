@@ -16,8 +16,47 @@
 
 package io.github.mrcdnk.coverage.configuration;
 
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
 import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * @param providers              providers collected through JMX
+ * @param tcpProviders           providers collected through the tcpserver/tcpclient output of the agent
+ * @param httpProviders          providers collected through the jacocoexec actuator endpoint of the Spring module
+ * @param groups                 applications with several replicas, whose coverage is merged
+ * @param analysisParallelism    number of threads used to analyze class files, values below 1 use all available processors
+ * @param providerTimeout        default deadline for collecting a single provider
+ * @param maxConcurrentProviders maximum number of providers collected at the same time
+ * @param scheduled              collect providers in the background instead of on every request
+ * @param interval               default time between two scheduled collections of a provider
+ * @param jitter                 fraction of the interval by which each scheduled collection is randomly moved
+ * @param details                keep the counters of all packages and classes in every snapshot, these are served by
+ *                               the package and class endpoints of the JSON API
+ */
 @ConfigurationProperties(prefix = "coverage.collect")
-public record RemoteCollectionConfiguration(JmxCoverageProvider[] providers) {}
+public record RemoteCollectionConfiguration(
+        @DefaultValue JmxCoverageProvider[] providers,
+        @DefaultValue TcpCoverageProvider[] tcpProviders,
+        @DefaultValue HttpCoverageProvider[] httpProviders,
+        @DefaultValue ProviderGroup[] groups,
+        @DefaultValue("0") int analysisParallelism,
+        @DefaultValue("10s") Duration providerTimeout,
+        @DefaultValue("16") int maxConcurrentProviders,
+        @DefaultValue("false") boolean scheduled,
+        @DefaultValue("30s") Duration interval,
+        @DefaultValue("0.1") double jitter,
+        @DefaultValue("true") boolean details) {
+
+    public List<RemoteCoverageProvider> allProviders() {
+        return Stream.<RemoteCoverageProvider[]>of(providers, tcpProviders, httpProviders, groups).flatMap(Stream::of).toList();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Providers listed in the file of the {@link FileProviderDiscovery}, bound like the providers of
+ * <code>coverage.collect</code>.
+ */
+public record DiscoveredProviders(
+        @DefaultValue JmxCoverageProvider[] providers,
+        @DefaultValue TcpCoverageProvider[] tcpProviders,
+        @DefaultValue HttpCoverageProvider[] httpProviders,
+        @DefaultValue ProviderGroup[] groups) {
+
+    public List<RemoteCoverageProvider> allProviders() {
+        return Stream.<RemoteCoverageProvider[]>of(providers, tcpProviders, httpProviders, groups).flatMap(Stream::of).toList();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads providers from a YAML or properties file, which uses the same layout as <code>coverage.collect</code> without
+ * the prefix, e.g. a top level <code>tcp-providers</code> list.
+ * <p>
+ * The file is polled instead of watched, because mounted config maps are replaced by swapping a symlink, which file
+ * system watches do not report reliably. A file that can't be read or parsed keeps the previously read providers.
+ */
+public class FileProviderDiscovery implements ProviderDiscovery {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Path file;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+    private final PropertySourceLoader loader;
+
+    private ScheduledFuture<?> poll;
+    private FileTime lastModified;
+    private long lastSize = -1;
+
+    public FileProviderDiscovery(Path file, Duration interval, ScheduledExecutorService scheduler) {
+        this.file = file;
+        this.interval = interval;
+        this.scheduler = scheduler;
+
+        final String fileName = file.getFileName().toString();
+
+        this.loader = fileName.endsWith(".properties") ? new PropertiesPropertySourceLoader() : new YamlPropertySourceLoader();
+    }
+
+    @Override
+    public String name() {
+        return file.toString();
+    }
+
+    @Override
+    public void start(Consumer<Collection<? extends RemoteCoverageProvider>> update) {
+        poll(update);
+
+        final long millis = Math.max(1, interval.toMillis());
+
+        poll = scheduler.scheduleWithFixedDelay(() -> poll(update), millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(Consumer<Collection<? extends RemoteCoverageProvider>> update) {
+        final BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            if (lastModified != null || lastSize == -1) {
+                log.warn("Provider file " + file + " can't be read, keeping the current providers: " + e);
+            }
+
+            lastModified = null;
+            lastSize = -2;
+            return;
+        }
+
+        if (attributes.lastModifiedTime().equals(lastModified) && attributes.size() == lastSize) {
+            return;
+        }
+
+        // a broken file is only reported once, until it is changed again
+        lastModified = attributes.lastModifiedTime();
+        lastSize = attributes.size();
+
+        try {
+            update.accept(read());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read providers from " + file + ", keeping the current providers", e);
+        }
+    }
+
+    private List<RemoteCoverageProvider> read() throws IOException {
+        final List<PropertySource<?>> sources = loader.load(file.toString(), new FileSystemResource(file));
+
+        return new Binder(ConfigurationPropertySources.from(sources))
+                .bindOrCreate("", Bindable.of(DiscoveredProviders.class))
+                .allProviders();
+    }
+
+    @Override
+    public void close() {
+        if (poll != null) {
+            poll.cancel(false);
+        }
+    }
+}
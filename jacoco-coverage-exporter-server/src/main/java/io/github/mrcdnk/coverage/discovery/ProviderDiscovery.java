@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Source of providers that are added and removed while the exporter is running, e.g. from a service registry.
+ * <p>
+ * Implementations are picked up as Spring beans or through {@link java.util.ServiceLoader}, and are started by the
+ * {@link ProviderRegistry} once the exporter is up.
+ */
+public interface ProviderDiscovery extends Closeable {
+
+    /**
+     * @return name of this source, unique among all discoveries
+     */
+    default String name() {
+        return getClass().getName();
+    }
+
+    /**
+     * Starts the discovery. Every call of <code>update</code> replaces all providers this discovery reported before,
+     * providers that did not change keep their state. <code>update</code> may be called from any thread.
+     */
+    void start(Consumer<Collection<? extends RemoteCoverageProvider>> update) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.configuration.ProviderDiscoveryConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All remote providers the exporter currently collects: the ones configured through <code>coverage.collect</code> and
+ * the ones reported by the {@link ProviderDiscovery discoveries}.
+ * <p>
+ * Every discovery reports the complete set of its providers, which is compared with the previous one by name and
+ * definition. Only providers that have been added, removed or changed are announced to the
+ * {@link ProviderRegistryListener listeners}, the state of all other providers is left untouched. A provider name is
+ * owned by the source that registered it first, the same name reported by another source is ignored.
+ */
+@Service
+public class ProviderRegistry implements SmartInitializingSingleton, DisposableBean {
+
+    static final String CONFIGURATION_SOURCE = "coverage.collect";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ProviderDiscoveryConfiguration configuration;
+    private final ProviderFanOut providerFanOut;
+    private final ObjectProvider<ProviderRegistryListener> listeners;
+    private final ObjectProvider<ProviderDiscovery> discoveryBeans;
+
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+    private final List<ProviderDiscovery> discoveries = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+            .name("jacoco-provider-discovery")
+            .daemon(true)
+            .factory());
+
+    private volatile List<RemoteCoverageProvider> providers;
+    private volatile Map<String, RemoteCoverageProvider> providersByName;
+
+    public ProviderRegistry(RemoteCollectionConfiguration remoteCollectionConfiguration, ProviderDiscoveryConfiguration configuration,
+                            ProviderFanOut providerFanOut, ObjectProvider<ProviderRegistryListener> listeners,
+                            ObjectProvider<ProviderDiscovery> discoveryBeans) {
+        this.configuration = configuration;
+        this.providerFanOut = providerFanOut;
+        this.listeners = listeners;
+        this.discoveryBeans = discoveryBeans;
+
+        for (RemoteCoverageProvider provider : remoteCollectionConfiguration.allProviders()) {
+            registrations.put(provider.name(), new Registration(CONFIGURATION_SOURCE, provider));
+        }
+
+        publish();
+    }
+
+    /**
+     * Starts the discoveries once all listeners exist, so none of them misses a provider.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (configuration.file() != null) {
+            discoveries.add(new FileProviderDiscovery(configuration.file(), configuration.interval(), scheduler));
+        }
+
+        discoveryBeans.orderedStream().forEach(discoveries::add);
+        ServiceLoader.load(ProviderDiscovery.class).forEach(discoveries::add);
+
+        for (ProviderDiscovery discovery : discoveries) {
+            try {
+                discovery.start(discovered -> update(discovery.name(), discovered));
+                log.info("Started provider discovery [" + discovery.name() + "]");
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to start provider discovery [" + discovery.name() + "]", e);
+            }
+        }
+    }
+
+    /**
+     * @return all current providers, configured ones first
+     */
+    public List<RemoteCoverageProvider> getProviders() {
+        return providers;
+    }
+
+    /**
+     * @return the current provider with the given name, <code>null</code> if there is none
+     */
+    public RemoteCoverageProvider get(String name) {
+        return providersByName.get(name);
+    }
+
+    public boolean contains(String name) {
+        return providersByName.containsKey(name);
+    }
+
+    /**
+     * Replaces all providers of the given source.
+     *
+     * @param source name of the discovery reporting the providers
+     */
+    public synchronized void update(String source, Collection<? extends RemoteCoverageProvider> sourceProviders) {
+        final Map<String, RemoteCoverageProvider> reported = new LinkedHashMap<>();
+
+        for (RemoteCoverageProvider provider : sourceProviders) {
+            if (reported.putIfAbsent(provider.name(), provider) != null) {
+                log.warn("Provider [" + provider.name() + "] is reported more than once by [" + source + "], using the first one");
+            }
+        }
+
+        final List<RemoteCoverageProvider> removed = new ArrayList<>();
+        final List<RemoteCoverageProvider> added = new ArrayList<>();
+
+        for (Registration registration : registrations.values()) {
+            final RemoteCoverageProvider current = registration.provider();
+
+            if (registration.source().equals(source) && !isSameDefinition(current, reported.get(current.name()))) {
+                removed.add(current);
+            }
+        }
+
+        for (RemoteCoverageProvider provider : removed) {
+            registrations.remove(provider.name());
+            notifyRemoved(provider);
+            scheduleSweep(provider);
+        }
+
+        for (RemoteCoverageProvider provider : reported.values()) {
+            final Registration registration = registrations.get(provider.name());
+
+            if (registration == null) {
+                registrations.put(provider.name(), new Registration(source, provider));
+
+                if (notifyAdded(provider)) {
+                    added.add(provider);
+                } else {
+                    registrations.remove(provider.name());
+                }
+            } else if (!registration.source().equals(source)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Provider [" + provider.name() + "] of [" + source + "] is already registered by [" + registration.source() + "], ignoring it");
+                }
+            }
+        }
+
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            publish();
+
+            log.info("Providers of [" + source + "] changed: " + added.size() + " added, " + removed.size() + " removed, "
+                    + providers.size() + " providers in total");
+        }
+    }
+
+    /**
+     * @return whether all listeners accepted the provider, otherwise it has been removed from all of them again
+     */
+    private boolean notifyAdded(RemoteCoverageProvider provider) {
+        final List<ProviderRegistryListener> notified = new ArrayList<>();
+
+        for (ProviderRegistryListener listener : listeners.orderedStream().toList()) {
+            try {
+                notified.add(listener);
+                listener.providerAdded(provider);
+            } catch (RuntimeException e) {
+                log.warn("Rejected provider [" + provider.name() + "]", e);
+
+                for (ProviderRegistryListener added : notified.reversed()) {
+                    removeFrom(added, provider);
+                }
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void notifyRemoved(RemoteCoverageProvider provider) {
+        for (ProviderRegistryListener listener : listeners.orderedStream().toList().reversed()) {
+            removeFrom(listener, provider);
+        }
+    }
+
+    private void notifySwept(RemoteCoverageProvider provider) {
+        for (ProviderRegistryListener listener : listeners.orderedStream().toList().reversed()) {
+            try {
+                listener.providerSwept(provider);
+            } catch (RuntimeException e) {
+                log.warn("Failed to sweep provider [" + provider.name() + "] from [" + listener.getClass().getSimpleName() + "]", e);
+            }
+        }
+    }
+
+    private void removeFrom(ProviderRegistryListener listener, RemoteCoverageProvider provider) {
+        try {
+            listener.providerRemoved(provider);
+        } catch (RuntimeException e) {
+            log.warn("Failed to remove provider [" + provider.name() + "] from [" + listener.getClass().getSimpleName() + "]", e);
+        }
+    }
+
+    /**
+     * Collections that were running during the removal may have recreated state of the provider, it is dropped again
+     * once they ran into their deadline. If a changed definition has been registered under the same name meanwhile,
+     * only the state of the removed instance is dropped.
+     */
+    private void scheduleSweep(RemoteCoverageProvider provider) {
+        try {
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    final Registration registration = registrations.get(provider.name());
+
+                    if (registration == null) {
+                        notifyRemoved(provider);
+                    } else if (registration.provider() != provider) {
+                        notifySwept(provider);
+                    }
+                }
+            }, providerFanOut.getDeadline(provider).toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    private void publish() {
+        final Map<String, RemoteCoverageProvider> byName = new LinkedHashMap<>();
+
+        for (Registration registration : registrations.values()) {
+            byName.put(registration.provider().name(), registration.provider());
+        }
+
+        providersByName = Map.copyOf(byName);
+        providers = List.copyOf(byName.values());
+    }
+
+    /**
+     * Compares two provider definitions by value. Provider records contain arrays, e.g. the class file locations, which
+     * records only compare by identity.
+     */
+    public static boolean isSameDefinition(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+
+        if (a.getClass().isArray()) {
+            final int length = Array.getLength(a);
+
+            if (length != Array.getLength(b)) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (!isSameDefinition(Array.get(a, i), Array.get(b, i))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        if (!a.getClass().isRecord()) {
+            return Objects.equals(a, b);
+        }
+
+        for (RecordComponent component : a.getClass().getRecordComponents()) {
+            try {
+                if (!isSameDefinition(component.getAccessor().invoke(a), component.getAccessor().invoke(b))) {
+                    return false;
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Failed to compare [" + component.getName() + "] of " + a.getClass().getName(), e);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+
+        for (ProviderDiscovery discovery : discoveries) {
+            try {
+                discovery.close();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to close provider discovery [" + discovery.name() + "]", e);
+            }
+        }
+    }
+
+    private record Registration(String source, RemoteCoverageProvider provider) {}
+}
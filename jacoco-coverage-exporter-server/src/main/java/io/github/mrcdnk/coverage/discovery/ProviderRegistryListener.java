@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+
+/**
+ * Notified by the {@link ProviderRegistry} about providers that have been added or removed at runtime. The providers
+ * configured through <code>coverage.collect</code> are not announced, they are present from the start.
+ * <p>
+ * Listeners are called in their {@link org.springframework.core.annotation.Order order} for added providers and in the
+ * reverse order for removed ones. A changed provider is removed and added again.
+ */
+public interface ProviderRegistryListener {
+
+    /**
+     * @throws RuntimeException if the provider can't be used, it is removed again then
+     */
+    default void providerAdded(RemoteCoverageProvider provider) {
+    }
+
+    /**
+     * Drops everything kept for the provider. Called a second time once collections that were still running at the
+     * removal have timed out, so this must tolerate providers it already dropped.
+     */
+    void providerRemoved(RemoteCoverageProvider provider);
+
+    /**
+     * Called instead of the second {@link #providerRemoved(RemoteCoverageProvider)} if a changed definition has been
+     * registered under the same name meanwhile. Only state created for the given instance may be dropped, the state of
+     * the current provider of that name has to be kept.
+     */
+    default void providerSwept(RemoteCoverageProvider provider) {
+    }
+}
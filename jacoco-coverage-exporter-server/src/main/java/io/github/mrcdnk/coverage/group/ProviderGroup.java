@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.group;
+
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * One application running as several replicas. The execution data of all replicas is merged before it is analyzed
+ * once, so the coverage is reported for the application as a whole.
+ * <p>
+ * Name and class files of the replicas are taken from the group, the replicas only need their endpoint.
+ *
+ * @param replicas        replicas collected through JMX
+ * @param tcpReplicas     replicas collected from agents running with <code>output=tcpserver</code>
+ * @param replicaDeadline deadline for collecting a single replica, defaults to half of the deadline of the group. Resets
+ *                        wait for every replica, since a replica that missed the deadline might still be reset
+ * @param maxReplicaAge   how long the execution data of a replica is used after it failed to answer
+ */
+public record ProviderGroup(
+        String name,
+        @DefaultValue JmxCoverageProvider[] replicas,
+        @DefaultValue TcpCoverageProvider[] tcpReplicas,
+        String[] classesLocations,
+        @DefaultValue("true") boolean enableProbeIndex,
+        Duration deadline,
+        Duration interval,
+        Duration replicaDeadline,
+        @DefaultValue("5m") Duration maxReplicaAge
+) implements RemoteCoverageProvider { }
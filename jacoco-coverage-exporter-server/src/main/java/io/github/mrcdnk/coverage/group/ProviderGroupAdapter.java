@@ -0,0 +1,339 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.group;
+
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxJacocoAdapter;
+import io.github.mrcdnk.coverage.probes.ProbeStore;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.remote.AbstractRemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.remote.ProviderResult;
+import io.github.mrcdnk.coverage.remote.ProviderStatus;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpJacocoAdapter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects all replicas of a {@link ProviderGroup} in parallel and merges their execution data by class id.
+ * <p>
+ * The last execution data of every replica is kept as a packed {@link ProbeStore}. A replica that fails or misses its
+ * deadline contributes its last execution data for up to {@link ProviderGroup#maxReplicaAge()}, so single replicas
+ * neither block nor shrink the coverage of the group. A group only fails if none of its replicas has any execution
+ * data.
+ */
+@Service
+public class ProviderGroupAdapter extends AbstractRemoteJacocoAdapter<ProviderGroup> {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final JmxJacocoAdapter jmxJacocoAdapter;
+    private final TcpJacocoAdapter tcpJacocoAdapter;
+    private final ProviderFanOut providerFanOut;
+
+    private final Map<String, GroupReplicas> replicas = new ConcurrentHashMap<>();
+    private final Map<String, ReplicaState> replicaStates = new ConcurrentHashMap<>();
+
+    public ProviderGroupAdapter(BundleCoverageCache bundleCoverageCache, RemoteAnalysisPool analysisPool, CoverageHistory coverageHistory,
+                                ExecDataArchive execDataArchive, JmxJacocoAdapter jmxJacocoAdapter, TcpJacocoAdapter tcpJacocoAdapter,
+                                ProviderFanOut providerFanOut, RemoteCollectionConfiguration remoteCollectionConfiguration) {
+        super(bundleCoverageCache, analysisPool, coverageHistory, execDataArchive);
+        this.jmxJacocoAdapter = jmxJacocoAdapter;
+        this.tcpJacocoAdapter = tcpJacocoAdapter;
+        this.providerFanOut = providerFanOut;
+
+        // fail on startup instead of on the first collection
+        for (ProviderGroup group : remoteCollectionConfiguration.groups()) {
+            getReplicas(group);
+        }
+    }
+
+    @Override
+    public void resetCoverage(ProviderGroup group) throws IOException {
+        final Map<String, ProviderResult<Boolean>> results = providerFanOut.executeDestructiveNested("reset", getReplicas(group), replica -> {
+            switch (replica) {
+                case JmxCoverageProvider jmx -> jmxJacocoAdapter.resetCoverage(jmx);
+                case TcpCoverageProvider tcp -> tcpJacocoAdapter.resetCoverage(tcp);
+                default -> throw new IllegalArgumentException("Unsupported replica type [" + replica.getClass().getName() + "]");
+            }
+
+            return Boolean.TRUE;
+        });
+
+        final List<String> reset = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+
+        results.forEach((name, result) -> {
+            // the kept execution data predates the reset
+            replicaStates.remove(name);
+
+            if (result.isSuccess()) {
+                reset.add(name);
+            } else {
+                failed.add(name);
+                failures.add(result.failure());
+            }
+        });
+
+        checkReset(group, null, reset, failed, failures);
+    }
+
+    /**
+     * Dumps and resets all replicas concurrently. Replicas that have been reset are not rolled back if others failed,
+     * their merged execution data is returned through a {@link PartialResetException} instead.
+     */
+    @Override
+    protected ExecutionDataStore fetchAndResetExecutionData(ProviderGroup group) throws IOException {
+        final Map<String, ProviderResult<ExecutionDataStore>> results = providerFanOut.executeDestructiveNested("dump-reset", getReplicas(group), replica -> switch (replica) {
+            case JmxCoverageProvider jmx -> jmxJacocoAdapter.fetchAndResetSessionExecutionData(jmx);
+            case TcpCoverageProvider tcp -> tcpJacocoAdapter.fetchAndResetSessionExecutionData(tcp);
+            default -> throw new IllegalArgumentException("Unsupported replica type [" + replica.getClass().getName() + "]");
+        });
+
+        final ProbeStore merged = new ProbeStore();
+        final List<String> reset = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+
+        results.forEach((name, result) -> {
+            // the kept execution data predates the reset
+            replicaStates.remove(name);
+
+            if (result.isSuccess()) {
+                merged.or(result.value());
+                reset.add(name);
+            } else {
+                failed.add(name);
+                failures.add(result.failure());
+            }
+        });
+
+        final ExecutionDataStore executionData = merged.toExecutionDataStore();
+        checkReset(group, executionData, reset, failed, failures);
+
+        return executionData;
+    }
+
+    /**
+     * @throws PartialResetException if only some of the replicas have been reset
+     * @throws IOException           if none of the replicas has been reset
+     */
+    private static void checkReset(ProviderGroup group, ExecutionDataStore executionData, List<String> reset, List<String> failed,
+                                   List<Throwable> failures) throws IOException {
+        if (failed.isEmpty()) {
+            return;
+        }
+
+        final IOException exception = reset.isEmpty()
+                ? new IOException("Failed to reset all replicas " + failed + " of group [" + group.name() + "]")
+                : new PartialResetException("Failed to reset replicas " + failed + " of group [" + group.name() + "], "
+                        + reset.size() + " replicas have been reset", executionData, reset, failed);
+
+        for (Throwable failure : failures) {
+            exception.addSuppressed(failure);
+        }
+
+        throw exception;
+    }
+
+    @Override
+    protected ExecutionDataStore fetchExecutionData(ProviderGroup group, CollectionCycle cycle) throws IOException {
+        // the phases of all replicas are recorded for the group, replicas are not exported on their own
+        final Map<String, ProviderResult<ExecutionDataStore>> results = providerFanOut.executeNested("fetch", getReplicas(group), getReplicaDeadline(group), replica -> switch (replica) {
+            case JmxCoverageProvider jmx -> jmxJacocoAdapter.fetchSessionExecutionData(jmx, cycle);
+            case TcpCoverageProvider tcp -> tcpJacocoAdapter.fetchSessionExecutionData(tcp, cycle);
+            default -> throw new IllegalArgumentException("Unsupported replica type [" + replica.getClass().getName() + "]");
+        });
+
+        final long mergeStart = System.nanoTime();
+        final ProbeStore merged = new ProbeStore();
+        int contributing = 0;
+
+        for (Map.Entry<String, ProviderResult<ExecutionDataStore>> result : results.entrySet()) {
+            final ReplicaState state = replicaStates.compute(result.getKey(), (name, previous) -> update(group, name, previous, result.getValue()));
+
+            if (state.probes() != null) {
+                merged.or(state.probes());
+                contributing++;
+            }
+        }
+
+        if (contributing == 0) {
+            throw new IOException("None of the " + results.size() + " replicas of group [" + group.name() + "] answered");
+        }
+
+        final ExecutionDataStore executionData = merged.toExecutionDataStore();
+        cycle.record(CollectionCycle.Phase.MERGE, mergeStart);
+
+        return executionData;
+    }
+
+    /**
+     * @return number of replicas of the group that are in the given state after the latest collection
+     */
+    public int getReplicaCount(ProviderGroup group, ProviderStatus status) {
+        int count = 0;
+
+        for (RemoteCoverageProvider replica : getReplicas(group)) {
+            final ReplicaState state = replicaStates.get(replica.name());
+
+            if ((state != null ? state.status() : ProviderStatus.PENDING) == status) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Validates the replicas of a group added at runtime.
+     */
+    @Override
+    public void register(ProviderGroup group) {
+        getReplicas(group);
+    }
+
+    /**
+     * Closes the connections of all replicas and drops their last execution data.
+     */
+    @Override
+    public void evict(ProviderGroup group) {
+        final GroupReplicas groupReplicas = replicas.remove(group.name());
+
+        if (groupReplicas != null) {
+            for (RemoteCoverageProvider replica : groupReplicas.replicas()) {
+                switch (replica) {
+                    case JmxCoverageProvider jmx -> jmxJacocoAdapter.evict(jmx);
+                    case TcpCoverageProvider tcp -> tcpJacocoAdapter.evict(tcp);
+                    default -> throw new IllegalArgumentException("Unsupported replica type [" + replica.getClass().getName() + "]");
+                }
+
+                replicaStates.remove(replica.name());
+            }
+        }
+
+        super.evict(group);
+    }
+
+    /**
+     * Drops the replicas only if they have been created for the given instance, their execution data belongs to the
+     * replica names and is kept.
+     */
+    @Override
+    public void sweep(ProviderGroup group) {
+        final GroupReplicas groupReplicas = replicas.get(group.name());
+
+        if (groupReplicas != null && groupReplicas.group() == group && replicas.remove(group.name(), groupReplicas)) {
+            for (RemoteCoverageProvider replica : groupReplicas.replicas()) {
+                switch (replica) {
+                    case JmxCoverageProvider jmx -> jmxJacocoAdapter.sweep(jmx);
+                    case TcpCoverageProvider tcp -> tcpJacocoAdapter.sweep(tcp);
+                    default -> throw new IllegalArgumentException("Unsupported replica type [" + replica.getClass().getName() + "]");
+                }
+            }
+        }
+
+        super.sweep(group);
+    }
+
+    private ReplicaState update(ProviderGroup group, String replicaName, ReplicaState previous, ProviderResult<ExecutionDataStore> result) {
+        if (result.isSuccess()) {
+            return new ReplicaState(ProviderStatus.UP, ProbeStore.of(result.value()), System.nanoTime());
+        }
+
+        if (previous != null && previous.probes() != null
+                && System.nanoTime() - previous.fetchedAtNanos() <= group.maxReplicaAge().toNanos()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replica [" + replicaName + "] failed, using its execution data of an earlier collection: " + result.failure());
+            }
+
+            return new ReplicaState(ProviderStatus.STALE, previous.probes(), previous.fetchedAtNanos());
+        }
+
+        log.warn("Replica [" + replicaName + "] failed and is left out of group [" + group.name() + "]: " + result.failure());
+
+        return new ReplicaState(ProviderStatus.FAILED, null, previous != null ? previous.fetchedAtNanos() : System.nanoTime());
+    }
+
+    private Duration getReplicaDeadline(ProviderGroup group) {
+        return group.replicaDeadline() != null ? group.replicaDeadline() : providerFanOut.getDeadline(group).dividedBy(2);
+    }
+
+    /**
+     * A group whose definition changed at runtime gets new replicas, even if a collection of its previous definition
+     * recreated the old ones after the removal.
+     */
+    private List<RemoteCoverageProvider> getReplicas(ProviderGroup group) {
+        return replicas.compute(group.name(), (name, current) -> {
+            if (current != null && current.group() == group) {
+                return current;
+            }
+
+
+            final List<RemoteCoverageProvider> groupReplicas = new ArrayList<>();
+
+            for (JmxCoverageProvider replica : group.replicas()) {
+                groupReplicas.add(new JmxCoverageProvider(getReplicaName(group, replica.name(), replica.host(), replica.port()),
+                        replica.host(), replica.port(), group.classesLocations(), false, null, null));
+            }
+
+            for (TcpCoverageProvider replica : group.tcpReplicas()) {
+                if (replica.output() != TcpCoverageProvider.AgentOutput.TCPSERVER) {
+                    // a tcpclient provider already merges all agents connecting to it
+                    throw new IllegalArgumentException("Replicas of group [" + name + "] must use output tcpserver, use a tcpclient provider for all replicas instead");
+                }
+
+                groupReplicas.add(new TcpCoverageProvider(getReplicaName(group, replica.name(), replica.host(), replica.port()),
+                        replica.host(), replica.port(), group.classesLocations(), false, replica.output(), replica.timeout(), null, null));
+            }
+
+            return new GroupReplicas(group, List.copyOf(groupReplicas));
+        }).replicas();
+    }
+
+    private static String getReplicaName(ProviderGroup group, String name, String host, int port) {
+        return group.name() + '/' + (name != null ? name : host + ':' + port);
+    }
+
+    /**
+     * @param probes last execution data of the replica, <code>null</code> if it must not be used anymore
+     */
+    private record ReplicaState(ProviderStatus status, ProbeStore probes, long fetchedAtNanos) {}
+
+    /**
+     * @param group instance the replicas have been created for
+     */
+    private record GroupReplicas(ProviderGroup group, List<RemoteCoverageProvider> replicas) {}
+}
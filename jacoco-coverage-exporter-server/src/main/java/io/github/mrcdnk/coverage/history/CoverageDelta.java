@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.history;
+
+import io.github.mrcdnk.coverage.index.ClassProbeIndex;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classes, methods and lines that have been covered between two samples.
+ * <p>
+ * Lines are the lines of the class itself, lines of Kotlin inline functions are not attributed to their declaring class.
+ *
+ * @param from    time of the earlier sample, <code>null</code> if there is no sample before the requested time
+ * @param to      time of the later sample
+ * @param classes classes with new coverage, ordered by name
+ */
+public record CoverageDelta(Instant from, Instant to, List<ClassDelta> classes) {
+
+    /**
+     * @param from earlier sample or <code>null</code> to compare with no coverage at all
+     */
+    public static CoverageDelta between(Collection<ClassProbeIndex> indices, CoverageSample from, CoverageSample to) {
+        final Map<Long, ClassProbeIndex> indexById = new HashMap<>();
+
+        for (ClassProbeIndex index : indices) {
+            indexById.putIfAbsent(index.getClassId(), index);
+        }
+
+        final Map<Long, boolean[]> before = from != null ? from.probes().decode() : Map.of();
+        final List<ClassDelta> classes = new ArrayList<>();
+
+        for (Map.Entry<Long, boolean[]> after : to.probes().decode().entrySet()) {
+            final ClassProbeIndex index = indexById.get(after.getKey());
+            final boolean[] previous = before.get(after.getKey());
+
+            if (index == null || Arrays.equals(previous, after.getValue())) {
+                continue;
+            }
+
+            final ClassDelta delta = ClassDelta.of(index, previous, after.getValue());
+
+            if (delta.newlyCovered() || !delta.methods().isEmpty() || delta.lines().length > 0) {
+                classes.add(delta);
+            }
+        }
+
+        classes.sort(Comparator.comparing(ClassDelta::name));
+
+        return new CoverageDelta(from != null ? from.time() : null, to.time(), classes);
+    }
+
+    /**
+     * @param newlyCovered whether the class has not been covered at all before
+     * @param methods      name and descriptor of the newly covered methods
+     * @param lines        newly covered source lines
+     */
+    public record ClassDelta(String name, boolean newlyCovered, List<String> methods, int[] lines) {
+
+        static ClassDelta of(ClassProbeIndex index, boolean[] before, boolean[] after) {
+            final List<String> methods = new ArrayList<>();
+
+            for (int method = 0; method < index.getMethodCount(); method++) {
+                if (index.isMethodCovered(method, after) && !index.isMethodCovered(method, before)) {
+                    methods.add(index.getMethodName(method) + index.getMethodDesc(method));
+                }
+            }
+
+            final ClassProbeIndex.ClassCounters countersBefore = index.evaluate(before);
+            final ClassProbeIndex.ClassCounters countersAfter = index.evaluate(after);
+            final int[] lines = new int[countersAfter.lines().length];
+            int newLines = 0;
+
+            for (int i = 0; i < lines.length; i++) {
+                if (countersAfter.lineCovered()[i] > 0 && countersBefore.lineCovered()[i] == 0) {
+                    lines[newLines++] = countersAfter.lines()[i];
+                }
+            }
+
+            return new ClassDelta(index.getClassName(), before == null, methods, Arrays.copyOf(lines, newLines));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.history;
+
+import io.github.mrcdnk.coverage.configuration.CoverageHistoryConfiguration;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Samples every collected snapshot of the remote providers, so the coverage can be queried for any point in time.
+ * <p>
+ * The samples of all providers share one memory budget. If it is exceeded, the provider retaining the most memory is
+ * downsampled.
+ */
+@Service
+public class CoverageHistory {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final CoverageHistoryConfiguration configuration;
+    private final Map<String, CoverageTimeline> timelines = new ConcurrentHashMap<>();
+
+    public CoverageHistory(CoverageHistoryConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Drops all samples of a removed provider.
+     */
+    public void remove(String providerName) {
+        timelines.remove(providerName);
+    }
+
+    public boolean isEnabled() {
+        return configuration.enabled();
+    }
+
+    /**
+     * Adds a sample of the snapshot and the probes it has been computed from.
+     */
+    public void record(String providerName, CoverageSnapshot snapshot, ExecutionDataStore executionData) {
+        if (!configuration.enabled()) {
+            return;
+        }
+
+        final CoverageTimeline timeline = timelines.computeIfAbsent(providerName, name -> new CoverageTimeline(configuration.maxSamples()));
+        final CoverageSample latest = timeline.latest();
+        final ProbeBitmap probes = ProbeBitmap.of(executionData).dedupe(latest != null ? latest.probes() : null);
+
+        timeline.add(CoverageSample.of(snapshot, probes));
+
+        enforceBudget(snapshot.getCreatedAt());
+    }
+
+    /**
+     * @return the latest sample of the provider taken at or before the given time, <code>null</code> if there is none
+     */
+    public CoverageSample getSample(String providerName, Instant time) {
+        final CoverageTimeline timeline = timelines.get(providerName);
+
+        return timeline != null ? timeline.at(time) : null;
+    }
+
+    public List<CoverageSample> getSamples(String providerName) {
+        final CoverageTimeline timeline = timelines.get(providerName);
+
+        return timeline != null ? timeline.getSamples() : List.of();
+    }
+
+    /**
+     * @return estimated memory retained by the samples of all providers
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+
+        for (CoverageTimeline timeline : timelines.values()) {
+            bytes += timeline.getSizeInBytes();
+        }
+
+        return bytes;
+    }
+
+    private synchronized void enforceBudget(Instant now) {
+        final long budget = configuration.memory().toBytes();
+        long bytes = getSizeInBytes();
+        int thinned = 0;
+
+        while (bytes > budget) {
+            CoverageTimeline largest = null;
+
+            for (CoverageTimeline timeline : timelines.values()) {
+                if (timeline.size() > 1 && (largest == null || timeline.getSizeInBytes() > largest.getSizeInBytes())) {
+                    largest = timeline;
+                }
+            }
+
+            if (largest == null || !largest.thin(now)) {
+                break;
+            }
+
+            bytes = getSizeInBytes();
+            thinned++;
+        }
+
+        if (thinned > 0 && log.isDebugEnabled()) {
+            log.debug("Thinned out " + thinned + " coverage samples, history retains " + bytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.history;
+
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.SnapshotCounter;
+import org.jacoco.core.analysis.ICoverageNode;
+
+import java.time.Instant;
+
+/**
+ * Counters and probes of a provider at one point in time.
+ *
+ * @param missed  missed counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+ * @param covered covered counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+ */
+public record CoverageSample(Instant time, int[] missed, int[] covered, ProbeBitmap probes) {
+
+    /**
+     * Estimated size of a sample without its probes.
+     */
+    static final int SAMPLE_OVERHEAD = 96 + 2 * 4 * ICoverageNode.CounterEntity.values().length;
+
+    public static CoverageSample of(CoverageSnapshot snapshot, ProbeBitmap probes) {
+        final ICoverageNode.CounterEntity[] entities = ICoverageNode.CounterEntity.values();
+        final int[] missed = new int[entities.length];
+        final int[] covered = new int[entities.length];
+
+        for (ICoverageNode.CounterEntity entity : entities) {
+            missed[entity.ordinal()] = snapshot.getCounter(entity).getMissedCount();
+            covered[entity.ordinal()] = snapshot.getCounter(entity).getCoveredCount();
+        }
+
+        return new CoverageSample(snapshot.getCreatedAt(), missed, covered, probes);
+    }
+
+    public SnapshotCounter getCounter(ICoverageNode.CounterEntity counterEntity) {
+        return new SnapshotCounter(missed[counterEntity.ordinal()], covered[counterEntity.ordinal()]);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.history;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the samples of a single provider, ordered by time.
+ * <p>
+ * A full buffer does not overwrite its oldest sample, instead one sample is thinned out: the sample whose removal
+ * leaves the smallest gap relative to its age. Recent samples therefore stay dense while old ones are downsampled, so
+ * the buffer covers the whole lifetime of the exporter. The latest sample is never removed.
+ */
+final class CoverageTimeline {
+
+    private final CoverageSample[] samples;
+    private int head;
+    private int size;
+    private long sizeInBytes;
+
+    CoverageTimeline(int capacity) {
+        this.samples = new CoverageSample[Math.max(2, capacity)];
+    }
+
+    synchronized void add(CoverageSample sample) {
+        if (size > 0 && sample.time().isBefore(get(size - 1).time())) {
+            return;
+        }
+
+        if (size == samples.length) {
+            thin(sample.time());
+        }
+
+        samples[(head + size) % samples.length] = sample;
+        size++;
+        recount();
+    }
+
+    /**
+     * @return the latest sample taken at or before the given time, <code>null</code> if there is none
+     */
+    synchronized CoverageSample at(Instant time) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (!get(i).time().isAfter(time)) {
+                return get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the latest sample, <code>null</code> if there is none
+     */
+    synchronized CoverageSample latest() {
+        return size == 0 ? null : get(size - 1);
+    }
+
+    synchronized List<CoverageSample> getSamples() {
+        final List<CoverageSample> result = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            result.add(get(i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes one sample, the oldest if only two are left.
+     *
+     * @return <code>false</code> if only the latest sample is left
+     */
+    synchronized boolean thin(Instant now) {
+        if (size < 2) {
+            return false;
+        }
+
+        int victim = 0;
+
+        if (size > 2) {
+            double minScore = Double.MAX_VALUE;
+
+            for (int i = 1; i < size - 1; i++) {
+                final long gap = get(i + 1).time().toEpochMilli() - get(i - 1).time().toEpochMilli();
+                final long age = Math.max(1, now.toEpochMilli() - get(i).time().toEpochMilli());
+                final double score = (double) gap / age;
+
+                if (score < minScore) {
+                    minScore = score;
+                    victim = i;
+                }
+            }
+        }
+
+        for (int i = victim; i > 0; i--) {
+            set(i, get(i - 1));
+        }
+
+        samples[head] = null;
+        head = (head + 1) % samples.length;
+        size--;
+        recount();
+
+        return true;
+    }
+
+    /**
+     * @return estimated memory retained by the samples, probes shared by consecutive samples are counted once
+     */
+    synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void recount() {
+        long bytes = 0;
+        ProbeBitmap previous = null;
+
+        for (int i = 0; i < size; i++) {
+            final CoverageSample sample = get(i);
+
+            bytes += CoverageSample.SAMPLE_OVERHEAD;
+
+            if (sample.probes() != previous) {
+                bytes += sample.probes().getSizeInBytes();
+                previous = sample.probes();
+            }
+        }
+
+        sizeInBytes = bytes;
+    }
+
+    private CoverageSample get(int i) {
+        return samples[(head + i) % samples.length];
+    }
+
+    private void set(int i, CoverageSample sample) {
+        samples[(head + i) % samples.length] = sample;
+    }
+}
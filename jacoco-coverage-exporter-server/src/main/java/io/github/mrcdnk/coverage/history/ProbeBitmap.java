@@ -0,0 +1,143 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.history;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflated probe bits of all executed classes of one execution data dump.
+ * <p>
+ * Classes are written in the order of their ids and classes without a single set probe are left out, so two dumps with
+ * the same probes result in the same bytes.
+ */
+public final class ProbeBitmap {
+
+    public static final ProbeBitmap EMPTY = of(new ExecutionDataStore());
+
+    private final int classCount;
+    private final byte[] compressed;
+
+    private ProbeBitmap(int classCount, byte[] compressed) {
+        this.classCount = classCount;
+        this.compressed = compressed;
+    }
+
+    public static ProbeBitmap of(ExecutionDataStore executionData) {
+        final List<ExecutionData> executed = new ArrayList<>();
+
+        for (ExecutionData data : executionData.getContents()) {
+            if (data.hasHits()) {
+                executed.add(data);
+            }
+        }
+
+        executed.sort(Comparator.comparingLong(ExecutionData::getId));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(executed.size());
+
+            for (ExecutionData data : executed) {
+                final boolean[] probes = data.getProbes();
+
+                out.writeLong(data.getId());
+                out.writeInt(probes.length);
+                out.write(pack(probes));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+
+        return new ProbeBitmap(executed.size(), bytes.toByteArray());
+    }
+
+    /**
+     * @return this bitmap if it contains the same probes as the given one, otherwise the given one
+     */
+    public ProbeBitmap dedupe(ProbeBitmap previous) {
+        return previous != null && Arrays.equals(previous.compressed, compressed) ? previous : this;
+    }
+
+    /**
+     * @return probes of all executed classes by class id
+     */
+    public Map<Long, boolean[]> decode() {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+            final int classes = in.readInt();
+            final Map<Long, boolean[]> probes = HashMap.newHashMap(classes);
+
+            for (int i = 0; i < classes; i++) {
+                final long id = in.readLong();
+                final boolean[] classProbes = new boolean[in.readInt()];
+                final byte[] packed = new byte[(classProbes.length + 7) >>> 3];
+
+                in.readFully(packed);
+
+                for (int probe = 0; probe < classProbes.length; probe++) {
+                    classProbes[probe] = (packed[probe >>> 3] & (1 << (probe & 7))) != 0;
+                }
+
+                probes.put(id, classProbes);
+            }
+
+            return probes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public int getSizeInBytes() {
+        return compressed.length;
+    }
+
+    private static byte[] pack(boolean[] probes) {
+        final byte[] packed = new byte[(probes.length + 7) >>> 3];
+
+        for (int probe = 0; probe < probes.length; probe++) {
+            if (probes[probe]) {
+                packed[probe >>> 3] |= (byte) (1 << (probe & 7));
+            }
+        }
+
+        return packed;
+    }
+}
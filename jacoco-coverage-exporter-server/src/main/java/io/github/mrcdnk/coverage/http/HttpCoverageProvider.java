@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.http;
+
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Provider whose execution data is pulled from the <code>jacocoexec</code> actuator endpoint of the Spring module
+ * running inside the application.
+ *
+ * @param url      base url of the actuator endpoints of the application
+ * @param timeout  connect and read timeout for a single request
+ * @param deadline maximum time for a whole collection, defaults to <code>coverage.collect.providerTimeout</code>
+ * @param interval time between scheduled collections, defaults to <code>coverage.collect.interval</code>
+ */
+public record HttpCoverageProvider(
+        String name,
+        @DefaultValue("http://localhost:8080/actuator") URI url,
+        String[] classesLocations,
+        @DefaultValue("true") boolean enableProbeIndex,
+        @DefaultValue("10s") Duration timeout,
+        Duration deadline,
+        Duration interval
+) implements RemoteCoverageProvider { }
@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.http;
+
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.delta.ExecDataDelta;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.probes.ProbeStore;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.remote.AbstractRemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects execution data from the <code>jacocoexec</code> actuator endpoint of the Spring module. Every provider keeps
+ * the merged execution data of its application and the watermark of the latest delta, so a collection only transfers
+ * the classes whose probes changed since the previous one.
+ */
+@Service
+public class HttpJacocoAdapter extends AbstractRemoteJacocoAdapter<HttpCoverageProvider> {
+
+    private static final String ENDPOINT = "/jacocoexec";
+
+    private final HttpClient httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+    private final Map<String, MergedExecutionData> mergedExecutionData = new ConcurrentHashMap<>();
+
+    public HttpJacocoAdapter(BundleCoverageCache bundleCoverageCache, RemoteAnalysisPool analysisPool, CoverageHistory coverageHistory, ExecDataArchive execDataArchive) {
+        super(bundleCoverageCache, analysisPool, coverageHistory, execDataArchive);
+    }
+
+    @Override
+    public void resetCoverage(HttpCoverageProvider coverageProvider) throws IOException {
+        fetchAndResetExecutionData(coverageProvider);
+    }
+
+    /**
+     * Decoding the delta includes merging it into the execution data of the provider.
+     */
+    @Override
+    protected ExecutionDataStore fetchExecutionData(HttpCoverageProvider coverageProvider, CollectionCycle cycle) throws IOException {
+        final MergedExecutionData merged = mergedExecutionData.computeIfAbsent(coverageProvider.name(), name -> new MergedExecutionData(coverageProvider));
+
+        synchronized (merged) {
+            final String query = merged.watermark != null ? "?watermark=" + URLEncoder.encode(merged.watermark, StandardCharsets.UTF_8) : "";
+
+            final long transferStart = System.nanoTime();
+            final byte[] data = send(coverageProvider, HttpRequest.newBuilder(endpoint(coverageProvider, query)).GET());
+            cycle.record(CollectionCycle.Phase.TRANSFER, transferStart);
+            cycle.transferred(data.length);
+
+            final long decodeStart = System.nanoTime();
+            final ExecDataDelta delta = ExecDataDelta.read(new ByteArrayInputStream(data));
+
+            if (delta.full()) {
+                merged.probes.clear();
+            }
+
+            // deltas contain all probes of a changed class, so its previous execution data is replaced, never merged
+            for (ExecutionData classData : delta.executionData().getContents()) {
+                merged.probes.put(classData);
+            }
+
+            merged.watermark = delta.watermark();
+            cycle.record(CollectionCycle.Phase.DECODE, decodeStart);
+
+            return merged.probes.toExecutionDataStore();
+        }
+    }
+
+    @Override
+    protected ExecutionDataStore fetchAndResetExecutionData(HttpCoverageProvider coverageProvider) throws IOException {
+        final MergedExecutionData merged = mergedExecutionData.computeIfAbsent(coverageProvider.name(), name -> new MergedExecutionData(coverageProvider));
+
+        synchronized (merged) {
+            final byte[] data = send(coverageProvider, HttpRequest.newBuilder(endpoint(coverageProvider, "")).POST(HttpRequest.BodyPublishers.noBody()));
+
+            // the next collection starts from scratch in the new epoch of the application
+            merged.probes.clear();
+            merged.watermark = null;
+
+            return ExecDataDelta.read(new ByteArrayInputStream(data)).executionData();
+        }
+    }
+
+    /**
+     * The epoch of the watermark changes whenever the application restarts or its coverage is reset.
+     */
+    @Override
+    protected String getSessionId(HttpCoverageProvider coverageProvider) {
+        final MergedExecutionData merged = mergedExecutionData.get(coverageProvider.name());
+        final String watermark = merged != null ? merged.watermark : null;
+
+        return watermark != null && watermark.indexOf('-') > 0 ? watermark.substring(0, watermark.indexOf('-')) : null;
+    }
+
+    @Override
+    public void evict(HttpCoverageProvider coverageProvider) {
+        mergedExecutionData.remove(coverageProvider.name());
+        super.evict(coverageProvider);
+    }
+
+    @Override
+    public void sweep(HttpCoverageProvider coverageProvider) {
+        mergedExecutionData.computeIfPresent(coverageProvider.name(), (name, merged) -> merged.provider == coverageProvider ? null : merged);
+        super.sweep(coverageProvider);
+    }
+
+    private byte[] send(HttpCoverageProvider coverageProvider, HttpRequest.Builder request) throws IOException {
+        final HttpResponse<byte[]> response;
+
+        try {
+            response = httpClient.send(request
+                    .timeout(coverageProvider.timeout())
+                    .header("Accept", ExecDataDelta.CONTENT_TYPE)
+                    .build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting the execution data of provider [" + coverageProvider.name() + "]");
+        }
+
+        if (response.statusCode() != 200) {
+            throw new IOException("Provider [" + coverageProvider.name() + "] answered " + response.statusCode() + " for " + response.uri());
+        }
+
+        return response.body();
+    }
+
+    private static URI endpoint(HttpCoverageProvider coverageProvider, String query) {
+        final String url = coverageProvider.url().toString();
+
+        return URI.create((url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + ENDPOINT + query);
+    }
+
+    /**
+     * Execution data of an application merged from all deltas of the current watermark epoch.
+     */
+    private static final class MergedExecutionData {
+        private final HttpCoverageProvider provider;
+        private final ProbeStore probes = new ProbeStore();
+        private String watermark;
+
+        private MergedExecutionData(HttpCoverageProvider provider) {
+            this.provider = provider;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package io.github.mrcdnk.coverage.jmx;
 
+import io.github.mrcdnk.coverage.remote.ProviderSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
 import org.jacoco.core.analysis.IBundleCoverage;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.annotation.RequestScope;
@@ -31,27 +33,48 @@ import java.util.function.Supplier;
 @Service
 public class BundleCoverageCache {
     private final Map<String, IBundleCoverage> bundleCoverageMap = new HashMap<>();
+    private final Map<String, CoverageSnapshot> snapshotMap = new HashMap<>();
+    private Map<String, ProviderSnapshot> providerSnapshots;
 
     public IBundleCoverage getOrCompute(String application, Supplier<IBundleCoverage> bundleCoverageSupplier) throws IOException, MalformedObjectNameException {
         return bundleCoverageMap.computeIfAbsent(application, s -> bundleCoverageSupplier.get());
     }
 
+    public CoverageSnapshot getOrComputeSnapshot(String application, Supplier<CoverageSnapshot> snapshotSupplier) {
+        return snapshotMap.computeIfAbsent(application, s -> snapshotSupplier.get());
+    }
+
+    /**
+     * @return snapshots of all providers, the supplier is only invoked once per request
+     */
+    public Map<String, ProviderSnapshot> getOrComputeProviderSnapshots(Supplier<Map<String, ProviderSnapshot>> providerSnapshotsSupplier) {
+        if (providerSnapshots == null) {
+            providerSnapshots = providerSnapshotsSupplier.get();
+        }
+
+        return providerSnapshots;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (obj == null || obj.getClass() != this.getClass()) return false;
         var that = (BundleCoverageCache) obj;
-        return Objects.equals(this.bundleCoverageMap, that.bundleCoverageMap);
+        return Objects.equals(this.bundleCoverageMap, that.bundleCoverageMap) &&
+                Objects.equals(this.snapshotMap, that.snapshotMap) &&
+                Objects.equals(this.providerSnapshots, that.providerSnapshots);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(bundleCoverageMap);
+        return Objects.hash(bundleCoverageMap, snapshotMap, providerSnapshots);
     }
 
     @Override
     public String toString() {
         return "BundleCoverageCache[" +
-                "bundleCoverageMap=" + bundleCoverageMap + ']';
+                "bundleCoverageMap=" + bundleCoverageMap + ", " +
+                "snapshotMap=" + snapshotMap + ", " +
+                "providerSnapshots=" + providerSnapshots + ']';
     }
 }
@@ -0,0 +1,348 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.jmx;
+
+import io.github.mrcdnk.coverage.GaugeFactory;
+import io.github.mrcdnk.coverage.JacocoMBeanProxy;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.prometheus.PrometheusConfiguration;
+import io.github.mrcdnk.coverage.prometheus.PrometheusMetricProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import javax.management.MBeanServerInvocationHandler;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one JMX connection and agent proxy per provider open across scrapes.
+ * <p>
+ * A connection is dropped once the connector reports it as failed or a call on it fails with an {@link IOException}.
+ * Calls on a reused connection are retried once on a new connection, since the application might have been restarted
+ * in the meantime. Calls that change the state of the agent are invoked through {@link #executeOnce}, as the agent
+ * may have executed the failed call already. Failing connection attempts are retried with an exponential backoff.
+ */
+@Service
+public class JmxConnectionPool implements DisposableBean {
+
+    static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Map<String, PooledConnection> connections = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final PrometheusConfiguration prometheusConfiguration;
+
+    public JmxConnectionPool(MeterRegistry meterRegistry, PrometheusConfiguration prometheusConfiguration) {
+        this.meterRegistry = meterRegistry;
+        this.prometheusConfiguration = prometheusConfiguration;
+    }
+
+    /**
+     * Invokes the given call with the agent proxy of the provider.
+     */
+    public <R> R execute(JmxCoverageProvider provider, ProxyCall<R> call) throws IOException, MalformedObjectNameException {
+        return execute(provider, CollectionCycle.NONE, call);
+    }
+
+    /**
+     * Invokes the given call with the agent proxy of the provider and records the time to acquire the connection as
+     * {@link CollectionCycle.Phase#CONNECT}.
+     */
+    public <R> R execute(JmxCoverageProvider provider, CollectionCycle cycle, ProxyCall<R> call) throws IOException, MalformedObjectNameException {
+        return execute(provider, cycle, call, true);
+    }
+
+    /**
+     * Invokes the given call with the agent proxy of the provider without retrying it if it fails on a reused
+     * connection, e.g. for a dump that resets the agent and whose execution data would be lost by the retry.
+     */
+    public <R> R executeOnce(JmxCoverageProvider provider, ProxyCall<R> call) throws IOException, MalformedObjectNameException {
+        return execute(provider, CollectionCycle.NONE, call, false);
+    }
+
+    private <R> R execute(JmxCoverageProvider provider, CollectionCycle cycle, ProxyCall<R> call, boolean retry) throws IOException, MalformedObjectNameException {
+        final PooledConnection pooledConnection = getPooledConnection(provider);
+
+        Connection connection = acquire(pooledConnection, cycle);
+
+        try {
+            return call.call(connection.proxy());
+        } catch (IOException | UndeclaredThrowableException e) {
+            final IOException failure = asConnectionFailure(e);
+            pooledConnection.invalidate(connection, failure);
+
+            if (!retry || !connection.reused()) {
+                throw failure;
+            }
+        }
+
+        connection = acquire(pooledConnection, cycle);
+
+        try {
+            return call.call(connection.proxy());
+        } catch (IOException | UndeclaredThrowableException e) {
+            final IOException failure = asConnectionFailure(e);
+            pooledConnection.invalidate(connection, failure);
+
+            throw failure;
+        }
+    }
+
+    /**
+     * A provider whose address changed at runtime gets a new connection, even if a collection of its previous
+     * definition recreated the old one after the removal.
+     */
+    private PooledConnection getPooledConnection(JmxCoverageProvider provider) {
+        final PooledConnection pooledConnection = connections.computeIfAbsent(provider.name(), name -> new PooledConnection(provider));
+
+        if (pooledConnection.provider.host().equals(provider.host()) && pooledConnection.provider.port() == provider.port()) {
+            return pooledConnection;
+        }
+
+        if (connections.remove(provider.name(), pooledConnection)) {
+            pooledConnection.close();
+            pooledConnection.removeMeters();
+        }
+
+        return getPooledConnection(provider);
+    }
+
+    private static Connection acquire(PooledConnection pooledConnection, CollectionCycle cycle) throws IOException, MalformedObjectNameException {
+        final long connectStart = System.nanoTime();
+
+        try {
+            return pooledConnection.acquire();
+        } finally {
+            cycle.record(CollectionCycle.Phase.CONNECT, connectStart);
+        }
+    }
+
+    /**
+     * Proxy calls report connection problems as {@link UndeclaredThrowableException}, since the methods of
+     * {@link JacocoMBeanProxy} do not declare an {@link IOException}. Other failures are passed on unchanged.
+     */
+    private static IOException asConnectionFailure(Exception e) {
+        if (e instanceof IOException ioException) {
+            return ioException;
+        }
+
+        if (e.getCause() instanceof IOException ioException) {
+            return ioException;
+        }
+
+        throw (UndeclaredThrowableException) e;
+    }
+
+    /**
+     * Closes the connection of a removed provider and removes its meters.
+     */
+    public void close(JmxCoverageProvider provider) {
+        final PooledConnection connection = connections.remove(provider.name());
+
+        if (connection != null) {
+            connection.close();
+            connection.removeMeters();
+        }
+    }
+
+    /**
+     * Closes the connection of a removed provider only if it has been opened for the given instance, a changed
+     * definition registered under the same name keeps its connection.
+     */
+    public void sweep(JmxCoverageProvider provider) {
+        final PooledConnection connection = connections.get(provider.name());
+
+        if (connection != null && connection.provider == provider && connections.remove(provider.name(), connection)) {
+            connection.close();
+            connection.removeMeters();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (PooledConnection connection : connections.values()) {
+            connection.close();
+        }
+
+        connections.clear();
+    }
+
+    @FunctionalInterface
+    public interface ProxyCall<R> {
+        R call(JacocoMBeanProxy proxy) throws IOException;
+    }
+
+    private record Connection(JMXConnector connector, JacocoMBeanProxy proxy, boolean reused) {}
+
+    private final class PooledConnection implements NotificationListener {
+        private final JmxCoverageProvider provider;
+
+        private final Counter connects;
+        private final Counter reuses;
+        private final Counter failures;
+
+        private JMXConnector connector;
+        private JacocoMBeanProxy proxy;
+        private int failedAttempts;
+        private long nextAttemptNanos;
+
+        private PooledConnection(JmxCoverageProvider provider) {
+            this.provider = provider;
+
+            final String[] tags = PrometheusMetricProvider.getTags(prometheusConfiguration, provider.name());
+
+            this.connects = Counter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "jmx.connects")
+                    .description("Number of JMX connections opened to the provider")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.reuses = Counter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "jmx.connection.reuses")
+                    .description("Number of requests that reused an open JMX connection")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.failures = Counter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "jmx.connection.failures")
+                    .description("Number of failed JMX connection attempts and lost connections")
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+
+        private synchronized Connection acquire() throws IOException, MalformedObjectNameException {
+            if (connector != null) {
+                reuses.increment();
+                return new Connection(connector, proxy, true);
+            }
+
+            final long now = System.nanoTime();
+
+            if (failedAttempts > 0 && now - nextAttemptNanos < 0) {
+                throw new IOException("Connection to provider [" + provider.name() + "] failed, next attempt in ["
+                        + Duration.ofNanos(nextAttemptNanos - now).toMillis() + "ms]");
+            }
+
+            final JMXConnector newConnector;
+            try {
+                newConnector = connect(provider.host(), provider.port());
+            } catch (IOException e) {
+                failures.increment();
+                failedAttempts++;
+                nextAttemptNanos = now + getBackoff(failedAttempts).toNanos();
+
+                throw e;
+            }
+
+            newConnector.addConnectionNotificationListener(this, null, newConnector);
+
+            connector = newConnector;
+            proxy = MBeanServerInvocationHandler.newProxyInstance(newConnector.getMBeanServerConnection(),
+                    new ObjectName("org.jacoco:type=Runtime"), JacocoMBeanProxy.class, false);
+            failedAttempts = 0;
+            connects.increment();
+
+            return new Connection(connector, proxy, false);
+        }
+
+        /**
+         * Drops the given connection, if it is still the current one.
+         */
+        private synchronized void invalidate(Connection connection, IOException cause) {
+            if (connection.connector() != connector) {
+                return;
+            }
+
+            failures.increment();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Dropping JMX connection of provider [" + provider.name() + "]", cause);
+            }
+
+            close();
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (handback != connector) {
+                return;
+            }
+
+            if (JMXConnectionNotification.FAILED.equals(notification.getType())
+                    || JMXConnectionNotification.CLOSED.equals(notification.getType())) {
+                failures.increment();
+
+                if (log.isDebugEnabled()) {
+                    log.debug("JMX connection of provider [" + provider.name() + "] reported [" + notification.getType() + "]");
+                }
+
+                close();
+            }
+        }
+
+        private void removeMeters() {
+            meterRegistry.remove(connects);
+            meterRegistry.remove(reuses);
+            meterRegistry.remove(failures);
+        }
+
+        private synchronized void close() {
+            final JMXConnector current = connector;
+
+            connector = null;
+            proxy = null;
+
+            if (current == null) {
+                return;
+            }
+
+            try {
+                current.removeConnectionNotificationListener(this);
+                current.close();
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to close JMX connection of provider [" + provider.name() + "]", e);
+                }
+            }
+        }
+    }
+
+    static Duration getBackoff(int failedAttempts) {
+        final Duration backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(failedAttempts - 1, 16));
+
+        return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+    }
+
+    JMXConnector connect(String service, int port) throws IOException {
+        final JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi", service, port));
+
+        return JMXConnectorFactory.connect(url, null);
+    }
+}
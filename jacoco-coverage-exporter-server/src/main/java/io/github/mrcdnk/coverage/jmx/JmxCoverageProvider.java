@@ -16,6 +16,9 @@
 
 package io.github.mrcdnk.coverage.jmx;
 
-import io.github.mrcdnk.coverage.CoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
-public record JmxCoverageProvider(String name, String host, int port, String[] classesLocations) implements CoverageProvider { }
+import java.time.Duration;
+
+public record JmxCoverageProvider(String name, String host, int port, String[] classesLocations, @DefaultValue("true") boolean enableProbeIndex, Duration deadline, Duration interval) implements RemoteCoverageProvider { }
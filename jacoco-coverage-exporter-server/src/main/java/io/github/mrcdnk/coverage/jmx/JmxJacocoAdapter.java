@@ -16,90 +16,90 @@
 
 package io.github.mrcdnk.coverage.jmx;
 
-import io.github.mrcdnk.coverage.JacocoAdapter;
-import io.github.mrcdnk.coverage.JacocoMBeanProxy;
-import io.micrometer.core.annotation.Timed;
-import org.apache.commons.io.FileUtils;
-import org.jacoco.core.analysis.IBundleCoverage;
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.remote.AbstractRemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.tools.ExecFileLoader;
-import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Service;
 
-import javax.management.MBeanServerConnection;
-import javax.management.MBeanServerInvocationHandler;
 import javax.management.MalformedObjectNameException;
-import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
-@Primary
-public class JmxJacocoAdapter implements JacocoAdapter<JmxCoverageProvider> {
+public class JmxJacocoAdapter extends AbstractRemoteJacocoAdapter<JmxCoverageProvider> {
 
-    private final BundleCoverageCache bundleCoverageCache;
+    private final JmxConnectionPool connectionPool;
+    private final Map<String, String> sessionIds = new ConcurrentHashMap<>();
 
-    public JmxJacocoAdapter(BundleCoverageCache bundleCoverageCache) {
-        this.bundleCoverageCache = bundleCoverageCache;
+    public JmxJacocoAdapter(BundleCoverageCache bundleCoverageCache, RemoteAnalysisPool analysisPool, CoverageHistory coverageHistory, ExecDataArchive execDataArchive, JmxConnectionPool connectionPool) {
+        super(bundleCoverageCache, analysisPool, coverageHistory, execDataArchive);
+        this.connectionPool = connectionPool;
     }
 
 
     @Override
     public void resetCoverage(JmxCoverageProvider jmxCoverageProvider) throws IOException, MalformedObjectNameException {
-        try (JMXConnector jmxc = getJmxConnector(jmxCoverageProvider.host(), jmxCoverageProvider.port())) {
-            final MBeanServerConnection connection = jmxc.getMBeanServerConnection();
-            final JacocoMBeanProxy proxy = getJacocoProxy(connection);
+        connectionPool.executeOnce(jmxCoverageProvider, proxy -> {
             proxy.reset();
-        }
+            return null;
+        });
     }
 
     @Override
-    @Timed(description = "Time required to compute the coverage for a single provider" ,value = "jacoco.scrape.duration.seconds", histogram = true)
-    public IBundleCoverage fetchCoverage(JmxCoverageProvider jmxCoverageProvider) throws IOException, MalformedObjectNameException {
-        return bundleCoverageCache.getOrCompute(jmxCoverageProvider.name(), () ->  {
-
-            final Collection<File> classFiles = new ArrayList<>();
-
-            for (String sourcesLocation : jmxCoverageProvider.classesLocations()) {
-                File clazzDir = new File(sourcesLocation);
+    protected ExecutionDataStore fetchExecutionData(JmxCoverageProvider jmxCoverageProvider, CollectionCycle cycle) throws IOException, MalformedObjectNameException {
+        final byte[] data = connectionPool.execute(jmxCoverageProvider, cycle, proxy -> {
+            sessionIds.put(jmxCoverageProvider.name(), proxy.getSessionId());
 
-                classFiles.addAll(FileUtils.listFiles(clazzDir, null, true));
-            }
+            final long transferStart = System.nanoTime();
+            final byte[] executionData = proxy.getExecutionData(false);
+            cycle.record(CollectionCycle.Phase.TRANSFER, transferStart);
 
-            try (JMXConnector jmxConnector = getJmxConnector(jmxCoverageProvider.host(), jmxCoverageProvider.port())) {
-                final MBeanServerConnection connection = jmxConnector.getMBeanServerConnection();
+            return executionData;
+        });
 
-                final JacocoMBeanProxy proxy = getJacocoProxy(connection);
+        cycle.transferred(data.length);
 
-                final byte[] data = proxy.getExecutionData(false);
+        final long decodeStart = System.nanoTime();
+        final ExecutionDataStore executionData = load(data);
+        cycle.record(CollectionCycle.Phase.DECODE, decodeStart);
 
-                ExecFileLoader loader  = new ExecFileLoader();
-                loader.load(new ByteArrayInputStream(data));
+        return executionData;
+    }
 
-                return analyze(loader.getExecutionDataStore(), classFiles);
-            } catch (IOException | MalformedObjectNameException e) {
-                throw new RuntimeException(e);
-            }
-        });
+    @Override
+    protected ExecutionDataStore fetchAndResetExecutionData(JmxCoverageProvider jmxCoverageProvider) throws IOException, MalformedObjectNameException {
+        // the agent may have reset before the connection failed, a retry would return the execution data after the reset
+        return load(connectionPool.executeOnce(jmxCoverageProvider, proxy -> proxy.getExecutionData(true)));
     }
 
+    private static ExecutionDataStore load(byte[] data) throws IOException {
+        ExecFileLoader loader  = new ExecFileLoader();
+        loader.load(new ByteArrayInputStream(data));
 
+        return loader.getExecutionDataStore();
+    }
 
-    private static JacocoMBeanProxy getJacocoProxy(MBeanServerConnection connection) throws MalformedObjectNameException {
-        return MBeanServerInvocationHandler
-                .newProxyInstance(connection,
-                        new ObjectName("org.jacoco:type=Runtime"), JacocoMBeanProxy.class,
-                        false);
+    @Override
+    protected String getSessionId(JmxCoverageProvider jmxCoverageProvider) {
+        return sessionIds.get(jmxCoverageProvider.name());
     }
 
-    private static JMXConnector getJmxConnector(String service, int port) throws IOException {
-        final JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi", service, port));
+    @Override
+    public void evict(JmxCoverageProvider jmxCoverageProvider) {
+        connectionPool.close(jmxCoverageProvider);
+        sessionIds.remove(jmxCoverageProvider.name());
+        super.evict(jmxCoverageProvider);
+    }
 
-        return JMXConnectorFactory.connect(url, null);
+    @Override
+    public void sweep(JmxCoverageProvider jmxCoverageProvider) {
+        connectionPool.sweep(jmxCoverageProvider);
+        super.sweep(jmxCoverageProvider);
     }
 }
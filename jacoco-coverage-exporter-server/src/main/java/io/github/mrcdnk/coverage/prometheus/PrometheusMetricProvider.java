@@ -17,81 +17,200 @@
 package io.github.mrcdnk.coverage.prometheus;
 
 import io.github.mrcdnk.coverage.GaugeFactory;
-import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
-import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
-import io.github.mrcdnk.coverage.jmx.JmxJacocoAdapter;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistryListener;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.group.ProviderGroupAdapter;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.remote.ProviderSnapshot;
+import io.github.mrcdnk.coverage.remote.ProviderStatus;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteSnapshotCollector;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
-import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.analysis.ICounter;
 import org.jacoco.core.analysis.ICoverageNode;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import javax.management.MalformedObjectNameException;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 @Service
 @ConditionalOnProperty(name="coverage.local", havingValue = "false", matchIfMissing = true)
-public class PrometheusMetricProvider {
+public class PrometheusMetricProvider implements ProviderRegistryListener {
 
     private final MeterRegistry meterRegistry;
-    private final JmxJacocoAdapter jmxJacocoAdapter;
+    private final RemoteSnapshotCollector remoteSnapshotCollector;
 
     private final PrometheusConfiguration prometheusConfiguration;
+    private final ProviderGroupAdapter providerGroupAdapter;
+    private final Map<String, List<Meter>> providerMeters = new ConcurrentHashMap<>();
+    // gauges only hold weak references, the detail metrics are kept alive by this provider
+    private final Map<String, CoverageDetailMetrics> coverageDetailMetrics = new ConcurrentHashMap<>();
 
     public PrometheusMetricProvider(
-            RemoteCollectionConfiguration remoteCollectionConfiguration,
-            JmxJacocoAdapter jmxJacocoAdapter,
+            ProviderRegistry providerRegistry,
+            RemoteSnapshotCollector remoteSnapshotCollector,
             MeterRegistry meterRegistry,
-            PrometheusConfiguration prometheusConfiguration) {
-        this.jmxJacocoAdapter = jmxJacocoAdapter;
+            PrometheusConfiguration prometheusConfiguration,
+            ProviderGroupAdapter providerGroupAdapter,
+            CoverageHistory coverageHistory) {
+        this.remoteSnapshotCollector = remoteSnapshotCollector;
         this.meterRegistry = meterRegistry;
         this.prometheusConfiguration = prometheusConfiguration;
+        this.providerGroupAdapter = providerGroupAdapter;
 
-        for (var provider : remoteCollectionConfiguration.providers()) {
-            String providerName = provider.name();
+        for (var provider : providerRegistry.getProviders()) {
+            providerAdded(provider);
+        }
 
-            for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
-                createGaugeForCounterEntity(providerName, provider, counterEntity);
+        if (coverageHistory.isEnabled()) {
+            Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "history.size", coverageHistory, CoverageHistory::getSizeInBytes)
+                    .description("Estimated heap size of the coverage history of all providers")
+                    .baseUnit("bytes")
+                    .tags(prometheusConfiguration.labels().entrySet().stream()
+                            .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
+                            .toArray(String[]::new))
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public void providerAdded(RemoteCoverageProvider provider) {
+        final String providerName = provider.name();
+        final List<Meter> meters = new ArrayList<>();
+
+        if (providerMeters.putIfAbsent(providerName, meters) != null) {
+            return;
+        }
+
+        for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+            createGaugeForCounterEntity(providerName, provider, counterEntity, meters);
+        }
+
+        meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + LocalPrometheusMetricProvider.ANALYZED_CLASSES_METRIC, () -> {
+                    // like the counters, a stale provider reports the classes of its last successful collection
+                    final ProviderSnapshot snapshot = remoteSnapshotCollector.getSnapshot(provider);
+                    return snapshot.snapshot() != null ? snapshot.snapshot().getAnalyzedClasses() : 0;
+                })
+                .description(LocalPrometheusMetricProvider.ANALYZED_CLASSES_DESCRIPTION)
+                .tags(getTags(providerName))
+                .register(meterRegistry));
+
+        meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "up", () -> remoteSnapshotCollector.getSnapshot(provider).status() == ProviderStatus.UP ? 1 : 0)
+                .description("1 if the coverage of the provider has been collected within its deadline, 0 otherwise")
+                .tags(getTags(providerName))
+                .register(meterRegistry));
+
+        meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "stale", () -> remoteSnapshotCollector.getSnapshot(provider).status() == ProviderStatus.STALE ? 1 : 0)
+                .description("1 if the coverage of the provider is served from an earlier collection, because the latest one failed")
+                .tags(getTags(providerName))
+                .register(meterRegistry));
+
+        meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "snapshot.age", () -> {
+                    final ProviderSnapshot snapshot = remoteSnapshotCollector.getSnapshot(provider);
+                    return snapshot.snapshot() != null ? snapshot.snapshot().getAge().toMillis() / 1000.0 : Double.NaN;
+                })
+                .description("Age of the reported coverage of the provider")
+                .baseUnit("seconds")
+                .tags(getTags(providerName))
+                .register(meterRegistry));
+
+        meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + LocalPrometheusMetricProvider.SNAPSHOT_SIZE_METRIC, () -> {
+                    final ProviderSnapshot snapshot = remoteSnapshotCollector.getSnapshot(provider);
+                    return snapshot.snapshot() != null ? snapshot.snapshot().getSizeInBytes() : 0;
+                })
+                .description(LocalPrometheusMetricProvider.SNAPSHOT_SIZE_DESCRIPTION)
+                .baseUnit("bytes")
+                .tags(getTags(providerName))
+                .register(meterRegistry));
+
+        if (provider instanceof ProviderGroup group) {
+            for (ProviderStatus status : ProviderStatus.values()) {
+                meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "replicas", () -> providerGroupAdapter.getReplicaCount(group, status))
+                        .description("Number of replicas of the group by the state of their latest collection")
+                        .tags(getTags(providerName))
+                        .tag("status", status.name().toLowerCase())
+                        .register(meterRegistry));
             }
         }
+
+        if (prometheusConfiguration.details().isEnabled()) {
+            coverageDetailMetrics.put(providerName, new CoverageDetailMetrics(meterRegistry, prometheusConfiguration.details(), getTags(providerName),
+                    () -> remoteSnapshotCollector.getSnapshot(provider).snapshot()));
+        }
     }
 
-    private  void createGaugeForCounterEntity(String providerName, JmxCoverageProvider provider, ICoverageNode.CounterEntity counterEntity) {
+    /**
+     * Removes all meters of the provider, the meters of other providers are not touched.
+     */
+    @Override
+    public void providerRemoved(RemoteCoverageProvider provider) {
+        final List<Meter> meters = providerMeters.remove(provider.name());
 
+        if (meters != null) {
+            for (Meter meter : meters) {
+                meterRegistry.remove(meter);
+            }
+        }
+
+        final CoverageDetailMetrics detailMetrics = coverageDetailMetrics.remove(provider.name());
+
+        if (detailMetrics != null) {
+            detailMetrics.close();
+        }
+    }
+
+    private String[] getTags(String providerName) {
+        return getTags(prometheusConfiguration, providerName);
+    }
+
+    /**
+     * @return the configured labels and the application tag of the given provider as key value pairs
+     */
+    public static String[] getTags(PrometheusConfiguration prometheusConfiguration, String providerName) {
         Map<String, String> tagMap = new HashMap<>(prometheusConfiguration.labels());
         tagMap.put(GaugeFactory.PROMETHEUS_APPLICATION_TAG, providerName);
 
-        String[] tags = tagMap
+        return tagMap
                 .entrySet()
                 .stream()
                 .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
                 .toArray(String[]::new);
+    }
+
+    private  void createGaugeForCounterEntity(String providerName, RemoteCoverageProvider provider, ICoverageNode.CounterEntity counterEntity, List<Meter> meters) {
+
+        String[] tags = getTags(providerName);
 
         String metricName = LocalPrometheusMetricProvider.mapMetricName(counterEntity);
 
         for (GaugeFactory.Type type : GaugeFactory.Type.values()) {
-            GaugeFactory
-                    .create(metricName, type, () -> getCoverageCounter(counterEntity, type.getCountGetter(), provider, jmxJacocoAdapter), tags)
-                    .register(meterRegistry);
+            meters.add(GaugeFactory
+                    .create(metricName, type, () -> getCoverageCounter(counterEntity, type.getCountGetter(), provider, remoteSnapshotCollector), tags)
+                    .register(meterRegistry));
 
         }
     }
 
 
-    public static int getCoverageCounter(ICoverageNode.CounterEntity counter, Function<ICounter, Integer> getValue, JmxCoverageProvider provider, JmxJacocoAdapter jmxJacocoAdapter) {
-        IBundleCoverage bundleCoverage;
+    /**
+     * @return value of the counter or <code>null</code>, which is reported as NaN, if the provider has never been collected successfully
+     */
+    public static Integer getCoverageCounter(ICoverageNode.CounterEntity counter, Function<ICounter, Integer> getValue, RemoteCoverageProvider provider, RemoteSnapshotCollector remoteSnapshotCollector) {
+        final ProviderSnapshot snapshot = remoteSnapshotCollector.getSnapshot(provider);
 
-        try {
-            bundleCoverage = jmxJacocoAdapter.fetchCoverage(provider);
-        } catch (IOException | MalformedObjectNameException e) {
-            throw new RuntimeException(e);
+        if (snapshot.snapshot() == null) {
+            return null;
         }
 
-        return getValue.apply(bundleCoverage.getCounter(counter));
+        return getValue.apply(snapshot.snapshot().getCounter(counter));
     }
 }
@@ -0,0 +1,337 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.JacocoAdapter;
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.index.ClassProbeIndex;
+import io.github.mrcdnk.coverage.index.ClassProbeIndexer;
+import io.github.mrcdnk.coverage.index.IndexedCoverageCalculator;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.snapshot.AnalysisFingerprint;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.ReusableSnapshots;
+import io.micrometer.core.annotation.Timed;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.io.FileUtils;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import javax.management.MalformedObjectNameException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Analysis shared by all remote transports, implementations only have to provide the execution data of a provider.
+ */
+public abstract class AbstractRemoteJacocoAdapter<T extends RemoteCoverageProvider> implements JacocoAdapter<T> {
+
+    private final BundleCoverageCache bundleCoverageCache;
+    private final RemoteAnalysisPool analysisPool;
+    private final CoverageHistory coverageHistory;
+    private final ExecDataArchive execDataArchive;
+    private final Map<String, ProbeIndex> probeIndices = new ConcurrentHashMap<>();
+    private final ReusableSnapshots reusableSnapshots = new ReusableSnapshots();
+    private final Log log = LogFactory.getLog(getClass());
+
+    protected AbstractRemoteJacocoAdapter(BundleCoverageCache bundleCoverageCache, RemoteAnalysisPool analysisPool, CoverageHistory coverageHistory,
+                                          ExecDataArchive execDataArchive) {
+        this.bundleCoverageCache = bundleCoverageCache;
+        this.analysisPool = analysisPool;
+        this.coverageHistory = coverageHistory;
+        this.execDataArchive = execDataArchive;
+    }
+
+    /**
+     * @param cycle collection the transfer of the execution data is recorded into
+     */
+    protected abstract ExecutionDataStore fetchExecutionData(T coverageProvider, CollectionCycle cycle) throws IOException, MalformedObjectNameException;
+
+    /**
+     * Dumps and resets the execution data of the provider in a single call to the agent, so no probes are lost between
+     * the two.
+     */
+    protected abstract ExecutionDataStore fetchAndResetExecutionData(T coverageProvider) throws IOException, MalformedObjectNameException;
+
+    /**
+     * Like {@link #fetchCoverage(RemoteCoverageProvider)}, but the coverage is computed once per request.
+     */
+    @Override
+    @Timed(description = "Time required to compute the coverage for a single provider" ,value = "jacoco.scrape.duration.seconds", histogram = true)
+    public IBundleCoverage fetchCoverage(T coverageProvider) throws IOException, MalformedObjectNameException {
+        return bundleCoverageCache.getOrCompute(coverageProvider.name(), () ->  {
+            try {
+                return collectCoverage(coverageProvider);
+            } catch (IOException | MalformedObjectNameException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #fetchSnapshot(RemoteCoverageProvider)}, but the snapshot is computed once per request.
+     */
+    @Override
+    @Timed(description = "Time required to compute the coverage for a single provider" ,value = "jacoco.scrape.duration.seconds", histogram = true)
+    public CoverageSnapshot fetchSnapshot(T coverageProvider) throws IOException, MalformedObjectNameException {
+        return bundleCoverageCache.getOrComputeSnapshot(coverageProvider.name(), () -> {
+            try {
+                return collectSnapshot(coverageProvider);
+            } catch (IOException | MalformedObjectNameException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Collects the coverage without the request cache, can be used outside of requests.
+     */
+    public IBundleCoverage collectCoverage(T coverageProvider) throws IOException, MalformedObjectNameException {
+        final CollectionCycle cycle = analysisPool.getCollectionMetrics().start(coverageProvider.name());
+        boolean success = false;
+
+        try {
+            final ExecutionDataStore executionData = fetchArchivedExecutionData(coverageProvider, cycle);
+            final Collection<File> classFiles = getClassFiles(coverageProvider, cycle);
+
+            final long analysisStart = System.nanoTime();
+            final IBundleCoverage coverage = analysisPool.getParallelAnalyzer().analyze(executionData, classFiles);
+            cycle.record(CollectionCycle.Phase.ANALYSIS, analysisStart);
+
+            success = true;
+            return coverage;
+        } finally {
+            cycle.finish(success);
+        }
+    }
+
+    /**
+     * Collects the snapshot without the request cache, can be used outside of requests. Every collected snapshot is
+     * sampled into the {@link CoverageHistory}.
+     * <p>
+     * The class files are only analyzed again if the execution data, its session or the class files changed since the
+     * previous snapshot of the provider, otherwise that snapshot is reused.
+     */
+    public CoverageSnapshot collectSnapshot(T coverageProvider) throws IOException, MalformedObjectNameException {
+        final CollectionCycle cycle = analysisPool.getCollectionMetrics().start(coverageProvider.name());
+        boolean success = false;
+
+        try {
+            final ExecutionDataStore executionData = fetchArchivedExecutionData(coverageProvider, cycle);
+            final Collection<File> classFiles = getClassFiles(coverageProvider, cycle);
+            final String sessionId = getSessionId(coverageProvider);
+
+            if (reusableSnapshots.isNewSession(coverageProvider.name(), sessionId)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Session of [" + coverageProvider.name() + "] changed to [" + sessionId + "], dropping the previous results");
+                }
+
+                reusableSnapshots.invalidate(coverageProvider.name());
+
+                final ProbeIndex probeIndex = probeIndices.get(coverageProvider.name());
+                if (probeIndex != null) {
+                    probeIndex.calculator().clear();
+                }
+            }
+
+            final long fingerprint = AnalysisFingerprint.of(sessionId, executionData, classFiles);
+            CoverageSnapshot snapshot = reusableSnapshots.getUnchanged(coverageProvider.name(), fingerprint);
+
+            if (snapshot != null) {
+                cycle.skipped();
+            } else {
+                final long analysisStart = System.nanoTime();
+
+                if (!coverageProvider.enableProbeIndex()) {
+                    snapshot = analysisPool.getParallelAnalyzer().analyzeCounters(executionData, classFiles, analysisPool.isCollectDetails());
+                } else {
+                    final ProbeIndex probeIndex = getProbeIndex(coverageProvider);
+
+                    snapshot = analyzeIndexed(executionData, classFiles, probeIndex.indexer(), probeIndex.calculator(),
+                            analysisPool.isCollectDetails());
+                }
+
+                cycle.record(CollectionCycle.Phase.ANALYSIS, analysisStart);
+                reusableSnapshots.put(coverageProvider.name(), sessionId, fingerprint, snapshot);
+            }
+
+            final long publishStart = System.nanoTime();
+            coverageHistory.record(coverageProvider.name(), snapshot, executionData);
+            cycle.record(CollectionCycle.Phase.PUBLISH, publishStart);
+
+            success = true;
+            return snapshot;
+        } finally {
+            cycle.finish(success);
+        }
+    }
+
+    /**
+     * @return id of the agent session of the execution data fetched last for the provider, <code>null</code> if the
+     * transport does not know it. A changed session id means the target has been restarted.
+     */
+    protected String getSessionId(T coverageProvider) {
+        return null;
+    }
+
+    /**
+     * @param cycle collection of the calling adapter the transfer is recorded into, e.g. the one of a group
+     * @return the execution data of the current session of the provider, without the {@link ExecDataArchive}
+     */
+    public ExecutionDataStore fetchSessionExecutionData(T coverageProvider, CollectionCycle cycle) throws IOException, MalformedObjectNameException {
+        return fetchExecutionData(coverageProvider, cycle);
+    }
+
+    /**
+     * @return the execution data of the current session of the provider before the reset, without the
+     * {@link ExecDataArchive}
+     */
+    public ExecutionDataStore fetchAndResetSessionExecutionData(T coverageProvider) throws IOException, MalformedObjectNameException {
+        return fetchAndResetExecutionData(coverageProvider);
+    }
+
+    /**
+     * @return the execution data of all archived sessions if the {@link ExecDataArchive} is enabled, otherwise the one of
+     * the current session
+     */
+    private ExecutionDataStore fetchArchivedExecutionData(T coverageProvider, CollectionCycle cycle) throws IOException, MalformedObjectNameException {
+        final ExecutionDataStore sessionExecutionData = fetchExecutionData(coverageProvider, cycle);
+
+        final long archiveStart = System.nanoTime();
+        final ExecutionDataStore executionData = execDataArchive.archive(coverageProvider.name(), sessionExecutionData);
+
+        if (execDataArchive.isEnabled()) {
+            cycle.record(CollectionCycle.Phase.ARCHIVE, archiveStart);
+        }
+
+        cycle.executionData(executionData);
+
+        return executionData;
+    }
+
+    /**
+     * Resets the coverage of the provider and returns the execution data it had right before. The returned execution
+     * data is merged into the {@link ExecDataArchive}, so the archive keeps it after the reset. This includes the execution
+     * data of a {@link PartialResetException}.
+     *
+     * @return the execution data of the current session of the provider before the reset
+     */
+    public ExecutionDataStore dumpAndReset(T coverageProvider) throws IOException, MalformedObjectNameException {
+        final ExecutionDataStore executionData;
+
+        try {
+            executionData = fetchAndResetExecutionData(coverageProvider);
+        } catch (PartialResetException e) {
+            execDataArchive.archive(coverageProvider.name(), e.getExecutionData());
+            throw e;
+        }
+
+        execDataArchive.archive(coverageProvider.name(), executionData);
+
+        return executionData;
+    }
+
+    /**
+     * Analyzes execution data independent of the collections, e.g. the execution data returned by
+     * {@link #dumpAndReset(RemoteCoverageProvider)}. The results of the probe index of the provider are left untouched.
+     *
+     * @return snapshot including the counters of all packages and classes
+     */
+    public CoverageSnapshot analyzeExecutionData(T coverageProvider, ExecutionDataStore executionData) throws IOException {
+        final Collection<File> classFiles = getClassFiles(coverageProvider, CollectionCycle.NONE);
+
+        if (!coverageProvider.enableProbeIndex()) {
+            return analysisPool.getParallelAnalyzer().analyzeCounters(executionData, classFiles, true);
+        }
+
+        return analyzeIndexed(executionData, classFiles, getProbeIndex(coverageProvider).indexer(), new IndexedCoverageCalculator(), true);
+    }
+
+    /**
+     * @return the class indices of the current class files of the provider, these are built on first use even if the
+     * provider does not {@link RemoteCoverageProvider#enableProbeIndex()}
+     */
+    public List<ClassProbeIndex> getClassIndices(T coverageProvider) throws IOException {
+        return getProbeIndex(coverageProvider).indexer().index(getClassFiles(coverageProvider, CollectionCycle.NONE));
+    }
+
+    /**
+     * Prepares the transport for a provider added at runtime.
+     *
+     * @throws RuntimeException if the provider can't be collected by this adapter
+     */
+    public void register(T coverageProvider) {
+    }
+
+    /**
+     * Drops all state kept for a removed provider, other providers are not affected. Must tolerate providers that have
+     * already been evicted.
+     */
+    public void evict(T coverageProvider) {
+        probeIndices.remove(coverageProvider.name());
+        reusableSnapshots.invalidate(coverageProvider.name());
+        analysisPool.release(coverageProvider.name());
+        coverageHistory.remove(coverageProvider.name());
+        execDataArchive.remove(coverageProvider.name());
+    }
+
+    /**
+     * Drops the state a collection of a removed provider recreated while another definition has been registered under
+     * its name. Only state created for this instance is dropped, the history and archive belong to the name and are
+     * kept.
+     */
+    public void sweep(T coverageProvider) {
+        probeIndices.computeIfPresent(coverageProvider.name(), (name, probeIndex) -> probeIndex.provider() == coverageProvider ? null : probeIndex);
+        reusableSnapshots.invalidate(coverageProvider.name());
+    }
+
+    private ProbeIndex getProbeIndex(T coverageProvider) {
+        return probeIndices.computeIfAbsent(coverageProvider.name(),
+                name -> new ProbeIndex(coverageProvider, analysisPool.newProbeIndexer(name), new IndexedCoverageCalculator()));
+    }
+
+    protected static Collection<File> getClassFiles(RemoteCoverageProvider coverageProvider, CollectionCycle cycle) {
+        final long inventoryStart = System.nanoTime();
+        final Collection<File> classFiles = new ArrayList<>();
+
+        for (String sourcesLocation : coverageProvider.classesLocations()) {
+            File clazzDir = new File(sourcesLocation);
+
+            classFiles.addAll(FileUtils.listFiles(clazzDir, null, true));
+        }
+
+        cycle.record(CollectionCycle.Phase.INVENTORY, inventoryStart);
+
+        return classFiles;
+    }
+
+    /**
+     * Class index and the previous results of a single provider, kept across requests.
+     *
+     * @param provider instance the index has been created for
+     */
+    private record ProbeIndex(RemoteCoverageProvider provider, ClassProbeIndexer indexer, IndexedCoverageCalculator calculator) {}
+}
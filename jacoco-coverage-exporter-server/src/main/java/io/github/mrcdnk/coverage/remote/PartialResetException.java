@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.remote;
+
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Thrown if a provider consisting of several targets, e.g. the replicas of a group, has only been reset partially. The
+ * targets that have been reset are not rolled back, so the execution data they had before the reset is carried along.
+ */
+public class PartialResetException extends IOException {
+
+    private final transient ExecutionDataStore executionData;
+    private final List<String> reset;
+    private final List<String> failed;
+
+    /**
+     * @param executionData merged execution data the reset targets had right before the reset, <code>null</code> if it
+     *                      has not been dumped
+     */
+    public PartialResetException(String message, ExecutionDataStore executionData, List<String> reset, List<String> failed) {
+        super(message);
+        this.executionData = executionData;
+        this.reset = List.copyOf(reset);
+        this.failed = List.copyOf(failed);
+    }
+
+    public ExecutionDataStore getExecutionData() {
+        return executionData;
+    }
+
+    /**
+     * @return names of the targets that have been reset
+     */
+    public List<String> getReset() {
+        return reset;
+    }
+
+    /**
+     * @return names of the targets that failed, their causes are attached as suppressed exceptions
+     */
+    public List<String> getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Calls a set of providers concurrently on virtual threads.
+ * <p>
+ * Every provider has a deadline, providers that do not answer in time are reported as timed out while the others
+ * are still returned. A bulkhead limits how many provider calls are in flight at once. A call that is still running
+ * from an earlier request is awaited instead of starting a second one, so a hung provider does not pile up calls.
+ * <p>
+ * Calls that only read from the provider are interrupted once they missed their deadline, which releases their permit
+ * of the bulkhead. Since the call may be shared with other requests, these requests see it as timed out as well.
+ * Destructive calls, e.g. a reset, are never interrupted, because it is unknown whether the provider already applied
+ * them. Their results can still be awaited through {@link ProviderResult#pending()}.
+ */
+@Service
+public class ProviderFanOut implements DisposableBean {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jacoco-provider-", 0).factory());
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Semaphore bulkhead;
+    private final Duration defaultDeadline;
+
+    public ProviderFanOut(RemoteCollectionConfiguration remoteCollectionConfiguration) {
+        this.bulkhead = new Semaphore(Math.max(1, remoteCollectionConfiguration.maxConcurrentProviders()));
+        this.defaultDeadline = remoteCollectionConfiguration.providerTimeout();
+    }
+
+    /**
+     * Executes the call for all providers and waits until every provider finished or reached its deadline.
+     *
+     * @param operation name of the operation, calls are only shared between requests of the same operation
+     * @return results by provider name, in the order of the given providers
+     */
+    public <T extends RemoteCoverageProvider, R> Map<String, ProviderResult<R>> execute(String operation, Collection<T> providers, ProviderCall<T, R> call) {
+        return execute(operation, providers, null, false, false, call);
+    }
+
+    /**
+     * Like {@link #execute(String, Collection, ProviderCall)}, but for calls made from within a provider call, e.g. to the
+     * replicas of a group. The enclosing call already holds a permit of the bulkhead, so these calls don't take one.
+     *
+     * @param deadline deadline of every single call
+     */
+    public <T extends RemoteCoverageProvider, R> Map<String, ProviderResult<R>> executeNested(String operation, Collection<T> providers, Duration deadline, ProviderCall<T, R> call) {
+        return execute(operation, providers, deadline, true, false, call);
+    }
+
+    /**
+     * Like {@link #execute(String, Collection, ProviderCall)}, but for calls that change the state of the provider.
+     * Calls that miss their deadline keep running, their results are {@link ProviderResult#pending() pending}.
+     */
+    public <T extends RemoteCoverageProvider, R> Map<String, ProviderResult<R>> executeDestructive(String operation, Collection<T> providers, ProviderCall<T, R> call) {
+        return execute(operation, providers, null, false, true, call);
+    }
+
+    /**
+     * Like {@link #executeNested(String, Collection, Duration, ProviderCall)}, but for calls that change the state of the
+     * providers. Waits until every call finished, the deadline of the enclosing call applies instead.
+     */
+    public <T extends RemoteCoverageProvider, R> Map<String, ProviderResult<R>> executeDestructiveNested(String operation, Collection<T> providers, ProviderCall<T, R> call) {
+        return execute(operation, providers, null, true, true, call);
+    }
+
+    private <T extends RemoteCoverageProvider, R> Map<String, ProviderResult<R>> execute(String operation, Collection<T> providers, Duration deadline,
+                                                                                       boolean nested, boolean destructive, ProviderCall<T, R> call) {
+        final long startNanos = System.nanoTime();
+        final Map<String, CompletableFuture<R>> futures = new LinkedHashMap<>();
+        final Map<String, CompletableFuture<Long>> completions = new LinkedHashMap<>();
+
+        for (T provider : providers) {
+            final CompletableFuture<R> future = submit(operation, provider, !nested, call);
+
+            futures.put(provider.name(), future);
+            completions.put(provider.name(), future.handle((result, failure) -> System.nanoTime()));
+        }
+
+        final Map<String, ProviderResult<R>> results = new LinkedHashMap<>();
+
+        for (T provider : providers) {
+            final Duration providerDeadline = nested && destructive ? null : deadline != null ? deadline : getDeadline(provider);
+            results.put(provider.name(), await(provider, futures.get(provider.name()), completions.get(provider.name()), startNanos, providerDeadline, destructive));
+        }
+
+        return results;
+    }
+
+    public Duration getDeadline(RemoteCoverageProvider provider) {
+        return provider.deadline() != null ? provider.deadline() : defaultDeadline;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends RemoteCoverageProvider, R> CompletableFuture<R> submit(String operation, T provider, boolean bulkheaded, ProviderCall<T, R> call) {
+        final String key = operation + ':' + provider.name();
+
+        final CompletableFuture<R> future = (CompletableFuture<R>) inFlight.computeIfAbsent(key, k -> {
+            final CompletableFuture<R> started = new CompletableFuture<>();
+
+            final Future<?> task = executor.submit(() -> {
+                try {
+                    if (!bulkheaded) {
+                        started.complete(call.call(provider));
+                        return;
+                    }
+
+                    bulkhead.acquire();
+                    try {
+                        started.complete(call.call(provider));
+                    } finally {
+                        // only once the call returned, a call that ignores the interrupt keeps its permit
+                        bulkhead.release();
+                    }
+                } catch (Throwable e) {
+                    started.completeExceptionally(e);
+                }
+            });
+
+            // cancelling a CompletableFuture does not interrupt the thread running the call
+            started.whenComplete((result, failure) -> {
+                if (started.isCancelled()) {
+                    task.cancel(true);
+                }
+            });
+
+            return started;
+        });
+
+        // registered after the future has been published, otherwise a fast call could remove it before it is added
+        future.whenComplete((result, failure) -> inFlight.remove(key, future));
+
+        return future;
+    }
+
+    /**
+     * @param deadline time after the start of the fan out the call is awaited, <code>null</code> to await it until it
+     *                 finished
+     */
+    private <R> ProviderResult<R> await(RemoteCoverageProvider provider, CompletableFuture<R> future, CompletableFuture<Long> completion, long startNanos,
+                                        Duration deadline, boolean destructive) {
+        try {
+            final R value = deadline != null
+                    ? future.get(Math.max(0, deadline.toNanos() - (System.nanoTime() - startNanos)), TimeUnit.NANOSECONDS)
+                    : future.get();
+
+            return new ProviderResult<>(value, null, false, getLatency(completion, startNanos));
+        } catch (TimeoutException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Provider [" + provider.name() + "] did not answer within [" + deadline + "]");
+            }
+
+            if (destructive) {
+                return new ProviderResult<>(null, e, true, deadline, future);
+            }
+
+            future.cancel(true);
+
+            return new ProviderResult<>(null, e, true, deadline);
+        } catch (CancellationException e) {
+            // the shared call missed the deadline of another request
+            return new ProviderResult<>(null, new TimeoutException("Call of provider [" + provider.name() + "] has been cancelled"), true,
+                    Duration.ofNanos(System.nanoTime() - startNanos));
+        } catch (ExecutionException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Provider [" + provider.name() + "] failed", e.getCause());
+            }
+
+            return new ProviderResult<>(null, e.getCause(), false, getLatency(completion, startNanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return new ProviderResult<>(null, e, false, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * The completion time is taken by a dependent stage of the call, which may not have run yet right after the call
+     * finished, in that case the current time is close enough.
+     */
+    private static Duration getLatency(CompletableFuture<Long> completion, long startNanos) {
+        return Duration.ofNanos(completion.getNow(System.nanoTime()) - startNanos);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface ProviderCall<T extends RemoteCoverageProvider, R> {
+        R call(T provider) throws Exception;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outcome of a single provider call of a {@link ProviderFanOut}.
+ *
+ * @param value    result of the call, <code>null</code> if it failed
+ * @param failure  cause of the failure, <code>null</code> if the call succeeded
+ * @param timedOut whether the call did not finish within the deadline of the provider
+ * @param latency  time from the start of the fan out until the call finished, or until its deadline if it timed out
+ * @param pending  the call that timed out but keeps running, because it changes the state of the provider,
+ *                 <code>null</code> otherwise
+ */
+public record ProviderResult<R>(R value, Throwable failure, boolean timedOut, Duration latency, CompletableFuture<R> pending) {
+
+    public ProviderResult(R value, Throwable failure, boolean timedOut, Duration latency) {
+        this(value, failure, timedOut, latency, null);
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.discovery.ProviderRegistryListener;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest snapshot of every remote provider, shared by all requests.
+ */
+@Service
+public class ProviderSnapshotStore implements ProviderRegistryListener {
+
+    private static final ProviderSnapshot PENDING = new ProviderSnapshot(ProviderStatus.PENDING, null);
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Map<String, ProviderSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * @return the latest snapshot of the provider or a {@link ProviderStatus#PENDING} one if it has not been collected yet
+     */
+    public ProviderSnapshot get(String providerName) {
+        return snapshots.getOrDefault(providerName, PENDING);
+    }
+
+    /**
+     * Stores the result of a collection. A failed collection keeps the last successful snapshot as
+     * {@link ProviderStatus#STALE}.
+     *
+     * @return the snapshot now stored for the provider
+     */
+    public ProviderSnapshot update(String providerName, ProviderResult<CoverageSnapshot> result) {
+        return snapshots.compute(providerName, (name, previous) -> {
+            if (result.isSuccess()) {
+                return new ProviderSnapshot(ProviderStatus.UP, result.value());
+            }
+
+            final CoverageSnapshot lastSnapshot = previous != null ? previous.snapshot() : null;
+            final ProviderStatus status = lastSnapshot != null ? ProviderStatus.STALE : ProviderStatus.FAILED;
+
+            log.warn("Coverage of provider [" + name + "] is " + status + ": " + result.failure());
+
+            return new ProviderSnapshot(status, lastSnapshot);
+        });
+    }
+
+    /**
+     * Drops the snapshot of the provider, e.g. after its coverage has been reset.
+     */
+    public void remove(String providerName) {
+        snapshots.remove(providerName);
+    }
+
+    @Override
+    public void providerRemoved(RemoteCoverageProvider provider) {
+        remove(provider.name());
+    }
+}
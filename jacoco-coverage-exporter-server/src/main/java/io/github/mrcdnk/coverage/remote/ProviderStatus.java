@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+/**
+ * State of the latest collection of a provider.
+ */
+public enum ProviderStatus {
+    /**
+     * Collected within its deadline.
+     */
+    UP,
+    /**
+     * Failed or timed out, the result of an earlier collection is served instead.
+     */
+    STALE,
+    /**
+     * Failed or timed out and there is no earlier result.
+     */
+    FAILED,
+    /**
+     * Not collected yet by the scheduled collection.
+     */
+    PENDING
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.GaugeFactory;
+import io.github.mrcdnk.coverage.analysis.ParallelAnalyzer;
+import io.github.mrcdnk.coverage.configuration.ClassIndexConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.index.ClassProbeIndexStore;
+import io.github.mrcdnk.coverage.index.ClassProbeIndexer;
+import io.github.mrcdnk.coverage.index.PersistentClassProbeIndex;
+import io.github.mrcdnk.coverage.prometheus.CollectionMetrics;
+import io.github.mrcdnk.coverage.prometheus.PrometheusConfiguration;
+import io.github.mrcdnk.coverage.prometheus.PrometheusMetricProvider;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Analysis pool, class index store, collection metrics and analysis settings shared by all remote adapters.
+ */
+@Service
+public class RemoteAnalysisPool {
+
+    private final ForkJoinPool pool;
+    private final ParallelAnalyzer parallelAnalyzer;
+    private final ClassProbeIndexStore classProbeIndexStore = new ClassProbeIndexStore();
+    private final boolean collectDetails;
+    private final CollectionMetrics collectionMetrics;
+    private final ClassIndexConfiguration classIndexConfiguration;
+    private final Map<String, PersistentClassProbeIndex> persistentIndices = new ConcurrentHashMap<>();
+    private final AtomicLong releasedRestoredClasses = new AtomicLong();
+
+    public RemoteAnalysisPool(RemoteCollectionConfiguration remoteCollectionConfiguration, MeterRegistry meterRegistry, PrometheusConfiguration prometheusConfiguration,
+                              ClassIndexConfiguration classIndexConfiguration) {
+        this.classIndexConfiguration = classIndexConfiguration;
+        this.pool = ParallelAnalyzer.createPool(remoteCollectionConfiguration.analysisParallelism());
+        this.parallelAnalyzer = new ParallelAnalyzer(pool);
+        this.collectDetails = remoteCollectionConfiguration.details() || prometheusConfiguration.details().isEnabled();
+        this.collectionMetrics = new CollectionMetrics(meterRegistry, providerName -> PrometheusMetricProvider.getTags(prometheusConfiguration, providerName));
+
+        final Tags tags = Tags.of(prometheusConfiguration.labels().entrySet().stream()
+                .map(entry -> Tag.of(entry.getKey(), entry.getValue()))
+                .toList());
+
+        FunctionCounter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "class.index.hits", classProbeIndexStore, ClassProbeIndexStore::getHits)
+                .description("Classes whose index has been shared with another application or an earlier version of the same file")
+                .tags(tags)
+                .register(meterRegistry);
+        FunctionCounter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "class.index.misses", classProbeIndexStore, ClassProbeIndexStore::getMisses)
+                .description("Classes that had to be indexed")
+                .tags(tags)
+                .register(meterRegistry);
+        FunctionCounter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "class.index.restored", persistentIndices,
+                        indices -> releasedRestoredClasses.get() + indices.values().stream().mapToLong(PersistentClassProbeIndex::getRestoredClasses).sum())
+                .description("Classes restored from the persisted class index instead of being indexed")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "class.index.size", classProbeIndexStore, ClassProbeIndexStore::size)
+                .description("Distinct classes held in the class index store")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    public ParallelAnalyzer getParallelAnalyzer() {
+        return parallelAnalyzer;
+    }
+
+    /**
+     * @return whether snapshots have to contain the counters of all packages and classes
+     */
+    public boolean isCollectDetails() {
+        return collectDetails;
+    }
+
+    public CollectionMetrics getCollectionMetrics() {
+        return collectionMetrics;
+    }
+
+    /**
+     * @param providerName name of the provider, names the file of its persisted class index
+     */
+    public ClassProbeIndexer newProbeIndexer(String providerName) {
+        if (!classIndexConfiguration.persistent()) {
+            return new ClassProbeIndexer(pool, classProbeIndexStore);
+        }
+
+        final PersistentClassProbeIndex persistentIndex = new PersistentClassProbeIndex(
+                classIndexConfiguration.directory().resolve(providerName.replaceAll("[^A-Za-z0-9._-]", "_") + ".idx"));
+        persistentIndices.put(providerName, persistentIndex);
+
+        return new ClassProbeIndexer(pool, classProbeIndexStore, persistentIndex);
+    }
+
+    /**
+     * Drops the collection metrics and the persisted class index of a removed provider. The index file stays on disk,
+     * so the provider does not have to be indexed again if it comes back.
+     */
+    public void release(String providerName) {
+        collectionMetrics.remove(providerName);
+
+        final PersistentClassProbeIndex persistentIndex = persistentIndices.remove(providerName);
+
+        if (persistentIndex != null) {
+            releasedRestoredClasses.addAndGet(persistentIndex.getRestoredClasses());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistryListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects every remote provider in the background on its own interval, so requests only read the
+ * {@link ProviderSnapshotStore}. The first collection of each provider is spread randomly over its interval and every
+ * following one is moved by up to <code>coverage.collect.jitter</code> of the interval, so providers sharing an
+ * interval are not collected at the same time. Providers added at runtime are scheduled the same way, removed ones are
+ * not collected again.
+ */
+@Service
+@ConditionalOnProperty(name = "coverage.collect.scheduled", havingValue = "true")
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class RemoteCollectionScheduler implements InitializingBean, DisposableBean, ProviderRegistryListener {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final RemoteCollectionConfiguration remoteCollectionConfiguration;
+    private final RemoteSnapshotCollector remoteSnapshotCollector;
+    private final ProviderRegistry providerRegistry;
+    private final Map<String, RemoteCoverageProvider> scheduled = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+            .name("jacoco-collection-scheduler")
+            .daemon(true)
+            .factory());
+
+    public RemoteCollectionScheduler(RemoteCollectionConfiguration remoteCollectionConfiguration, RemoteSnapshotCollector remoteSnapshotCollector,
+                                     ProviderRegistry providerRegistry) {
+        this.remoteCollectionConfiguration = remoteCollectionConfiguration;
+        this.remoteSnapshotCollector = remoteSnapshotCollector;
+        this.providerRegistry = providerRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (RemoteCoverageProvider provider : providerRegistry.getProviders()) {
+            providerAdded(provider);
+        }
+    }
+
+    @Override
+    public void providerAdded(RemoteCoverageProvider provider) {
+        if (scheduled.putIfAbsent(provider.name(), provider) != null) {
+            return;
+        }
+
+        final long interval = getInterval(provider).toMillis();
+
+        try {
+            scheduler.schedule(() -> collect(provider), ThreadLocalRandom.current().nextLong(Math.max(1, interval)), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * A collection that is already running finishes, but is not scheduled again.
+     */
+    @Override
+    public void providerRemoved(RemoteCoverageProvider provider) {
+        scheduled.remove(provider.name(), provider);
+    }
+
+    /**
+     * Collects the provider right away, without changing its schedule.
+     */
+    public void refresh(RemoteCoverageProvider provider) {
+        Thread.ofVirtual().name("jacoco-refresh-" + provider.name()).start(() -> remoteSnapshotCollector.collect(List.of(provider)));
+    }
+
+    public Duration getInterval(RemoteCoverageProvider provider) {
+        return provider.interval() != null ? provider.interval() : remoteCollectionConfiguration.interval();
+    }
+
+    private void collect(RemoteCoverageProvider provider) {
+        if (!isScheduled(provider)) {
+            return;
+        }
+
+        // the collection waits for the provider deadline, so it must not block the scheduler thread
+        Thread.ofVirtual().name("jacoco-collect-" + provider.name()).start(() -> {
+            try {
+                remoteSnapshotCollector.collect(List.of(provider));
+            } catch (RuntimeException e) {
+                log.error("Scheduled collection of provider [" + provider.name() + "] failed", e);
+            } finally {
+                reschedule(provider);
+            }
+        });
+    }
+
+    private void reschedule(RemoteCoverageProvider provider) {
+        if (!isScheduled(provider)) {
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> collect(provider), getNextDelay(provider), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * @return whether the provider has not been removed or replaced by a changed definition
+     */
+    private boolean isScheduled(RemoteCoverageProvider provider) {
+        return scheduled.get(provider.name()) == provider;
+    }
+
+    private long getNextDelay(RemoteCoverageProvider provider) {
+        final long interval = getInterval(provider).toMillis();
+        final double jitter = Math.clamp(remoteCollectionConfiguration.jitter(), 0, 1);
+        final double offset = jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+
+        return Math.max(0, Math.round(interval * (1 + offset)));
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.CoverageProvider;
+
+import java.time.Duration;
+
+/**
+ * Provider of an application whose coverage is collected by the exporter server.
+ */
+public interface RemoteCoverageProvider extends CoverageProvider {
+    boolean enableProbeIndex();
+
+    /**
+     * @return maximum time a single collection of this provider may take, <code>null</code> to use
+     * <code>coverage.collect.providerTimeout</code>
+     */
+    Duration deadline();
+
+    /**
+     * @return time between two scheduled collections of this provider, <code>null</code> to use
+     * <code>coverage.collect.interval</code>
+     */
+    Duration interval();
+}
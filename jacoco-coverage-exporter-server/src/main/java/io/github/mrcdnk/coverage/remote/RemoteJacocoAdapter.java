@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.JacocoAdapter;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistryListener;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.group.ProviderGroupAdapter;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.http.HttpJacocoAdapter;
+import io.github.mrcdnk.coverage.index.ClassProbeIndex;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxJacocoAdapter;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpJacocoAdapter;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import javax.management.MalformedObjectNameException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delegates to the adapter of the transport a provider is configured with.
+ */
+@Service
+@Primary
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RemoteJacocoAdapter implements JacocoAdapter<RemoteCoverageProvider>, ProviderRegistryListener {
+
+    private final JmxJacocoAdapter jmxJacocoAdapter;
+    private final TcpJacocoAdapter tcpJacocoAdapter;
+    private final HttpJacocoAdapter httpJacocoAdapter;
+    private final ProviderGroupAdapter providerGroupAdapter;
+
+    public RemoteJacocoAdapter(JmxJacocoAdapter jmxJacocoAdapter, TcpJacocoAdapter tcpJacocoAdapter, HttpJacocoAdapter httpJacocoAdapter,
+                               ProviderGroupAdapter providerGroupAdapter) {
+        this.jmxJacocoAdapter = jmxJacocoAdapter;
+        this.tcpJacocoAdapter = tcpJacocoAdapter;
+        this.httpJacocoAdapter = httpJacocoAdapter;
+        this.providerGroupAdapter = providerGroupAdapter;
+    }
+
+    @Override
+    public void resetCoverage(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        adapterFor(coverageProvider).resetCoverage(coverageProvider);
+    }
+
+    @Override
+    public IBundleCoverage fetchCoverage(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        return adapterFor(coverageProvider).fetchCoverage(coverageProvider);
+    }
+
+    @Override
+    public CoverageSnapshot fetchSnapshot(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        return adapterFor(coverageProvider).fetchSnapshot(coverageProvider);
+    }
+
+    public IBundleCoverage collectCoverage(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        return adapterFor(coverageProvider).collectCoverage(coverageProvider);
+    }
+
+    public CoverageSnapshot collectSnapshot(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        return adapterFor(coverageProvider).collectSnapshot(coverageProvider);
+    }
+
+    public ExecutionDataStore dumpAndReset(RemoteCoverageProvider coverageProvider) throws IOException, MalformedObjectNameException {
+        return adapterFor(coverageProvider).dumpAndReset(coverageProvider);
+    }
+
+    public CoverageSnapshot analyzeExecutionData(RemoteCoverageProvider coverageProvider, ExecutionDataStore executionData) throws IOException {
+        return adapterFor(coverageProvider).analyzeExecutionData(coverageProvider, executionData);
+    }
+
+    public List<ClassProbeIndex> getClassIndices(RemoteCoverageProvider coverageProvider) throws IOException {
+        return adapterFor(coverageProvider).getClassIndices(coverageProvider);
+    }
+
+    @Override
+    public void providerAdded(RemoteCoverageProvider provider) {
+        adapterFor(provider).register(provider);
+    }
+
+    @Override
+    public void providerRemoved(RemoteCoverageProvider provider) {
+        adapterFor(provider).evict(provider);
+    }
+
+    @Override
+    public void providerSwept(RemoteCoverageProvider provider) {
+        adapterFor(provider).sweep(provider);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AbstractRemoteJacocoAdapter<RemoteCoverageProvider> adapterFor(RemoteCoverageProvider coverageProvider) {
+        final AbstractRemoteJacocoAdapter<?> adapter = switch (coverageProvider) {
+            case JmxCoverageProvider ignored -> jmxJacocoAdapter;
+            case TcpCoverageProvider ignored -> tcpJacocoAdapter;
+            case HttpCoverageProvider ignored -> httpJacocoAdapter;
+            case ProviderGroup ignored -> providerGroupAdapter;
+            default -> throw new IllegalArgumentException("Unsupported provider type [" + coverageProvider.getClass().getName() + "]");
+        };
+
+        // the switch above guarantees that the provider matches the adapter
+        return (AbstractRemoteJacocoAdapter<RemoteCoverageProvider>) adapter;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the snapshots of remote providers concurrently. Providers that fail or miss their deadline are served from
+ * their last successful snapshot and reported as {@link ProviderStatus#STALE}.
+ * <p>
+ * Without <code>coverage.collect.scheduled</code> all providers are collected once per request. Otherwise the
+ * {@link RemoteCollectionScheduler} collects them in the background and requests only read the
+ * {@link ProviderSnapshotStore}.
+ */
+@Service
+public class RemoteSnapshotCollector {
+
+    private final RemoteCollectionConfiguration remoteCollectionConfiguration;
+    private final ProviderRegistry providerRegistry;
+    private final RemoteJacocoAdapter remoteJacocoAdapter;
+    private final ProviderFanOut providerFanOut;
+    private final ProviderSnapshotStore providerSnapshotStore;
+    private final BundleCoverageCache bundleCoverageCache;
+
+    public RemoteSnapshotCollector(
+            RemoteCollectionConfiguration remoteCollectionConfiguration,
+            ProviderRegistry providerRegistry,
+            RemoteJacocoAdapter remoteJacocoAdapter,
+            ProviderFanOut providerFanOut,
+            ProviderSnapshotStore providerSnapshotStore,
+            BundleCoverageCache bundleCoverageCache) {
+        this.remoteCollectionConfiguration = remoteCollectionConfiguration;
+        this.providerRegistry = providerRegistry;
+        this.remoteJacocoAdapter = remoteJacocoAdapter;
+        this.providerFanOut = providerFanOut;
+        this.providerSnapshotStore = providerSnapshotStore;
+        this.bundleCoverageCache = bundleCoverageCache;
+    }
+
+    public ProviderSnapshot getSnapshot(RemoteCoverageProvider provider) {
+        if (remoteCollectionConfiguration.scheduled()) {
+            return providerSnapshotStore.get(provider.name());
+        }
+
+        return bundleCoverageCache.getOrComputeProviderSnapshots(() -> collect(providerRegistry.getProviders())).get(provider.name());
+    }
+
+    /**
+     * Like {@link #getSnapshot(RemoteCoverageProvider)}, but without scheduled collection only the given providers are
+     * collected.
+     *
+     * @return the snapshots by provider name, in the order of the given providers
+     */
+    public Map<String, ProviderSnapshot> getSnapshots(Collection<? extends RemoteCoverageProvider> providers) {
+        if (!remoteCollectionConfiguration.scheduled()) {
+            return collect(providers);
+        }
+
+        final Map<String, ProviderSnapshot> snapshots = new LinkedHashMap<>();
+
+        for (RemoteCoverageProvider provider : providers) {
+            snapshots.put(provider.name(), providerSnapshotStore.get(provider.name()));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Drops the last successful snapshot of the provider, e.g. after its coverage has been reset.
+     */
+    public void invalidate(RemoteCoverageProvider provider) {
+        providerSnapshotStore.remove(provider.name());
+    }
+
+    /**
+     * Collects the given providers concurrently and updates the {@link ProviderSnapshotStore}.
+     *
+     * @return the stored snapshots by provider name
+     */
+    public Map<String, ProviderSnapshot> collect(Collection<? extends RemoteCoverageProvider> providers) {
+        final Map<String, ProviderResult<CoverageSnapshot>> results = providerFanOut.execute("snapshot",
+                providers, remoteJacocoAdapter::collectSnapshot);
+
+        final Map<String, ProviderSnapshot> snapshots = new LinkedHashMap<>();
+
+        for (Map.Entry<String, ProviderResult<CoverageSnapshot>> result : results.entrySet()) {
+            snapshots.put(result.getKey(), providerSnapshotStore.update(result.getKey(), result.getValue()));
+        }
+
+        return snapshots;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.tcp;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.runtime.RemoteControlReader;
+import org.jacoco.core.runtime.RemoteControlWriter;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+
+/**
+ * Socket connection to a JaCoCo agent speaking the remote control protocol of the <code>tcpserver</code> and
+ * <code>tcpclient</code> output modes. Execution data is passed to the visitor record by record while it is read.
+ */
+class AgentConnection implements Closeable {
+
+    private final Socket socket;
+    private final RemoteControlWriter writer;
+    private final RemoteControlReader reader;
+    private final BoundedInputStream input;
+
+    private String sessionId;
+
+    AgentConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.writer = new RemoteControlWriter(socket.getOutputStream());
+        // unbounded, only counts the received bytes
+        this.input = BoundedInputStream.builder().setInputStream(socket.getInputStream()).get();
+        this.reader = new RemoteControlReader(new BufferedInputStream(input));
+        this.reader.setSessionInfoVisitor(info -> sessionId = info.getId());
+    }
+
+    static AgentConnection connect(String host, int port, Duration timeout) throws IOException {
+        final Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(host, port), (int) timeout.toMillis());
+            socket.setSoTimeout((int) timeout.toMillis());
+
+            return new AgentConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a dump command and reads the response until the agent confirms the command.
+     *
+     * @return <code>false</code> if the agent closed the connection
+     */
+    synchronized boolean execute(boolean dump, boolean reset, IExecutionDataVisitor executionDataVisitor) throws IOException {
+        reader.setExecutionDataVisitor(executionDataVisitor);
+        writer.visitDumpCommand(dump, reset);
+
+        return reader.read();
+    }
+
+    /**
+     * @return number of bytes received from the agent since the connection has been opened
+     */
+    synchronized long getReceivedBytes() {
+        return input.getCount();
+    }
+
+    /**
+     * @return id of the agent session of the last dump, <code>null</code> if the agent has not been dumped yet
+     */
+    synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
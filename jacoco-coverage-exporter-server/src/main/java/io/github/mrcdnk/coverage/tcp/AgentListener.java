@@ -0,0 +1,186 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.tcp;
+
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.IExecutionDataVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Accepts the connections of agents started with <code>output=tcpclient</code>. Several agents, e.g. replicas of the
+ * same application, can connect to the same listener, their execution data is merged.
+ */
+class AgentListener implements Closeable {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final TcpCoverageProvider provider;
+    private final ServerSocket serverSocket;
+    private final List<AgentConnection> connections = new CopyOnWriteArrayList<>();
+
+    private volatile String sessionId;
+
+    private AgentListener(TcpCoverageProvider provider, ServerSocket serverSocket) {
+        this.provider = provider;
+        this.serverSocket = serverSocket;
+    }
+
+    static AgentListener start(TcpCoverageProvider provider) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(provider.host(), provider.port()));
+
+        final AgentListener listener = new AgentListener(provider, serverSocket);
+
+        final Thread acceptor = new Thread(listener::accept, "jacoco-tcp-listener-" + provider.name());
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return listener;
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setSoTimeout((int) provider.timeout().toMillis());
+
+                final AgentConnection connection = new AgentConnection(socket);
+                connections.add(connection);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Agent [" + connection.getRemoteAddress() + "] connected for provider [" + provider.name() + "], "
+                            + getConnectionCount() + " agents connected");
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Failed to accept agent connection for provider [" + provider.name() + "]", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes the command on all connected agents. Each agent is dumped on its own, only the execution data of agents
+     * that confirmed the command is passed to the visitor. Connections that failed or have been closed by the agent are
+     * dropped.
+     *
+     * @return number of bytes received from all agents
+     * @throws IOException           if no agent confirmed the command
+     * @throws PartialResetException if the command resets the agents and only some of them confirmed it
+     */
+    long execute(boolean dump, boolean reset, IExecutionDataVisitor executionDataVisitor) throws IOException {
+        if (connections.isEmpty()) {
+            throw new IOException("No agent connected for provider [" + provider.name() + "] on port [" + provider.port() + "]");
+        }
+
+        final ExecutionDataStore completed = new ExecutionDataStore();
+        final List<String> confirmed = new ArrayList<>();
+        final List<String> sessionIds = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final List<IOException> failures = new ArrayList<>();
+        long receivedBytes = 0;
+
+        for (AgentConnection connection : connections) {
+            final long receivedBefore = connection.getReceivedBytes();
+            final ExecutionDataStore agentData = new ExecutionDataStore();
+
+            try {
+                if (!connection.execute(dump, reset, agentData)) {
+                    throw new IOException("Agent [" + connection.getRemoteAddress() + "] closed the connection before confirming the dump");
+                }
+
+                agentData.accept(completed);
+                confirmed.add(connection.getRemoteAddress());
+                sessionIds.add(connection.getSessionId());
+            } catch (IOException e) {
+                log.warn("Lost agent connection [" + connection.getRemoteAddress() + "] of provider [" + provider.name() + "]: " + e);
+
+                failed.add(connection.getRemoteAddress());
+                failures.add(e);
+                connections.remove(connection);
+                connection.close();
+            } finally {
+                receivedBytes += connection.getReceivedBytes() - receivedBefore;
+            }
+        }
+
+        if (confirmed.isEmpty()) {
+            throw withSuppressed(new IOException("No agent of provider [" + provider.name() + "] confirmed the dump, failed agents " + failed), failures);
+        }
+
+        if (reset && !failed.isEmpty()) {
+            throw withSuppressed(new PartialResetException("Failed to reset agents " + failed + " of provider [" + provider.name() + "], "
+                    + confirmed.size() + " agents have been reset", dump ? completed : null, confirmed, failed), failures);
+        }
+
+        if (dump) {
+            // a new or restarted agent changes the session of the provider
+            sessionId = sessionIds.stream().filter(Objects::nonNull).sorted().collect(Collectors.joining(","));
+        }
+
+        completed.accept(executionDataVisitor);
+
+        return receivedBytes;
+    }
+
+    private static <E extends IOException> E withSuppressed(E exception, List<IOException> failures) {
+        for (IOException failure : failures) {
+            exception.addSuppressed(failure);
+        }
+
+        return exception;
+    }
+
+    /**
+     * @return ids of the sessions of the agents that confirmed the last dump, <code>null</code> if there was none
+     */
+    String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return number of agents currently connected
+     */
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+
+        for (AgentConnection connection : connections) {
+            connection.close();
+        }
+
+        connections.clear();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.tcp;
+
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Provider whose execution data is collected from a JaCoCo agent with the output mode <code>tcpserver</code> or
+ * <code>tcpclient</code>.
+ *
+ * @param host     host of the agent for <code>tcpserver</code>, local address to listen on for <code>tcpclient</code>
+ * @param port     port of the agent for <code>tcpserver</code>, local port to listen on for <code>tcpclient</code>
+ * @param output   output mode the agent has been started with
+ * @param timeout  connect and read timeout for a single dump
+ * @param deadline maximum time for a whole collection, defaults to <code>coverage.collect.providerTimeout</code>
+ * @param interval time between scheduled collections, defaults to <code>coverage.collect.interval</code>
+ */
+public record TcpCoverageProvider(
+        String name,
+        @DefaultValue("localhost") String host,
+        @DefaultValue("6300") int port,
+        String[] classesLocations,
+        @DefaultValue("true") boolean enableProbeIndex,
+        @DefaultValue("tcpserver") AgentOutput output,
+        @DefaultValue("10s") Duration timeout,
+        Duration deadline,
+        Duration interval
+) implements RemoteCoverageProvider {
+
+    public enum AgentOutput {
+        /**
+         * The agent listens for connections, the exporter connects for every dump.
+         */
+        TCPSERVER,
+        /**
+         * The agent connects to the exporter on startup and keeps the connection open.
+         */
+        TCPCLIENT
+    }
+}
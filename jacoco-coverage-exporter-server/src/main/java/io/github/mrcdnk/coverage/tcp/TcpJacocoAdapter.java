@@ -0,0 +1,188 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.tcp;
+
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.remote.AbstractRemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects execution data through the remote control protocol of the JaCoCo agent. The execution data records are
+ * merged into the {@link ExecutionDataStore} while they are read from the socket, the dump is never held as a whole.
+ */
+@Service
+public class TcpJacocoAdapter extends AbstractRemoteJacocoAdapter<TcpCoverageProvider> implements DisposableBean {
+
+    private final Map<String, AgentListener> listeners = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionIds = new ConcurrentHashMap<>();
+
+    public TcpJacocoAdapter(BundleCoverageCache bundleCoverageCache, RemoteAnalysisPool analysisPool, CoverageHistory coverageHistory, ExecDataArchive execDataArchive, RemoteCollectionConfiguration remoteCollectionConfiguration) {
+        super(bundleCoverageCache, analysisPool, coverageHistory, execDataArchive);
+
+        for (TcpCoverageProvider provider : remoteCollectionConfiguration.tcpProviders()) {
+            register(provider);
+        }
+    }
+
+    /**
+     * Starts listening for the agents of providers using the {@link TcpCoverageProvider.AgentOutput#TCPCLIENT} output.
+     */
+    @Override
+    public void register(TcpCoverageProvider coverageProvider) {
+        if (coverageProvider.output() != TcpCoverageProvider.AgentOutput.TCPCLIENT || listeners.containsKey(coverageProvider.name())) {
+            return;
+        }
+
+        try {
+            listeners.put(coverageProvider.name(), AgentListener.start(coverageProvider));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to listen for agents of provider [" + coverageProvider.name() + "] on port [" + coverageProvider.port() + "]", e);
+        }
+    }
+
+    /**
+     * Closes the listener of the provider, which disconnects its agents.
+     */
+    @Override
+    public void evict(TcpCoverageProvider coverageProvider) {
+        final AgentListener listener = listeners.remove(coverageProvider.name());
+        sessionIds.remove(coverageProvider.name());
+
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to close the listener of provider [" + coverageProvider.name() + "]", e);
+            } finally {
+                super.evict(coverageProvider);
+            }
+        } else {
+            super.evict(coverageProvider);
+        }
+    }
+
+    @Override
+    public void resetCoverage(TcpCoverageProvider coverageProvider) throws IOException {
+        execute(coverageProvider, false, true, data -> {}, CollectionCycle.NONE);
+    }
+
+    /**
+     * Execution data is decoded while it is read from the agent, so the decoding is recorded as part of the
+     * {@link CollectionCycle.Phase#TRANSFER}.
+     */
+    @Override
+    protected ExecutionDataStore fetchExecutionData(TcpCoverageProvider coverageProvider, CollectionCycle cycle) throws IOException {
+        final ExecutionDataStore executionDataStore = new ExecutionDataStore();
+
+        execute(coverageProvider, true, false, executionDataStore, cycle);
+
+        return executionDataStore;
+    }
+
+    @Override
+    protected ExecutionDataStore fetchAndResetExecutionData(TcpCoverageProvider coverageProvider) throws IOException {
+        final ExecutionDataStore executionDataStore = new ExecutionDataStore();
+
+        execute(coverageProvider, true, true, executionDataStore, CollectionCycle.NONE);
+
+        return executionDataStore;
+    }
+
+    /**
+     * @param executionDataVisitor receives the execution data of the agents, its content is incomplete if this fails
+     */
+    private void execute(TcpCoverageProvider coverageProvider, boolean dump, boolean reset, IExecutionDataVisitor executionDataVisitor,
+                         CollectionCycle cycle) throws IOException {
+        switch (coverageProvider.output()) {
+            case TCPSERVER -> {
+                final long connectStart = System.nanoTime();
+
+                try (AgentConnection connection = AgentConnection.connect(coverageProvider.host(), coverageProvider.port(), coverageProvider.timeout())) {
+                    cycle.record(CollectionCycle.Phase.CONNECT, connectStart);
+
+                    final long transferStart = System.nanoTime();
+                    // execution data read before the agent closed the connection may be incomplete, the caller drops it
+                    if (!connection.execute(dump, reset, executionDataVisitor)) {
+                        throw new IOException("Agent of provider [" + coverageProvider.name() + "] closed the connection before confirming the dump");
+                    }
+
+                    cycle.record(CollectionCycle.Phase.TRANSFER, transferStart);
+                    cycle.transferred(connection.getReceivedBytes());
+
+                    if (dump) {
+                        recordSession(coverageProvider, connection.getSessionId());
+                    }
+                }
+            }
+            case TCPCLIENT -> {
+                final AgentListener listener = listeners.get(coverageProvider.name());
+
+                if (listener == null) {
+                    throw new IllegalStateException("No listener for provider [" + coverageProvider.name() + "]");
+                }
+
+                // agents keep their connections open, there is nothing to connect
+                final long transferStart = System.nanoTime();
+                final long receivedBytes = listener.execute(dump, reset, executionDataVisitor);
+                cycle.record(CollectionCycle.Phase.TRANSFER, transferStart);
+                cycle.transferred(receivedBytes);
+
+                if (dump) {
+                    recordSession(coverageProvider, listener.getSessionId());
+                }
+            }
+        }
+    }
+
+    private void recordSession(TcpCoverageProvider coverageProvider, String sessionId) {
+        if (sessionId != null) {
+            sessionIds.put(coverageProvider.name(), sessionId);
+        } else {
+            sessionIds.remove(coverageProvider.name());
+        }
+    }
+
+    @Override
+    protected String getSessionId(TcpCoverageProvider coverageProvider) {
+        return sessionIds.get(coverageProvider.name());
+    }
+
+    AgentListener getListener(TcpCoverageProvider coverageProvider) {
+        return listeners.get(coverageProvider.name());
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (AgentListener listener : listeners.values()) {
+            listener.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.api.v1;
+
+import io.github.mrcdnk.coverage.capture.CoverageCapture;
+import io.github.mrcdnk.coverage.capture.CoverageCaptures;
+import io.github.mrcdnk.coverage.configuration.CoverageCaptureConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.remote.RemoteCoverageProvider;
+import io.github.mrcdnk.coverage.remote.RemoteJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.RemoteSnapshotCollector;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CoverageControllerTest {
+
+    private final RemoteCollectionConfiguration configuration = new RemoteCollectionConfiguration(new JmxCoverageProvider[0],
+            new TcpCoverageProvider[0], new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofMillis(200), 4,
+            false, Duration.ofSeconds(30), 0.1, true);
+
+    private final ProviderRegistry providerRegistry = mock(ProviderRegistry.class);
+    private final RemoteJacocoAdapter remoteJacocoAdapter = mock(RemoteJacocoAdapter.class);
+    private final ProviderFanOut providerFanOut = new ProviderFanOut(configuration);
+    private final CoverageCaptures coverageCaptures = new CoverageCaptures(new CoverageCaptureConfiguration(16));
+
+    @SuppressWarnings("unchecked")
+    private final CoverageController controller = new CoverageController(configuration, providerRegistry, remoteJacocoAdapter, providerFanOut,
+            mock(RemoteSnapshotCollector.class), mock(ObjectProvider.class), coverageCaptures);
+
+    @AfterEach
+    void destroy() {
+        providerFanOut.destroy();
+    }
+
+    @Test
+    void attachesExecutionDataOfLateResetToCapture() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<RemoteCoverageProvider> providers = List.of(provider("fast"), provider("slow"));
+
+        when(providerRegistry.getProviders()).thenReturn(providers);
+        doAnswer(invocation -> {
+            if (invocation.<RemoteCoverageProvider>getArgument(0).name().equals("slow")) {
+                release.await();
+            }
+            return store("Foo");
+        }).when(remoteJacocoAdapter).dumpAndReset(any());
+
+        final CoverageController.ResetResponse response = controller.reset(null, "late");
+
+        assertThat(response.providers().get("fast").status()).isEqualTo(CoverageController.ResetStatus.RESET);
+        assertThat(response.providers().get("slow").status()).isEqualTo(CoverageController.ResetStatus.PENDING);
+
+        final CoverageCapture capture = coverageCaptures.get("late");
+        assertThat(capture.getProviders()).containsExactly("fast");
+        assertThat(capture.getPendingProviders()).containsExactly("slow");
+
+        release.countDown();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!capture.getPendingProviders().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(capture.getProviders()).containsExactly("fast", "slow");
+        assertThat(capture.getExecutionData("slow").contains("Foo")).isTrue();
+    }
+
+    @Test
+    void capturesExecutionDataOfPartialReset() throws Exception {
+        when(providerRegistry.getProviders()).thenReturn(List.of(provider("group")));
+        doAnswer(invocation -> {
+            throw new PartialResetException("partial", store("Bar"), List.of("group/a"), List.of("group/b"));
+        }).when(remoteJacocoAdapter).dumpAndReset(any());
+
+        final CoverageController.ProviderReset reset = controller.reset(null, "partial").providers().get("group");
+
+        assertThat(reset.status()).isEqualTo(CoverageController.ResetStatus.PARTIAL);
+        assertThat(reset.failed()).containsExactly("group/b");
+        assertThat(reset.capturedClasses()).isEqualTo(1);
+        assertThat(coverageCaptures.get("partial").getExecutionData("group").contains("Bar")).isTrue();
+    }
+
+    private static TcpCoverageProvider provider(String name) {
+        return new TcpCoverageProvider(name, "localhost", 6300, new String[0], true, TcpCoverageProvider.AgentOutput.TCPSERVER,
+                Duration.ofSeconds(1), null, null);
+    }
+
+    private static ExecutionDataStore store(String className) {
+        final ExecutionDataStore store = new ExecutionDataStore();
+        store.put(new ExecutionData(className.hashCode(), className, new boolean[]{true}));
+        return store;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.api.v1;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.mrcdnk.coverage.discovery.ProviderRegistry;
+import io.github.mrcdnk.coverage.remote.ProviderSnapshot;
+import io.github.mrcdnk.coverage.remote.ProviderStatus;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import io.github.mrcdnk.coverage.remote.RemoteSnapshotCollector;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import io.github.mrcdnk.coverage.snapshot.MethodCounters;
+import io.github.mrcdnk.coverage.snapshot.NodeCounters;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CoverageJsonControllerTest {
+
+    private static final int ENTITIES = ICoverageNode.CounterEntity.values().length;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProviderRegistry providerRegistry = mock(ProviderRegistry.class);
+    private final RemoteSnapshotCollector remoteSnapshotCollector = mock(RemoteSnapshotCollector.class);
+    private final CoverageJsonController controller = new CoverageJsonController(providerRegistry, remoteSnapshotCollector,
+            mock(RemoteAnalysisPool.class), objectMapper);
+
+    private final TcpCoverageProvider provider = new TcpCoverageProvider("app", "localhost", 6300, new String[0], true,
+            TcpCoverageProvider.AgentOutput.TCPSERVER, Duration.ofSeconds(1), null, null);
+
+    @Test
+    void etagFollowsSnapshotGeneration() {
+        final CoverageSnapshot snapshot = CoverageSnapshot.of(new int[ENTITIES], new int[ENTITIES], 0);
+        serve(snapshot);
+
+        final String etag = controller.bundles(null, request(null)).getHeaders().getETag();
+
+        assertThat(controller.bundles(null, request(etag))).isNull();
+        assertThat(controller.bundles(null, request(null)).getHeaders().getETag()).isEqualTo(etag);
+
+        // renewed for unchanged coverage
+        serve(snapshot.renew());
+        assertThat(controller.bundles(null, request(etag))).isNull();
+
+        // same counters, but another collection
+        serve(CoverageSnapshot.of(new int[ENTITIES], new int[ENTITIES], 0));
+        assertThat(controller.bundles(null, request(etag)).getHeaders().getETag()).isNotEqualTo(etag);
+    }
+
+    @Test
+    void writesNullRatioForEmptyCounters() throws IOException {
+        serve(CoverageSnapshot.of(new int[ENTITIES], new int[ENTITIES], 0));
+
+        final JsonNode counters = read(controller.bundles(null, request(null))).get("providers").get(0).get("counters");
+
+        assertThat(counters.get("INSTRUCTION").get("ratio").isNull()).isTrue();
+    }
+
+    @Test
+    void servesMethodsOfServedSnapshot() throws IOException {
+        final int[] missed = new int[ENTITIES];
+        final int[] covered = new int[ENTITIES];
+        covered[ICoverageNode.CounterEntity.INSTRUCTION.ordinal()] = 3;
+
+        final MethodCounters methods = new MethodCounters() {
+            @Override
+            public List<NodeCounters> getMethods(String className) {
+                return className.equals("com/example/Foo") ? List.of(new NodeCounters("run()V", missed, covered)) : null;
+            }
+
+            @Override
+            public long getSizeInBytes() {
+                return 0;
+            }
+        };
+
+        serve(CoverageSnapshot.of(missed, covered, 1, CoverageTable.EMPTY, CoverageTable.EMPTY, methods));
+
+        final JsonNode method = read(controller.methods("app", "com/example/Foo", request(null))).get("items").get(0);
+
+        assertThat(method.get("name").asText()).isEqualTo("run()V");
+        assertThat(method.get("counters").get("INSTRUCTION").get("ratio").asDouble()).isEqualTo(1.0);
+    }
+
+    private void serve(CoverageSnapshot snapshot) {
+        when(providerRegistry.getProviders()).thenReturn(List.of(provider));
+        when(providerRegistry.get("app")).thenReturn(provider);
+        when(remoteSnapshotCollector.getSnapshots(any())).thenReturn(Map.of("app", new ProviderSnapshot(ProviderStatus.UP, snapshot)));
+    }
+
+    private static ServletWebRequest request(String etag) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1/coverage/bundles");
+
+        if (etag != null) {
+            request.addHeader("If-None-Match", etag);
+        }
+
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    private JsonNode read(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+
+        return objectMapper.readTree(body.toByteArray());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.archive;
+
+import io.github.mrcdnk.coverage.configuration.ExecDataArchiveConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExecDataArchiveTest {
+
+    private static final Instant EPOCH = Instant.parse("2024-05-01T10:30:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversArchivedExecutionData() throws Exception {
+        final ExecDataArchive archive = start(null);
+        archive.archive("app", store(data(1, "A", true, false)));
+        archive.archive("app", store(data(1, "A", false, true), data(2, "B", true)));
+        archive.destroy();
+
+        final ExecDataArchive recovered = start(null);
+        final ExecutionDataStore merged = archiveRecovered(recovered);
+        recovered.destroy();
+
+        assertThat(merged.get(1).getProbes()).containsExactly(true, true);
+        assertThat(merged.get(2).getProbes()).containsExactly(true);
+    }
+
+    @Test
+    void recoversArchiveAcrossCompaction() throws Exception {
+        writeLog(record(EPOCH.minusSeconds(3600), data(1, "A", true, false)),
+                record(EPOCH.minusSeconds(3500), data(1, "A", false, true)),
+                record(EPOCH.plusSeconds(60), data(2, "B", true)));
+
+        final ExecDataArchive archive = start(null);
+        assertThat(archiveRecovered(archive).getContents()).hasSize(2);
+        awaitSegments(1);
+        archive.destroy();
+
+        final ExecDataArchive recovered = start(null);
+        final ExecutionDataStore merged = archiveRecovered(recovered);
+        recovered.destroy();
+
+        assertThat(merged.get(1).getProbes()).containsExactly(true, true);
+        assertThat(merged.get(2).getProbes()).containsExactly(true);
+    }
+
+    @Test
+    void appliesEpochToSessions() throws Exception {
+        writeLog(record(EPOCH.minusSeconds(7200), data(1, "A", true)),
+                record(EPOCH.plusSeconds(60), data(2, "B", true)));
+
+        final ExecDataArchive archive = start(EPOCH);
+        final ExecutionDataStore merged = archiveRecovered(archive);
+        archive.destroy();
+
+        assertThat(merged.contains("A")).isFalse();
+        assertThat(merged.contains("B")).isTrue();
+    }
+
+    @Test
+    void compactionKeepsSessionsAfterEpoch() throws Exception {
+        // 10:05 and 10:50 share a window, 08:30 has a window of its own
+        writeLog(record(EPOCH.minusSeconds(7200), data(1, "A", true)),
+                record(EPOCH.minusSeconds(1500), data(2, "B", true)),
+                record(EPOCH.plusSeconds(1200), data(3, "C", true)));
+
+        final ExecDataArchive archive = start(null);
+        archiveRecovered(archive);
+        awaitSegments(1);
+        archive.destroy();
+
+        final ExecDataArchive recovered = start(EPOCH);
+        final ExecutionDataStore merged = archiveRecovered(recovered);
+        recovered.destroy();
+
+        assertThat(merged.contains("A")).isFalse();
+        // the epoch applies with the precision of a compaction window
+        assertThat(merged.contains("B")).isTrue();
+        assertThat(merged.contains("C")).isTrue();
+    }
+
+    @Test
+    void recoversRemovedArchive() throws Exception {
+        final ExecDataArchive archive = start(null);
+
+        for (int i = 0; i < 100; i++) {
+            archive.archive("app", store(data(i, "C" + i, true)));
+            archive.remove("app");
+        }
+
+        final ExecutionDataStore merged = archiveRecovered(archive);
+        archive.destroy();
+
+        assertThat(merged.getContents()).hasSize(100);
+    }
+
+    @Test
+    void servesSessionUntilRecovered() throws Exception {
+        writeLog(record(EPOCH, data(1, "A", true)));
+
+        final ExecDataArchive archive = start(null);
+        final ExecutionDataStore session = archive.archive("app", store(data(2, "B", true)));
+        final ExecutionDataStore merged = archiveRecovered(archive);
+        archive.destroy();
+
+        assertThat(session.contains("B")).isTrue();
+        // the session archived before the recovery is merged with the recovered sessions
+        assertThat(merged.contains("A")).isTrue();
+        assertThat(merged.contains("B")).isTrue();
+    }
+
+    /**
+     * Archives an empty session once the log of the provider has been recovered by the writer.
+     */
+    private static ExecutionDataStore archiveRecovered(ExecDataArchive archive) throws InterruptedException {
+        archive.archive("app", new ExecutionDataStore());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (!archive.isRecovered("app") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(archive.isRecovered("app")).isTrue();
+
+        return archive.archive("app", new ExecutionDataStore());
+    }
+
+    private ExecDataArchive start(Instant epoch) {
+        final ExecDataArchive archive = new ExecDataArchive(new ExecDataArchiveConfiguration(true, directory, DataSize.ofKilobytes(64), epoch,
+                Duration.ZERO, Duration.ofHours(1)), new RemoteCollectionConfiguration(new JmxCoverageProvider[0], new TcpCoverageProvider[0],
+                new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofSeconds(10), 1, false, Duration.ofSeconds(30), 0.1, true));
+        archive.afterPropertiesSet();
+
+        return archive;
+    }
+
+    /**
+     * Writes every record into a segment of its own.
+     */
+    private void writeLog(SegmentLog.LogRecord... records) throws IOException {
+        final SegmentLog segmentLog = new SegmentLog(directory.resolve("app"), 1);
+        segmentLog.recover((timestamp, payload) -> {});
+
+        for (SegmentLog.LogRecord record : records) {
+            segmentLog.append(record.timestamp(), record.payload());
+        }
+
+        segmentLog.close();
+        assertThat(segmentCount()).isEqualTo(records.length);
+    }
+
+    private void awaitSegments(int segments) throws InterruptedException, IOException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (segmentCount() > segments && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(segmentCount()).isEqualTo(segments);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("app"))) {
+            return files.count();
+        }
+    }
+
+    private static SegmentLog.LogRecord record(Instant timestamp, ExecutionData... executionData) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store(executionData).accept(new ExecutionDataWriter(bytes));
+
+        return new SegmentLog.LogRecord(timestamp.toEpochMilli(), bytes.toByteArray());
+    }
+
+    private static ExecutionDataStore store(ExecutionData... executionData) {
+        final ExecutionDataStore store = new ExecutionDataStore();
+
+        for (ExecutionData data : executionData) {
+            store.put(data);
+        }
+
+        return store;
+    }
+
+    private static ExecutionData data(long id, String name, boolean... probes) {
+        return new ExecutionData(id, name, probes);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.discovery;
+
+import io.github.mrcdnk.coverage.configuration.ProviderDiscoveryConfiguration;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProviderRegistryTest {
+
+    private final ProviderRegistryListener listener = mock(ProviderRegistryListener.class);
+    private ProviderRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        final ProviderFanOut providerFanOut = mock(ProviderFanOut.class);
+        when(providerFanOut.getDeadline(any())).thenReturn(Duration.ofMillis(20));
+
+        final ObjectProvider<ProviderRegistryListener> listeners = mock(ObjectProvider.class);
+        when(listeners.orderedStream()).thenAnswer(invocation -> Stream.of(listener));
+
+        final ObjectProvider<ProviderDiscovery> discoveries = mock(ObjectProvider.class);
+        when(discoveries.orderedStream()).thenAnswer(invocation -> Stream.empty());
+
+        registry = new ProviderRegistry(new RemoteCollectionConfiguration(new JmxCoverageProvider[0], new TcpCoverageProvider[0],
+                new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofSeconds(10), 16, false, Duration.ofSeconds(30), 0.1, true),
+                new ProviderDiscoveryConfiguration(null, Duration.ofSeconds(10)), providerFanOut, listeners, discoveries);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    void removedProviderIsSweptByName() {
+        final HttpCoverageProvider provider = provider("http://a");
+
+        registry.update("test", List.of(provider));
+        registry.update("test", List.of());
+
+        verify(listener, timeout(2000).times(2)).providerRemoved(provider);
+        verify(listener, never()).providerSwept(any());
+        assertThat(registry.contains("app")).isFalse();
+    }
+
+    @Test
+    void changedProviderIsSweptByIdentity() {
+        final HttpCoverageProvider previous = provider("http://a");
+        final HttpCoverageProvider changed = provider("http://b");
+
+        registry.update("test", List.of(previous));
+        registry.update("test", List.of(changed));
+
+        verify(listener).providerAdded(changed);
+        verify(listener, timeout(2000)).providerSwept(previous);
+        verify(listener).providerRemoved(previous);
+        verify(listener, never()).providerRemoved(changed);
+        assertThat(registry.get("app")).isSameAs(changed);
+    }
+
+    @Test
+    void unchangedProviderIsKept() {
+        final HttpCoverageProvider provider = provider("http://a");
+
+        registry.update("test", List.of(provider));
+        registry.update("test", List.of(provider("http://a")));
+
+        verify(listener).providerAdded(any());
+        verify(listener, never()).providerRemoved(any());
+        assertThat(registry.get("app")).isSameAs(provider);
+    }
+
+    private static HttpCoverageProvider provider(String url) {
+        return new HttpCoverageProvider("app", URI.create(url), new String[]{"classes"}, true, Duration.ofSeconds(1), null, null);
+    }
+}
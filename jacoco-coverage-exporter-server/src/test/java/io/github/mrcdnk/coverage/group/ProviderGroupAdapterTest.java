@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.group;
+
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxJacocoAdapter;
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import io.github.mrcdnk.coverage.remote.ProviderFanOut;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpJacocoAdapter;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ProviderGroupAdapterTest {
+
+    private final RemoteCollectionConfiguration configuration = new RemoteCollectionConfiguration(new JmxCoverageProvider[0],
+            new TcpCoverageProvider[0], new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofSeconds(5), 4,
+            false, Duration.ofSeconds(30), 0.1, true);
+
+    private final ExecDataArchive execDataArchive = mock(ExecDataArchive.class);
+    private final TcpJacocoAdapter tcpJacocoAdapter = mock(TcpJacocoAdapter.class);
+    private final ProviderFanOut providerFanOut = new ProviderFanOut(configuration);
+    private final ProviderGroupAdapter adapter = new ProviderGroupAdapter(mock(BundleCoverageCache.class), mock(RemoteAnalysisPool.class),
+            mock(CoverageHistory.class), execDataArchive, mock(JmxJacocoAdapter.class), tcpJacocoAdapter, providerFanOut, configuration);
+
+    private final ProviderGroup group = new ProviderGroup("app", new JmxCoverageProvider[0],
+            new TcpCoverageProvider[]{replica("a"), replica("b")}, new String[0], true, null, null, null, Duration.ofMinutes(5));
+
+    @AfterEach
+    void destroy() {
+        providerFanOut.destroy();
+    }
+
+    @Test
+    void dumpAndResetKeepsExecutionDataOfReplicasThatHaveBeenReset() throws Exception {
+        doAnswer(invocation -> switch (invocation.<TcpCoverageProvider>getArgument(0).name()) {
+            case "app/a" -> store(new ExecutionData(1, "Foo", new boolean[]{true, false}));
+            default -> throw new IOException("refused");
+        }).when(tcpJacocoAdapter).fetchAndResetSessionExecutionData(any());
+
+        assertThatThrownBy(() -> adapter.dumpAndReset(group))
+                .isInstanceOfSatisfying(PartialResetException.class, e -> {
+                    assertThat(e.getReset()).containsExactly("app/a");
+                    assertThat(e.getFailed()).containsExactly("app/b");
+                    assertThat(e.getSuppressed()).hasSize(1);
+                    assertThat(e.getExecutionData().get(1).getProbes()).containsExactly(true, false);
+                });
+
+        verify(execDataArchive).archive(eq("app"), argThat(executionData -> executionData.contains("Foo")));
+    }
+
+    @Test
+    void dumpAndResetFailsIfNoReplicaHasBeenReset() throws Exception {
+        doAnswer(invocation -> {
+            throw new IOException("refused");
+        }).when(tcpJacocoAdapter).fetchAndResetSessionExecutionData(any());
+
+        assertThatThrownBy(() -> adapter.dumpAndReset(group))
+                .isInstanceOf(IOException.class)
+                .isNotInstanceOf(PartialResetException.class);
+
+        verify(execDataArchive, never()).archive(any(), any());
+    }
+
+    @Test
+    void resetCoverageReportsFailedReplicas() throws Exception {
+        doAnswer(invocation -> {
+            if (invocation.<TcpCoverageProvider>getArgument(0).name().equals("app/b")) {
+                throw new IOException("refused");
+            }
+            return null;
+        }).when(tcpJacocoAdapter).resetCoverage(any());
+
+        assertThatThrownBy(() -> adapter.resetCoverage(group))
+                .isInstanceOfSatisfying(PartialResetException.class, e -> {
+                    assertThat(e.getReset()).containsExactly("app/a");
+                    assertThat(e.getFailed()).containsExactly("app/b");
+                    assertThat(e.getExecutionData()).isNull();
+                });
+    }
+
+    private static TcpCoverageProvider replica(String name) {
+        return new TcpCoverageProvider(name, "localhost", 6300, null, true, TcpCoverageProvider.AgentOutput.TCPSERVER,
+                Duration.ofSeconds(1), null, null);
+    }
+
+    private static ExecutionDataStore store(ExecutionData... executionData) {
+        final ExecutionDataStore store = new ExecutionDataStore();
+
+        for (ExecutionData data : executionData) {
+            store.put(data);
+        }
+
+        return store;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.jmx;
+
+import io.github.mrcdnk.coverage.prometheus.PrometheusConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.ArgumentCaptor;
+
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JmxConnectionPoolTest {
+
+    private static final JmxCoverageProvider PROVIDER = provider(9010);
+
+    private final List<JMXConnector> connectors = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private IOException connectFailure;
+
+    private final JmxConnectionPool pool = new JmxConnectionPool(new SimpleMeterRegistry(), new PrometheusConfiguration(Map.of(), null)) {
+        @Override
+        JMXConnector connect(String service, int port) throws IOException {
+            ports.add(port);
+
+            if (connectFailure != null) {
+                throw connectFailure;
+            }
+
+            final JMXConnector connector = mock(JMXConnector.class);
+            when(connector.getMBeanServerConnection()).thenReturn(mock(MBeanServerConnection.class));
+            connectors.add(connector);
+
+            return connector;
+        }
+    };
+
+    @ParameterizedTest
+    @CsvSource({"1, 1", "2, 2", "3, 4", "6, 32", "7, 60", "17, 60", "100, 60"})
+    void backsOffExponentially(int failedAttempts, long seconds) {
+        assertThat(JmxConnectionPool.getBackoff(failedAttempts)).isEqualTo(Duration.ofSeconds(seconds));
+    }
+
+    @Test
+    void reusesTheConnection() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+        pool.execute(PROVIDER, proxy -> null);
+
+        assertThat(connectors).hasSize(1);
+    }
+
+    @Test
+    void retriesOnceIfAReusedConnectionIsStale() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = pool.execute(PROVIDER, proxy -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IOException("stale");
+            }
+
+            return "dumped";
+        });
+
+        assertThat(result).isEqualTo("dumped");
+        assertThat(calls).hasValue(2);
+        assertThat(connectors).hasSize(2);
+        verify(connectors.getFirst()).close();
+    }
+
+    @Test
+    void doesNotRetryOnAFreshConnection() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> pool.execute(PROVIDER, proxy -> {
+            calls.incrementAndGet();
+            throw new IOException("refused");
+        })).isInstanceOf(IOException.class).hasMessage("refused");
+
+        assertThat(calls).hasValue(1);
+        assertThat(connectors).hasSize(1);
+        verify(connectors.getFirst()).close();
+    }
+
+    @Test
+    void doesNotRetryCallsThatMustNotBeRepeated() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> pool.executeOnce(PROVIDER, proxy -> {
+            calls.incrementAndGet();
+            throw new IOException("stale");
+        })).isInstanceOf(IOException.class);
+
+        assertThat(calls).hasValue(1);
+        assertThat(connectors).hasSize(1);
+    }
+
+    @Test
+    void dropsTheConnectionOnceTheConnectorReportsAFailure() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+
+        final JMXConnector connector = connectors.getFirst();
+        final ArgumentCaptor<NotificationListener> listener = ArgumentCaptor.forClass(NotificationListener.class);
+        verify(connector).addConnectionNotificationListener(listener.capture(), isNull(), any());
+
+        listener.getValue().handleNotification(new JMXConnectionNotification(JMXConnectionNotification.FAILED, connector, "1", 1, null, null),
+                connector);
+        pool.execute(PROVIDER, proxy -> null);
+
+        assertThat(connectors).hasSize(2);
+        verify(connector).close();
+    }
+
+    @Test
+    void ignoresNotificationsOfReplacedConnectors() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+
+        final ArgumentCaptor<NotificationListener> listener = ArgumentCaptor.forClass(NotificationListener.class);
+        verify(connectors.getFirst()).addConnectionNotificationListener(listener.capture(), isNull(), any());
+
+        listener.getValue().handleNotification(new JMXConnectionNotification(JMXConnectionNotification.FAILED, this, "1", 1, null, null),
+                mock(JMXConnector.class));
+        pool.execute(PROVIDER, proxy -> null);
+
+        assertThat(connectors).hasSize(1);
+        verify(connectors.getFirst(), never()).close();
+    }
+
+    @Test
+    void replacesTheConnectionOfAProviderWhoseAddressChanged() throws Exception {
+        pool.execute(PROVIDER, proxy -> null);
+        pool.execute(provider(9011), proxy -> null);
+
+        assertThat(ports).containsExactly(9010, 9011);
+        verify(connectors.getFirst()).close();
+    }
+
+    @Test
+    void waitsForTheBackoffAfterAFailedConnectionAttempt() {
+        connectFailure = new IOException("refused");
+
+        assertThatThrownBy(() -> pool.execute(PROVIDER, proxy -> null)).isSameAs(connectFailure);
+        assertThatThrownBy(() -> pool.execute(PROVIDER, proxy -> null)).hasMessageContaining("next attempt in");
+
+        assertThat(ports).hasSize(1);
+    }
+
+    private static JmxCoverageProvider provider(int port) {
+        return new JmxCoverageProvider("app", "localhost", port, new String[0], false, null, null);
+    }
+}
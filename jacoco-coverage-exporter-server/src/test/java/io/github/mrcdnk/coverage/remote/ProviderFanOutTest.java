@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.remote;
+
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.tcp.TcpCoverageProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProviderFanOutTest {
+
+    private final ProviderFanOut fanOut = new ProviderFanOut(new RemoteCollectionConfiguration(new JmxCoverageProvider[0],
+            new TcpCoverageProvider[0], new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofMillis(100), 1,
+            false, Duration.ofSeconds(30), 0.1, true));
+
+    @AfterEach
+    void destroy() {
+        fanOut.destroy();
+    }
+
+    @Test
+    void interruptsTimedOutCallAndReleasesPermit() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        final ProviderResult<String> result = fanOut.execute("fetch", List.of(provider("hung")), provider -> {
+            try {
+                Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "late";
+        }).get("hung");
+
+        assertThat(result.timedOut()).isTrue();
+        assertThat(result.pending()).isNull();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // the bulkhead only has a single permit
+        final Map<String, ProviderResult<String>> next = fanOut.execute("fetch", List.of(provider("next")), provider -> "data");
+
+        assertThat(next.get("next").isSuccess()).isTrue();
+        assertThat(next.get("next").value()).isEqualTo("data");
+    }
+
+    @Test
+    void keepsTimedOutDestructiveCallRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ProviderResult<String> result = fanOut.executeDestructive("reset", List.of(provider("slow")), provider -> {
+            release.await();
+            return "reset";
+        }).get("slow");
+
+        assertThat(result.timedOut()).isTrue();
+        assertThat(result.pending()).isNotNull();
+        assertThat(result.pending()).isNotDone();
+
+        release.countDown();
+
+        assertThat(result.pending().get(5, TimeUnit.SECONDS)).isEqualTo("reset");
+    }
+
+    @Test
+    void nestedDestructiveCallsAwaitEveryProvider() {
+        final Map<String, ProviderResult<String>> results = fanOut.executeDestructiveNested("dump-reset", List.of(provider("a"), provider("b")), provider -> {
+            Thread.sleep(200);
+            return provider.name();
+        });
+
+        assertThat(results.values()).allSatisfy(result -> assertThat(result.isSuccess()).isTrue());
+        assertThat(results.get("b").value()).isEqualTo("b");
+    }
+
+    private static TcpCoverageProvider provider(String name) {
+        return new TcpCoverageProvider(name, "localhost", 6300, new String[0], true, TcpCoverageProvider.AgentOutput.TCPSERVER,
+                Duration.ofSeconds(1), null, null);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.tcp;
+
+import io.github.mrcdnk.coverage.archive.ExecDataArchive;
+import io.github.mrcdnk.coverage.configuration.RemoteCollectionConfiguration;
+import io.github.mrcdnk.coverage.group.ProviderGroup;
+import io.github.mrcdnk.coverage.history.CoverageHistory;
+import io.github.mrcdnk.coverage.http.HttpCoverageProvider;
+import io.github.mrcdnk.coverage.jmx.BundleCoverageCache;
+import io.github.mrcdnk.coverage.jmx.JmxCoverageProvider;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.remote.PartialResetException;
+import io.github.mrcdnk.coverage.remote.RemoteAnalysisPool;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.runtime.RemoteControlReader;
+import org.jacoco.core.runtime.RemoteControlWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs the remote control protocol against agents simulated on loopback.
+ */
+class TcpJacocoAdapterTest {
+
+    private final TcpJacocoAdapter adapter = new TcpJacocoAdapter(mock(BundleCoverageCache.class), mock(RemoteAnalysisPool.class),
+            mock(CoverageHistory.class), mock(ExecDataArchive.class), new RemoteCollectionConfiguration(new JmxCoverageProvider[0],
+            new TcpCoverageProvider[0], new HttpCoverageProvider[0], new ProviderGroup[0], 1, Duration.ofSeconds(5), 4, false,
+            Duration.ofSeconds(30), 0.1, true));
+
+    private final List<Closeable> resources = new ArrayList<>();
+
+    @AfterEach
+    void close() throws IOException {
+        adapter.destroy();
+
+        for (Closeable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void dumpsAgentInTcpserverMode() throws IOException {
+        final FakeAgentServer server = server(new FakeAgent(new boolean[]{true, false}, false));
+
+        final ExecutionDataStore executionData = adapter.fetchExecutionData(provider(TcpCoverageProvider.AgentOutput.TCPSERVER, server.port()),
+                CollectionCycle.NONE);
+
+        assertThat(executionData.get(1).getProbes()).containsExactly(true, false);
+        assertThat(server.agent.resets.get()).isZero();
+    }
+
+    @Test
+    void dumpsAndResetsAgentInTcpserverMode() throws IOException {
+        final FakeAgentServer server = server(new FakeAgent(new boolean[]{true, true}, false));
+
+        final ExecutionDataStore executionData = adapter.fetchAndResetExecutionData(provider(TcpCoverageProvider.AgentOutput.TCPSERVER, server.port()));
+
+        assertThat(executionData.get(1).getProbes()).containsExactly(true, true);
+        assertThat(server.agent.resets.get()).isEqualTo(1);
+    }
+
+    @Test
+    void failsIfTheAgentClosesTheConnectionBeforeConfirmingTheDump() throws IOException {
+        final FakeAgentServer server = server(new FakeAgent(new boolean[]{true}, true));
+        final TcpCoverageProvider provider = provider(TcpCoverageProvider.AgentOutput.TCPSERVER, server.port());
+
+        assertThatThrownBy(() -> adapter.fetchExecutionData(provider, CollectionCycle.NONE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("closed the connection before confirming the dump");
+        assertThatThrownBy(() -> adapter.fetchAndResetExecutionData(provider))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void mergesAgentsInTcpclientModeAndDropsAgentsThatDied() throws Exception {
+        final TcpCoverageProvider provider = provider(TcpCoverageProvider.AgentOutput.TCPCLIENT, freePort());
+        adapter.register(provider);
+
+        final FakeAgent healthy = new FakeAgent(new boolean[]{true, false}, false);
+        final FakeAgent dying = new FakeAgent(new boolean[]{false, true}, true);
+        connect(healthy, provider);
+        connect(dying, provider);
+        awaitConnections(provider, 2);
+
+        final ExecutionDataStore executionData = adapter.fetchExecutionData(provider, CollectionCycle.NONE);
+
+        // the probes the dying agent sent before closing the connection are not merged
+        assertThat(executionData.get(1).getProbes()).containsExactly(true, false);
+        assertThat(adapter.getListener(provider).getConnectionCount()).isEqualTo(1);
+
+        assertThat(adapter.fetchAndResetExecutionData(provider).get(1).getProbes()).containsExactly(true, false);
+        assertThat(healthy.resets.get()).isEqualTo(1);
+    }
+
+    @Test
+    void reportsAgentsThatFailedDuringAResetInTcpclientMode() throws Exception {
+        final TcpCoverageProvider provider = provider(TcpCoverageProvider.AgentOutput.TCPCLIENT, freePort());
+        adapter.register(provider);
+
+        connect(new FakeAgent(new boolean[]{true, false}, false), provider);
+        connect(new FakeAgent(new boolean[]{false, true}, true), provider);
+        awaitConnections(provider, 2);
+
+        assertThatThrownBy(() -> adapter.fetchAndResetExecutionData(provider))
+                .isInstanceOfSatisfying(PartialResetException.class, e -> {
+                    assertThat(e.getReset()).hasSize(1);
+                    assertThat(e.getFailed()).hasSize(1);
+                    assertThat(e.getSuppressed()).hasSize(1);
+                    assertThat(e.getExecutionData().get(1).getProbes()).containsExactly(true, false);
+                });
+    }
+
+    @Test
+    void failsIfNoAgentConfirmsTheDumpInTcpclientMode() throws Exception {
+        final TcpCoverageProvider provider = provider(TcpCoverageProvider.AgentOutput.TCPCLIENT, freePort());
+        adapter.register(provider);
+
+        connect(new FakeAgent(new boolean[]{true}, true), provider);
+        awaitConnections(provider, 1);
+
+        assertThatThrownBy(() -> adapter.fetchExecutionData(provider, CollectionCycle.NONE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("No agent");
+    }
+
+    @Test
+    void recordsTheSessionOfTheAgents() throws Exception {
+        final FakeAgentServer server = server(new FakeAgent("server", new boolean[]{true}, false));
+        final TcpCoverageProvider serverProvider = provider(TcpCoverageProvider.AgentOutput.TCPSERVER, server.port());
+
+        adapter.fetchExecutionData(serverProvider, CollectionCycle.NONE);
+
+        assertThat(adapter.getSessionId(serverProvider)).isEqualTo("server");
+
+        final TcpCoverageProvider clientProvider = new TcpCoverageProvider("clients", InetAddress.getLoopbackAddress().getHostAddress(),
+                freePort(), new String[0], false, TcpCoverageProvider.AgentOutput.TCPCLIENT, Duration.ofSeconds(5), null, null);
+        adapter.register(clientProvider);
+
+        connect(new FakeAgent("b", new boolean[]{true}, false), clientProvider);
+        connect(new FakeAgent("a", new boolean[]{true}, false), clientProvider);
+        awaitConnections(clientProvider, 2);
+
+        adapter.fetchExecutionData(clientProvider, CollectionCycle.NONE);
+
+        assertThat(adapter.getSessionId(clientProvider)).isEqualTo("a,b");
+    }
+
+    private FakeAgentServer server(FakeAgent agent) throws IOException {
+        final FakeAgentServer server = new FakeAgentServer(agent);
+        resources.add(server);
+        return server;
+    }
+
+    private void connect(FakeAgent agent, TcpCoverageProvider provider) throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), provider.port());
+        resources.add(socket);
+        agent.serve(socket);
+    }
+
+    private void awaitConnections(TcpCoverageProvider provider, int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+
+        while (adapter.getListener(provider).getConnectionCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(adapter.getListener(provider).getConnectionCount()).isEqualTo(count);
+    }
+
+    private static TcpCoverageProvider provider(TcpCoverageProvider.AgentOutput output, int port) {
+        return new TcpCoverageProvider("app", InetAddress.getLoopbackAddress().getHostAddress(), port, new String[0], false, output,
+                Duration.ofSeconds(5), null, null);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Answers dump commands like the agent, optionally closing the connection after the execution data instead of
+     * confirming the command.
+     */
+    private static final class FakeAgent {
+        private final String sessionId;
+        private final boolean[] probes;
+        private final boolean closeBeforeConfirming;
+        private final AtomicInteger resets = new AtomicInteger();
+
+        private FakeAgent(boolean[] probes, boolean closeBeforeConfirming) {
+            this("session", probes, closeBeforeConfirming);
+        }
+
+        private FakeAgent(String sessionId, boolean[] probes, boolean closeBeforeConfirming) {
+            this.sessionId = sessionId;
+            this.probes = probes;
+            this.closeBeforeConfirming = closeBeforeConfirming;
+        }
+
+        private void serve(Socket socket) {
+            Thread.ofVirtual().start(() -> {
+                try (socket) {
+                    final RemoteControlWriter writer = new RemoteControlWriter(socket.getOutputStream());
+                    final RemoteControlReader reader = new RemoteControlReader(socket.getInputStream());
+
+                    reader.setRemoteCommandVisitor((dump, reset) -> {
+                        if (dump) {
+                            writer.visitSessionInfo(new SessionInfo(sessionId, 1, 2));
+                            writer.visitClassExecution(new ExecutionData(1, "Foo", probes.clone()));
+                        }
+
+                        if (closeBeforeConfirming) {
+                            socket.close();
+                            return;
+                        }
+
+                        if (reset) {
+                            resets.incrementAndGet();
+                        }
+
+                        writer.sendCmdOk();
+                    });
+
+                    while (reader.read()) {
+                        // commands are answered by the visitor
+                    }
+                } catch (IOException e) {
+                    // connection closed by the exporter or by the agent itself
+                }
+            });
+        }
+    }
+
+    private static final class FakeAgentServer implements Closeable {
+        private final FakeAgent agent;
+        private final ServerSocket serverSocket;
+
+        private FakeAgentServer(FakeAgent agent) throws IOException {
+            this.agent = agent;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+            Thread.ofVirtual().start(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        agent.serve(serverSocket.accept());
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            });
+        }
+
+        private int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -53,7 +53,7 @@ public class GaugeFactory {
             return countGetter;
         }
 
-        String getSuffix() {
+        public String getSuffix() {
             return name().toLowerCase(Locale.ROOT);
         }
     }
@@ -16,6 +16,9 @@
 
 package io.github.mrcdnk.coverage;
 
+import io.github.mrcdnk.coverage.index.ClassProbeIndexer;
+import io.github.mrcdnk.coverage.index.IndexedCoverageCalculator;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
 import io.micrometer.core.annotation.Timed;
 import org.jacoco.core.analysis.Analyzer;
 import org.jacoco.core.analysis.CoverageBuilder;
@@ -33,6 +36,25 @@ public interface JacocoAdapter<T extends CoverageProvider> {
     @Timed(description = "Time required to fetch the coverage for a single application", value = "jacoco.scrape.duration.seconds", histogram = true)
     IBundleCoverage fetchCoverage(T coverageProvider) throws IOException, MalformedObjectNameException;
 
+    /**
+     * Collects the top level counters of the given provider. Adapters that are able to compute the counters without a
+     * full {@link IBundleCoverage} should override this.
+     */
+    default CoverageSnapshot fetchSnapshot(T coverageProvider) throws IOException, MalformedObjectNameException {
+        return CoverageSnapshot.of(fetchCoverage(coverageProvider));
+    }
+
+    default CoverageSnapshot analyzeIndexed(final ExecutionDataStore data, Collection<File> clazzFiles, ClassProbeIndexer indexer, IndexedCoverageCalculator calculator) throws IOException {
+        return analyzeIndexed(data, clazzFiles, indexer, calculator, false);
+    }
+
+    /**
+     * @param withDetails also include the counters of all packages and classes in the snapshot
+     */
+    default CoverageSnapshot analyzeIndexed(final ExecutionDataStore data, Collection<File> clazzFiles, ClassProbeIndexer indexer, IndexedCoverageCalculator calculator, boolean withDetails) throws IOException {
+        return calculator.update(indexer.index(clazzFiles), data, withDetails);
+    }
+
     default IBundleCoverage analyze(final ExecutionDataStore data, Collection<File> clazzFiles) throws IOException {
         final CoverageBuilder builder = new CoverageBuilder();
         final Analyzer analyzer = new Analyzer(data, builder);
@@ -16,143 +16,225 @@
 
 package io.github.mrcdnk.coverage;
 
+import io.github.mrcdnk.coverage.analysis.ParallelAnalyzer;
+import io.github.mrcdnk.coverage.budget.AnalysisBudget;
+import io.github.mrcdnk.coverage.index.ClassProbeIndexer;
+import io.github.mrcdnk.coverage.index.IndexedCoverageCalculator;
+import io.github.mrcdnk.coverage.inventory.ClassFileInventory;
+import io.github.mrcdnk.coverage.prometheus.CollectionCycle;
+import io.github.mrcdnk.coverage.prometheus.CollectionMetrics;
+import io.github.mrcdnk.coverage.snapshot.AnalysisFingerprint;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.ReusableSnapshots;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.tools.ExecFileLoader;
 import org.springframework.jmx.access.MBeanProxyFactoryBean;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
-public class LocalJacocoAdapter implements JacocoAdapter<LocalJacocoConfig> {
+public class LocalJacocoAdapter implements JacocoAdapter<LocalJacocoConfig>, Closeable {
 
 
-    private final Collection<File> clazzFiles = new ArrayList<>();
+    private ClassFileInventory classFileInventory;
+    private final ParallelAnalyzer parallelAnalyzer;
+    private final ClassProbeIndexer probeIndexer;
+    private final IndexedCoverageCalculator coverageCalculator = new IndexedCoverageCalculator();
+    private final ReusableSnapshots reusableSnapshots = new ReusableSnapshots();
 
     private final MBeanProxyFactoryBean proxyFactoryBean;
+    private final CollectionMetrics collectionMetrics;
     private final Log log = LogFactory.getLog(getClass());
 
     public LocalJacocoAdapter(MBeanProxyFactoryBean proxyFactoryBean) {
+        this(proxyFactoryBean, 1);
+    }
+
+    /**
+     * @param analysisParallelism number of threads used to analyze class files, values below 1 use all available processors
+     */
+    public LocalJacocoAdapter(MBeanProxyFactoryBean proxyFactoryBean, int analysisParallelism) {
+        this(proxyFactoryBean, analysisParallelism, CollectionMetrics.disabled());
+    }
+
+    /**
+     * @param collectionMetrics metrics the phases of every collection are recorded into
+     */
+    public LocalJacocoAdapter(MBeanProxyFactoryBean proxyFactoryBean, int analysisParallelism, CollectionMetrics collectionMetrics) {
+        this(proxyFactoryBean, ParallelAnalyzer.createPool(analysisParallelism), collectionMetrics);
+    }
+
+    /**
+     * @param analysisBudget budget the threads analyzing class files are bound to
+     */
+    public LocalJacocoAdapter(MBeanProxyFactoryBean proxyFactoryBean, int analysisParallelism, CollectionMetrics collectionMetrics, AnalysisBudget analysisBudget) {
+        this(proxyFactoryBean, analysisBudget.createPool(analysisParallelism, "jacoco-analysis"), collectionMetrics);
+    }
+
+    private LocalJacocoAdapter(MBeanProxyFactoryBean proxyFactoryBean, ForkJoinPool analysisPool, CollectionMetrics collectionMetrics) {
         this.proxyFactoryBean = proxyFactoryBean;
+        this.collectionMetrics = collectionMetrics;
+        this.parallelAnalyzer = new ParallelAnalyzer(analysisPool);
+        this.probeIndexer = new ClassProbeIndexer(analysisPool);
     }
 
     @Override
     public void resetCoverage(LocalJacocoConfig coverageProvider) {
-        if (proxyFactoryBean.getObject() instanceof JacocoMBeanProxy proxy) {
-            proxy.reset();
-        } else {
-            throw new IllegalStateException("Proxy has unexpected type!");
-        }
+        getProxy().reset();
     }
 
     @Override
     public IBundleCoverage fetchCoverage(LocalJacocoConfig coverageProvider) {
-        if (proxyFactoryBean.getObject() instanceof JacocoMBeanProxy proxy) {
-            final byte[] data = proxy.getExecutionData(false);
+        final CollectionCycle cycle = collectionMetrics.start(coverageProvider.name());
+        boolean success = false;
+
+        try {
+            final ExecutionDataStore executionData = loadExecutionData(getProxy(), cycle);
+            final Collection<File> clazzFiles = getClazzFiles(coverageProvider, cycle);
+
+            final long analysisStart = System.nanoTime();
+            final IBundleCoverage coverage = parallelAnalyzer.analyze(executionData, clazzFiles);
+            cycle.record(CollectionCycle.Phase.ANALYSIS, analysisStart);
+
+            success = true;
+            return coverage;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load class files: ", e);
+        } finally {
+            cycle.finish(success);
+        }
+    }
+
+    /**
+     * The class files are only analyzed again if the execution data, its session or the class files changed since the
+     * previous snapshot, otherwise that snapshot is reused.
+     */
+    @Override
+    public CoverageSnapshot fetchSnapshot(LocalJacocoConfig coverageProvider) {
+        final CollectionCycle cycle = collectionMetrics.start(coverageProvider.name());
+        boolean success = false;
+
+        try {
+            final JacocoMBeanProxy proxy = getProxy();
+            final String sessionId = proxy.getSessionId();
+            final ExecutionDataStore executionData = loadExecutionData(proxy, cycle);
+            final Collection<File> clazzFiles = getClazzFiles(coverageProvider, cycle);
+
+            if (reusableSnapshots.isNewSession(coverageProvider.name(), sessionId)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Session of [" + coverageProvider.name() + "] changed to [" + sessionId + "], dropping the previous results");
+                }
+
+                reusableSnapshots.invalidate(coverageProvider.name());
+                coverageCalculator.clear();
+            }
+
+            final long fingerprint = AnalysisFingerprint.of(sessionId, executionData, clazzFiles);
+            final CoverageSnapshot unchanged = reusableSnapshots.getUnchanged(coverageProvider.name(), fingerprint);
 
-            ExecFileLoader loader  = new ExecFileLoader();
-            try {
-                loader.load(new ByteArrayInputStream(data));
+            if (unchanged != null) {
+                cycle.skipped();
 
-                final Collection<File> classFiles = getClazzFiles(coverageProvider);
+                success = true;
+                return unchanged;
+            }
+
+            final long analysisStart = System.nanoTime();
+            final CoverageSnapshot snapshot;
 
-                return analyze(loader.getExecutionDataStore(), classFiles);
-            } catch (IOException e) {
-                throw new IllegalStateException("Failed to load class files: ", e);
+            if (!coverageProvider.enableProbeIndex()) {
+                snapshot = parallelAnalyzer.analyzeCounters(executionData, clazzFiles, coverageProvider.enableCoverageDetails());
+            } else {
+                snapshot = analyzeIndexed(executionData, clazzFiles, probeIndexer, coverageCalculator,
+                        coverageProvider.enableCoverageDetails());
             }
+
+            cycle.record(CollectionCycle.Phase.ANALYSIS, analysisStart);
+            reusableSnapshots.put(coverageProvider.name(), sessionId, fingerprint, snapshot);
+
+            success = true;
+            return snapshot;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load class files: ", e);
+        } finally {
+            cycle.finish(success);
+        }
+    }
+
+    private JacocoMBeanProxy getProxy() {
+        if (proxyFactoryBean.getObject() instanceof JacocoMBeanProxy proxy) {
+            return proxy;
         } else {
             throw new IllegalStateException("Proxy has unexpected type!");
         }
     }
 
-    private Collection<File> getClazzFiles(LocalJacocoConfig coverageProvider) throws IOException {
-        if (coverageProvider.enableClassesCache() && !clazzFiles.isEmpty()) {
-            return clazzFiles;
+    private ExecutionDataStore loadExecutionData(JacocoMBeanProxy proxy, CollectionCycle cycle) {
+        final long transferStart = System.nanoTime();
+        final byte[] data = proxy.getExecutionData(false);
+        cycle.record(CollectionCycle.Phase.TRANSFER, transferStart);
+        cycle.transferred(data.length);
+
+        final long decodeStart = System.nanoTime();
+        ExecFileLoader loader  = new ExecFileLoader();
+        try {
+            loader.load(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load execution data: ", e);
         }
+        cycle.record(CollectionCycle.Phase.DECODE, decodeStart);
+        cycle.executionData(loader.getExecutionDataStore());
 
-        final Collection<File> classFiles = new ArrayList<>();
+        return loader.getExecutionDataStore();
+    }
 
-        for (String sourcesLocation : coverageProvider.classesLocations()) {
-            File clazzDir = new File(sourcesLocation);
+    private Collection<File> getClazzFiles(LocalJacocoConfig coverageProvider, CollectionCycle cycle) throws IOException {
+        final long inventoryStart = System.nanoTime();
+        final ClassFileInventory inventory = getInventory(coverageProvider);
+        final Collection<File> clazzFiles;
 
-            if (log.isDebugEnabled()) {
-                log.debug("Checking class file source [" + sourcesLocation + "]");
-            }
+        if (coverageProvider.enableClassesWatch() || coverageProvider.enableClassesCache()) {
+            clazzFiles = inventory.getFiles();
+        } else {
+            clazzFiles = inventory.scan();
+        }
 
-            FileVisitor<Path> matcherVisitor = new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes fileAttributes) {
-                    FileSystem fs = FileSystems.getDefault();
-
-                    boolean toBeIncluded = false;
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("Checking [" + file.toAbsolutePath() + "]");
-                    }
-
-                    if (coverageProvider.includePatterns().length != 0) {
-                        for (String pattern : coverageProvider.includePatterns()) {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Trying inclusion pattern [" + pattern + "]");
-                            }
-
-                            if (fs.getPathMatcher(pattern).matches(file.toAbsolutePath())) {
-                                toBeIncluded = true;
-                                break;
-                            }
-                        }
-                    } else {
-                        toBeIncluded = true;
-                    }
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("File [" + file.toAbsolutePath() + "] included: [" + toBeIncluded + "]");
-                    }
-
-                    for (String pattern : coverageProvider.excludePatterns()) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Trying exclusion pattern [" + pattern + "]");
-                        }
-
-                        if (fs.getPathMatcher(pattern).matches(file.toAbsolutePath())) {
-                            if (log.isDebugEnabled()) {
-                                log.debug("[" + file.toAbsolutePath() + "] excluded by pattern [" + pattern + "]");
-                            }
-
-                            return FileVisitResult.CONTINUE;
-                        }
-                    }
-
-                    if (toBeIncluded) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("File [" + file.toAbsolutePath() + "] added to coverage scan.");
-                        }
-
-                        classFiles.add(file.toFile());
-                    }
-
-                    return FileVisitResult.CONTINUE;
-                }
-            };
+        cycle.record(CollectionCycle.Phase.INVENTORY, inventoryStart);
 
-            Files.walkFileTree(clazzDir.toPath(), matcherVisitor);
-        }
+        return clazzFiles;
+    }
+
+    private synchronized ClassFileInventory getInventory(LocalJacocoConfig coverageProvider) throws IOException {
+        if (classFileInventory == null) {
+            classFileInventory = new ClassFileInventory(coverageProvider.classesLocations(),
+                    coverageProvider.includePatterns(), coverageProvider.excludePatterns());
 
-        if (coverageProvider.enableClassesCache()) {
-            clazzFiles.clear();
-            clazzFiles.addAll(classFiles);
+            if (coverageProvider.enableClassesWatch()) {
+                classFileInventory.watch();
 
-            if (log.isDebugEnabled()) {
-                log.debug("Cache is filled! " + clazzFiles.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("Watching " + classFileInventory.size() + " class files for changes");
+                }
             }
         }
 
-        return classFiles;
+        return classFileInventory;
+    }
+
+    /**
+     * Stops watching the class file locations.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (classFileInventory != null) {
+            classFileInventory.close();
+        }
     }
 }
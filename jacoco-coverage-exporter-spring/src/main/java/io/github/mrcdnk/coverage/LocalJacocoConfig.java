@@ -21,5 +21,8 @@ public record LocalJacocoConfig(
         String[] classesLocations,
         String[] includePatterns,
         String[] excludePatterns,
-        boolean enableClassesCache
+        boolean enableClassesCache,
+        boolean enableClassesWatch,
+        boolean enableProbeIndex,
+        boolean enableCoverageDetails
 ) implements CoverageProvider { }
@@ -0,0 +1,222 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.analysis;
+
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.analysis.ILine;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.SourceNodeImpl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters only replacement of JaCoCo's {@code CoverageBuilder}.
+ * <p>
+ * Every analyzed class is reduced to a {@link ClassSummary} right away, so neither the class coverage nor its line
+ * objects are retained. The counters follow {@code CoverageBuilder}: classes are unique by name, lines are counted once
+ * per source file and packages are the sum of their source files and the classes without source file.
+ * <p>
+ * Kotlin inline functions are the exception: their coverage is applied to the declaring class as a fragment, which
+ * {@code CoverageBuilder} only does once all classes are known. Kotlin classes and classes carrying fragments are
+ * therefore retained until {@link #getSnapshot(boolean)}.
+ */
+public class CounterCoverageBuilder {
+
+    private static final int ENTITIES = ICoverageNode.CounterEntity.values().length;
+    private static final int LINE = ICoverageNode.CounterEntity.LINE.ordinal();
+
+    private final Map<String, ClassSummary> classes = new HashMap<>();
+    private final List<ClassSummary> classOrder = new ArrayList<>();
+
+    public void visit(ClassSummary clazz) {
+        final ClassSummary duplicate = classes.putIfAbsent(clazz.name(), clazz);
+
+        if (duplicate != null) {
+            if (duplicate.id() != clazz.id()) {
+                throw new IllegalStateException("Can't add different class with same name: " + clazz.name());
+            }
+
+            return;
+        }
+
+        classOrder.add(clazz);
+    }
+
+    /**
+     * @param withDetails also include the counters of all packages and classes
+     */
+    public CoverageSnapshot getSnapshot(boolean withDetails) {
+        applyFragments();
+
+        final Map<String, int[][]> packages = new TreeMap<>();
+        final Map<String, List<ClassSummary>> sourceFiles = new HashMap<>();
+
+        for (int i = 0; i < classOrder.size(); i++) {
+            final ClassSummary clazz = classOrder.get(i).coverage() == null
+                    ? classOrder.get(i)
+                    : ClassSummary.reduce(classOrder.get(i).coverage());
+
+            classOrder.set(i, clazz);
+
+            if (clazz.sourceFileName() != null) {
+                sourceFiles.computeIfAbsent(clazz.packageName() + '/' + clazz.sourceFileName(), key -> new ArrayList<>(1)).add(clazz);
+            }
+
+            final int[][] counters = packages.computeIfAbsent(clazz.packageName(), name -> new int[2][ENTITIES]);
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                // lines of classes with a source file are counted per source file below
+                if (entity != LINE || clazz.sourceFileName() == null) {
+                    counters[0][entity] += clazz.missed()[entity];
+                    counters[1][entity] += clazz.covered()[entity];
+                }
+            }
+        }
+
+        for (List<ClassSummary> sourceFile : sourceFiles.values()) {
+            final int[][] counters = packages.get(sourceFile.get(0).packageName());
+            final BitSet lines = new BitSet();
+            final BitSet coveredLines = new BitSet();
+
+            for (ClassSummary clazz : sourceFile) {
+                for (int line = clazz.lines().nextSetBit(0); line >= 0; line = clazz.lines().nextSetBit(line + 1)) {
+                    lines.set(clazz.firstLine() + line);
+                }
+
+                for (int line = clazz.coveredLines().nextSetBit(0); line >= 0; line = clazz.coveredLines().nextSetBit(line + 1)) {
+                    coveredLines.set(clazz.firstLine() + line);
+                }
+            }
+
+            counters[1][LINE] += coveredLines.cardinality();
+            lines.andNot(coveredLines);
+            counters[0][LINE] += lines.cardinality();
+        }
+
+        final int[] missed = new int[ENTITIES];
+        final int[] covered = new int[ENTITIES];
+        final CoverageTable.Builder packageTable = CoverageTable.builder(withDetails ? packages.size() : 0);
+
+        for (Map.Entry<String, int[][]> packageCounters : packages.entrySet()) {
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                missed[entity] += packageCounters.getValue()[0][entity];
+                covered[entity] += packageCounters.getValue()[1][entity];
+            }
+
+            if (withDetails) {
+                packageTable.add(packageCounters.getKey(), packageCounters.getValue()[0], packageCounters.getValue()[1]);
+            }
+        }
+
+        if (!withDetails) {
+            return CoverageSnapshot.of(missed, covered, classOrder.size());
+        }
+
+        final CoverageTable.Builder classTable = CoverageTable.builder(classOrder.size());
+
+        for (ClassSummary clazz : classOrder) {
+            classTable.add(clazz.name(), clazz.missed(), clazz.covered());
+        }
+
+        return CoverageSnapshot.of(missed, covered, classOrder.size(), packageTable.build(), classTable.build());
+    }
+
+    private void applyFragments() {
+        for (ClassSummary clazz : classOrder) {
+            if (!(clazz.coverage() instanceof ClassCoverageImpl source)) {
+                continue;
+            }
+
+            for (SourceNodeImpl fragment : source.getFragments()) {
+                final ClassSummary target = classes.get(fragment.getName());
+
+                if (target != null && target.coverage() instanceof SourceNodeImpl targetCoverage) {
+                    targetCoverage.applyFragment(fragment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counters and line coverage of a single class.
+     *
+     * @param firstLine    first line of the class, the line sets are relative to it
+     * @param lines        lines containing instructions
+     * @param coveredLines lines containing at least one covered instruction
+     * @param coverage     the retained class coverage, if fragments may still be applied to it
+     */
+    public record ClassSummary(long id, String name, String packageName, String sourceFileName,
+                               int[] missed, int[] covered, int firstLine, BitSet lines, BitSet coveredLines,
+                               IClassCoverage coverage) {
+
+        public static ClassSummary of(IClassCoverage coverage) {
+            if (isFragmentCandidate(coverage)) {
+                return new ClassSummary(coverage.getId(), coverage.getName(), coverage.getPackageName(),
+                        coverage.getSourceFileName(), null, null, ISourceNode.UNKNOWN_LINE, null, null, coverage);
+            }
+
+            return reduce(coverage);
+        }
+
+        private static boolean isFragmentCandidate(IClassCoverage coverage) {
+            return (coverage.getSourceFileName() != null && coverage.getSourceFileName().endsWith(".kt"))
+                    || (coverage instanceof ClassCoverageImpl impl && !impl.getFragments().isEmpty());
+        }
+
+        private static ClassSummary reduce(IClassCoverage coverage) {
+            final int[] missed = new int[ENTITIES];
+            final int[] covered = new int[ENTITIES];
+
+            for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+                missed[counterEntity.ordinal()] = coverage.getCounter(counterEntity).getMissedCount();
+                covered[counterEntity.ordinal()] = coverage.getCounter(counterEntity).getCoveredCount();
+            }
+
+            final int firstLine = coverage.getFirstLine();
+            final BitSet lines = new BitSet();
+            final BitSet coveredLines = new BitSet();
+
+            if (coverage.getSourceFileName() != null && firstLine != ISourceNode.UNKNOWN_LINE) {
+                for (int line = firstLine; line <= coverage.getLastLine(); line++) {
+                    final ILine lineCoverage = coverage.getLine(line);
+                    final ICounter instructions = lineCoverage.getInstructionCounter();
+
+                    if (instructions.getTotalCount() > 0) {
+                        lines.set(line - firstLine);
+                    }
+
+                    if (instructions.getCoveredCount() > 0) {
+                        coveredLines.set(line - firstLine);
+                    }
+                }
+            }
+
+            return new ClassSummary(coverage.getId(), coverage.getName(), coverage.getPackageName(),
+                    coverage.getSourceFileName(), missed, covered, firstLine, lines, coveredLines, null);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.analysis;
+
+import io.github.mrcdnk.coverage.budget.AnalysisBudget;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.ContentTypeDetector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Analyzes class files on a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Class files and the entries of archives are split into batches, every batch is analyzed by its own
+ * {@link Analyzer}. The analyzed classes are fed into a single {@link CoverageBuilder} or
+ * {@link CounterCoverageBuilder} in the order of the given files, so the result is the same as the one of a sequential
+ * analysis.
+ * <p>
+ * Every analyzed class is an {@link AnalysisBudget#checkpoint() checkpoint} of the budget of the analyzing thread, the
+ * units of work reserve the heap of their class files.
+ */
+public class ParallelAnalyzer {
+
+    public static final String BUNDLE_NAME = "some-report";
+
+    private static final int BATCH_SIZE = 32;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool pool to analyze on, <code>null</code> to analyze on the calling thread
+     */
+    public ParallelAnalyzer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param parallelism number of analysis threads, values below 1 use all available processors
+     * @return pool for the given parallelism or <code>null</code> if only a single thread should be used
+     */
+    public static ForkJoinPool createPool(int parallelism) {
+        final int threads = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+
+        if (threads == 1) {
+            return null;
+        }
+
+        return new ForkJoinPool(threads, pool -> {
+            final var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("jacoco-analysis-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * @return the complete coverage tree including the line level data of all classes
+     */
+    public IBundleCoverage analyze(ExecutionDataStore data, Collection<File> clazzFiles) throws IOException {
+        final CoverageBuilder builder = new CoverageBuilder();
+
+        analyze(data, clazzFiles, clazz -> clazz, builder::visitCoverage);
+
+        return builder.getBundle(BUNDLE_NAME);
+    }
+
+    /**
+     * Counters only analysis, every class is reduced to its counters as soon as it has been analyzed.
+     *
+     * @param withDetails also include the counters of all packages and classes
+     */
+    public CoverageSnapshot analyzeCounters(ExecutionDataStore data, Collection<File> clazzFiles, boolean withDetails) throws IOException {
+        final CounterCoverageBuilder builder = new CounterCoverageBuilder();
+
+        analyze(data, clazzFiles, CounterCoverageBuilder.ClassSummary::of, builder::visit);
+
+        return builder.getSnapshot(withDetails);
+    }
+
+    /**
+     * @param summarize applied to every class on the analysis thread, before the class is handed to the target
+     * @param target    receives the summarized classes in the order of the given files
+     */
+    private <C> void analyze(ExecutionDataStore data, Collection<File> clazzFiles, Function<IClassCoverage, C> summarize, Consumer<C> target) throws IOException {
+        if (pool == null) {
+            final Analyzer analyzer = new Analyzer(data, clazz -> {
+                target.accept(summarize.apply(clazz));
+                AnalysisBudget.checkpoint();
+            });
+
+            for (final File f : clazzFiles) {
+                analyzer.analyzeAll(f);
+            }
+
+            return;
+        }
+
+        final List<ZipFile> archives = new ArrayList<>();
+
+        try {
+            final List<AnalysisUnit> units = new ArrayList<>();
+
+            for (File file : clazzFiles) {
+                collectUnits(file, units, archives);
+            }
+
+            final List<C> classes = pool.invoke(new AnalysisTask<>(data, units, summarize, 0, units.size()));
+
+            for (C clazz : classes) {
+                target.accept(clazz);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (ZipFile archive : archives) {
+                archive.close();
+            }
+        }
+    }
+
+    /**
+     * Splits the given file into units of work, every entry of an archive is analyzed on its own.
+     */
+    private static void collectUnits(File file, List<AnalysisUnit> units, List<ZipFile> archives) throws IOException {
+        if (file.isDirectory()) {
+            final File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    collectUnits(child, units, archives);
+                }
+            }
+
+            return;
+        }
+
+        if (!isZipFile(file)) {
+            units.add(new AnalysisUnit(file.length(), analyzer -> analyzer.analyzeAll(file)));
+            return;
+        }
+
+        final ZipFile archive;
+        try {
+            archive = new ZipFile(file);
+        } catch (IOException e) {
+            // not readable with random access, let the analyzer stream it instead
+            units.add(new AnalysisUnit(file.length(), analyzer -> analyzer.analyzeAll(file)));
+            return;
+        }
+
+        archives.add(archive);
+
+        final Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+
+            if (entry.isDirectory()) {
+                continue;
+            }
+
+            units.add(new AnalysisUnit(entry.getSize(), analyzer -> {
+                try (InputStream in = archive.getInputStream(entry)) {
+                    analyzer.analyzeAll(in, file.getPath() + "@" + entry.getName());
+                }
+            }));
+        }
+    }
+
+    private static boolean isZipFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return new ContentTypeDetector(in).getType() == ContentTypeDetector.ZIPFILE;
+        }
+    }
+
+    /**
+     * @param size size of the class file or archive entry, negative if unknown
+     */
+    private record AnalysisUnit(long size, Analysis analysis) {
+
+        private void analyze(Analyzer analyzer) throws IOException {
+            try (AnalysisBudget.HeapReservation ignored = AnalysisBudget.reserveHeap(size)) {
+                analysis.analyze(analyzer);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Analysis {
+        void analyze(Analyzer analyzer) throws IOException;
+    }
+
+    private static final class AnalysisTask<C> extends RecursiveTask<List<C>> {
+        private final ExecutionDataStore data;
+        private final List<AnalysisUnit> units;
+        private final Function<IClassCoverage, C> summarize;
+        private final int from;
+        private final int to;
+
+        private AnalysisTask(ExecutionDataStore data, List<AnalysisUnit> units, Function<IClassCoverage, C> summarize, int from, int to) {
+            this.data = data;
+            this.units = units;
+            this.summarize = summarize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<C> compute() {
+            if (to - from <= BATCH_SIZE) {
+                final List<C> classes = new ArrayList<>();
+                // analyzers are not thread safe, every batch uses its own
+                final Analyzer analyzer = new Analyzer(data, clazz -> {
+                    classes.add(summarize.apply(clazz));
+                    AnalysisBudget.checkpoint();
+                });
+
+                for (int i = from; i < to; i++) {
+                    try {
+                        units.get(i).analyze(analyzer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return classes;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final AnalysisTask<C> head = new AnalysisTask<>(data, units, summarize, from, middle);
+            final AnalysisTask<C> tail = new AnalysisTask<>(data, units, summarize, middle, to);
+
+            head.fork();
+            final List<C> tailClasses = tail.compute();
+            final List<C> classes = head.join();
+
+            classes.addAll(tailClasses);
+
+            return classes;
+        }
+    }
+}
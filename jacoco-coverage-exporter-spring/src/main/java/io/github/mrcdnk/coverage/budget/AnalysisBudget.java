@@ -0,0 +1,301 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.budget;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CPU and heap budget of the threads analyzing class files inside the application.
+ * <p>
+ * Threads are bound to a budget when they start. The analysis calls {@link #checkpoint()} after every class, which
+ * charges the CPU time the thread used since its previous checkpoint to the budget. Once the threads used more than
+ * their share of one core, the next checkpoint parks the thread for its part of the deficit, the threads parked at the
+ * same time share it. The analysis of a class additionally {@link #reserveHeap(long) reserves} an estimate of the heap
+ * it needs, so the classes analyzed at the same time stay below the heap limit.
+ * <p>
+ * Both methods are static and do nothing on threads that are not bound to a budget, so shared analysis code does not
+ * need to know whether it runs budgeted. Instances are thread safe.
+ */
+public final class AnalysisBudget {
+
+    private static final Log LOG = LogFactory.getLog(AnalysisBudget.class);
+    private static final ThreadLocal<Binding> CURRENT = new ThreadLocal<>();
+
+    /**
+     * CPU time the threads may use at once before they are throttled, short classes are not interrupted by the budget.
+     */
+    private static final long SLICE_NANOS = 100_000_000L;
+
+    /**
+     * The ASM tree, probe arrays and coverage nodes of a class take a multiple of its class file size.
+     */
+    private static final int CLASS_HEAP_FACTOR = 8;
+    private static final int HEAP_PERMIT_BYTES = 1024;
+
+    private final Clock clock;
+    private final double cpuShare;
+    private final Semaphore inFlightHeap;
+    private final int heapPermits;
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    private long tokens = SLICE_NANOS;
+    private long refilledAt;
+    private int parked;
+
+    /**
+     * @param cpuPercent      share of one core in percent the bound threads may use together, values below 1 do not
+     *                        limit the CPU time
+     * @param maxInFlightHeap estimated heap in bytes the classes analyzed at the same time may take, values below 1 do
+     *                        not limit the heap
+     */
+    public AnalysisBudget(int cpuPercent, long maxInFlightHeap) {
+        this(cpuPercent, maxInFlightHeap, Clock.SYSTEM);
+    }
+
+    AnalysisBudget(int cpuPercent, long maxInFlightHeap, Clock clock) {
+        this.clock = clock;
+        this.refilledAt = clock.nanoTime();
+        this.heapPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightHeap / HEAP_PERMIT_BYTES));
+        this.inFlightHeap = maxInFlightHeap > 0 ? new Semaphore(heapPermits) : null;
+
+        if (cpuPercent > 0 && !clock.isCpuTimeSupported()) {
+            LOG.warn("Thread CPU time is not available, the analysis CPU budget of " + cpuPercent + "% is not enforced.");
+            this.cpuShare = 0;
+        } else {
+            this.cpuShare = Math.max(0, cpuPercent) / 100.0;
+        }
+    }
+
+    /**
+     * @return budget that does not limit anything
+     */
+    public static AnalysisBudget unlimited() {
+        return new AnalysisBudget(0, 0);
+    }
+
+    /**
+     * Charges the CPU time the current thread used since its previous checkpoint and parks the thread if the budget is
+     * exhausted.
+     */
+    public static void checkpoint() {
+        final Binding binding = CURRENT.get();
+
+        if (binding != null) {
+            binding.checkpoint();
+        }
+    }
+
+    /**
+     * Blocks until the estimated heap of a class with the given class file size fits into the budget. A class larger
+     * than the whole budget waits until nothing else is in flight.
+     *
+     * @return reservation to close once the class has been analyzed
+     */
+    public static HeapReservation reserveHeap(long classFileBytes) {
+        final Binding binding = CURRENT.get();
+
+        if (binding == null || binding.budget.inFlightHeap == null || classFileBytes <= 0) {
+            return HeapReservation.NONE;
+        }
+
+        final AnalysisBudget budget = binding.budget;
+        final int permits = (int) Math.min(budget.heapPermits, classFileBytes * CLASS_HEAP_FACTOR / HEAP_PERMIT_BYTES + 1);
+
+        budget.inFlightHeap.acquireUninterruptibly(permits);
+
+        return () -> budget.inFlightHeap.release(permits);
+    }
+
+    /**
+     * Binds the current thread to this budget until it terminates.
+     */
+    public void bind() {
+        CURRENT.set(new Binding(this, currentThreadCpuTime()));
+    }
+
+    /**
+     * @return whether the current thread is bound to this budget
+     */
+    public boolean isBound() {
+        final Binding binding = CURRENT.get();
+
+        return binding != null && binding.budget == this;
+    }
+
+    /**
+     * @param parallelism number of threads, values below 1 use all available processors
+     * @return pool of low priority threads bound to this budget or <code>null</code> if only a single thread should be
+     * used
+     */
+    public ForkJoinPool createPool(int parallelism, String threadName) {
+        final int threadCount = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+
+        if (threadCount == 1) {
+            return null;
+        }
+
+        return new ForkJoinPool(threadCount, pool -> {
+            final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(null, pool, true) {
+                @Override
+                protected void onStart() {
+                    super.onStart();
+                    bind();
+                }
+            };
+
+            thread.setName(threadName + "-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * @return seconds the bound threads have been parked, because the CPU budget was exhausted
+     */
+    public double getThrottledSeconds() {
+        return throttledNanos.get() / 1e9;
+    }
+
+    private void consume(long cpuNanos) {
+        if (cpuShare <= 0 || cpuNanos <= 0) {
+            return;
+        }
+
+        final long pauseNanos;
+
+        synchronized (this) {
+            final long now = clock.nanoTime();
+
+            tokens = Math.min(SLICE_NANOS, tokens + (long) ((now - refilledAt) * cpuShare)) - cpuNanos;
+            refilledAt = now;
+
+            // the threads already parked refill the deficit at the same time, each one only waits for its share of it,
+            // whatever is left over is charged at their next checkpoints
+            pauseNanos = tokens < 0 ? (long) (-tokens / cpuShare / (parked + 1)) : 0;
+
+            if (pauseNanos > 0) {
+                parked++;
+            }
+        }
+
+        if (pauseNanos > 0) {
+            throttledNanos.addAndGet(pauseNanos);
+
+            try {
+                clock.park(this, pauseNanos);
+            } finally {
+                synchronized (this) {
+                    parked--;
+                }
+            }
+        }
+    }
+
+    private long currentThreadCpuTime() {
+        return cpuShare > 0 ? clock.currentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Unbinds the current thread, e.g. a test thread that must not keep the budget.
+     */
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    int getAvailableHeapPermits() {
+        return inFlightHeap != null ? inFlightHeap.availablePermits() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Wall clock and CPU time of the budget, replaced in tests.
+     */
+    interface Clock {
+
+        Clock SYSTEM = new Clock() {
+            private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public long currentThreadCpuTime() {
+                return threads.getCurrentThreadCpuTime();
+            }
+
+            @Override
+            public boolean isCpuTimeSupported() {
+                return threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+            }
+
+            @Override
+            public void park(Object blocker, long nanos) {
+                LockSupport.parkNanos(blocker, nanos);
+            }
+        };
+
+        long nanoTime();
+
+        long currentThreadCpuTime();
+
+        boolean isCpuTimeSupported();
+
+        void park(Object blocker, long nanos);
+    }
+
+    /**
+     * Estimated heap of a class in analysis, see {@link #reserveHeap(long)}.
+     */
+    @FunctionalInterface
+    public interface HeapReservation extends AutoCloseable {
+
+        HeapReservation NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+
+    private static final class Binding {
+        private final AnalysisBudget budget;
+        private long cpuNanos;
+
+        private Binding(AnalysisBudget budget, long cpuNanos) {
+            this.budget = budget;
+            this.cpuNanos = cpuNanos;
+        }
+
+        private void checkpoint() {
+            final long now = budget.currentThreadCpuTime();
+            final long used = now - cpuNanos;
+
+            cpuNanos = now;
+            budget.consume(used);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.budget;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the coverage collections of the application on a single low priority thread bound to an {@link AnalysisBudget}.
+ * <p>
+ * Callers such as the scrape of the metrics endpoint wait for the collection, but none of its work is done on their
+ * thread. While the system load is above the configured threshold, collections can be shed in favor of the previous
+ * snapshot and background work is deferred.
+ */
+public class AnalysisExecutor implements Closeable {
+
+    private static final Duration DEFERRAL_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration MAX_DEFERRAL = Duration.ofMinutes(1);
+
+    /**
+     * The CPU load is measured since its previous reading, shorter intervals return unreliable values.
+     */
+    private static final long LOAD_SAMPLE_NANOS = Duration.ofSeconds(1).toNanos();
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final AnalysisBudget budget;
+    private final double maxSystemLoad;
+    private final ScheduledThreadPoolExecutor executor;
+    private final DoubleSupplier loadSource;
+    private final LongSupplier nanoTime;
+    private final AtomicLong shed = new AtomicLong();
+
+    private double systemLoad = -1;
+    private long systemLoadSampledAt;
+
+    /**
+     * @param maxSystemLoad load of the whole system above which collections are shed, 1 being all processors busy,
+     *                      values below or equal to 0 never shed
+     */
+    public AnalysisExecutor(AnalysisBudget budget, double maxSystemLoad) {
+        this(budget, maxSystemLoad, AnalysisExecutor::sampleSystemLoad, System::nanoTime);
+    }
+
+    /**
+     * @param loadSource samples the current system load, see {@link #getSystemLoad()}
+     * @param nanoTime   time source of the load samples and deferrals
+     */
+    AnalysisExecutor(AnalysisBudget budget, double maxSystemLoad, DoubleSupplier loadSource, LongSupplier nanoTime) {
+        this.budget = budget;
+        this.maxSystemLoad = maxSystemLoad;
+        this.loadSource = loadSource;
+        this.nanoTime = nanoTime;
+        this.systemLoadSampledAt = nanoTime.getAsLong() - LOAD_SAMPLE_NANOS;
+        this.executor = new ScheduledThreadPoolExecutor(1, task -> {
+            final Thread thread = new Thread(() -> {
+                budget.bind();
+                task.run();
+            }, "jacoco-collection");
+
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the task on the analysis thread and waits for its result. Tasks of the analysis thread itself are run
+     * directly.
+     *
+     * @throws Exception the exception thrown by the task
+     */
+    public <V> V execute(Callable<V> task) throws Exception {
+        if (budget.isBound()) {
+            return task.call();
+        }
+
+        final Future<V> result = executor.submit(task);
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            throw (Error) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the coverage collection", e);
+        }
+    }
+
+    /**
+     * Runs the task on the analysis thread in the background, once the system load dropped below the threshold. The
+     * task is run regardless of the load after at most a minute.
+     */
+    public void submitDeferrable(Runnable task) {
+        schedule(task, nanoTime.getAsLong() + MAX_DEFERRAL.toNanos(), 0);
+    }
+
+    private void schedule(Runnable task, long deadlineNanos, long delayNanos) {
+        executor.schedule(() -> {
+            if (isOverloaded() && nanoTime.getAsLong() - deadlineNanos < 0) {
+                schedule(task, deadlineNanos, DEFERRAL_INTERVAL.toNanos());
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("Background coverage collection failed", e);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Decides whether a collection should be shed, shed collections are counted.
+     *
+     * @return whether the system load is above the threshold
+     */
+    public boolean shed() {
+        if (!isOverloaded()) {
+            return false;
+        }
+
+        shed.incrementAndGet();
+
+        if (log.isDebugEnabled()) {
+            log.debug("System load of " + getSystemLoad() + " is above " + maxSystemLoad + ", shedding the coverage collection");
+        }
+
+        return true;
+    }
+
+    /**
+     * @return load of the whole system within the last second or more, 1 being all processors busy, negative if not
+     * available
+     */
+    public synchronized double getSystemLoad() {
+        final long now = nanoTime.getAsLong();
+
+        if (now - systemLoadSampledAt >= LOAD_SAMPLE_NANOS) {
+            systemLoad = loadSource.getAsDouble();
+            systemLoadSampledAt = now;
+        }
+
+        return systemLoad;
+    }
+
+    private static double sampleSystemLoad() {
+        final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean platform) {
+            final double cpuLoad = platform.getCpuLoad();
+
+            if (cpuLoad >= 0) {
+                return cpuLoad;
+            }
+        }
+
+        final double loadAverage = operatingSystem.getSystemLoadAverage();
+
+        return loadAverage < 0 ? loadAverage : loadAverage / operatingSystem.getAvailableProcessors();
+    }
+
+    /**
+     * @return number of collections shed because of the system load
+     */
+    public long getShed() {
+        return shed.get();
+    }
+
+    public AnalysisBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private boolean isOverloaded() {
+        return maxSystemLoad > 0 && getSystemLoad() > maxSystemLoad;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.delta;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Execution data of the classes whose probes changed since a watermark, see {@link ProbeDeltaTracker}.
+ * <p>
+ * The binary form is gzip compressed: a magic number, the version, whether the delta is full and the watermark of the
+ * delta, followed by the execution data in JaCoCo's exec file format.
+ *
+ * @param full          whether the delta contains all classes, the client has to replace its execution data then
+ *                      instead of merging the delta into it
+ * @param watermark     token of the state this delta brings the client to, to be sent with the next request
+ * @param executionData execution data of the changed classes, each with all its probes
+ */
+public record ExecDataDelta(boolean full, String watermark, ExecutionDataStore executionData) {
+
+    public static final String CONTENT_TYPE = "application/vnd.jacoco.exec-delta";
+
+    private static final int MAGIC = 0x4A434444;
+    private static final int VERSION = 1;
+
+    public void write(OutputStream out) throws IOException {
+        final GZIPOutputStream compressed = new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        final DataOutputStream data = new DataOutputStream(compressed);
+
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeBoolean(full);
+        data.writeUTF(watermark);
+
+        final ExecutionDataWriter writer = new ExecutionDataWriter(data);
+
+        for (ExecutionData classData : executionData.getContents()) {
+            writer.visitClassExecution(classData);
+        }
+
+        data.flush();
+        compressed.finish();
+    }
+
+    public static ExecDataDelta read(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new GZIPInputStream(in, 8192));
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an execution data delta");
+        }
+
+        final int version = data.readUnsignedByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported execution data delta version " + version);
+        }
+
+        final boolean full = data.readBoolean();
+        final String watermark = data.readUTF();
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+        final ExecutionDataReader reader = new ExecutionDataReader(data);
+
+        reader.setExecutionDataVisitor(executionData);
+        reader.setSessionInfoVisitor(info -> {});
+        reader.read();
+
+        return new ExecDataDelta(full, watermark, executionData);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.delta;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracks which classes gained executed probes, so clients only receive the classes that changed since their last
+ * request.
+ * <p>
+ * Every request compares the current execution data with the probes seen before. Classes that are new or gained probes
+ * are stamped with the next generation. A watermark names an epoch and a generation, the delta for a watermark
+ * contains all classes stamped after its generation. Probes only ever gain hits within an epoch, a new epoch starts
+ * whenever this is violated: on a reset of the agent, a new session or a restart of the application. Watermarks of
+ * other epochs are answered with a full delta. All clients share the stamps, the tracker does not keep any per client
+ * state. Instances are thread safe.
+ */
+public class ProbeDeltaTracker {
+
+    private final Map<Long, TrackedClass> classes = new HashMap<>();
+
+    private String sessionId;
+    private long epoch = newEpoch();
+    private long generation;
+
+    /**
+     * @param sessionId     session of the current execution data, a different session than before starts a new epoch
+     * @param executionData current execution data of the agent
+     * @param watermark     watermark of the latest delta the client received, <code>null</code> for a full delta
+     */
+    public synchronized ExecDataDelta since(String sessionId, ExecutionDataStore executionData, String watermark) {
+        if (!Objects.equals(this.sessionId, sessionId) || lostProbes(executionData)) {
+            reset();
+            this.sessionId = sessionId;
+        }
+
+        final long next = generation + 1;
+        boolean changed = false;
+
+        for (ExecutionData data : executionData.getContents()) {
+            final TrackedClass tracked = classes.get(data.getId());
+
+            if (tracked == null) {
+                classes.put(data.getId(), new TrackedClass(data.getName(), data.getProbes().clone(), next));
+                changed = true;
+            } else if (gainedProbes(tracked.probes, data.getProbes())) {
+                tracked.probes = data.getProbes().clone();
+                tracked.generation = next;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            generation = next;
+        }
+
+        final long since = parseGeneration(watermark);
+        final ExecutionDataStore delta = new ExecutionDataStore();
+
+        classes.forEach((id, tracked) -> {
+            if (tracked.generation > since) {
+                delta.put(new ExecutionData(id, tracked.name, tracked.probes.clone()));
+            }
+        });
+
+        return new ExecDataDelta(since < 0, Long.toHexString(epoch) + '-' + generation, delta);
+    }
+
+    /**
+     * Starts a new epoch, e.g. because the agent has been reset. The next delta of every client is a full one.
+     */
+    public synchronized void reset() {
+        classes.clear();
+        epoch = newEpoch();
+        generation = 0;
+    }
+
+    /**
+     * @return generation of the watermark, <code>-1</code> if it is missing, malformed or of another epoch
+     */
+    private long parseGeneration(String watermark) {
+        if (watermark == null) {
+            return -1;
+        }
+
+        final int separator = watermark.indexOf('-');
+
+        try {
+            if (separator < 0 || Long.parseUnsignedLong(watermark.substring(0, separator), 16) != epoch) {
+                return -1;
+            }
+
+            final long since = Long.parseLong(watermark.substring(separator + 1));
+
+            return since <= generation ? since : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Dumps of the agent do not contain classes without any executed probe, so a reset removes classes from the execution
+     * data and every tracked class has to be looked up.
+     */
+    private boolean lostProbes(ExecutionDataStore executionData) {
+        for (Map.Entry<Long, TrackedClass> entry : classes.entrySet()) {
+            final ExecutionData data = executionData.get(entry.getKey());
+            final boolean[] tracked = entry.getValue().probes;
+
+            if (data == null ? gainedProbes(new boolean[tracked.length], tracked)
+                    : tracked.length != data.getProbes().length || gainedProbes(data.getProbes(), tracked)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether <code>current</code> has an executed probe that is not executed in <code>previous</code>, both
+     * arrays have the same length
+     */
+    private static boolean gainedProbes(boolean[] previous, boolean[] current) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] && !previous[i]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long newEpoch() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    private static final class TrackedClass {
+        private final String name;
+        private boolean[] probes;
+        private long generation;
+
+        private TrackedClass(String name, boolean[] probes, long generation) {
+            this.name = name;
+            this.probes = probes;
+            this.generation = generation;
+        }
+    }
+}
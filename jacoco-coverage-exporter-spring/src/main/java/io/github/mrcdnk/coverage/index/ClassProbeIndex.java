@@ -0,0 +1,625 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import io.github.mrcdnk.coverage.snapshot.NodeCounters;
+import org.jacoco.core.analysis.ICoverageNode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Analyzed structure of a single class, reduced to the information required to compute its counters from a probe array.
+ * <p>
+ * Instructions are stored grouped by method. Every instruction owns a range of coverable branches and every branch
+ * owns the range of probe ids that cover it. An instruction is covered as soon as one of its branches is covered.
+ */
+public final class ClassProbeIndex {
+
+    static final int UNKNOWN_LINE_SLOT = -1;
+
+    private static final int ENTITY_COUNT = ICoverageNode.CounterEntity.values().length;
+    private static final int INSTRUCTION = ICoverageNode.CounterEntity.INSTRUCTION.ordinal();
+    private static final int BRANCH = ICoverageNode.CounterEntity.BRANCH.ordinal();
+    private static final int LINE = ICoverageNode.CounterEntity.LINE.ordinal();
+    private static final int COMPLEXITY = ICoverageNode.CounterEntity.COMPLEXITY.ordinal();
+    private static final int METHOD = ICoverageNode.CounterEntity.METHOD.ordinal();
+    private static final int CLASS = ICoverageNode.CounterEntity.CLASS.ordinal();
+
+    private final long classId;
+    private final String className;
+    private final String sourceFileName;
+    private final int probeCount;
+
+    private final String[] methodNames;
+    private final String[] methodDescs;
+    private final int[] methodInstructionStart;
+
+    private final int[] instructionLineSlot;
+    private final int[] instructionBranches;
+    private final int[] instructionBranchStart;
+    private final int[] branchProbeStart;
+    private final int[] branchProbes;
+
+    private final int[] lines;
+    private final int[] lineInstructions;
+
+    private final Fragment[] fragments;
+
+    ClassProbeIndex(long classId, String className, String sourceFileName, int probeCount,
+                    String[] methodNames, String[] methodDescs, int[] methodInstructionStart,
+                    int[] instructionLineSlot, int[] instructionBranches, int[] instructionBranchStart,
+                    int[] branchProbeStart, int[] branchProbes, int[] lines, int[] lineInstructions,
+                    Fragment[] fragments) {
+        this.classId = classId;
+        this.className = className;
+        this.sourceFileName = sourceFileName;
+        this.probeCount = probeCount;
+        this.methodNames = methodNames;
+        this.methodDescs = methodDescs;
+        this.methodInstructionStart = methodInstructionStart;
+        this.instructionLineSlot = instructionLineSlot;
+        this.instructionBranches = instructionBranches;
+        this.instructionBranchStart = instructionBranchStart;
+        this.branchProbeStart = branchProbeStart;
+        this.branchProbes = branchProbes;
+        this.lines = lines;
+        this.lineInstructions = lineInstructions;
+        this.fragments = fragments;
+    }
+
+    /**
+     * Writes all arrays of the index, {@link #read(ByteBuffer)} restores it.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(classId);
+        writeString(out, className);
+        writeString(out, sourceFileName);
+        out.writeInt(probeCount);
+
+        out.writeInt(methodNames.length);
+
+        for (int method = 0; method < methodNames.length; method++) {
+            writeString(out, methodNames[method]);
+            writeString(out, methodDescs[method]);
+        }
+
+        writeInts(out, methodInstructionStart);
+        writeInts(out, instructionLineSlot);
+        writeInts(out, instructionBranches);
+        writeInts(out, instructionBranchStart);
+        writeInts(out, branchProbeStart);
+        writeInts(out, branchProbes);
+        writeInts(out, lines);
+        writeInts(out, lineInstructions);
+
+        out.writeInt(fragments.length);
+
+        for (Fragment fragment : fragments) {
+            writeString(out, fragment.targetClassName());
+            writeInts(out, fragment.lines());
+            writeInts(out, fragment.lineProbeStart());
+            writeInts(out, fragment.lineProbes());
+        }
+    }
+
+    static ClassProbeIndex read(ByteBuffer in) {
+        final long classId = in.getLong();
+        final String className = readString(in);
+        final String sourceFileName = readString(in);
+        final int probeCount = in.getInt();
+
+        final String[] methodNames = new String[in.getInt()];
+        final String[] methodDescs = new String[methodNames.length];
+
+        for (int method = 0; method < methodNames.length; method++) {
+            methodNames[method] = readString(in);
+            methodDescs[method] = readString(in);
+        }
+
+        final int[] methodInstructionStart = readInts(in);
+        final int[] instructionLineSlot = readInts(in);
+        final int[] instructionBranches = readInts(in);
+        final int[] instructionBranchStart = readInts(in);
+        final int[] branchProbeStart = readInts(in);
+        final int[] branchProbes = readInts(in);
+        final int[] lines = readInts(in);
+        final int[] lineInstructions = readInts(in);
+
+        final Fragment[] fragments = new Fragment[in.getInt()];
+
+        for (int fragment = 0; fragment < fragments.length; fragment++) {
+            fragments[fragment] = new Fragment(readString(in), readInts(in), readInts(in), readInts(in));
+        }
+
+        return new ClassProbeIndex(classId, className, sourceFileName, probeCount, methodNames, methodDescs, methodInstructionStart,
+                instructionLineSlot, instructionBranches, instructionBranchStart, branchProbeStart, branchProbes, lines,
+                lineInstructions, fragments);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the values with the smallest of the widths byte, short and int that fits all of them.
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        int min = 0;
+        int max = 0;
+
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        final int width = min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE ? Byte.BYTES
+                : min >= Short.MIN_VALUE && max <= Short.MAX_VALUE ? Short.BYTES : Integer.BYTES;
+
+        out.writeInt(values.length);
+        out.writeByte(width);
+
+        for (int value : values) {
+            switch (width) {
+                case Byte.BYTES -> out.writeByte(value);
+                case Short.BYTES -> out.writeShort(value);
+                default -> out.writeInt(value);
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        final int[] values = new int[in.getInt()];
+        final int width = in.get();
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (width) {
+                case Byte.BYTES -> in.get();
+                case Short.BYTES -> in.getShort();
+                case Integer.BYTES -> in.getInt();
+                default -> throw new IllegalArgumentException("Unknown width " + width);
+            };
+        }
+
+        return values;
+    }
+
+    /**
+     * Computes the counters of this class for the given probe array.
+     *
+     * @param probes probes of this class or <code>null</code> if no execution data exists for it
+     */
+    public ClassCounters evaluate(boolean[] probes) {
+        final int[] missed = new int[ENTITY_COUNT];
+        final int[] covered = new int[ENTITY_COUNT];
+        final int[] lineCovered = new int[lines.length];
+
+        for (int method = 0; method < methodNames.length; method++) {
+            int methodCoveredInstructions = 0;
+
+            for (int insn = methodInstructionStart[method]; insn < methodInstructionStart[method + 1]; insn++) {
+                final int coveredBranches = countCoveredBranches(insn, probes);
+
+                if (coveredBranches > 0) {
+                    covered[INSTRUCTION]++;
+                    methodCoveredInstructions++;
+
+                    if (instructionLineSlot[insn] != UNKNOWN_LINE_SLOT) {
+                        lineCovered[instructionLineSlot[insn]]++;
+                    }
+                } else {
+                    missed[INSTRUCTION]++;
+                }
+
+                final int branches = instructionBranches[insn];
+
+                if (branches > 1) {
+                    missed[BRANCH] += branches - coveredBranches;
+                    covered[BRANCH] += coveredBranches;
+
+                    final int c = Math.max(0, coveredBranches - 1);
+                    missed[COMPLEXITY] += Math.max(0, branches - c - 1);
+                    covered[COMPLEXITY] += c;
+                }
+            }
+
+            if (methodCoveredInstructions > 0) {
+                covered[METHOD]++;
+                covered[COMPLEXITY]++;
+            } else {
+                missed[METHOD]++;
+                missed[COMPLEXITY]++;
+            }
+        }
+
+        if (methodNames.length > 0) {
+            if (covered[METHOD] > 0) {
+                covered[CLASS] = 1;
+            } else {
+                missed[CLASS] = 1;
+            }
+        }
+
+        for (int count : lineCovered) {
+            if (count > 0) {
+                covered[LINE]++;
+            } else {
+                missed[LINE]++;
+            }
+        }
+
+        return new ClassCounters(missed, covered, lines, lineCovered);
+    }
+
+    /**
+     * Computes the counters of this class and applies the Kotlin inline function fragments other classes contributed
+     * to its source lines, the same way JaCoCo's {@code ClassCoverageImpl#applyFragment} does.
+     *
+     * @param fragmentLines   ascending lines of this class that are targeted by fragments
+     * @param fragmentCovered whether the fragment instructions of each line are covered
+     */
+    ClassCounters evaluate(boolean[] probes, int[] fragmentLines, boolean[] fragmentCovered) {
+        final ClassCounters counters = evaluate(probes);
+        final int[] missed = counters.missed();
+        final int[] covered = counters.covered();
+
+        // the class counter is always recalculated once a fragment targets this class
+        missed[CLASS] = covered[METHOD] > 0 ? 0 : 1;
+        covered[CLASS] = covered[METHOD] > 0 ? 1 : 0;
+
+        if (lines.length == 0) {
+            return counters;
+        }
+
+        final int[] lineBranchMissed = new int[lines.length];
+        final int[] lineBranchCovered = new int[lines.length];
+        final boolean[] methodCovered = new boolean[methodNames.length];
+        final int[] methodComplexityMissed = new int[methodNames.length];
+        final int[] methodComplexityCovered = new int[methodNames.length];
+        final int[] methodFirstLine = new int[methodNames.length];
+        final int[] methodLastLine = new int[methodNames.length];
+
+        for (int method = 0; method < methodNames.length; method++) {
+            methodFirstLine[method] = Integer.MAX_VALUE;
+            methodLastLine[method] = Integer.MIN_VALUE;
+
+            for (int insn = methodInstructionStart[method]; insn < methodInstructionStart[method + 1]; insn++) {
+                final int slot = instructionLineSlot[insn];
+                final int coveredBranches = countCoveredBranches(insn, probes);
+                final int branches = instructionBranches[insn];
+
+                methodCovered[method] |= coveredBranches > 0;
+
+                if (slot != UNKNOWN_LINE_SLOT) {
+                    methodFirstLine[method] = Math.min(methodFirstLine[method], lines[slot]);
+                    methodLastLine[method] = Math.max(methodLastLine[method], lines[slot]);
+                }
+
+                if (branches > 1) {
+                    if (slot != UNKNOWN_LINE_SLOT) {
+                        lineBranchMissed[slot] += branches - coveredBranches;
+                        lineBranchCovered[slot] += coveredBranches;
+                    }
+
+                    final int c = Math.max(0, coveredBranches - 1);
+                    methodComplexityMissed[method] += Math.max(0, branches - c - 1);
+                    methodComplexityCovered[method] += c;
+                }
+            }
+
+            methodComplexityMissed[method] += methodCovered[method] ? 0 : 1;
+            methodComplexityCovered[method] += methodCovered[method] ? 1 : 0;
+        }
+
+        final int firstLine = lines[0];
+        final int lastLine = lines[lines.length - 1];
+
+        final int[] resultLines = mergeLines(fragmentLines, firstLine, lastLine);
+        final int[] resultLineCovered = new int[resultLines.length];
+
+        for (int i = 0; i < resultLines.length; i++) {
+            final int line = resultLines[i];
+            final int slot = Arrays.binarySearch(lines, line);
+            final int fragment = Arrays.binarySearch(fragmentLines, line);
+
+            if (fragment < 0) {
+                resultLineCovered[i] = counters.lineCovered()[slot];
+                continue;
+            }
+
+            final int ownTotal = slot < 0 ? 0 : lineInstructions[slot];
+            final int ownCovered = slot < 0 ? 0 : counters.lineCovered()[slot];
+
+            if (ownCovered > 0) {
+                covered[LINE]--;
+            } else if (ownTotal > 0) {
+                missed[LINE]--;
+            }
+
+            // lines targeted by a fragment are reduced to a single instruction without branches
+            final boolean lineIsCovered = ownCovered > 0 || fragmentCovered[fragment];
+
+            if (lineIsCovered) {
+                covered[LINE]++;
+                covered[INSTRUCTION] += 1 - ownCovered;
+                missed[INSTRUCTION] -= ownTotal - ownCovered;
+                resultLineCovered[i] = 1;
+            } else {
+                missed[LINE]++;
+                missed[INSTRUCTION] += 1 - (ownTotal - ownCovered);
+                covered[INSTRUCTION] -= ownCovered;
+            }
+
+            if (slot >= 0) {
+                missed[BRANCH] -= lineBranchMissed[slot];
+                covered[BRANCH] -= lineBranchCovered[slot];
+            }
+        }
+
+        for (int method = 0; method < methodNames.length; method++) {
+            if (!hasLineInRange(fragmentLines, methodFirstLine[method], methodLastLine[method])) {
+                continue;
+            }
+
+            boolean coveredAfter = methodCovered[method];
+
+            for (int i = 0; i < fragmentLines.length && !coveredAfter; i++) {
+                coveredAfter = fragmentCovered[i]
+                        && fragmentLines[i] >= methodFirstLine[method]
+                        && fragmentLines[i] <= methodLastLine[method];
+            }
+
+            missed[METHOD] += (coveredAfter ? 0 : 1) - (methodCovered[method] ? 0 : 1);
+            covered[METHOD] += (coveredAfter ? 1 : 0) - (methodCovered[method] ? 1 : 0);
+            missed[COMPLEXITY] += (coveredAfter ? 0 : 1) - methodComplexityMissed[method];
+            covered[COMPLEXITY] += (coveredAfter ? 1 : 0) - methodComplexityCovered[method];
+        }
+
+        missed[CLASS] = covered[METHOD] > 0 ? 0 : 1;
+        covered[CLASS] = covered[METHOD] > 0 ? 1 : 0;
+
+        return new ClassCounters(missed, covered, resultLines, resultLineCovered);
+    }
+
+    /**
+     * Computes the counters of every method of this class, like JaCoCo's {@code MethodCoverageImpl}. Lines are counted
+     * per method, a line is covered if one of the instructions of the method on it is covered.
+     *
+     * @param probes probes of this class or <code>null</code> if no execution data exists for it
+     * @return counters named by method name and descriptor, e.g. <code>toString()Ljava/lang/String;</code>
+     */
+    public List<NodeCounters> evaluateMethods(boolean[] probes) {
+        final List<NodeCounters> methods = new ArrayList<>(methodNames.length);
+
+        for (int method = 0; method < methodNames.length; method++) {
+            final int[] missed = new int[ENTITY_COUNT];
+            final int[] covered = new int[ENTITY_COUNT];
+            final BitSet lineSlots = new BitSet();
+            final BitSet coveredLineSlots = new BitSet();
+
+            for (int insn = methodInstructionStart[method]; insn < methodInstructionStart[method + 1]; insn++) {
+                final int coveredBranches = countCoveredBranches(insn, probes);
+
+                if (coveredBranches > 0) {
+                    covered[INSTRUCTION]++;
+                } else {
+                    missed[INSTRUCTION]++;
+                }
+
+                if (instructionLineSlot[insn] != UNKNOWN_LINE_SLOT) {
+                    lineSlots.set(instructionLineSlot[insn]);
+
+                    if (coveredBranches > 0) {
+                        coveredLineSlots.set(instructionLineSlot[insn]);
+                    }
+                }
+
+                final int branches = instructionBranches[insn];
+
+                if (branches > 1) {
+                    missed[BRANCH] += branches - coveredBranches;
+                    covered[BRANCH] += coveredBranches;
+
+                    final int c = Math.max(0, coveredBranches - 1);
+                    missed[COMPLEXITY] += Math.max(0, branches - c - 1);
+                    covered[COMPLEXITY] += c;
+                }
+            }
+
+            if (covered[INSTRUCTION] > 0) {
+                covered[METHOD] = 1;
+                covered[COMPLEXITY]++;
+            } else {
+                missed[METHOD] = 1;
+                missed[COMPLEXITY]++;
+            }
+
+            covered[LINE] = coveredLineSlots.cardinality();
+            missed[LINE] = lineSlots.cardinality() - covered[LINE];
+
+            methods.add(new NodeCounters(methodNames[method] + methodDescs[method], missed, covered));
+        }
+
+        return methods;
+    }
+
+    /**
+     * @param probes probes of this class or <code>null</code> if no execution data exists for it
+     * @return whether at least one instruction of the method is covered
+     */
+    public boolean isMethodCovered(int method, boolean[] probes) {
+        for (int insn = methodInstructionStart[method]; insn < methodInstructionStart[method + 1]; insn++) {
+            if (countCoveredBranches(insn, probes) > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int[] mergeLines(int[] fragmentLines, int firstLine, int lastLine) {
+        return IntStream.concat(
+                        Arrays.stream(lines),
+                        Arrays.stream(fragmentLines).filter(line -> line >= firstLine && line <= lastLine))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    private static boolean hasLineInRange(int[] fragmentLines, int firstLine, int lastLine) {
+        for (int line : fragmentLines) {
+            if (line >= firstLine && line <= lastLine) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int countCoveredBranches(int insn, boolean[] probes) {
+        if (probes == null) {
+            return 0;
+        }
+
+        int coveredBranches = 0;
+
+        for (int branch = instructionBranchStart[insn]; branch < instructionBranchStart[insn + 1]; branch++) {
+            if (isAnyProbeSet(probes, branchProbes, branchProbeStart[branch], branchProbeStart[branch + 1])) {
+                coveredBranches++;
+            }
+        }
+
+        return coveredBranches;
+    }
+
+    static boolean isAnyProbeSet(boolean[] probes, int[] probeIds, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final int probe = probeIds[i];
+
+            if (probe < probes.length && probes[probe]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public long getClassId() {
+        return classId;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getPackageName() {
+        final int pos = className.lastIndexOf('/');
+        return pos == -1 ? "" : className.substring(0, pos);
+    }
+
+    /**
+     * @return name of the source file or <code>null</code> if the class has not been compiled with debug information
+     */
+    public String getSourceFileName() {
+        return sourceFileName;
+    }
+
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    public int getMethodCount() {
+        return methodNames.length;
+    }
+
+    public String getMethodName(int method) {
+        return methodNames[method];
+    }
+
+    public String getMethodDesc(int method) {
+        return methodDescs[method];
+    }
+
+    public int getInstructionCount() {
+        return instructionBranches.length;
+    }
+
+    /**
+     * @return distinct, ascending source lines that contain instructions of this class
+     */
+    public int[] getLines() {
+        return lines;
+    }
+
+    /**
+     * @return number of instructions on each line returned by {@link #getLines()}
+     */
+    public int[] getLineInstructions() {
+        return lineInstructions;
+    }
+
+    Fragment[] getFragments() {
+        return fragments;
+    }
+
+    /**
+     * Counters of a class for one probe array, indexed by {@link ICoverageNode.CounterEntity#ordinal()}.
+     *
+     * @param lines       ascending source lines of the class
+     * @param lineCovered number of covered instructions for each of the lines
+     */
+    public record ClassCounters(int[] missed, int[] covered, int[] lines, int[] lineCovered) {}
+
+    /**
+     * Source lines of another class (Kotlin inline functions) whose instructions have been inlined into this class.
+     * Each line is covered if one of its probes of <em>this</em> class is set.
+     */
+    record Fragment(String targetClassName, int[] lines, int[] lineProbeStart, int[] lineProbes) {
+
+        boolean isLineCovered(int line, boolean[] probes) {
+            return probes != null && isAnyProbeSet(probes, lineProbes, lineProbeStart[line], lineProbeStart[line + 1]);
+        }
+    }
+}
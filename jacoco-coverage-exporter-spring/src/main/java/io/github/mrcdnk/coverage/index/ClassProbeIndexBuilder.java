@@ -0,0 +1,609 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.filter.Filters;
+import org.jacoco.core.internal.analysis.filter.IFilter;
+import org.jacoco.core.internal.analysis.filter.IFilterContext;
+import org.jacoco.core.internal.analysis.filter.IFilterOutput;
+import org.jacoco.core.internal.analysis.filter.KotlinSMAP;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.IFrame;
+import org.jacoco.core.internal.flow.LabelInfo;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Builds a {@link ClassProbeIndex} by running the same visitor chain and filters as JaCoCo's {@code ClassAnalyzer},
+ * but with {@link SymbolicInstruction}s instead of a concrete probe array.
+ */
+final class ClassProbeIndexBuilder extends ClassProbesVisitor implements IFilterContext {
+
+    private final long classId;
+    private final IFilter filter = Filters.all();
+
+    private final Set<String> classAnnotations = new HashSet<>();
+    private final Set<String> classAttributes = new HashSet<>();
+    private final List<IndexedMethod> methods = new ArrayList<>();
+    private final Map<String, TreeMap<Integer, BitSet>> fragments = new HashMap<>();
+
+    private String className;
+    private String superClassName;
+    private String sourceFileName;
+    private String sourceDebugExtension;
+    private KotlinSMAP smap;
+    private int probeCount;
+
+    ClassProbeIndexBuilder(long classId) {
+        this.classId = classId;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.className = name;
+        this.superClassName = superName;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        classAnnotations.add(desc);
+        return super.visitAnnotation(desc, visible);
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        classAttributes.add(attribute.type);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        this.sourceFileName = source == null ? null : source.intern();
+        this.sourceDebugExtension = debug;
+    }
+
+    @Override
+    public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        InstrSupport.assertNotInstrumented(name, className);
+        return new MethodIndexer(name, desc);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        InstrSupport.assertNotInstrumented(name, className);
+        return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public void visitTotalProbeCount(int count) {
+        this.probeCount = count;
+    }
+
+    ClassProbeIndex build() {
+        final TreeSet<Integer> distinctLines = new TreeSet<>();
+        int instructionCount = 0;
+        int branchCount = 0;
+        int probeIdCount = 0;
+
+        for (IndexedMethod method : methods) {
+            for (SymbolicInstruction insn : method.instructions()) {
+                if (insn.getLine() != ISourceNode.UNKNOWN_LINE) {
+                    distinctLines.add(insn.getLine());
+                }
+
+                for (BitSet probes : insn.getCoverableBranches()) {
+                    branchCount++;
+                    probeIdCount += probes.cardinality();
+                }
+
+                instructionCount++;
+            }
+        }
+
+        final int[] lines = distinctLines.stream().mapToInt(Integer::intValue).toArray();
+        final int[] lineInstructions = new int[lines.length];
+
+        final String[] methodNames = new String[methods.size()];
+        final String[] methodDescs = new String[methods.size()];
+        final int[] methodInstructionStart = new int[methods.size() + 1];
+
+        final int[] instructionLineSlot = new int[instructionCount];
+        final int[] instructionBranches = new int[instructionCount];
+        final int[] instructionBranchStart = new int[instructionCount + 1];
+        final int[] branchProbeStart = new int[branchCount + 1];
+        final int[] branchProbes = new int[probeIdCount];
+
+        int insnIdx = 0;
+        int branchIdx = 0;
+        int probeIdx = 0;
+
+        for (int m = 0; m < methods.size(); m++) {
+            final IndexedMethod method = methods.get(m);
+
+            methodNames[m] = method.name();
+            methodDescs[m] = method.desc();
+            methodInstructionStart[m] = insnIdx;
+
+            for (SymbolicInstruction insn : method.instructions()) {
+                final int slot = insn.getLine() == ISourceNode.UNKNOWN_LINE
+                        ? ClassProbeIndex.UNKNOWN_LINE_SLOT
+                        : Arrays.binarySearch(lines, insn.getLine());
+
+                if (slot != ClassProbeIndex.UNKNOWN_LINE_SLOT) {
+                    lineInstructions[slot]++;
+                }
+
+                instructionLineSlot[insnIdx] = slot;
+                instructionBranches[insnIdx] = insn.getBranches();
+                instructionBranchStart[insnIdx] = branchIdx;
+
+                for (BitSet probes : insn.getCoverableBranches()) {
+                    branchProbeStart[branchIdx++] = probeIdx;
+
+                    for (int probe = probes.nextSetBit(0); probe >= 0; probe = probes.nextSetBit(probe + 1)) {
+                        branchProbes[probeIdx++] = probe;
+                    }
+                }
+
+                insnIdx++;
+            }
+        }
+
+        methodInstructionStart[methods.size()] = insnIdx;
+        instructionBranchStart[instructionCount] = branchIdx;
+        branchProbeStart[branchCount] = probeIdx;
+
+        return new ClassProbeIndex(classId, className, sourceFileName, probeCount,
+                methodNames, methodDescs, methodInstructionStart,
+                instructionLineSlot, instructionBranches, instructionBranchStart,
+                branchProbeStart, branchProbes, lines, lineInstructions, buildFragments());
+    }
+
+    private ClassProbeIndex.Fragment[] buildFragments() {
+        final ClassProbeIndex.Fragment[] result = new ClassProbeIndex.Fragment[fragments.size()];
+        int fragmentIdx = 0;
+
+        for (Map.Entry<String, TreeMap<Integer, BitSet>> fragment : fragments.entrySet()) {
+            final int[] lines = new int[fragment.getValue().size()];
+            final int[] lineProbeStart = new int[lines.length + 1];
+            final int[] lineProbes = new int[fragment.getValue().values().stream().mapToInt(BitSet::cardinality).sum()];
+
+            int lineIdx = 0;
+            int probeIdx = 0;
+
+            for (Map.Entry<Integer, BitSet> line : fragment.getValue().entrySet()) {
+                lines[lineIdx] = line.getKey();
+                lineProbeStart[lineIdx++] = probeIdx;
+
+                for (int probe = line.getValue().nextSetBit(0); probe >= 0; probe = line.getValue().nextSetBit(probe + 1)) {
+                    lineProbes[probeIdx++] = probe;
+                }
+            }
+
+            lineProbeStart[lines.length] = probeIdx;
+            result[fragmentIdx++] = new ClassProbeIndex.Fragment(fragment.getKey(), lines, lineProbeStart, lineProbes);
+        }
+
+        return result;
+    }
+
+    /**
+     * Records the lines of Kotlin inline functions that have been inlined into this class, see JaCoCo's
+     * {@code ClassAnalyzer#calculateFragments}.
+     */
+    private void calculateFragments(Map<AbstractInsnNode, SymbolicInstruction> instructions) {
+        if (sourceDebugExtension == null || !Filters.isKotlinClass(this)) {
+            return;
+        }
+
+        if (smap == null) {
+            // Note that visitSource is invoked before visitAnnotation, that's why parsing is done here
+            smap = new KotlinSMAP(getSourceFileName(), sourceDebugExtension);
+        }
+
+        for (KotlinSMAP.Mapping mapping : smap.mappings()) {
+            if (className.equals(mapping.inputClassName()) && mapping.inputStartLine() == mapping.outputStartLine()) {
+                continue;
+            }
+
+            final TreeMap<Integer, BitSet> fragment = fragments.computeIfAbsent(mapping.inputClassName(), k -> new TreeMap<>());
+            final int mappingOutputEndLine = mapping.outputStartLine() + mapping.repeatCount() - 1;
+
+            for (SymbolicInstruction instruction : instructions.values()) {
+                if (mapping.outputStartLine() <= instruction.getLine() && instruction.getLine() <= mappingOutputEndLine) {
+                    final int originalLine = mapping.inputStartLine() + instruction.getLine() - mapping.outputStartLine();
+                    fragment.computeIfAbsent(originalLine, line -> new BitSet()).or(instruction.getCoveringProbes());
+                }
+            }
+        }
+    }
+
+    // === IFilterContext ===
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    @Override
+    public Set<String> getClassAnnotations() {
+        return classAnnotations;
+    }
+
+    @Override
+    public Set<String> getClassAttributes() {
+        return classAttributes;
+    }
+
+    @Override
+    public String getSourceFileName() {
+        return sourceFileName;
+    }
+
+    @Override
+    public String getSourceDebugExtension() {
+        return sourceDebugExtension;
+    }
+
+    private record IndexedMethod(String name, String desc, List<SymbolicInstruction> instructions) {}
+
+    private record Jump(SymbolicInstruction source, Label target, int branch) {}
+
+    /**
+     * Combination of JaCoCo's {@code MethodAnalyzer} and {@code InstructionsBuilder}.
+     */
+    private final class MethodIndexer extends MethodProbesVisitor {
+
+        private final String name;
+        private final String desc;
+
+        private final Map<AbstractInsnNode, SymbolicInstruction> instructions = new HashMap<>();
+        private final Map<Label, SymbolicInstruction> labelInstructions = new HashMap<>();
+        private final List<Label> currentLabel = new ArrayList<>(2);
+        private final List<Jump> jumps = new ArrayList<>();
+
+        private AbstractInsnNode currentNode;
+        private SymbolicInstruction currentInsn;
+        private int currentLine = ISourceNode.UNKNOWN_LINE;
+
+        private MethodIndexer(String name, String desc) {
+            this.name = name;
+            this.desc = desc;
+        }
+
+        @Override
+        public void accept(MethodNode methodNode, MethodVisitor methodVisitor) {
+            methodVisitor.visitCode();
+            for (TryCatchBlockNode n : methodNode.tryCatchBlocks) {
+                n.accept(methodVisitor);
+            }
+            for (AbstractInsnNode i : methodNode.instructions) {
+                currentNode = i;
+                i.accept(methodVisitor);
+            }
+            methodVisitor.visitEnd();
+
+            addMethod(methodNode);
+        }
+
+        private void addMethod(MethodNode methodNode) {
+            for (Jump jump : jumps) {
+                jump.source().addBranch(labelInstructions.get(jump.target()), jump.branch());
+            }
+
+            calculateFragments(instructions);
+
+            final FilterOutput output = new FilterOutput(instructions);
+            filter.filter(methodNode, ClassProbeIndexBuilder.this, output);
+
+            final List<SymbolicInstruction> result = output.calculate(methodNode);
+
+            // Only consider methods that actually contain code
+            if (!result.isEmpty()) {
+                methods.add(new IndexedMethod(name.intern(), desc.intern(), result));
+            }
+        }
+
+        private void addInstruction() {
+            final SymbolicInstruction insn = new SymbolicInstruction(currentLine);
+
+            for (Label label : currentLabel) {
+                labelInstructions.put(label, insn);
+            }
+            currentLabel.clear();
+
+            if (currentInsn != null) {
+                currentInsn.addBranch(insn, 0);
+            }
+
+            currentInsn = insn;
+            instructions.put(currentNode, insn);
+        }
+
+        private void addJump(Label target, int branch) {
+            jumps.add(new Jump(currentInsn, target, branch));
+        }
+
+        private void addProbe(int probeId, int branch) {
+            currentInsn.addBranch(probeId, branch);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            currentLabel.add(label);
+            if (!LabelInfo.isSuccessor(label)) {
+                currentInsn = null;
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            currentLine = line;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            addInstruction();
+            addJump(label, 1);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        private void visitSwitchInsn(Label dflt, Label[] labels) {
+            addInstruction();
+            LabelInfo.resetDone(labels);
+            int branch = 0;
+            addJump(dflt, branch);
+            LabelInfo.setDone(dflt);
+            for (Label l : labels) {
+                if (!LabelInfo.isDone(l)) {
+                    branch++;
+                    addJump(l, branch);
+                    LabelInfo.setDone(l);
+                }
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitProbe(int probeId) {
+            addProbe(probeId, 0);
+            currentInsn = null;
+        }
+
+        @Override
+        public void visitJumpInsnWithProbe(int opcode, Label label, int probeId, IFrame frame) {
+            addInstruction();
+            addProbe(probeId, 1);
+        }
+
+        @Override
+        public void visitInsnWithProbe(int opcode, int probeId) {
+            addInstruction();
+            addProbe(probeId, 0);
+        }
+
+        @Override
+        public void visitTableSwitchInsnWithProbes(int min, int max, Label dflt, Label[] labels, IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsnWithProbes(Label dflt, int[] keys, Label[] labels, IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        private void visitSwitchInsnWithProbes(Label dflt, Label[] labels) {
+            addInstruction();
+            LabelInfo.resetDone(dflt);
+            LabelInfo.resetDone(labels);
+            int branch = 0;
+            visitSwitchTarget(dflt, branch);
+            for (Label l : labels) {
+                branch++;
+                visitSwitchTarget(l, branch);
+            }
+        }
+
+        private void visitSwitchTarget(Label label, int branch) {
+            final int id = LabelInfo.getProbeId(label);
+            if (!LabelInfo.isDone(label)) {
+                if (id == LabelInfo.NO_PROBE) {
+                    addJump(label, branch);
+                } else {
+                    addProbe(id, branch);
+                }
+                LabelInfo.setDone(label);
+            }
+        }
+    }
+
+    /**
+     * Counterpart of JaCoCo's {@code MethodCoverageCalculator} that applies the filter commands to symbolic instructions.
+     */
+    private static final class FilterOutput implements IFilterOutput {
+
+        private final Map<AbstractInsnNode, SymbolicInstruction> instructions;
+        private final Set<AbstractInsnNode> ignored = new HashSet<>();
+        private final Map<AbstractInsnNode, AbstractInsnNode> merged = new HashMap<>();
+        private final Map<AbstractInsnNode, Set<AbstractInsnNode>> replacements = new HashMap<>();
+
+        private FilterOutput(Map<AbstractInsnNode, SymbolicInstruction> instructions) {
+            this.instructions = instructions;
+        }
+
+        private List<SymbolicInstruction> calculate(MethodNode methodNode) {
+            applyMerges();
+            applyReplacements();
+
+            final List<SymbolicInstruction> result = new ArrayList<>(instructions.size());
+
+            for (AbstractInsnNode node : methodNode.instructions) {
+                final SymbolicInstruction insn = instructions.get(node);
+
+                if (insn != null && !ignored.contains(node)) {
+                    result.add(insn);
+                }
+            }
+
+            return result;
+        }
+
+        private void applyMerges() {
+            // Merge to the representative:
+            for (Map.Entry<AbstractInsnNode, AbstractInsnNode> entry : merged.entrySet()) {
+                final AbstractInsnNode node = entry.getKey();
+                final SymbolicInstruction instruction = instructions.get(node);
+                final AbstractInsnNode representativeNode = findRepresentative(node);
+                ignored.add(node);
+                instructions.put(representativeNode, instructions.get(representativeNode).merge(instruction));
+                entry.setValue(representativeNode);
+            }
+
+            // Get merged value back from representative
+            for (Map.Entry<AbstractInsnNode, AbstractInsnNode> entry : merged.entrySet()) {
+                instructions.put(entry.getKey(), instructions.get(entry.getValue()));
+            }
+        }
+
+        private void applyReplacements() {
+            for (Map.Entry<AbstractInsnNode, Set<AbstractInsnNode>> entry : replacements.entrySet()) {
+                final List<SymbolicInstruction> newBranches = new ArrayList<>(entry.getValue().size());
+
+                for (AbstractInsnNode b : entry.getValue()) {
+                    newBranches.add(instructions.get(b));
+                }
+
+                final AbstractInsnNode node = entry.getKey();
+                instructions.put(node, instructions.get(node).replaceBranches(newBranches));
+            }
+        }
+
+        private AbstractInsnNode findRepresentative(AbstractInsnNode i) {
+            AbstractInsnNode r;
+            while ((r = merged.get(i)) != null) {
+                i = r;
+            }
+            return i;
+        }
+
+        @Override
+        public void ignore(AbstractInsnNode fromInclusive, AbstractInsnNode toInclusive) {
+            for (AbstractInsnNode i = fromInclusive; i != toInclusive; i = i.getNext()) {
+                ignored.add(i);
+            }
+            ignored.add(toInclusive);
+        }
+
+        @Override
+        public void merge(AbstractInsnNode i1, AbstractInsnNode i2) {
+            i1 = findRepresentative(i1);
+            i2 = findRepresentative(i2);
+            if (i1 != i2) {
+                merged.put(i2, i1);
+            }
+        }
+
+        @Override
+        public void replaceBranches(AbstractInsnNode source, Set<AbstractInsnNode> newTargets) {
+            replacements.put(source, newTargets);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.index;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ClassProbeIndex}es shared by several {@link ClassProbeIndexer}s, keyed by the JaCoCo class id (the CRC64 of
+ * the class bytes). Classes contained in the class files of several applications are therefore only indexed and
+ * held in memory once.
+ * <p>
+ * Entries are only weakly referenced, an index is dropped once no indexer uses it anymore.
+ */
+public class ClassProbeIndexStore {
+
+    private final Map<Long, IndexReference> indices = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ClassProbeIndex> released = new ReferenceQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @return the stored index of the class or <code>null</code> if it has to be indexed
+     */
+    public ClassProbeIndex get(long classId) {
+        expungeReleased();
+
+        final IndexReference reference = indices.get(classId);
+        final ClassProbeIndex index = reference != null ? reference.get() : null;
+
+        if (index != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return index;
+    }
+
+    /**
+     * Like {@link #get(long)}, but without counting a hit or miss, for indices that do not have to be indexed anyway.
+     */
+    ClassProbeIndex getShared(long classId) {
+        final IndexReference reference = indices.get(classId);
+
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Stores the index, unless another thread already stored one for the same class.
+     *
+     * @return the index that should be used for the class
+     */
+    public ClassProbeIndex put(ClassProbeIndex index) {
+        final IndexReference stored = indices.compute(index.getClassId(), (classId, existing) ->
+                existing != null && existing.get() != null ? existing : new IndexReference(index, released));
+
+        final ClassProbeIndex storedIndex = stored.get();
+
+        return storedIndex != null ? storedIndex : index;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of stored classes, including classes that are not used anymore but have not been collected yet
+     */
+    public int size() {
+        expungeReleased();
+
+        return indices.size();
+    }
+
+    private void expungeReleased() {
+        Reference<? extends ClassProbeIndex> reference;
+
+        while ((reference = released.poll()) != null) {
+            final IndexReference indexReference = (IndexReference) reference;
+
+            indices.remove(indexReference.classId, indexReference);
+        }
+    }
+
+    private static final class IndexReference extends WeakReference<ClassProbeIndex> {
+        private final long classId;
+
+        private IndexReference(ClassProbeIndex index, ReferenceQueue<ClassProbeIndex> queue) {
+            super(index, queue);
+            this.classId = index.getClassId();
+        }
+    }
+}
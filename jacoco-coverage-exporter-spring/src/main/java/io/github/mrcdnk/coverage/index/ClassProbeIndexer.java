@@ -0,0 +1,323 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import io.github.mrcdnk.coverage.budget.AnalysisBudget;
+import org.jacoco.core.internal.ContentTypeDetector;
+import org.jacoco.core.internal.InputStreams;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Builds and caches the {@link ClassProbeIndex}es of a set of class files and archives.
+ * <p>
+ * Files are only indexed again if their size or modification time changed. With a {@link PersistentClassProbeIndex}
+ * unchanged files are also restored after a restart instead of being indexed again. The supported content mirrors
+ * JaCoCo's {@code Analyzer#analyzeAll}: class files, zip/jar archives (also nested) and gzip compressed files.
+ */
+public class ClassProbeIndexer {
+
+    private final Map<File, IndexedFile> indexedFiles = new ConcurrentHashMap<>();
+    private final ForkJoinPool pool;
+    private final ClassProbeIndexStore store;
+    private final PersistentClassProbeIndex persistentIndex;
+
+    public ClassProbeIndexer() {
+        this(null);
+    }
+
+    /**
+     * @param pool pool to index changed files on, <code>null</code> to index them on the calling thread
+     */
+    public ClassProbeIndexer(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * @param pool  pool to index changed files on, <code>null</code> to index them on the calling thread
+     * @param store store shared with other indexers, <code>null</code> to index every class of this indexer
+     */
+    public ClassProbeIndexer(ForkJoinPool pool, ClassProbeIndexStore store) {
+        this(pool, store, null);
+    }
+
+    /**
+     * @param pool            pool to index changed files on, <code>null</code> to index them on the calling thread
+     * @param store           store shared with other indexers, <code>null</code> to index every class of this indexer
+     * @param persistentIndex file the indexed classes are persisted in, <code>null</code> to only keep them in memory
+     */
+    public ClassProbeIndexer(ForkJoinPool pool, ClassProbeIndexStore store, PersistentClassProbeIndex persistentIndex) {
+        this.pool = pool;
+        this.store = store;
+        this.persistentIndex = persistentIndex;
+    }
+
+    /**
+     * Returns the indices of all classes contained in the given files. Cached entries of files that are not part
+     * of the given collection anymore are dropped.
+     */
+    public List<ClassProbeIndex> index(Collection<File> files) throws IOException {
+        final List<File> visited = new ArrayList<>();
+
+        for (File file : files) {
+            collectFiles(file, visited);
+        }
+
+        final Map<File, IndexedFile> current = new HashMap<>();
+        final List<File> changed = new ArrayList<>();
+
+        for (File file : visited) {
+            final IndexedFile cached = indexedFiles.get(file);
+
+            if (cached != null && cached.length() == file.length() && cached.lastModified() == file.lastModified()) {
+                current.put(file, cached);
+            } else {
+                changed.add(file);
+            }
+        }
+
+        if (pool == null || changed.size() < 2) {
+            for (File file : changed) {
+                current.put(file, indexFile(file));
+            }
+        } else {
+            current.putAll(indexParallel(changed));
+        }
+
+        final boolean removed = indexedFiles.keySet().retainAll(current.keySet());
+
+        if (persistentIndex != null && (removed || !changed.isEmpty())) {
+            persistentIndex.save(current);
+        }
+
+        final List<ClassProbeIndex> result = new ArrayList<>();
+
+        for (File file : visited) {
+            result.addAll(current.get(file).classes());
+        }
+
+        return result;
+    }
+
+    public int getIndexedFileCount() {
+        return indexedFiles.size();
+    }
+
+    private Map<File, IndexedFile> indexParallel(List<File> files) throws IOException {
+        final List<Callable<IndexedFile>> tasks = files.stream().<Callable<IndexedFile>>map(file -> () -> indexFile(file)).toList();
+        final List<Future<IndexedFile>> results = pool.invokeAll(tasks);
+        final Map<File, IndexedFile> indexed = new HashMap<>();
+
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                indexed.put(files.get(i), results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        return indexed;
+    }
+
+    private static void collectFiles(File file, List<File> result) {
+        if (file.isDirectory()) {
+            final File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    collectFiles(child, result);
+                }
+            }
+
+            return;
+        }
+
+        result.add(file);
+    }
+
+    private IndexedFile indexFile(File file) throws IOException {
+        if (persistentIndex != null) {
+            final IndexedFile restored = persistentIndex.restore(file, store);
+
+            if (restored != null) {
+                indexedFiles.put(file, restored);
+                return restored;
+            }
+        }
+
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        final List<ClassProbeIndex> classes = new ArrayList<>();
+        final MessageDigest digest = persistentIndex != null ? PersistentClassProbeIndex.newDigest() : null;
+
+        try (InputStream in = digest != null ? new DigestInputStream(new FileInputStream(file), digest) : new FileInputStream(file)) {
+            indexAll(in, file.getPath(), classes, store);
+
+            if (digest != null) {
+                // archives are not necessarily read up to their end
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+
+        final IndexedFile indexed = new IndexedFile(length, lastModified, digest != null ? digest.digest() : null, List.copyOf(classes));
+        indexedFiles.put(file, indexed);
+
+        return indexed;
+    }
+
+    /**
+     * Indexes all classes of the given stream, the content type is detected from the first bytes.
+     */
+    public static void indexAll(InputStream input, String location, List<ClassProbeIndex> result) throws IOException {
+        indexAll(input, location, result, null);
+    }
+
+    /**
+     * Like {@link #indexAll(InputStream, String, List)}, but classes already contained in the store are not indexed
+     * again.
+     */
+    public static void indexAll(InputStream input, String location, List<ClassProbeIndex> result, ClassProbeIndexStore store) throws IOException {
+        final ContentTypeDetector detector;
+        try {
+            detector = new ContentTypeDetector(input);
+        } catch (IOException e) {
+            throw indexError(location, e);
+        }
+
+        switch (detector.getType()) {
+            case ContentTypeDetector.CLASSFILE -> {
+                final ClassProbeIndex index = indexClass(readFully(detector.getInputStream(), location), location, store);
+
+                if (index != null) {
+                    result.add(index);
+                }
+            }
+            case ContentTypeDetector.ZIPFILE -> indexZip(detector.getInputStream(), location, result, store);
+            case ContentTypeDetector.GZFILE -> indexAll(new GZIPInputStream(detector.getInputStream()), location, result, store);
+            default -> {
+                // not a class file or archive
+            }
+        }
+    }
+
+    /**
+     * @return index of the given class or <code>null</code> for module descriptors and synthetic classes,
+     * which are also skipped by JaCoCo's analyzer
+     */
+    public static ClassProbeIndex indexClass(byte[] source, String location) throws IOException {
+        return indexClass(source, location, null);
+    }
+
+    private static ClassProbeIndex indexClass(byte[] source, String location, ClassProbeIndexStore store) throws IOException {
+        try {
+            final long classId = CRC64.classId(source);
+
+            if (store != null) {
+                final ClassProbeIndex stored = store.get(classId);
+
+                if (stored != null) {
+                    return stored;
+                }
+            }
+
+            final ClassReader reader = InstrSupport.classReaderFor(source);
+
+            if ((reader.getAccess() & (Opcodes.ACC_MODULE | Opcodes.ACC_SYNTHETIC)) != 0) {
+                return null;
+            }
+
+            final ClassProbeIndexBuilder builder = new ClassProbeIndexBuilder(classId);
+
+            try (AnalysisBudget.HeapReservation ignored = AnalysisBudget.reserveHeap(source.length)) {
+                reader.accept(new ClassProbesAdapter(builder, false), 0);
+            }
+
+            AnalysisBudget.checkpoint();
+
+            return store != null ? store.put(builder.build()) : builder.build();
+        } catch (RuntimeException e) {
+            throw indexError(location, e);
+        }
+    }
+
+    private static void indexZip(InputStream input, String location, List<ClassProbeIndex> result, ClassProbeIndexStore store) throws IOException {
+        final ZipInputStream zip = new ZipInputStream(input);
+        ZipEntry entry;
+
+        while ((entry = nextEntry(zip, location)) != null) {
+            indexAll(zip, location + "@" + entry.getName(), result, store);
+        }
+    }
+
+    private static ZipEntry nextEntry(ZipInputStream input, String location) throws IOException {
+        try {
+            return input.getNextEntry();
+        } catch (IOException | IllegalArgumentException e) {
+            throw indexError(location, e);
+        }
+    }
+
+    private static byte[] readFully(InputStream input, String location) throws IOException {
+        try {
+            return InputStreams.readFully(input);
+        } catch (IOException e) {
+            throw indexError(location, e);
+        }
+    }
+
+    private static IOException indexError(String location, Exception cause) {
+        return new IOException("Error while indexing [" + location + "]", cause);
+    }
+
+    /**
+     * @param contentHash SHA-256 of the file, <code>null</code> if the indexer has no {@link PersistentClassProbeIndex}
+     */
+    record IndexedFile(long length, long lastModified, byte[] contentHash, List<ClassProbeIndex> classes) {}
+}
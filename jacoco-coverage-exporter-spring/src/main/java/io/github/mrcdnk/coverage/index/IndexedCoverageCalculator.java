@@ -0,0 +1,393 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import io.github.mrcdnk.coverage.budget.AnalysisBudget;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import io.github.mrcdnk.coverage.snapshot.MethodCounters;
+import io.github.mrcdnk.coverage.snapshot.NodeCounters;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Computes the bundle counters of a set of {@link ClassProbeIndex}es for the probes of an {@link ExecutionDataStore}.
+ * <p>
+ * The aggregation follows JaCoCo's {@code CoverageBuilder}: classes are unique by name and lines are counted once per
+ * source file, even if several classes of that file contain instructions on the same line.
+ * <p>
+ * The results of the previous calculation are kept, only classes whose probes changed are evaluated again and only the
+ * source files containing these classes are aggregated again. Instances are thread safe.
+ */
+public final class IndexedCoverageCalculator {
+
+    private static final int ENTITIES = ICoverageNode.CounterEntity.values().length;
+    private static final int LINE = ICoverageNode.CounterEntity.LINE.ordinal();
+
+    private final Map<String, EvaluatedClass> evaluatedClasses = new HashMap<>();
+    private final Map<String, SourceFile> sourceFiles = new HashMap<>();
+    private final int[] missed = new int[ENTITIES];
+    private final int[] covered = new int[ENTITIES];
+
+    private ClassMethods methods = new ClassMethods(Map.of());
+
+    /**
+     * Calculates the counters without keeping any state.
+     */
+    public static CoverageSnapshot calculate(Collection<ClassProbeIndex> classes, ExecutionDataStore executionData) {
+        return new IndexedCoverageCalculator().update(classes, executionData);
+    }
+
+    /**
+     * Updates the counters with the current probes. Classes which are not part of the given collection anymore are
+     * removed from the result.
+     */
+    public CoverageSnapshot update(Collection<ClassProbeIndex> classes, ExecutionDataStore executionData) {
+        return update(classes, executionData, false);
+    }
+
+    /**
+     * @param withDetails also return the counters of all packages and classes
+     */
+    public synchronized CoverageSnapshot update(Collection<ClassProbeIndex> classes, ExecutionDataStore executionData, boolean withDetails) {
+        final Map<String, ClassProbeIndex> uniqueClasses = uniqueByName(classes);
+        final Map<String, TreeMap<Integer, Boolean>> fragments = collectFragments(uniqueClasses, executionData);
+        final Set<SourceFile> changedSourceFiles = new HashSet<>();
+
+        final Iterator<EvaluatedClass> removed = evaluatedClasses.values().iterator();
+        while (removed.hasNext()) {
+            final EvaluatedClass clazz = removed.next();
+
+            if (uniqueClasses.get(clazz.index().getClassName()) != clazz.index()) {
+                removed.remove();
+                changedSourceFiles.add(clazz.sourceFile().remove(clazz));
+            }
+        }
+
+        boolean changed = !changedSourceFiles.isEmpty();
+        int reanalyzed = 0;
+
+        for (ClassProbeIndex index : uniqueClasses.values()) {
+            final boolean[] probes = getProbes(index, executionData);
+            final TreeMap<Integer, Boolean> fragment = fragments.get(index.getClassName());
+            final EvaluatedClass previous = evaluatedClasses.get(index.getClassName());
+
+            if (previous != null && Arrays.equals(previous.probes(), probes) && Objects.equals(previous.fragment(), fragment)) {
+                continue;
+            }
+
+            final SourceFile sourceFile = previous == null ? getSourceFile(index) : previous.sourceFile();
+            final EvaluatedClass evaluated = new EvaluatedClass(index, probes == null ? null : probes.clone(), fragment,
+                    evaluate(index, probes, fragment), sourceFile);
+
+            if (previous != null) {
+                sourceFile.remove(previous);
+            }
+
+            evaluatedClasses.put(index.getClassName(), evaluated);
+            changedSourceFiles.add(sourceFile.add(evaluated));
+            reanalyzed++;
+
+            AnalysisBudget.checkpoint();
+        }
+
+        for (SourceFile sourceFile : changedSourceFiles) {
+            sourceFile.recount(missed, covered);
+
+            if (sourceFile.classes.isEmpty()) {
+                sourceFiles.remove(sourceFile.key);
+            }
+        }
+
+        if (changed || reanalyzed > 0) {
+            // evaluated classes are immutable, so the snapshot only has to keep the mapping of the current ones
+            methods = new ClassMethods(Map.copyOf(evaluatedClasses));
+        }
+
+        if (!withDetails) {
+            return CoverageSnapshot.of(missed, covered, reanalyzed, CoverageTable.EMPTY, CoverageTable.EMPTY, methods);
+        }
+
+        return CoverageSnapshot.of(missed, covered, reanalyzed, getPackageCounters(), getClassCounters(), methods);
+    }
+
+    /**
+     * Drops the results of all previous calculations, e.g. after the target has been restarted.
+     */
+    public synchronized void clear() {
+        evaluatedClasses.clear();
+        sourceFiles.clear();
+        Arrays.fill(missed, 0);
+        Arrays.fill(covered, 0);
+        methods = new ClassMethods(Map.of());
+    }
+
+    /**
+     * Package counters are the sum of their source files, like in JaCoCo's {@code PackageCoverageImpl}.
+     */
+    private CoverageTable getPackageCounters() {
+        final Map<String, int[][]> packages = new TreeMap<>();
+
+        for (SourceFile sourceFile : sourceFiles.values()) {
+            final String packageName = sourceFile.classes.get(0).index().getPackageName();
+            final int[][] counters = packages.computeIfAbsent(packageName, name -> new int[2][ENTITIES]);
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                counters[0][entity] += sourceFile.missed[entity];
+                counters[1][entity] += sourceFile.covered[entity];
+            }
+        }
+
+        final CoverageTable.Builder table = CoverageTable.builder(packages.size());
+        packages.forEach((name, counters) -> table.add(name, counters[0], counters[1]));
+
+        return table.build();
+    }
+
+    private CoverageTable getClassCounters() {
+        final CoverageTable.Builder table = CoverageTable.builder(evaluatedClasses.size());
+
+        for (EvaluatedClass clazz : evaluatedClasses.values()) {
+            table.add(clazz.index().getClassName(), clazz.counters().missed(), clazz.counters().covered());
+        }
+
+        return table.build();
+    }
+
+    private SourceFile getSourceFile(ClassProbeIndex index) {
+        // classes without source file are counted on their own, just like JaCoCo's package coverage does
+        final String key = index.getSourceFileName() == null
+                ? index.getClassName()
+                : index.getPackageName() + '/' + index.getSourceFileName() + '/';
+
+        return sourceFiles.computeIfAbsent(key, SourceFile::new);
+    }
+
+    static ClassProbeIndex.ClassCounters evaluate(ClassProbeIndex index, boolean[] probes, TreeMap<Integer, Boolean> fragment) {
+        if (fragment == null) {
+            return index.evaluate(probes);
+        }
+
+        final int[] fragmentLines = new int[fragment.size()];
+        final boolean[] fragmentCovered = new boolean[fragment.size()];
+
+        int i = 0;
+        for (Map.Entry<Integer, Boolean> line : fragment.entrySet()) {
+            fragmentLines[i] = line.getKey();
+            fragmentCovered[i++] = line.getValue();
+        }
+
+        return index.evaluate(probes, fragmentLines, fragmentCovered);
+    }
+
+    /**
+     * Collects the inlined Kotlin fragments of all classes by their target class. A fragment line is covered if it is
+     * covered in any of the classes it has been inlined into.
+     */
+    static Map<String, TreeMap<Integer, Boolean>> collectFragments(Map<String, ClassProbeIndex> classes, ExecutionDataStore executionData) {
+        final Map<String, TreeMap<Integer, Boolean>> result = new HashMap<>();
+
+        for (ClassProbeIndex index : classes.values()) {
+            if (index.getFragments().length == 0) {
+                continue;
+            }
+
+            final boolean[] probes = getProbes(index, executionData);
+
+            for (ClassProbeIndex.Fragment fragment : index.getFragments()) {
+                if (!classes.containsKey(fragment.targetClassName())) {
+                    continue;
+                }
+
+                final TreeMap<Integer, Boolean> lines = result.computeIfAbsent(fragment.targetClassName(), k -> new TreeMap<>());
+
+                for (int line = 0; line < fragment.lines().length; line++) {
+                    lines.merge(fragment.lines()[line], fragment.isLineCovered(line, probes), Boolean::logicalOr);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    static boolean[] getProbes(ClassProbeIndex index, ExecutionDataStore executionData) {
+        final ExecutionData data = executionData.get(index.getClassId());
+        return data == null ? null : data.getProbes();
+    }
+
+    static Map<String, ClassProbeIndex> uniqueByName(Collection<ClassProbeIndex> classes) {
+        final Map<String, ClassProbeIndex> byName = new HashMap<>(classes.size() * 2);
+
+        for (ClassProbeIndex index : classes) {
+            final ClassProbeIndex duplicate = byName.put(index.getClassName(), index);
+
+            if (duplicate != null && duplicate.getClassId() != index.getClassId()) {
+                throw new IllegalStateException("Can't add different class with same name: " + index.getClassName());
+            }
+        }
+
+        return byName;
+    }
+
+    /**
+     * All classes sharing one source file, together with the counters they currently contribute to the bundle.
+     */
+    private static final class SourceFile {
+        private final String key;
+        private final List<EvaluatedClass> classes = new ArrayList<>(1);
+        private final int[] missed = new int[ENTITIES];
+        private final int[] covered = new int[ENTITIES];
+
+        private SourceFile(String key) {
+            this.key = key;
+        }
+
+        private SourceFile add(EvaluatedClass clazz) {
+            classes.add(clazz);
+            return this;
+        }
+
+        private SourceFile remove(EvaluatedClass clazz) {
+            classes.remove(clazz);
+            return this;
+        }
+
+        /**
+         * Replaces the previous contribution of this source file to the given bundle counters with the current one.
+         */
+        private void recount(int[] bundleMissed, int[] bundleCovered) {
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                bundleMissed[entity] -= missed[entity];
+                bundleCovered[entity] -= covered[entity];
+            }
+
+            Arrays.fill(missed, 0);
+            Arrays.fill(covered, 0);
+
+            for (EvaluatedClass clazz : classes) {
+                for (int entity = 0; entity < ENTITIES; entity++) {
+                    if (entity != LINE) {
+                        missed[entity] += clazz.counters().missed()[entity];
+                        covered[entity] += clazz.counters().covered()[entity];
+                    }
+                }
+            }
+
+            countLines();
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                bundleMissed[entity] += missed[entity];
+                bundleCovered[entity] += covered[entity];
+            }
+        }
+
+        private void countLines() {
+            if (classes.size() == 1) {
+                missed[LINE] = classes.get(0).counters().missed()[LINE];
+                covered[LINE] = classes.get(0).counters().covered()[LINE];
+                return;
+            }
+
+            int firstLine = Integer.MAX_VALUE;
+            int lastLine = Integer.MIN_VALUE;
+
+            for (EvaluatedClass clazz : classes) {
+                final int[] lines = clazz.counters().lines();
+
+                if (lines.length > 0) {
+                    firstLine = Math.min(firstLine, lines[0]);
+                    lastLine = Math.max(lastLine, lines[lines.length - 1]);
+                }
+            }
+
+            if (firstLine > lastLine) {
+                return;
+            }
+
+            final boolean[] hasInstructions = new boolean[lastLine - firstLine + 1];
+            final boolean[] hasCoveredInstructions = new boolean[hasInstructions.length];
+
+            for (EvaluatedClass clazz : classes) {
+                final int[] lines = clazz.counters().lines();
+                final int[] lineCovered = clazz.counters().lineCovered();
+
+                for (int slot = 0; slot < lines.length; slot++) {
+                    hasInstructions[lines[slot] - firstLine] = true;
+
+                    if (lineCovered[slot] > 0) {
+                        hasCoveredInstructions[lines[slot] - firstLine] = true;
+                    }
+                }
+            }
+
+            for (int line = 0; line < hasInstructions.length; line++) {
+                if (hasCoveredInstructions[line]) {
+                    covered[LINE]++;
+                } else if (hasInstructions[line]) {
+                    missed[LINE]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the methods of the classes of one calculation on request.
+     */
+    private record ClassMethods(Map<String, EvaluatedClass> classes) implements MethodCounters {
+
+        @Override
+        public List<NodeCounters> getMethods(String className) {
+            final EvaluatedClass clazz = classes.get(className);
+
+            return clazz != null ? clazz.index().evaluateMethods(clazz.probes()) : null;
+        }
+
+        @Override
+        public long getSizeInBytes() {
+            // entry of the immutable map, the evaluated classes are shared with the calculator
+            return 32 + 8L * 2 * classes.size();
+        }
+    }
+
+    private record EvaluatedClass(ClassProbeIndex index, boolean[] probes, TreeMap<Integer, Boolean> fragment,
+                                  ClassProbeIndex.ClassCounters counters, SourceFile sourceFile) {
+        // identity semantics, the probe array is compared explicitly
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.index;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jacoco.core.JaCoCo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link ClassProbeIndex}es of a {@link ClassProbeIndexer} persisted in a single memory mapped file, so a restarted
+ * exporter does not have to index all class files again.
+ * <p>
+ * The file starts with its format and the JaCoCo version, a file written by another version is ignored. It is followed
+ * by a table of the indexed files with their path, size, modification time, SHA-256 content hash and class ids, and a
+ * directory of all classes sorted by their id. Each class record carries a CRC32C checksum.
+ * <p>
+ * Only the header and the file table are read on startup. A file is restored if its path, size and modification time
+ * match. If only the modification time differs, e.g. because a redeployment copied the class files again, its content
+ * hash decides. The records of its classes are decoded and verified when the file is requested, a damaged record lets
+ * the file be indexed again. The file is written by a background thread, saves requested while it writes are coalesced
+ * into one. Instances are thread safe.
+ */
+public class PersistentClassProbeIndex {
+
+    private static final int MAGIC = 0x4A434349;
+    private static final int FORMAT_VERSION = 1;
+    private static final int DIRECTORY_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Path path;
+    private final LongAdder restoredClasses = new LongAdder();
+    private final AtomicReference<Map<File, ClassProbeIndexer.IndexedFile>> pending = new AtomicReference<>();
+
+    private volatile Mapping mapping;
+    private volatile boolean damaged;
+
+    public PersistentClassProbeIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return the persisted classes of the file, <code>null</code> if it has to be indexed
+     */
+    ClassProbeIndexer.IndexedFile restore(File file, ClassProbeIndexStore store) throws IOException {
+        final Mapping current = getMapping();
+        final PersistedFile persisted = current.files().get(file.getPath());
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        if (persisted == null || persisted.length() != length) {
+            return null;
+        }
+
+        if (persisted.lastModified() != lastModified && !Arrays.equals(persisted.contentHash(), hash(file))) {
+            return null;
+        }
+
+        final List<ClassProbeIndex> classes = new ArrayList<>(persisted.classIds().length);
+
+        for (long classId : persisted.classIds()) {
+            // classes shared with other files or applications are only decoded once
+            final ClassProbeIndex shared = store != null ? store.getShared(classId) : null;
+            final ClassProbeIndex index = shared != null ? shared : current.read(classId);
+
+            if (index == null) {
+                log.warn("Persisted index of class " + Long.toHexString(classId) + " in [" + path + "] is damaged, indexing [" + file + "] again");
+                damaged = true;
+                return null;
+            }
+
+            classes.add(store != null && shared == null ? store.put(index) : index);
+        }
+
+        restoredClasses.add(classes.size());
+
+        return new ClassProbeIndexer.IndexedFile(length, lastModified, persisted.contentHash(), List.copyOf(classes));
+    }
+
+    /**
+     * Replaces the persisted index with the given files in the background, a save that has not been started yet is
+     * replaced by this one. Never blocks.
+     */
+    void save(Map<File, ClassProbeIndexer.IndexedFile> indexedFiles) {
+        if (pending.getAndSet(indexedFiles) == null) {
+            Thread.ofPlatform().name("jacoco-class-index-writer").daemon(true).start(this::flush);
+        }
+    }
+
+    /**
+     * Writes the pending save, unless the file already contains exactly these files. Failures are only logged, the
+     * classes are still indexed in memory.
+     */
+    public synchronized void flush() {
+        // taken under the lock, so a writer started for an older save never overwrites a newer one
+        final Map<File, ClassProbeIndexer.IndexedFile> indexedFiles = pending.getAndSet(null);
+
+        if (indexedFiles == null || !damaged && isPersisted(getMapping(), indexedFiles)) {
+            return;
+        }
+
+        try {
+            write(indexedFiles);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to persist the class index to [" + path + "]", e);
+        }
+    }
+
+    private void write(Map<File, ClassProbeIndexer.IndexedFile> indexedFiles) throws IOException {
+        final long start = System.nanoTime();
+        final Map<Long, ClassProbeIndex> classes = new HashMap<>();
+
+        for (ClassProbeIndexer.IndexedFile indexedFile : indexedFiles.values()) {
+            for (ClassProbeIndex index : indexedFile.classes()) {
+                classes.putIfAbsent(index.getClassId(), index);
+            }
+        }
+
+        final long[] classIds = classes.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final int[] recordOffsets = new int[classIds.length];
+
+        try (DataOutputStream out = new DataOutputStream(records)) {
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            final CRC32C checksum = new CRC32C();
+
+            for (int i = 0; i < classIds.length; i++) {
+                record.reset();
+                classes.get(classIds[i]).write(new DataOutputStream(record));
+                checksum.reset();
+                checksum.update(record.toByteArray());
+
+                recordOffsets[i] = out.size();
+                out.writeInt(record.size());
+                out.writeInt((int) checksum.getValue());
+                record.writeTo(out);
+            }
+        }
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, JaCoCo.VERSION);
+            out.writeInt(indexedFiles.size());
+
+            for (Map.Entry<File, ClassProbeIndexer.IndexedFile> entry : indexedFiles.entrySet()) {
+                final ClassProbeIndexer.IndexedFile indexedFile = entry.getValue();
+
+                writeString(out, entry.getKey().getPath());
+                out.writeLong(indexedFile.length());
+                out.writeLong(indexedFile.lastModified());
+                out.writeInt(indexedFile.contentHash().length);
+                out.write(indexedFile.contentHash());
+                out.writeInt(indexedFile.classes().size());
+
+                for (ClassProbeIndex index : indexedFile.classes()) {
+                    out.writeLong(index.getClassId());
+                }
+            }
+
+            out.writeInt(classIds.length);
+
+            for (int i = 0; i < classIds.length; i++) {
+                out.writeLong(classIds[i]);
+                out.writeInt(recordOffsets[i]);
+            }
+
+            records.writeTo(out);
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapping = map();
+        damaged = false;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Persisted " + classIds.length + " classes of " + indexedFiles.size() + " files to [" + path + "] in "
+                    + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * @return number of classes restored from the file instead of being indexed
+     */
+    public long getRestoredClasses() {
+        return restoredClasses.sum();
+    }
+
+    /**
+     * @return SHA-256 of the content of the file
+     */
+    static byte[] hash(File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private Mapping getMapping() {
+        Mapping current = mapping;
+
+        if (current == null) {
+            synchronized (this) {
+                current = mapping;
+
+                if (current == null) {
+                    current = map();
+                    mapping = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * @return mapping of the persisted file, empty if it does not exist, is damaged or has been written by another version
+     */
+    private Mapping map() {
+        if (!Files.isRegularFile(path)) {
+            return Mapping.EMPTY;
+        }
+
+        try (FileChannel channel = FileChannel.open(path)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                log.info("Ignoring persisted class index [" + path + "] of an unknown format");
+                return Mapping.EMPTY;
+            }
+
+            final String jacocoVersion = readString(buffer);
+
+            if (!JaCoCo.VERSION.equals(jacocoVersion)) {
+                log.info("Ignoring persisted class index [" + path + "] of JaCoCo " + jacocoVersion);
+                return Mapping.EMPTY;
+            }
+
+            final int fileCount = buffer.getInt();
+            final Map<String, PersistedFile> files = new LinkedHashMap<>();
+
+            for (int i = 0; i < fileCount; i++) {
+                final String filePath = readString(buffer);
+                final long length = buffer.getLong();
+                final long lastModified = buffer.getLong();
+                final byte[] contentHash = new byte[buffer.getInt()];
+                buffer.get(contentHash);
+
+                final long[] classIds = new long[buffer.getInt()];
+
+                for (int classId = 0; classId < classIds.length; classId++) {
+                    classIds[classId] = buffer.getLong();
+                }
+
+                files.put(filePath, new PersistedFile(length, lastModified, contentHash, classIds));
+            }
+
+            final int classCount = buffer.getInt();
+            final int directory = buffer.position();
+
+            return new Mapping(files, buffer, directory, classCount, directory + classCount * DIRECTORY_ENTRY_SIZE);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            log.warn("Ignoring damaged persisted class index [" + path + "]", e);
+            return Mapping.EMPTY;
+        }
+    }
+
+    private static boolean isPersisted(Mapping mapping, Map<File, ClassProbeIndexer.IndexedFile> indexedFiles) {
+        if (mapping.files().size() != indexedFiles.size()) {
+            return false;
+        }
+
+        for (Map.Entry<File, ClassProbeIndexer.IndexedFile> entry : indexedFiles.entrySet()) {
+            final PersistedFile persisted = mapping.files().get(entry.getKey().getPath());
+
+            if (persisted == null || persisted.length() != entry.getValue().length() || persisted.lastModified() != entry.getValue().lastModified()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record PersistedFile(long length, long lastModified, byte[] contentHash, long[] classIds) {}
+
+    /**
+     * @param directory position of the class directory, sorted class ids with the offsets of their records
+     * @param records   position of the first class record
+     */
+    private record Mapping(Map<String, PersistedFile> files, ByteBuffer buffer, int directory, int classCount, int records) {
+
+        private static final Mapping EMPTY = new Mapping(Map.of(), ByteBuffer.allocate(0), 0, 0, 0);
+
+        /**
+         * @return the decoded class, <code>null</code> if it is missing or its record is damaged
+         */
+        private ClassProbeIndex read(long classId) {
+            int low = 0;
+            int high = classCount - 1;
+
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final long middleId = buffer.getLong(directory + middle * DIRECTORY_ENTRY_SIZE);
+
+                if (middleId < classId) {
+                    low = middle + 1;
+                } else if (middleId > classId) {
+                    high = middle - 1;
+                } else {
+                    return readRecord(records + buffer.getInt(directory + middle * DIRECTORY_ENTRY_SIZE + Long.BYTES));
+                }
+            }
+
+            return null;
+        }
+
+        private ClassProbeIndex readRecord(int offset) {
+            try {
+                final int length = buffer.getInt(offset);
+                final int expectedChecksum = buffer.getInt(offset + Integer.BYTES);
+                final ByteBuffer record = buffer.slice(offset + 2 * Integer.BYTES, length);
+                final CRC32C checksum = new CRC32C();
+
+                checksum.update(record.duplicate());
+
+                return (int) checksum.getValue() == expectedChecksum ? ClassProbeIndex.read(record) : null;
+            } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Counterpart of JaCoCo's internal {@code Instruction} that records <em>which</em> probes cover each branch instead of
+ * whether the branch is covered for one concrete probe array.
+ * <p>
+ * The coverage propagation of JaCoCo only ever ORs probe values along the control flow, so a branch is covered for a
+ * probe array exactly when one of the probes recorded here is set. The propagation below follows the original
+ * algorithm step by step, including its early exit once an already covered predecessor is reached.
+ */
+final class SymbolicInstruction {
+
+    private final int line;
+    private int branches;
+    private final List<BitSet> branchProbes = new ArrayList<>(2);
+    private final BitSet coveringProbes = new BitSet();
+
+    private SymbolicInstruction predecessor;
+    private int predecessorBranch;
+
+    SymbolicInstruction(int line) {
+        this.line = line;
+    }
+
+    void addBranch(SymbolicInstruction target, int branch) {
+        branches++;
+        target.predecessor = this;
+        target.predecessorBranch = branch;
+
+        if (!target.coveringProbes.isEmpty()) {
+            propagate(this, branch, (BitSet) target.coveringProbes.clone());
+        }
+    }
+
+    void addBranch(int probeId, int branch) {
+        branches++;
+
+        final BitSet probe = new BitSet(probeId + 1);
+        probe.set(probeId);
+
+        propagate(this, branch, probe);
+    }
+
+    private static void propagate(SymbolicInstruction insn, int branch, BitSet probes) {
+        // No recursion here, as there can be very long chains of instructions
+        while (insn != null && !probes.isEmpty()) {
+            final BitSet alreadyCovering = (BitSet) insn.coveringProbes.clone();
+
+            insn.branch(branch).or(probes);
+            insn.coveringProbes.or(probes);
+
+            // probes that already covered this instruction have been propagated to the predecessors before
+            probes.andNot(alreadyCovering);
+
+            branch = insn.predecessorBranch;
+            insn = insn.predecessor;
+        }
+    }
+
+    private BitSet branch(int branch) {
+        while (branchProbes.size() <= branch) {
+            branchProbes.add(new BitSet());
+        }
+
+        return branchProbes.get(branch);
+    }
+
+    SymbolicInstruction merge(SymbolicInstruction other) {
+        final SymbolicInstruction result = new SymbolicInstruction(line);
+        result.branches = branches;
+
+        for (int i = 0; i < Math.max(branchProbes.size(), other.branchProbes.size()); i++) {
+            final BitSet merged = result.branch(i);
+
+            if (i < branchProbes.size()) {
+                merged.or(branchProbes.get(i));
+            }
+
+            if (i < other.branchProbes.size()) {
+                merged.or(other.branchProbes.get(i));
+            }
+        }
+
+        result.coveringProbes.or(coveringProbes);
+        result.coveringProbes.or(other.coveringProbes);
+
+        return result;
+    }
+
+    SymbolicInstruction replaceBranches(Collection<SymbolicInstruction> newBranches) {
+        final SymbolicInstruction result = new SymbolicInstruction(line);
+        result.branches = newBranches.size();
+
+        // JaCoCo only counts how many of the new branches are covered, the position of the covered bit is irrelevant
+        int idx = 0;
+        for (SymbolicInstruction b : newBranches) {
+            result.branch(idx++).or(b.coveringProbes);
+            result.coveringProbes.or(b.coveringProbes);
+        }
+
+        return result;
+    }
+
+    int getLine() {
+        return line;
+    }
+
+    int getBranches() {
+        return branches;
+    }
+
+    /**
+     * @return all probes that cover at least one branch of this instruction
+     */
+    BitSet getCoveringProbes() {
+        return coveringProbes;
+    }
+
+    /**
+     * @return probe sets of all branches that can be covered at all, branches without any covering probe are omitted
+     */
+    List<BitSet> getCoverableBranches() {
+        final List<BitSet> result = new ArrayList<>(branchProbes.size());
+
+        for (BitSet probes : branchProbes) {
+            if (!probes.isEmpty()) {
+                result.add(probes);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.inventory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The class files and archives inside a set of locations, filtered by include and exclude patterns.
+ * <p>
+ * The patterns are compiled once. After the first scan the inventory can be kept current through a
+ * {@link WatchService} instead of walking all locations again. The inventory can be read and updated concurrently.
+ */
+public class ClassFileInventory implements Closeable {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final List<Path> locations;
+    private final List<PathMatcher> includeMatchers;
+    private final List<PathMatcher> excludeMatchers;
+
+    private final NavigableSet<File> files = new ConcurrentSkipListSet<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+    private volatile boolean scanned;
+    private volatile WatchService watchService;
+    private Thread watchThread;
+
+    public ClassFileInventory(String[] classesLocations, String[] includePatterns, String[] excludePatterns) {
+        final FileSystem fs = FileSystems.getDefault();
+
+        this.locations = Arrays.stream(classesLocations).map(location -> Path.of(location).toAbsolutePath()).toList();
+        this.includeMatchers = Arrays.stream(includePatterns).map(fs::getPathMatcher).toList();
+        this.excludeMatchers = Arrays.stream(excludePatterns).map(fs::getPathMatcher).toList();
+    }
+
+    /**
+     * @return the files of the last scan, the locations are scanned if this has not happened yet
+     */
+    public Collection<File> getFiles() throws IOException {
+        if (!scanned) {
+            synchronized (this) {
+                if (!scanned) {
+                    scan();
+                }
+            }
+        }
+
+        return List.copyOf(files);
+    }
+
+    /**
+     * Walks all locations again and replaces the inventory.
+     *
+     * @return the files found
+     */
+    public synchronized Collection<File> scan() throws IOException {
+        final List<File> found = new ArrayList<>();
+
+        for (Path location : locations) {
+            if (log.isDebugEnabled()) {
+                log.debug("Checking class file source [" + location + "]");
+            }
+
+            walk(location, found);
+        }
+
+        files.retainAll(found);
+        files.addAll(found);
+        scanned = true;
+
+        return List.copyOf(found);
+    }
+
+    /**
+     * Keeps the inventory current by watching all locations for created and deleted files.
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+
+        for (Path location : locations) {
+            if (Files.isDirectory(location)) {
+                registerAll(location);
+            } else if (location.getParent() != null && Files.isDirectory(location.getParent())) {
+                // single archives are watched through their directory, isIncluded ignores the siblings
+                register(location.getParent());
+            }
+        }
+
+        scan();
+
+        watchThread = Thread.ofPlatform().name("jacoco-class-inventory").daemon(true).start(this::processEvents);
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchThread.interrupt();
+            watchService = null;
+        }
+    }
+
+    private void processEvents() {
+        final WatchService service = watchService;
+
+        while (true) {
+            final WatchKey key;
+
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            final Path directory = watchedDirectories.get(key);
+
+            try {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.info("Missed class file changes, scanning all class file locations again");
+                        scan();
+                        continue;
+                    }
+
+                    if (directory != null) {
+                        onEvent(event.kind(), directory.resolve((Path) event.context()));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to update the class file inventory, scanning all class file locations again", e);
+
+                try {
+                    scan();
+                } catch (IOException scanException) {
+                    log.error("Failed to scan the class file locations", scanException);
+                }
+            }
+
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    private void onEvent(WatchEvent.Kind<?> kind, Path path) throws IOException {
+        if (!isInLocation(path)) {
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Class file location changed [" + kind.name() + "] [" + path + "]");
+        }
+
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            // the path might have been a directory, so everything below it is removed as well
+            files.removeIf(file -> file.toPath().startsWith(path));
+        } else if (Files.isDirectory(path)) {
+            registerAll(path);
+
+            final List<File> found = new ArrayList<>();
+            walk(path, found);
+            files.addAll(found);
+        } else if (Files.isRegularFile(path) && isIncluded(path)) {
+            files.add(path.toFile());
+        }
+    }
+
+    private void walk(Path start, Collection<File> found) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (isIncluded(file.toAbsolutePath())) {
+                    found.add(file.toAbsolutePath().toFile());
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                register(directory);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path directory) throws IOException {
+        final WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        watchedDirectories.put(key, directory);
+    }
+
+    private boolean isInLocation(Path path) {
+        for (Path location : locations) {
+            if (path.startsWith(location)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isIncluded(Path file) {
+        boolean included = includeMatchers.isEmpty();
+
+        for (PathMatcher matcher : includeMatchers) {
+            if (matcher.matches(file)) {
+                included = true;
+                break;
+            }
+        }
+
+        if (included) {
+            for (PathMatcher matcher : excludeMatchers) {
+                if (matcher.matches(file)) {
+                    included = false;
+                    break;
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("File [" + file + "] included: [" + included + "]");
+        }
+
+        return included;
+    }
+}
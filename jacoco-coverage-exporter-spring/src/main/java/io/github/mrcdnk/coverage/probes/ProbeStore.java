@@ -0,0 +1,450 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.probes;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.Arrays;
+
+/**
+ * Probes of many classes packed into bitsets, one bit per probe.
+ * <p>
+ * {@link ExecutionData} takes one byte per probe plus an object for each class and its probe array. This store keeps
+ * the probes of all classes in a single <code>long[]</code> and finds a class by its id in an open addressing table, so
+ * merging and comparing stores works on 64 probes at a time. Classes with the same id but a different number of probes
+ * are the result of colliding ids, their probes are never combined.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class ProbeStore {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int FREE = 0;
+
+    // open addressing table of class indexes plus one, FREE for unused slots
+    private int[] table;
+
+    // classes in insertion order
+    private long[] ids;
+    private String[] names;
+    private int[] offsets;
+    private int[] probeCounts;
+    private int size;
+
+    // words outside the probes of the stored classes are always zero
+    private long[] words;
+    private int wordCount;
+    private int releasedWords;
+
+    public ProbeStore() {
+        this(0);
+    }
+
+    public ProbeStore(int expectedClasses) {
+        this(expectedClasses, expectedClasses);
+    }
+
+    private ProbeStore(int expectedClasses, int expectedWords) {
+        final int classes = Math.max(MIN_CAPACITY, expectedClasses);
+
+        table = new int[tableSizeFor(classes)];
+        ids = new long[classes];
+        names = new String[classes];
+        offsets = new int[classes];
+        probeCounts = new int[classes];
+        words = new long[Math.max(MIN_CAPACITY, expectedWords)];
+    }
+
+    public static ProbeStore of(ExecutionDataStore executionData) {
+        int expectedWords = 0;
+
+        for (ExecutionData data : executionData.getContents()) {
+            expectedWords += wordsFor(data.getProbes().length);
+        }
+
+        final ProbeStore store = new ProbeStore(executionData.getContents().size(), expectedWords);
+        store.or(executionData);
+
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * @return copy of the probes of the class, <code>null</code> if the store does not contain it
+     */
+    public boolean[] getProbes(long id) {
+        final int index = indexOf(id);
+
+        return index >= 0 ? unpack(index) : null;
+    }
+
+    /**
+     * @return whether the probes of any class changed
+     */
+    public boolean or(ExecutionDataStore executionData) {
+        boolean changed = false;
+
+        for (ExecutionData data : executionData.getContents()) {
+            changed |= or(data);
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return whether the class has been added or gained probes
+     */
+    public boolean or(ExecutionData data) {
+        final boolean[] probes = data.getProbes();
+        final int index = indexOf(data.getId());
+
+        if (index < 0) {
+            final int inserted = insert(data.getId(), data.getName(), probes.length);
+
+            pack(probes, offsets[inserted]);
+            return true;
+        }
+
+        if (probeCounts[index] != probes.length) {
+            return false;
+        }
+
+        final int offset = offsets[index];
+        long gained = 0;
+
+        for (int word = 0; word < wordsFor(probes.length); word++) {
+            final long bits = packWord(probes, word);
+
+            gained |= bits & ~words[offset + word];
+            words[offset + word] |= bits;
+        }
+
+        return gained != 0;
+    }
+
+    /**
+     * @return whether the probes of any class changed
+     */
+    public boolean or(ProbeStore other) {
+        boolean changed = false;
+
+        for (int otherIndex = 0; otherIndex < other.size; otherIndex++) {
+            final int probeCount = other.probeCounts[otherIndex];
+            final int otherOffset = other.offsets[otherIndex];
+            final int index = indexOf(other.ids[otherIndex]);
+
+            if (index < 0) {
+                final int inserted = insert(other.ids[otherIndex], other.names[otherIndex], probeCount);
+
+                System.arraycopy(other.words, otherOffset, words, offsets[inserted], wordsFor(probeCount));
+                changed = true;
+            } else if (probeCounts[index] == probeCount) {
+                final int offset = offsets[index];
+                long gained = 0;
+
+                for (int word = 0; word < wordsFor(probeCount); word++) {
+                    gained |= other.words[otherOffset + word] & ~words[offset + word];
+                    words[offset + word] |= other.words[otherOffset + word];
+                }
+
+                changed |= gained != 0;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Replaces the probes of the class with the given ones, also if their number changed.
+     */
+    public void put(ExecutionData data) {
+        final boolean[] probes = data.getProbes();
+        final int index = indexOf(data.getId());
+
+        if (index < 0) {
+            final int inserted = insert(data.getId(), data.getName(), probes.length);
+
+            pack(probes, offsets[inserted]);
+        } else if (probeCounts[index] == probes.length) {
+            pack(probes, offsets[index]);
+        } else {
+            // allocating first, a compaction would otherwise keep the released words
+            final int offset = allocate(wordsFor(probes.length));
+
+            release(index);
+            offsets[index] = offset;
+            probeCounts[index] = probes.length;
+            names[index] = data.getName();
+            pack(probes, offset);
+        }
+    }
+
+    /**
+     * @return the probes of this store that are not set in the other one, only classes with at least one such probe are
+     * part of the result
+     */
+    public ProbeStore andNot(ProbeStore other) {
+        final ProbeStore difference = new ProbeStore();
+        final long[] remaining = new long[wordsFor(maxProbeCount())];
+
+        for (int index = 0; index < size; index++) {
+            final int probeCount = probeCounts[index];
+            final int otherIndex = other.indexOf(ids[index]);
+            final boolean comparable = otherIndex >= 0 && other.probeCounts[otherIndex] == probeCount;
+            long any = 0;
+
+            for (int word = 0; word < wordsFor(probeCount); word++) {
+                remaining[word] = words[offsets[index] + word] & (comparable ? ~other.words[other.offsets[otherIndex] + word] : -1L);
+                any |= remaining[word];
+            }
+
+            if (any != 0) {
+                final int inserted = difference.insert(ids[index], names[index], probeCount);
+
+                System.arraycopy(remaining, 0, difference.words, difference.offsets[inserted], wordsFor(probeCount));
+            }
+        }
+
+        return difference;
+    }
+
+    /**
+     * @return number of set probes of all classes
+     */
+    public long popcount() {
+        long count = 0;
+
+        for (int word = 0; word < wordCount; word++) {
+            count += Long.bitCount(words[word]);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return number of set probes of the class, <code>0</code> if the store does not contain it
+     */
+    public int popcount(long id) {
+        final int index = indexOf(id);
+        int count = 0;
+
+        if (index >= 0) {
+            for (int word = 0; word < wordsFor(probeCounts[index]); word++) {
+                count += Long.bitCount(words[offsets[index] + word]);
+            }
+        }
+
+        return count;
+    }
+
+    public ExecutionDataStore toExecutionDataStore() {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+
+        for (int index = 0; index < size; index++) {
+            executionData.put(new ExecutionData(ids[index], names[index], unpack(index)));
+        }
+
+        return executionData;
+    }
+
+    public ProbeStore copy() {
+        final ProbeStore copy = new ProbeStore(size, wordCount - releasedWords);
+        copy.or(this);
+
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(table, FREE);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(words, 0, wordCount, 0);
+        size = 0;
+        wordCount = 0;
+        releasedWords = 0;
+    }
+
+    /**
+     * @return estimated heap size of the store, the class names are shared with the execution data and not included
+     */
+    public long getSizeInBytes() {
+        // object and six arrays, per class an id, name reference, offset and probe count
+        return 56 + 6 * 16 + table.length * 4L + ids.length * 20L + words.length * 8L;
+    }
+
+    /**
+     * @return index of the class, <code>-1</code> if the store does not contain it
+     */
+    private int indexOf(long id) {
+        final int entry = table[find(id)];
+
+        return entry != FREE ? entry - 1 : -1;
+    }
+
+    /**
+     * @return slot of the class in the table, or the free slot to insert it into
+     */
+    private int find(long id) {
+        final int mask = table.length - 1;
+        int slot = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+        while (table[slot] != FREE && ids[table[slot] - 1] != id) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * @return index of the new class, its probe words are zeroed
+     */
+    private int insert(long id, String name, int probeCount) {
+        if (size == ids.length) {
+            final int capacity = size + (size >> 1);
+
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            probeCounts = Arrays.copyOf(probeCounts, capacity);
+        }
+
+        if ((size + 1) * 4L > table.length * 3L) {
+            rehash(table.length * 2);
+        }
+
+        final int offset = allocate(wordsFor(probeCount));
+        final int index = size++;
+
+        table[find(id)] = index + 1;
+        ids[index] = id;
+        names[index] = name;
+        offsets[index] = offset;
+        probeCounts[index] = probeCount;
+
+        return index;
+    }
+
+    private int allocate(int wordsRequired) {
+        if (wordCount + wordsRequired > words.length) {
+            if (releasedWords > wordCount / 2) {
+                compact();
+            }
+
+            if (wordCount + wordsRequired > words.length) {
+                words = Arrays.copyOf(words, Math.max(wordCount + wordsRequired, words.length + (words.length >> 1)));
+            }
+        }
+
+        final int offset = wordCount;
+        wordCount += wordsRequired;
+
+        return offset;
+    }
+
+    private void release(int index) {
+        final int classWords = wordsFor(probeCounts[index]);
+
+        Arrays.fill(words, offsets[index], offsets[index] + classWords, 0);
+        releasedWords += classWords;
+    }
+
+    /**
+     * Moves the probes of all classes to the start of a new word array, dropping the words of replaced classes.
+     */
+    private void compact() {
+        final long[] compacted = new long[words.length];
+        int compactedCount = 0;
+
+        for (int index = 0; index < size; index++) {
+            final int classWords = wordsFor(probeCounts[index]);
+
+            System.arraycopy(words, offsets[index], compacted, compactedCount, classWords);
+            offsets[index] = compactedCount;
+            compactedCount += classWords;
+        }
+
+        words = compacted;
+        wordCount = compactedCount;
+        releasedWords = 0;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+
+        for (int index = 0; index < size; index++) {
+            table[find(ids[index])] = index + 1;
+        }
+    }
+
+    private int maxProbeCount() {
+        int max = 0;
+
+        for (int index = 0; index < size; index++) {
+            max = Math.max(max, probeCounts[index]);
+        }
+
+        return max;
+    }
+
+    private boolean[] unpack(int index) {
+        final boolean[] probes = new boolean[probeCounts[index]];
+        final int offset = offsets[index];
+
+        for (int probe = 0; probe < probes.length; probe++) {
+            probes[probe] = (words[offset + (probe >>> 6)] & (1L << probe)) != 0;
+        }
+
+        return probes;
+    }
+
+    private void pack(boolean[] probes, int offset) {
+        for (int word = 0; word < wordsFor(probes.length); word++) {
+            words[offset + word] = packWord(probes, word);
+        }
+    }
+
+    private static long packWord(boolean[] probes, int word) {
+        final int end = Math.min(probes.length, (word + 1) << 6);
+        long bits = 0;
+
+        for (int probe = word << 6; probe < end; probe++) {
+            if (probes[probe]) {
+                // shifts of a long only use the lower six bits of the probe
+                bits |= 1L << probe;
+            }
+        }
+
+        return bits;
+    }
+
+    private static int wordsFor(int probeCount) {
+        return (probeCount + 63) >>> 6;
+    }
+
+    private static int tableSizeFor(int classes) {
+        final int required = (int) Math.min(1 << 30, classes * 4L / 3 + 1);
+
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+}
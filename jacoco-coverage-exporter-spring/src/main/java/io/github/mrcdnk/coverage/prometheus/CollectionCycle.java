@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.prometheus;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single coverage collection of a provider, see {@link CollectionMetrics}.
+ * <p>
+ * Phases are recorded from a start time taken with {@link System#nanoTime()}, so a phase can be recorded more than once
+ * per cycle, e.g. for every replica of a group. All methods are thread safe.
+ */
+public final class CollectionCycle {
+
+    /**
+     * Cycle that records nothing.
+     */
+    public static final CollectionCycle NONE = new CollectionCycle(null);
+
+    private final CollectionMetrics.ProviderMeters meters;
+    private final long startNanos = System.nanoTime();
+
+    CollectionCycle(CollectionMetrics.ProviderMeters meters) {
+        this.meters = meters;
+    }
+
+    /**
+     * Records the time since <code>phaseStartNanos</code> for the given phase.
+     */
+    public void record(Phase phase, long phaseStartNanos) {
+        if (meters != null) {
+            meters.getPhase(phase).record(System.nanoTime() - phaseStartNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void transferred(long bytes) {
+        if (meters != null) {
+            meters.getTransferred().increment(bytes);
+        }
+    }
+
+    /**
+     * Records that the analysis has been skipped, because the inputs of the previous analysis did not change.
+     */
+    public void skipped() {
+        if (meters != null) {
+            meters.getSkipped().increment();
+        }
+    }
+
+    /**
+     * Records the number of classes and probes of the execution data the coverage is computed from.
+     */
+    public void executionData(ExecutionDataStore executionData) {
+        if (meters == null) {
+            return;
+        }
+
+        long probes = 0;
+
+        for (ExecutionData data : executionData.getContents()) {
+            probes += data.getProbes().length;
+        }
+
+        meters.getClasses().set(executionData.getContents().size());
+        meters.getProbes().set(probes);
+    }
+
+    /**
+     * Records the duration of the whole cycle.
+     */
+    public void finish(boolean success) {
+        if (meters != null) {
+            meters.getDuration(success).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public enum Phase {
+        /**
+         * Opening or acquiring the connection to the agent.
+         */
+        CONNECT,
+        /**
+         * Receiving the execution data from the agent. Execution data received through TCP is decoded while it is
+         * read, so this includes the decoding.
+         */
+        TRANSFER,
+        /**
+         * Loading the received execution data dump.
+         */
+        DECODE,
+        /**
+         * Merging the execution data of the replicas of a group.
+         */
+        MERGE,
+        /**
+         * Merging the execution data with the archived sessions.
+         */
+        ARCHIVE,
+        /**
+         * Listing the class files of the provider.
+         */
+        INVENTORY,
+        /**
+         * Analyzing the class files against the execution data.
+         */
+        ANALYSIS,
+        /**
+         * Making the analyzed coverage available, e.g. by recording it into the coverage history.
+         */
+        PUBLISH,
+    }
+}
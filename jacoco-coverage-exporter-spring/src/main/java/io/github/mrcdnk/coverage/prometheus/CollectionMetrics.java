@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.prometheus;
+
+import io.github.mrcdnk.coverage.GaugeFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.noop.NoopTimer;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Timers and sizes of the coverage collections, labeled by provider.
+ * <p>
+ * Every collection is recorded as a {@link CollectionCycle}. Its phases go into one timer per provider and
+ * {@link CollectionCycle.Phase}, the sizes of the latest cycle are kept as gauges. The meters of a provider are
+ * registered with its first cycle.
+ */
+public class CollectionMetrics {
+
+    private static final String PHASE_METRIC = GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.phase";
+
+    private static final CollectionMetrics DISABLED = new CollectionMetrics(null, name -> new String[0]);
+
+    private final MeterRegistry meterRegistry;
+    private final Function<String, String[]> tags;
+    private final Map<String, ProviderMeters> providerMeters = new ConcurrentHashMap<>();
+
+    /**
+     * @param tags tags of the meters of a provider by the name of the provider
+     */
+    public CollectionMetrics(MeterRegistry meterRegistry, Function<String, String[]> tags) {
+        this.meterRegistry = meterRegistry;
+        this.tags = tags;
+    }
+
+    /**
+     * @return metrics that record nothing
+     */
+    public static CollectionMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Starts the collection cycle of the given provider, the time of the cycle starts with this call.
+     */
+    public CollectionCycle start(String providerName) {
+        if (meterRegistry == null) {
+            return CollectionCycle.NONE;
+        }
+
+        return new CollectionCycle(providerMeters.computeIfAbsent(providerName, this::register));
+    }
+
+    /**
+     * Removes the meters of the provider, e.g. once it is not collected anymore. Cycles that are still running keep
+     * recording into the removed meters, phases they reach first are not recorded at all.
+     */
+    public void remove(String providerName) {
+        final ProviderMeters meters = providerMeters.remove(providerName);
+
+        if (meters != null) {
+            synchronized (meters) {
+                meters.removed = true;
+            }
+
+            for (Meter meter : meters.meters) {
+                meterRegistry.remove(meter);
+            }
+        }
+    }
+
+    private ProviderMeters register(String providerName) {
+        final ProviderMeters meters = new ProviderMeters(tags.apply(providerName));
+
+        meters.meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.classes", meters.classes, AtomicLong::get)
+                .description("Classes with execution data in the latest coverage collection of the provider")
+                .tags(meters.tags)
+                .register(meterRegistry));
+        meters.meters.add(Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.probes", meters.probes, AtomicLong::get)
+                .description("Probes of the classes with execution data in the latest coverage collection of the provider")
+                .tags(meters.tags)
+                .register(meterRegistry));
+
+        return meters;
+    }
+
+    /**
+     * Meters of a single provider. Phase timers are registered with the first cycle recording the phase, so providers
+     * only export the phases they go through. The gauge values are held here, since gauges only keep weak references.
+     */
+    final class ProviderMeters {
+        private final String[] tags;
+        private final List<Meter> meters = new CopyOnWriteArrayList<>();
+        private final Map<CollectionCycle.Phase, Timer> phases = new ConcurrentHashMap<>();
+        private final Timer succeeded;
+        private final Timer failed;
+        private final Counter transferred;
+        private final Counter skipped;
+        private final AtomicLong classes = new AtomicLong();
+        private final AtomicLong probes = new AtomicLong();
+
+        // guarded by this, no phase timers are registered anymore once set
+        private boolean removed;
+
+        private ProviderMeters(String[] tags) {
+            this.tags = tags;
+            this.succeeded = registerDuration("success");
+            this.failed = registerDuration("failure");
+            this.transferred = Counter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.transferred")
+                    .description("Execution data received from the provider")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.skipped = Counter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.skipped")
+                    .description("Collections of the provider that reused the previous coverage, because neither the execution data nor the class files changed")
+                    .tags(tags)
+                    .register(meterRegistry);
+
+            meters.addAll(List.of(succeeded, failed, transferred, skipped));
+        }
+
+        private Timer registerDuration(String outcome) {
+            return Timer.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.duration")
+                    .description("Time required for a complete coverage collection of the provider")
+                    .tags(tags)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        Timer getPhase(CollectionCycle.Phase phase) {
+            final Timer existing = phases.get(phase);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            synchronized (this) {
+                if (removed) {
+                    return new NoopTimer(new Meter.Id(PHASE_METRIC, Tags.of(tags), null, null, Meter.Type.TIMER));
+                }
+
+                return phases.computeIfAbsent(phase, key -> {
+                    final Timer timer = Timer.builder(PHASE_METRIC)
+                            .description("Time spent in a single phase of the coverage collections of the provider")
+                            .tags(tags)
+                            .tag("phase", key.name().toLowerCase(Locale.ROOT))
+                            .register(meterRegistry);
+
+                    meters.add(timer);
+                    return timer;
+                });
+            }
+        }
+
+        Timer getDuration(boolean success) {
+            return success ? succeeded : failed;
+        }
+
+        Counter getTransferred() {
+            return transferred;
+        }
+
+        Counter getSkipped() {
+            return skipped;
+        }
+
+        AtomicLong getClasses() {
+            return classes;
+        }
+
+        AtomicLong getProbes() {
+            return probes;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.prometheus;
+
+import io.github.mrcdnk.coverage.GaugeFactory;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import io.github.mrcdnk.coverage.snapshot.NodeCounters;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.runtime.WildcardMatcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+
+/**
+ * Coverage of single packages and classes, exported through one {@link MultiGauge} per counter.
+ * <p>
+ * The exported rows are selected once per snapshot: packages and classes are filtered, packages are folded to the
+ * configured depth and only the rows with the most missed instructions are kept. Reading a row is a single lookup,
+ * so a scrape stays linear in the number of exported rows. Rows of packages or classes that appear with a new
+ * snapshot are exported from the next scrape on.
+ */
+public class CoverageDetailMetrics {
+
+    public static final String PACKAGE_TAG = "package";
+    public static final String CLASS_TAG = "class";
+
+    private static final int ENTITIES = ICoverageNode.CounterEntity.values().length;
+    private static final int INSTRUCTION = ICoverageNode.CounterEntity.INSTRUCTION.ordinal();
+    private static final Comparator<NodeCounters> BY_MISSED_INSTRUCTIONS = Comparator.comparingInt(node -> node.missed()[INSTRUCTION]);
+
+    private final MeterRegistry meterRegistry;
+    private final CoverageDetailsConfig config;
+    private final Supplier<CoverageSnapshot> snapshotSupplier;
+    private final WildcardMatcher includes;
+    private final WildcardMatcher excludes;
+
+    private final List<RowGauge> packageGauges = new ArrayList<>();
+    private final List<RowGauge> classGauges = new ArrayList<>();
+    private final Gauge rowsGauge;
+
+    private volatile CoverageSnapshot exportedSnapshot;
+    private volatile Map<String, NodeCounters> packages = Map.of();
+    private volatile Map<String, NodeCounters> classes = Map.of();
+    private boolean closed;
+
+    /**
+     * @param snapshotSupplier current snapshot of the application, might return <code>null</code> if there is none
+     */
+    public CoverageDetailMetrics(MeterRegistry meterRegistry, CoverageDetailsConfig config, String[] tags, Supplier<CoverageSnapshot> snapshotSupplier) {
+        this.meterRegistry = meterRegistry;
+        this.config = config;
+        this.snapshotSupplier = snapshotSupplier;
+        this.includes = config.includes().length == 0 ? null : new WildcardMatcher(String.join(":", config.includes()));
+        this.excludes = config.excludes().length == 0 ? null : new WildcardMatcher(String.join(":", config.excludes()));
+
+        for (ICoverageNode.CounterEntity counterEntity : config.counters()) {
+            final String metricName = LocalPrometheusMetricProvider.mapMetricName(counterEntity);
+
+            for (GaugeFactory.Type type : new GaugeFactory.Type[]{GaugeFactory.Type.COVERED, GaugeFactory.Type.MISSED}) {
+                if (config.packages()) {
+                    packageGauges.add(new RowGauge(counterEntity, type, MultiGauge
+                            .builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "package." + metricName + "." + type.getSuffix())
+                            .description("Number of currently " + type.getSuffix() + " " + metricName + " of a package")
+                            .tags(tags)
+                            .register(meterRegistry)));
+                }
+
+                if (config.classes()) {
+                    classGauges.add(new RowGauge(counterEntity, type, MultiGauge
+                            .builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "class." + metricName + "." + type.getSuffix())
+                            .description("Number of currently " + type.getSuffix() + " " + metricName + " of a class")
+                            .tags(tags)
+                            .register(meterRegistry)));
+                }
+            }
+        }
+
+        // always present, so the rows are selected on the first scrape
+        this.rowsGauge = Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "details.rows", this, metrics -> {
+                    metrics.refresh();
+                    return metrics.packages.size() + metrics.classes.size();
+                })
+                .description("Number of packages and classes whose coverage is exported")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private void refresh() {
+        final CoverageSnapshot snapshot = snapshotSupplier.get();
+
+        if (snapshot == exportedSnapshot) {
+            return;
+        }
+
+        synchronized (this) {
+            if (snapshot == exportedSnapshot || closed) {
+                return;
+            }
+
+            packages = config.packages() && snapshot != null ? select(snapshot.getPackages(), config.packageDepth()) : Map.of();
+            classes = config.classes() && snapshot != null ? select(snapshot.getClasses(), 0) : Map.of();
+            exportedSnapshot = snapshot;
+
+            register(packageGauges, PACKAGE_TAG, packages, true);
+            register(classGauges, CLASS_TAG, classes, false);
+        }
+    }
+
+    /**
+     * Removes all meters of these metrics from the registry, e.g. once the application is not exported anymore.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        for (RowGauge gauge : packageGauges) {
+            gauge.multiGauge().register(List.of(), true);
+        }
+
+        for (RowGauge gauge : classGauges) {
+            gauge.multiGauge().register(List.of(), true);
+        }
+
+        meterRegistry.remove(rowsGauge);
+    }
+
+    private void register(List<RowGauge> gauges, String tag, Map<String, NodeCounters> nodes, boolean packageLevel) {
+        for (RowGauge gauge : gauges) {
+            final int entity = gauge.counterEntity().ordinal();
+            final boolean missed = gauge.type() == GaugeFactory.Type.MISSED;
+            final List<MultiGauge.Row<?>> rows = new ArrayList<>(nodes.size());
+
+            for (String name : nodes.keySet()) {
+                rows.add(MultiGauge.Row.of(Tags.of(tag, name), this, metrics -> metrics.getValue(packageLevel, name, entity, missed)));
+            }
+
+            // rows that are still exported keep reading through getValue, only added and removed rows change
+            gauge.multiGauge().register(rows, false);
+        }
+    }
+
+    private double getValue(boolean packageLevel, String name, int entity, boolean missed) {
+        refresh();
+
+        final NodeCounters node = (packageLevel ? packages : classes).get(name);
+
+        if (node == null) {
+            return Double.NaN;
+        }
+
+        return missed ? node.missed()[entity] : node.covered()[entity];
+    }
+
+    private Map<String, NodeCounters> select(CoverageTable table, int depth) {
+        final Map<String, NodeCounters> byName = new HashMap<>();
+
+        for (int row = 0; row < table.size(); row++) {
+            final String name = table.getName(row).replace('/', '.');
+
+            if ((includes != null && !includes.matches(name)) || (excludes != null && excludes.matches(name))) {
+                continue;
+            }
+
+            final String foldedName = depth > 0 ? fold(name, depth) : name;
+            final NodeCounters node = table.getRow(row);
+            final NodeCounters previous = byName.get(foldedName);
+
+            byName.put(foldedName, previous == null ? new NodeCounters(foldedName, node.missed(), node.covered()) : add(previous, node));
+        }
+
+        if (config.topN() <= 0 || byName.size() <= config.topN()) {
+            return byName;
+        }
+
+        final PriorityQueue<NodeCounters> top = new PriorityQueue<>(config.topN() + 1, BY_MISSED_INSTRUCTIONS);
+
+        for (NodeCounters node : byName.values()) {
+            top.add(node);
+
+            if (top.size() > config.topN()) {
+                top.poll();
+            }
+        }
+
+        final Map<String, NodeCounters> selected = new LinkedHashMap<>();
+
+        for (NodeCounters node : top) {
+            selected.put(node.name(), node);
+        }
+
+        return selected;
+    }
+
+    private static String fold(String packageName, int depth) {
+        int end = -1;
+
+        for (int segment = 0; segment < depth; segment++) {
+            end = packageName.indexOf('.', end + 1);
+
+            if (end < 0) {
+                return packageName;
+            }
+        }
+
+        return packageName.substring(0, end);
+    }
+
+    private static NodeCounters add(NodeCounters sum, NodeCounters node) {
+        final int[] missed = new int[ENTITIES];
+        final int[] covered = new int[ENTITIES];
+
+        for (int entity = 0; entity < ENTITIES; entity++) {
+            missed[entity] = sum.missed()[entity] + node.missed()[entity];
+            covered[entity] = sum.covered()[entity] + node.covered()[entity];
+        }
+
+        return new NodeCounters(sum.name(), missed, covered);
+    }
+
+    private record RowGauge(ICoverageNode.CounterEntity counterEntity, GaugeFactory.Type type, MultiGauge multiGauge) {}
+}
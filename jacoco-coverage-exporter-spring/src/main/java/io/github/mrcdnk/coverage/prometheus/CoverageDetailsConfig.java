@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.prometheus;
+
+import org.jacoco.core.analysis.ICoverageNode;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Opt-in coverage metrics of single packages and classes.
+ *
+ * @param packages     export the coverage of every package
+ * @param classes      export the coverage of every class
+ * @param topN         only export the packages and classes with the most missed instructions, 0 exports all of them
+ * @param packageDepth fold packages into their first segments, e.g. <code>2</code> reports <code>com.example.a</code>
+ *                     and <code>com.example.b</code> as <code>com.example</code>, 0 keeps the full names
+ * @param includes     packages or classes to export as wildcard expressions like <code>com.example.*</code>, all if empty
+ * @param excludes     packages or classes not to export as wildcard expressions
+ * @param counters     counters exported for every package and class
+ */
+public record CoverageDetailsConfig(
+        @DefaultValue("false") boolean packages,
+        @DefaultValue("false") boolean classes,
+        @DefaultValue("50") int topN,
+        @DefaultValue("0") int packageDepth,
+        @DefaultValue String[] includes,
+        @DefaultValue String[] excludes,
+        @DefaultValue({"INSTRUCTION", "BRANCH", "LINE"}) ICoverageNode.CounterEntity[] counters) {
+
+    public boolean isEnabled() {
+        return packages || classes;
+    }
+}
@@ -17,10 +17,10 @@
 package io.github.mrcdnk.coverage.prometheus;
 
 import io.github.mrcdnk.coverage.GaugeFactory;
-import io.github.mrcdnk.coverage.LocalJacocoAdapter;
 import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshotCache;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
-import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.analysis.ICounter;
 import org.jacoco.core.analysis.ICoverageNode;
 
@@ -30,40 +30,78 @@ import java.util.stream.Stream;
 
 public class LocalPrometheusMetricProvider {
 
+    public static final String ANALYZED_CLASSES_METRIC = "analyzed.classes";
+    public static final String ANALYZED_CLASSES_DESCRIPTION = "Number of classes analyzed for the latest coverage, classes with unchanged probes are not analyzed again";
+    public static final String SNAPSHOT_SIZE_METRIC = "snapshot.size";
+    public static final String SNAPSHOT_SIZE_DESCRIPTION = "Estimated heap size of the cached coverage snapshot";
+
     private final MeterRegistry meterRegistry;
-    private final LocalJacocoAdapter jmxJacocoAdapter;
+    private final CoverageSnapshotCache<LocalJacocoConfig> snapshotCache;
     private final Map<String, String> addedTags;
+    // gauges only hold weak references, the detail metrics are kept alive by this provider
+    private final CoverageDetailMetrics coverageDetailMetrics;
 
     public LocalPrometheusMetricProvider(
-            LocalJacocoAdapter jmxJacocoAdapter,
+            CoverageSnapshotCache<LocalJacocoConfig> snapshotCache,
             MeterRegistry meterRegistry,
-            LocalJacocoConfig localJacocoConfig,
             Map<String, String> addedTags) {
-        this.jmxJacocoAdapter = jmxJacocoAdapter;
+        this(snapshotCache, meterRegistry, addedTags, null);
+    }
+
+    /**
+     * @param coverageDetailsConfig package and class metrics to export, <code>null</code> for none
+     */
+    public LocalPrometheusMetricProvider(
+            CoverageSnapshotCache<LocalJacocoConfig> snapshotCache,
+            MeterRegistry meterRegistry,
+            Map<String, String> addedTags,
+            CoverageDetailsConfig coverageDetailsConfig) {
+        this.snapshotCache = snapshotCache;
         this.meterRegistry = meterRegistry;
         this.addedTags = addedTags;
 
         for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
-            createGaugeForCounterEntity(localJacocoConfig, counterEntity);
+            createGaugeForCounterEntity(counterEntity);
+        }
+
+        Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + ANALYZED_CLASSES_METRIC, () -> snapshotCache.getSnapshot().getAnalyzedClasses())
+                .description(ANALYZED_CLASSES_DESCRIPTION)
+                .tags(getConstantTags())
+                .register(meterRegistry);
+
+        Gauge.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + SNAPSHOT_SIZE_METRIC, () -> snapshotCache.getSnapshot().getSizeInBytes())
+                .description(SNAPSHOT_SIZE_DESCRIPTION)
+                .baseUnit("bytes")
+                .tags(getConstantTags())
+                .register(meterRegistry);
+
+        if (coverageDetailsConfig != null && coverageDetailsConfig.isEnabled()) {
+            this.coverageDetailMetrics = new CoverageDetailMetrics(meterRegistry, coverageDetailsConfig, getConstantTags(), snapshotCache::getSnapshot);
+        } else {
+            this.coverageDetailMetrics = null;
         }
     }
 
-    private  void createGaugeForCounterEntity(LocalJacocoConfig provider, ICoverageNode.CounterEntity counterEntity) {
+    private  void createGaugeForCounterEntity(ICoverageNode.CounterEntity counterEntity) {
         String metricName = mapMetricName(counterEntity);
 
-        String[] constantTags = addedTags.entrySet()
-                .stream()
-                .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
-                .toArray(String[]::new);;
+        String[] constantTags = getConstantTags();
 
         for (GaugeFactory.Type type : GaugeFactory.Type.values()) {
             GaugeFactory
-                    .create(metricName, type, () -> getCoverageCounter(counterEntity, type.getCountGetter(), provider, jmxJacocoAdapter), constantTags)
+                    .create(metricName, type, () -> getCoverageCounter(counterEntity, type.getCountGetter(), snapshotCache), constantTags)
                     .register(meterRegistry);
 
         }
     }
 
+    private String[] getConstantTags() {
+        return addedTags.entrySet()
+                .stream()
+                .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
+                .toArray(String[]::new);
+    }
+
     protected static String mapMetricName(ICoverageNode.CounterEntity counterEntity) {
         return switch (counterEntity) {
             case BRANCH -> "branches";
@@ -76,11 +114,7 @@ public class LocalPrometheusMetricProvider {
     }
 
 
-    private static int getCoverageCounter(ICoverageNode.CounterEntity counter, Function<ICounter, Integer> getValue, LocalJacocoConfig provider, LocalJacocoAdapter jmxJacocoAdapter) {
-        IBundleCoverage bundleCoverage;
-
-        bundleCoverage = jmxJacocoAdapter.fetchCoverage(provider);
-
-        return getValue.apply(bundleCoverage.getCounter(counter));
+    private static int getCoverageCounter(ICoverageNode.CounterEntity counter, Function<ICounter, Integer> getValue, CoverageSnapshotCache<LocalJacocoConfig> snapshotCache) {
+        return getValue.apply(snapshotCache.getSnapshot().getCounter(counter));
     }
 }
@@ -17,9 +17,10 @@
 package io.github.mrcdnk.coverage.prometheus;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 import java.util.Map;
 
 @ConfigurationProperties(prefix = "coverage.prometheus")
 
-public record PrometheusConfiguration(Map<String, String> labels) {}
+public record PrometheusConfiguration(Map<String, String> labels, @DefaultValue CoverageDetailsConfig details) {}
@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Cheap 64 bit hash of everything a coverage analysis depends on: the session of the execution data, the probes of
+ * every class and the class files.
+ * <p>
+ * Probes are hashed 64 at a time and the hashes of the single classes and files are summed up, so the fingerprint does
+ * not depend on the iteration order of the store or the file listing. Class files are identified by their path, length
+ * and modification time, so a class file or jar replaced in place changes the fingerprint as well. The files are only
+ * stat'ed, never read.
+ */
+public final class AnalysisFingerprint {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private AnalysisFingerprint() {
+    }
+
+    /**
+     * @param sessionId id of the session the execution data belongs to, <code>null</code> if unknown
+     */
+    public static long of(String sessionId, ExecutionDataStore executionData, Collection<File> classFiles) {
+        long hash = mix(sessionId == null ? 0 : sessionId.hashCode());
+
+        for (ExecutionData data : executionData.getContents()) {
+            hash += hash(data);
+        }
+
+        for (File classFile : classFiles) {
+            hash += mix(mix(classFile.getPath().hashCode() ^ SEED) ^ classFile.length() * 31 ^ classFile.lastModified());
+        }
+
+        return mix(hash + classFiles.size() * 31L + executionData.getContents().size());
+    }
+
+    private static long hash(ExecutionData data) {
+        final boolean[] probes = data.getProbes();
+        long hash = mix(data.getId()) + probes.length;
+        long word = 0;
+
+        for (int probe = 0; probe < probes.length; probe++) {
+            if (probes[probe]) {
+                word |= 1L << probe;
+            }
+
+            if ((probe & 63) == 63) {
+                hash = mix(hash ^ word);
+                word = 0;
+            }
+        }
+
+        return mix(hash ^ word);
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreads every input bit over the whole hash.
+     */
+    private static long mix(long value) {
+        long z = value + SEED;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.analysis.IPackageCoverage;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable set of the top level counters of a single coverage collection.
+ * All gauges of an application read from the same snapshot, so one collection serves a complete scrape.
+ * <p>
+ * The counters of the single packages and classes are only part of the snapshot if they have been requested. They are
+ * kept in {@link CoverageTable}s, a snapshot never holds on to coverage nodes or line level data.
+ */
+public final class CoverageSnapshot {
+
+    private static final ICoverageNode.CounterEntity[] COUNTER_ENTITIES = ICoverageNode.CounterEntity.values();
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final int[] missed;
+    private final int[] covered;
+    private final int analyzedClasses;
+    private final CoverageTable packages;
+    private final CoverageTable classes;
+    private final MethodCounters methods;
+    private final long generation;
+    private final Instant createdAt;
+    private final long createdAtNanos;
+    private volatile String fingerprint;
+
+    private CoverageSnapshot(int[] missed, int[] covered, int analyzedClasses, CoverageTable packages, CoverageTable classes,
+                             MethodCounters methods, long generation) {
+        this.missed = missed;
+        this.covered = covered;
+        this.analyzedClasses = analyzedClasses;
+        this.packages = packages;
+        this.classes = classes;
+        this.methods = methods;
+        this.generation = generation;
+        this.createdAt = Instant.now();
+        this.createdAtNanos = System.nanoTime();
+    }
+
+    public static CoverageSnapshot of(ICoverageNode coverageNode) {
+        return of(coverageNode, false);
+    }
+
+    /**
+     * @param withDetails also copy the counters of all packages and classes of a bundle
+     */
+    public static CoverageSnapshot of(ICoverageNode coverageNode, boolean withDetails) {
+        final int[] missed = new int[COUNTER_ENTITIES.length];
+        final int[] covered = new int[COUNTER_ENTITIES.length];
+
+        for (ICoverageNode.CounterEntity counterEntity : COUNTER_ENTITIES) {
+            missed[counterEntity.ordinal()] = coverageNode.getCounter(counterEntity).getMissedCount();
+            covered[counterEntity.ordinal()] = coverageNode.getCounter(counterEntity).getCoveredCount();
+        }
+
+        int analyzedClasses = 0;
+        CoverageTable packages = CoverageTable.EMPTY;
+        CoverageTable classes = CoverageTable.EMPTY;
+
+        if (coverageNode instanceof IBundleCoverage bundleCoverage) {
+            final CoverageTable.Builder packageTable = CoverageTable.builder(withDetails ? bundleCoverage.getPackages().size() : 0);
+            final CoverageTable.Builder classTable = CoverageTable.builder(0);
+
+            for (IPackageCoverage packageCoverage : bundleCoverage.getPackages()) {
+                analyzedClasses += packageCoverage.getClasses().size();
+
+                if (withDetails) {
+                    packageTable.add(packageCoverage);
+
+                    for (IClassCoverage classCoverage : packageCoverage.getClasses()) {
+                        classTable.add(classCoverage);
+                    }
+                }
+            }
+
+            if (withDetails) {
+                packages = packageTable.build();
+                classes = classTable.build();
+            }
+        }
+
+        return new CoverageSnapshot(missed, covered, analyzedClasses, packages, classes, MethodCounters.NONE, GENERATIONS.incrementAndGet());
+    }
+
+    /**
+     * @param missed          missed counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+     * @param covered         covered counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+     * @param analyzedClasses number of classes that had to be analyzed for this snapshot
+     */
+    public static CoverageSnapshot of(int[] missed, int[] covered, int analyzedClasses) {
+        return of(missed, covered, analyzedClasses, CoverageTable.EMPTY, CoverageTable.EMPTY);
+    }
+
+    /**
+     * @param packages counters of the single packages, empty if not requested
+     * @param classes  counters of the single classes, empty if not requested
+     */
+    public static CoverageSnapshot of(int[] missed, int[] covered, int analyzedClasses, CoverageTable packages, CoverageTable classes) {
+        return of(missed, covered, analyzedClasses, packages, classes, MethodCounters.NONE);
+    }
+
+    /**
+     * @param methods counters of the methods of the same collection
+     */
+    public static CoverageSnapshot of(int[] missed, int[] covered, int analyzedClasses, CoverageTable packages, CoverageTable classes,
+                                      MethodCounters methods) {
+        return new CoverageSnapshot(missed.clone(), covered.clone(), analyzedClasses, packages, classes, methods, GENERATIONS.incrementAndGet());
+    }
+
+    /**
+     * @return snapshot with the counters of this one, created now and without any analyzed classes, for collections
+     * whose coverage did not change
+     */
+    public CoverageSnapshot renew() {
+        final CoverageSnapshot renewed = new CoverageSnapshot(missed, covered, 0, packages, classes, methods, generation);
+        renewed.fingerprint = fingerprint;
+
+        return renewed;
+    }
+
+    public ICounter getCounter(ICoverageNode.CounterEntity counterEntity) {
+        return new SnapshotCounter(missed[counterEntity.ordinal()], covered[counterEntity.ordinal()]);
+    }
+
+    /**
+     * @return number of classes analyzed for this snapshot, classes with unchanged probes are not analyzed again
+     */
+    public int getAnalyzedClasses() {
+        return analyzedClasses;
+    }
+
+    /**
+     * @return estimated heap size of the snapshot including its package and class counters
+     */
+    public long getSizeInBytes() {
+        // object, both counter arrays and the creation instant
+        return 56 + 2 * (16 + 4L * COUNTER_ENTITIES.length) + 24 + packages.getSizeInBytes() + classes.getSizeInBytes() + methods.getSizeInBytes();
+    }
+
+    /**
+     * @return number of the collection the counters are the result of, unique within the process. Snapshots renewed for
+     * unchanged coverage keep the generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return counters of the methods of the class for the same collection as the other counters, <code>null</code> if
+     * the class is not part of it or method counters have not been kept
+     */
+    public List<NodeCounters> getMethods(String className) {
+        return methods.getMethods(className);
+    }
+
+    /**
+     * @return hex hash of all counters, snapshots of unchanged coverage have the same fingerprint
+     */
+    public String getFingerprint() {
+        String result = fingerprint;
+
+        if (result == null) {
+            long hash = packages.getContentHash() * 31 + classes.getContentHash();
+
+            for (int entity = 0; entity < COUNTER_ENTITIES.length; entity++) {
+                hash = hash * 31 + missed[entity];
+                hash = hash * 31 + covered[entity];
+            }
+
+            result = Long.toHexString(hash);
+            fingerprint = result;
+        }
+
+        return result;
+    }
+
+    public CoverageTable getPackages() {
+        return packages;
+    }
+
+    public CoverageTable getClasses() {
+        return classes;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Duration getAge() {
+        return Duration.ofNanos(System.nanoTime() - createdAtNanos);
+    }
+
+    public boolean isFresh(Duration freshness) {
+        return System.nanoTime() - createdAtNanos < freshness.toNanos();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import io.github.mrcdnk.coverage.CoverageProvider;
+import io.github.mrcdnk.coverage.JacocoAdapter;
+import io.github.mrcdnk.coverage.budget.AnalysisExecutor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MalformedObjectNameException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the latest {@link CoverageSnapshot} of a single provider.
+ * <p>
+ * A snapshot is reused for reads within the configured freshness window. Once it is stale, only one caller
+ * collects a new snapshot while concurrent callers wait for that result instead of starting their own collection.
+ * A reset invalidates the current snapshot and prevents a collection that was already running from publishing
+ * pre-reset counters.
+ * <p>
+ * With an {@link AnalysisExecutor}, collections run on its analysis thread instead of the calling one. While the system
+ * is overloaded, a stale snapshot is returned instead of collecting a new one.
+ */
+public class CoverageSnapshotCache<T extends CoverageProvider> {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final JacocoAdapter<T> jacocoAdapter;
+    private final T coverageProvider;
+    private final Duration freshness;
+    private final AnalysisExecutor analysisExecutor;
+
+    private final AtomicReference<CoverageSnapshot> snapshot = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final ReentrantLock collectionLock = new ReentrantLock();
+
+    public CoverageSnapshotCache(JacocoAdapter<T> jacocoAdapter, T coverageProvider, Duration freshness) {
+        this(jacocoAdapter, coverageProvider, freshness, null);
+    }
+
+    /**
+     * @param analysisExecutor executor to collect on, <code>null</code> to collect on the calling thread
+     */
+    public CoverageSnapshotCache(JacocoAdapter<T> jacocoAdapter, T coverageProvider, Duration freshness, AnalysisExecutor analysisExecutor) {
+        this.jacocoAdapter = jacocoAdapter;
+        this.coverageProvider = coverageProvider;
+        this.freshness = freshness;
+        this.analysisExecutor = analysisExecutor;
+    }
+
+    public CoverageSnapshot getSnapshot() {
+        CoverageSnapshot current = snapshot.get();
+
+        if (current != null && current.isFresh(freshness)) {
+            return current;
+        }
+
+        collectionLock.lock();
+        try {
+            current = snapshot.get();
+
+            // another caller might have finished a collection while this one was waiting for the lock
+            if (current != null && current.isFresh(freshness)) {
+                return current;
+            }
+
+            if (current != null && analysisExecutor != null && analysisExecutor.shed()) {
+                return current;
+            }
+
+            final long collectionGeneration = generation.get();
+            final CoverageSnapshot collected = collect();
+
+            snapshot.set(collected);
+
+            // a reset that raced with the publication above must not leave pre-reset counters behind
+            if (generation.get() != collectionGeneration) {
+                snapshot.compareAndSet(collected, null);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Coverage of [" + coverageProvider.name() + "] was reset during collection, snapshot is not published.");
+                }
+            }
+
+            return collected;
+        } catch (IOException | MalformedObjectNameException e) {
+            throw new IllegalStateException("Failed to collect coverage of [" + coverageProvider.name() + "]", e);
+        } finally {
+            collectionLock.unlock();
+        }
+    }
+
+    /**
+     * Collects a snapshot in the background, so the first read does not have to wait for the whole analysis. Without an
+     * {@link AnalysisExecutor} this does nothing, neither does it if a collection is already running.
+     */
+    public void warmUp() {
+        if (analysisExecutor == null) {
+            return;
+        }
+
+        analysisExecutor.submitDeferrable(() -> {
+            // a caller holding the lock waits for the analysis thread, which must therefore never wait for the lock
+            if (collectionLock.tryLock()) {
+                try {
+                    getSnapshot();
+                } finally {
+                    collectionLock.unlock();
+                }
+            }
+        });
+    }
+
+    private CoverageSnapshot collect() throws IOException, MalformedObjectNameException {
+        if (analysisExecutor == null) {
+            return jacocoAdapter.fetchSnapshot(coverageProvider);
+        }
+
+        try {
+            return analysisExecutor.execute(() -> jacocoAdapter.fetchSnapshot(coverageProvider));
+        } catch (IOException | MalformedObjectNameException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to collect coverage of [" + coverageProvider.name() + "]", e);
+        }
+    }
+
+    public void reset() {
+        try {
+            jacocoAdapter.resetCoverage(coverageProvider);
+        } catch (IOException | MalformedObjectNameException e) {
+            throw new IllegalStateException("Failed to reset coverage of [" + coverageProvider.name() + "]", e);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot.set(null);
+    }
+
+    public T getCoverageProvider() {
+        return coverageProvider;
+    }
+}
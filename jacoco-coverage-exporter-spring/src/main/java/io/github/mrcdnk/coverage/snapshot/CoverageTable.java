@@ -0,0 +1,211 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Counters of a set of packages or classes, stored as one <code>int[]</code> column per counter entity instead of a
+ * tree of coverage nodes. Names are interned, so repeated snapshots of the same application share them.
+ */
+public final class CoverageTable {
+
+    public static final CoverageTable EMPTY = new Builder(0).build();
+
+    private static final int ENTITIES = ICoverageNode.CounterEntity.values().length;
+
+    private final String[] names;
+    private final int[][] missed;
+    private final int[][] covered;
+    private volatile int[] nameOrder;
+
+    private CoverageTable(String[] names, int[][] missed, int[][] covered) {
+        this.names = names;
+        this.missed = missed;
+        this.covered = covered;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return VM name of the package or class in the given row, e.g. <code>com/example/Foo</code>
+     */
+    public String getName(int row) {
+        return names[row];
+    }
+
+    public int getMissed(int row, ICoverageNode.CounterEntity counterEntity) {
+        return missed[counterEntity.ordinal()][row];
+    }
+
+    public int getCovered(int row, ICoverageNode.CounterEntity counterEntity) {
+        return covered[counterEntity.ordinal()][row];
+    }
+
+    public ICounter getCounter(int row, ICoverageNode.CounterEntity counterEntity) {
+        return new SnapshotCounter(getMissed(row, counterEntity), getCovered(row, counterEntity));
+    }
+
+    /**
+     * @return a copy of the counters in the given row
+     */
+    public NodeCounters getRow(int row) {
+        final int[] rowMissed = new int[ENTITIES];
+        final int[] rowCovered = new int[ENTITIES];
+
+        for (int entity = 0; entity < ENTITIES; entity++) {
+            rowMissed[entity] = missed[entity][row];
+            rowCovered[entity] = covered[entity][row];
+        }
+
+        return new NodeCounters(names[row], rowMissed, rowCovered);
+    }
+
+    /**
+     * @return estimated heap size of the counter columns, names are interned and not included
+     */
+    public long getSizeInBytes() {
+        // array headers of the columns and a reference plus two ints per entity and row
+        return 16L * (1 + 2 * (ENTITIES + 1)) + (long) names.length * (4 + 8 * ENTITIES);
+    }
+
+    /**
+     * @return the rows ordered by name, computed on first use
+     */
+    public int[] getNameOrder() {
+        int[] order = nameOrder;
+
+        if (order == null) {
+            order = IntStream.range(0, names.length)
+                    .boxed()
+                    .sorted(Comparator.comparing(row -> names[row]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            nameOrder = order;
+        }
+
+        return order;
+    }
+
+    /**
+     * @return hash of all names and counters, equal tables have equal hashes regardless of their row order
+     */
+    long getContentHash() {
+        long hash = 0;
+
+        for (int row = 0; row < names.length; row++) {
+            long rowHash = names[row].hashCode();
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                rowHash = rowHash * 31 + missed[entity][row];
+                rowHash = rowHash * 31 + covered[entity][row];
+            }
+
+            // rows are summed up, so the hash does not depend on their order
+            hash += rowHash * 0x9E3779B97F4A7C15L;
+        }
+
+        return hash;
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    public static final class Builder {
+        private String[] names;
+        private int[][] missed;
+        private int[][] covered;
+        private int size;
+
+        private Builder(int expectedSize) {
+            this.names = new String[expectedSize];
+            this.missed = new int[ENTITIES][expectedSize];
+            this.covered = new int[ENTITIES][expectedSize];
+        }
+
+        /**
+         * @param rowMissed  missed counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+         * @param rowCovered covered counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+         */
+        public Builder add(String name, int[] rowMissed, int[] rowCovered) {
+            if (size == names.length) {
+                grow();
+            }
+
+            names[size] = name.intern();
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                missed[entity][size] = rowMissed[entity];
+                covered[entity][size] = rowCovered[entity];
+            }
+
+            size++;
+
+            return this;
+        }
+
+        public Builder add(ICoverageNode coverageNode) {
+            if (size == names.length) {
+                grow();
+            }
+
+            names[size] = coverageNode.getName().intern();
+
+            for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+                final ICounter counter = coverageNode.getCounter(counterEntity);
+
+                missed[counterEntity.ordinal()][size] = counter.getMissedCount();
+                covered[counterEntity.ordinal()][size] = counter.getCoveredCount();
+            }
+
+            size++;
+
+            return this;
+        }
+
+        public CoverageTable build() {
+            final int[][] builtMissed = new int[ENTITIES][];
+            final int[][] builtCovered = new int[ENTITIES][];
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                builtMissed[entity] = Arrays.copyOf(missed[entity], size);
+                builtCovered[entity] = Arrays.copyOf(covered[entity], size);
+            }
+
+            return new CoverageTable(Arrays.copyOf(names, size), builtMissed, builtCovered);
+        }
+
+        private void grow() {
+            final int capacity = Math.max(16, names.length * 2);
+
+            names = Arrays.copyOf(names, capacity);
+
+            for (int entity = 0; entity < ENTITIES; entity++) {
+                missed[entity] = Arrays.copyOf(missed[entity], capacity);
+                covered[entity] = Arrays.copyOf(covered[entity], capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import java.util.List;
+
+/**
+ * Method counters of the classes of a single {@link CoverageSnapshot}, computed when they are requested.
+ */
+public interface MethodCounters {
+
+    MethodCounters NONE = new MethodCounters() {
+        @Override
+        public List<NodeCounters> getMethods(String className) {
+            return null;
+        }
+
+        @Override
+        public long getSizeInBytes() {
+            return 0;
+        }
+    };
+
+    /**
+     * @param className VM name of the class, e.g. <code>com/example/Foo</code>
+     * @return counters of the methods of the class, <code>null</code> if the class is not part of the snapshot
+     */
+    List<NodeCounters> getMethods(String className);
+
+    /**
+     * @return estimated heap size kept by the snapshot for the method counters
+     */
+    long getSizeInBytes();
+}
@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+
+/**
+ * Counters of a single package, class or method, e.g. copied out of a {@link CoverageTable}.
+ *
+ * @param name    VM name of the package or class, e.g. <code>com/example/Foo</code>, or name and descriptor of the method
+ * @param missed  missed counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+ * @param covered covered counts indexed by {@link ICoverageNode.CounterEntity#ordinal()}
+ */
+public record NodeCounters(String name, int[] missed, int[] covered) {
+
+    public ICounter getCounter(ICoverageNode.CounterEntity counterEntity) {
+        return new SnapshotCounter(missed[counterEntity.ordinal()], covered[counterEntity.ordinal()]);
+    }
+}
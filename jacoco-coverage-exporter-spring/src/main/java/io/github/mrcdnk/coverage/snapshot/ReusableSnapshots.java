@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest analyzed snapshot of every provider together with the {@link AnalysisFingerprint} of its inputs.
+ * <p>
+ * A collection whose execution data, session and class files did not change since reuses the previous snapshot instead
+ * of analyzing the class files again. In steady state, i.e. when no new code is executed between two collections, this
+ * skips the analysis entirely. Instances are thread safe.
+ */
+public final class ReusableSnapshots {
+
+    private final Map<String, AnalyzedSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * @param sessionId session id of the current execution data, <code>null</code> if unknown
+     * @return <code>true</code> if the previous snapshot of the provider has been analyzed for a different session, the
+     * target has been restarted or its session has been changed in that case
+     */
+    public boolean isNewSession(String providerName, String sessionId) {
+        final AnalyzedSnapshot previous = snapshots.get(providerName);
+
+        return previous != null && sessionId != null && previous.sessionId() != null && !Objects.equals(previous.sessionId(), sessionId);
+    }
+
+    /**
+     * @return the previous snapshot of the provider {@link CoverageSnapshot#renew() renewed}, if it has been analyzed
+     * for the same fingerprint, otherwise <code>null</code>
+     */
+    public CoverageSnapshot getUnchanged(String providerName, long fingerprint) {
+        final AnalyzedSnapshot previous = snapshots.get(providerName);
+
+        if (previous == null || previous.fingerprint() != fingerprint) {
+            return null;
+        }
+
+        return previous.snapshot().renew();
+    }
+
+    public void put(String providerName, String sessionId, long fingerprint, CoverageSnapshot snapshot) {
+        snapshots.put(providerName, new AnalyzedSnapshot(sessionId, fingerprint, snapshot));
+    }
+
+    public void invalidate(String providerName) {
+        snapshots.remove(providerName);
+    }
+
+    private record AnalyzedSnapshot(String sessionId, long fingerprint, CoverageSnapshot snapshot) {}
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.analysis.ICounter;
+
+/**
+ * Immutable {@link ICounter} that does not keep any reference to the coverage tree it was copied from.
+ */
+public record SnapshotCounter(int missed, int covered) implements ICounter {
+
+    public static final SnapshotCounter EMPTY_COUNTER = new SnapshotCounter(0, 0);
+
+    public static SnapshotCounter copyOf(ICounter counter) {
+        return new SnapshotCounter(counter.getMissedCount(), counter.getCoveredCount());
+    }
+
+    @Override
+    public double getValue(CounterValue value) {
+        return switch (value) {
+            case TOTALCOUNT -> getTotalCount();
+            case MISSEDCOUNT -> getMissedCount();
+            case COVEREDCOUNT -> getCoveredCount();
+            case MISSEDRATIO -> getMissedRatio();
+            case COVEREDRATIO -> getCoveredRatio();
+        };
+    }
+
+    @Override
+    public int getTotalCount() {
+        return missed + covered;
+    }
+
+    @Override
+    public int getCoveredCount() {
+        return covered;
+    }
+
+    @Override
+    public int getMissedCount() {
+        return missed;
+    }
+
+    @Override
+    public double getCoveredRatio() {
+        return (double) covered / (missed + covered);
+    }
+
+    @Override
+    public double getMissedRatio() {
+        return (double) missed / (missed + covered);
+    }
+
+    @Override
+    public int getStatus() {
+        int status = covered > 0 ? FULLY_COVERED : EMPTY;
+
+        if (missed > 0) {
+            status |= NOT_COVERED;
+        }
+
+        return status;
+    }
+}
@@ -15,20 +15,33 @@
  */
 package io.github.mrcdnk.coverage.spring;
 
+import io.github.mrcdnk.coverage.GaugeFactory;
 import io.github.mrcdnk.coverage.JacocoMBeanProxy;
 import io.github.mrcdnk.coverage.LocalJacocoAdapter;
 import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.budget.AnalysisBudget;
+import io.github.mrcdnk.coverage.budget.AnalysisExecutor;
+import io.github.mrcdnk.coverage.prometheus.CollectionMetrics;
+import io.github.mrcdnk.coverage.prometheus.CoverageDetailsConfig;
 import io.github.mrcdnk.coverage.prometheus.LocalPrometheusMetricProvider;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshotCache;
+import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.MeterRegistry;
+import org.jacoco.core.analysis.ICoverageNode;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jmx.access.MBeanProxyFactoryBean;
+import org.springframework.util.unit.DataSize;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import java.time.Duration;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @Configuration
 @ConditionalOnProperty(name="coverage.local", havingValue = "true", matchIfMissing = true)
@@ -37,6 +50,24 @@ public class CoverageExporterAutoConfig {
     @Value("${coverage.enableClassesCache:true}")
     private boolean enableClassesCache;
 
+    @Value("${coverage.enableClassesWatch:false}")
+    private boolean enableClassesWatch;
+
+    @Value("${coverage.enableProbeIndex:true}")
+    private boolean enableProbeIndex;
+
+    @Value("${coverage.analysisParallelism:2}")
+    private int analysisParallelism;
+
+    @Value("${coverage.analysisCpuBudget:100}")
+    private int analysisCpuBudget;
+
+    @Value("${coverage.analysisMaxInFlightHeap:64MB}")
+    private DataSize analysisMaxInFlightHeap;
+
+    @Value("${coverage.analysisMaxSystemLoad:0.9}")
+    private double analysisMaxSystemLoad;
+
     @Value("${coverage.classesLocations:/app/classes/}")
     private String[] classesLocations;
 
@@ -49,9 +80,37 @@ public class CoverageExporterAutoConfig {
     @Value("${coverage.name:${spring.application.name:my-coverage-app}}")
     private String name;
 
+    @Value("${coverage.snapshotFreshness:5s}")
+    private Duration snapshotFreshness;
+
+    // resets through the web exposed jacocoexec endpoint destroy the execution data, so they have to be enabled explicitly
+    @Value("${coverage.exec.resetEnabled:false}")
+    private boolean execResetEnabled;
+
     @Value("#{${coverage.prometheus.labels:{T(java.util.Collections).emptyMap()}}}")
     private Map<String, String> addedTags;
 
+    @Value("${coverage.prometheus.details.packages:false}")
+    private boolean detailPackages;
+
+    @Value("${coverage.prometheus.details.classes:false}")
+    private boolean detailClasses;
+
+    @Value("${coverage.prometheus.details.topN:50}")
+    private int detailTopN;
+
+    @Value("${coverage.prometheus.details.packageDepth:0}")
+    private int detailPackageDepth;
+
+    @Value("${coverage.prometheus.details.includes:}")
+    private String[] detailIncludes;
+
+    @Value("${coverage.prometheus.details.excludes:}")
+    private String[] detailExcludes;
+
+    @Value("${coverage.prometheus.details.counters:INSTRUCTION,BRANCH,LINE}")
+    private ICoverageNode.CounterEntity[] detailCounters;
+
     private final MeterRegistry meterRegistry;
 
     public CoverageExporterAutoConfig(MeterRegistry meterRegistry) {
@@ -68,24 +127,74 @@ public class CoverageExporterAutoConfig {
         return factory;
     }
 
+    @Bean
+    public AnalysisExecutor analysisExecutor() {
+        final AnalysisExecutor executor = new AnalysisExecutor(new AnalysisBudget(analysisCpuBudget, analysisMaxInFlightHeap.toBytes()),
+                analysisMaxSystemLoad);
+
+        FunctionCounter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "analysis.shed", executor, AnalysisExecutor::getShed)
+                .description("Coverage collections that returned the previous snapshot, because the system load was above the threshold")
+                .tags(getTags())
+                .register(meterRegistry);
+        FunctionCounter.builder(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "analysis.throttled", executor.getBudget(), AnalysisBudget::getThrottledSeconds)
+                .description("Time the analysis threads have been paused, because they exhausted their CPU budget")
+                .baseUnit("seconds")
+                .tags(getTags())
+                .register(meterRegistry);
+
+        return executor;
+    }
+
     @Bean
     public LocalJacocoAdapter localJacocoAdapter() throws MalformedObjectNameException {
-        return new LocalJacocoAdapter(mBeanProxyFactoryBean());
+        final String[] tags = getTags();
+
+        return new LocalJacocoAdapter(mBeanProxyFactoryBean(), analysisParallelism, new CollectionMetrics(meterRegistry, providerName -> tags),
+                analysisExecutor().getBudget());
     }
 
     @Bean
     public LocalJacocoConfig localJacocoConfig() {
-        return new LocalJacocoConfig(name, classesLocations, includePatterns, excludePatterns, enableClassesCache);
+        return new LocalJacocoConfig(name, classesLocations, includePatterns, excludePatterns, enableClassesCache, enableClassesWatch, enableProbeIndex,
+                coverageDetailsConfig().isEnabled());
+    }
+
+    @Bean
+    public CoverageDetailsConfig coverageDetailsConfig() {
+        return new CoverageDetailsConfig(detailPackages, detailClasses, detailTopN, detailPackageDepth, detailIncludes, detailExcludes, detailCounters);
+    }
+
+    @Bean
+    public CoverageSnapshotCache<LocalJacocoConfig> localCoverageSnapshotCache(LocalJacocoConfig localJacocoConfig) throws MalformedObjectNameException {
+        return new CoverageSnapshotCache<>(localJacocoAdapter(), localJacocoConfig, snapshotFreshness, analysisExecutor());
     }
 
     @Bean
-    public LocalPrometheusMetricProvider localPrometheusMetricProvider(LocalJacocoConfig localJacocoConfig) throws MalformedObjectNameException {
-        return new LocalPrometheusMetricProvider(localJacocoAdapter(), meterRegistry, localJacocoConfig, addedTags);
+    @ConditionalOnProperty(name = "coverage.warmUp", havingValue = "true", matchIfMissing = true)
+    public ApplicationListener<ApplicationReadyEvent> coverageWarmUp(CoverageSnapshotCache<LocalJacocoConfig> localCoverageSnapshotCache) {
+        return event -> localCoverageSnapshotCache.warmUp();
     }
 
     @Bean
-    public ManagementEndpoint managementEndpoint(LocalJacocoConfig localJacocoConfig) throws MalformedObjectNameException {
-        return new ManagementEndpoint(localJacocoAdapter(), localJacocoConfig);
+    public LocalPrometheusMetricProvider localPrometheusMetricProvider(CoverageSnapshotCache<LocalJacocoConfig> localCoverageSnapshotCache) {
+        return new LocalPrometheusMetricProvider(localCoverageSnapshotCache, meterRegistry, addedTags, coverageDetailsConfig());
+    }
+
+    @Bean
+    public ManagementEndpoint managementEndpoint(CoverageSnapshotCache<LocalJacocoConfig> localCoverageSnapshotCache) {
+        return new ManagementEndpoint(localCoverageSnapshotCache);
+    }
+
+    @Bean
+    public ExecDataEndpoint execDataEndpoint(CoverageSnapshotCache<LocalJacocoConfig> localCoverageSnapshotCache) throws MalformedObjectNameException {
+        return new ExecDataEndpoint(mBeanProxyFactoryBean(), localCoverageSnapshotCache, execResetEnabled);
+    }
+
+    private String[] getTags() {
+        return addedTags.entrySet()
+                .stream()
+                .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
+                .toArray(String[]::new);
     }
 
 }
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.spring;
+
+import io.github.mrcdnk.coverage.JacocoMBeanProxy;
+import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.delta.ExecDataDelta;
+import io.github.mrcdnk.coverage.delta.ProbeDeltaTracker;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshotCache;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.tools.ExecFileLoader;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.jmx.access.MBeanProxyFactoryBean;
+import org.springframework.lang.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Serves the execution data of the application as {@link ExecDataDelta}s, so the export server only transfers the
+ * classes whose probes changed since its previous request.
+ * <p>
+ * The {@link ProbeDeltaTracker} keeps a copy of the probes of every served class, roughly one byte per probe. The
+ * endpoint is read-only unless <code>coverage.exec.resetEnabled</code> is set, the reset answers <code>404</code>
+ * otherwise.
+ */
+@WebEndpoint(id = "jacocoexec")
+public class ExecDataEndpoint {
+
+    private final MBeanProxyFactoryBean proxyFactoryBean;
+    private final CoverageSnapshotCache<LocalJacocoConfig> snapshotCache;
+    private final boolean resetEnabled;
+    private final ProbeDeltaTracker deltaTracker = new ProbeDeltaTracker();
+
+    /**
+     * @param resetEnabled allow {@link #dumpAndReset()}, which destroys the execution data of the application
+     */
+    public ExecDataEndpoint(MBeanProxyFactoryBean proxyFactoryBean, CoverageSnapshotCache<LocalJacocoConfig> snapshotCache, boolean resetEnabled) {
+        this.proxyFactoryBean = proxyFactoryBean;
+        this.snapshotCache = snapshotCache;
+        this.resetEnabled = resetEnabled;
+    }
+
+    /**
+     * @param watermark watermark of the previous delta, all classes are returned without it
+     */
+    @ReadOperation(produces = ExecDataDelta.CONTENT_TYPE)
+    public byte[] executionData(@Nullable String watermark) {
+        final JacocoMBeanProxy proxy = getProxy();
+        final String sessionId = proxy.getSessionId();
+
+        return encode(deltaTracker.since(sessionId, load(proxy.getExecutionData(false)), watermark));
+    }
+
+    /**
+     * Dumps and resets the execution data in a single call to the agent.
+     *
+     * @return full delta of the execution data before the reset, without a watermark, <code>404</code> if resets are
+     * not enabled
+     */
+    @WriteOperation(produces = ExecDataDelta.CONTENT_TYPE)
+    public WebEndpointResponse<byte[]> dumpAndReset() {
+        if (!resetEnabled) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+
+        final ExecutionDataStore executionData = load(getProxy().getExecutionData(true));
+
+        deltaTracker.reset();
+        snapshotCache.invalidate();
+
+        return new WebEndpointResponse<>(encode(new ExecDataDelta(true, "", executionData)));
+    }
+
+    private JacocoMBeanProxy getProxy() {
+        if (proxyFactoryBean.getObject() instanceof JacocoMBeanProxy proxy) {
+            return proxy;
+        } else {
+            throw new IllegalStateException("Proxy has unexpected type!");
+        }
+    }
+
+    private static ExecutionDataStore load(byte[] data) {
+        final ExecFileLoader loader = new ExecFileLoader();
+
+        try {
+            loader.load(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load execution data: ", e);
+        }
+
+        return loader.getExecutionDataStore();
+    }
+
+    private static byte[] encode(ExecDataDelta delta) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            delta.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+}
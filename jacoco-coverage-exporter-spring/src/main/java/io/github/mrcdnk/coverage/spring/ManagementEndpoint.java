@@ -16,28 +16,25 @@
 
 package io.github.mrcdnk.coverage.spring;
 
-import io.github.mrcdnk.coverage.LocalJacocoAdapter;
 import io.github.mrcdnk.coverage.LocalJacocoConfig;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshotCache;
 import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
 import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
 
 @WebEndpoint(id = "jacoco")
 public class ManagementEndpoint {
 
-    private final LocalJacocoAdapter jmxJacocoAdapter;
-    private final LocalJacocoConfig localJacocoConfig;
+    private final CoverageSnapshotCache<LocalJacocoConfig> snapshotCache;
 
-    public ManagementEndpoint(LocalJacocoAdapter jmxJacocoAdapter,
-                              LocalJacocoConfig localJacocoConfig) {
-        this.jmxJacocoAdapter = jmxJacocoAdapter;
-        this.localJacocoConfig = localJacocoConfig;
+    public ManagementEndpoint(CoverageSnapshotCache<LocalJacocoConfig> snapshotCache) {
+        this.snapshotCache = snapshotCache;
     }
 
 
     @WriteOperation
     public void reset(boolean reset) {
         if (reset) {
-            jmxJacocoAdapter.resetCoverage(localJacocoConfig);
+            snapshotCache.reset();
         }
     }
 
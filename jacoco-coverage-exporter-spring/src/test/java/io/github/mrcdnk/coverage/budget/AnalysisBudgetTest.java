@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.budget;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class AnalysisBudgetTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final FakeClock clock = new FakeClock();
+
+    @AfterEach
+    void unbind() {
+        AnalysisBudget.unbind();
+    }
+
+    @Test
+    void throttlesOnceTheBucketIsEmpty() {
+        final AnalysisBudget budget = new AnalysisBudget(50, 0, clock);
+        budget.bind();
+
+        // the first slice is not throttled
+        clock.cpuNanos += 100 * MILLIS;
+        AnalysisBudget.checkpoint();
+        assertThat(clock.parks).isEmpty();
+
+        // 50ms over the budget take 100ms to refill at half a core
+        clock.cpuNanos += 50 * MILLIS;
+        AnalysisBudget.checkpoint();
+        assertThat(clock.parks).containsExactly(100 * MILLIS);
+
+        // the pause refilled the deficit, only the new CPU time is charged
+        clock.cpuNanos += 10 * MILLIS;
+        AnalysisBudget.checkpoint();
+        assertThat(clock.parks).containsExactly(100 * MILLIS, 20 * MILLIS);
+        assertThat(budget.getThrottledSeconds()).isCloseTo(0.12, offset(1e-9));
+    }
+
+    @Test
+    void refillsWhileTheThreadsAreIdle() {
+        final AnalysisBudget budget = new AnalysisBudget(50, 0, clock);
+        budget.bind();
+
+        clock.cpuNanos += 100 * MILLIS;
+        AnalysisBudget.checkpoint();
+
+        clock.nanoTime += 200 * MILLIS;
+        clock.cpuNanos += 100 * MILLIS;
+        AnalysisBudget.checkpoint();
+
+        assertThat(clock.parks).isEmpty();
+        assertThat(budget.getThrottledSeconds()).isZero();
+    }
+
+    @Test
+    void doesNotThrottleWithoutCpuBudget() {
+        final AnalysisBudget budget = new AnalysisBudget(0, 0, clock);
+        budget.bind();
+
+        clock.cpuNanos += 10_000 * MILLIS;
+        AnalysisBudget.checkpoint();
+
+        assertThat(clock.parks).isEmpty();
+    }
+
+    @Test
+    void reservesTheWholeHeapForClassesExceedingTheBudget() throws InterruptedException {
+        final AnalysisBudget budget = new AnalysisBudget(0, 4096, clock);
+        budget.bind();
+
+        final AnalysisBudget.HeapReservation reservation = AnalysisBudget.reserveHeap(1_000_000);
+        assertThat(budget.getAvailableHeapPermits()).isZero();
+
+        final Thread waiting = new Thread(() -> {
+            budget.bind();
+
+            try (AnalysisBudget.HeapReservation ignored = AnalysisBudget.reserveHeap(100)) {
+                // analyzed once the large class is done
+            }
+        });
+        waiting.start();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (waiting.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(waiting.getState()).isEqualTo(Thread.State.WAITING);
+
+        reservation.close();
+        waiting.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertThat(waiting.isAlive()).isFalse();
+        assertThat(budget.getAvailableHeapPermits()).isEqualTo(4);
+    }
+
+    @Test
+    void ignoresThreadsThatAreNotBound() {
+        final AnalysisBudget budget = new AnalysisBudget(50, 4096, clock);
+
+        assertThat(AnalysisBudget.reserveHeap(1_000_000)).isSameAs(AnalysisBudget.HeapReservation.NONE);
+
+        clock.cpuNanos += 10_000 * MILLIS;
+        AnalysisBudget.checkpoint();
+
+        assertThat(clock.parks).isEmpty();
+        assertThat(budget.getAvailableHeapPermits()).isEqualTo(4);
+    }
+
+    /**
+     * Parking advances the wall clock instead of waiting.
+     */
+    private static final class FakeClock implements AnalysisBudget.Clock {
+        private final List<Long> parks = new ArrayList<>();
+        private long nanoTime;
+        private long cpuNanos;
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        @Override
+        public long currentThreadCpuTime() {
+            return cpuNanos;
+        }
+
+        @Override
+        public boolean isCpuTimeSupported() {
+            return true;
+        }
+
+        @Override
+        public void park(Object blocker, long nanos) {
+            parks.add(nanos);
+            nanoTime += nanos;
+        }
+    }
+}
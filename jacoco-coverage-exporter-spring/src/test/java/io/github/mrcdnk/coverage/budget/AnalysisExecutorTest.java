@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.budget;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class AnalysisExecutorTest {
+
+    private volatile double load;
+    private volatile long nanoTime;
+
+    private final AnalysisExecutor executor = new AnalysisExecutor(AnalysisBudget.unlimited(), 0.8, () -> load, () -> nanoTime);
+
+    @AfterEach
+    void close() {
+        executor.close();
+    }
+
+    @Test
+    void shedsWhileTheLoadIsAboveTheThreshold() {
+        load = 0.9;
+        assertThat(executor.shed()).isTrue();
+
+        // the load is sampled at most once a second
+        load = 0.5;
+        assertThat(executor.shed()).isTrue();
+
+        nanoTime += Duration.ofSeconds(1).toNanos();
+        assertThat(executor.shed()).isFalse();
+        assertThat(executor.getShed()).isEqualTo(2);
+    }
+
+    @Test
+    void neverShedsWithoutThreshold() {
+        try (AnalysisExecutor unlimited = new AnalysisExecutor(AnalysisBudget.unlimited(), 0, () -> 5, () -> nanoTime)) {
+            assertThat(unlimited.shed()).isFalse();
+            assertThat(unlimited.getShed()).isZero();
+        }
+    }
+
+    @Test
+    void runsTasksOfTheAnalysisThreadDirectly() {
+        final String thread = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> executor.execute(() -> executor.execute(() -> Thread.currentThread().getName())));
+
+        assertThat(thread).isEqualTo("jacoco-collection");
+    }
+
+    @Test
+    void rethrowsTheExceptionOfTheTask() {
+        final IOException failure = new IOException("unreachable");
+
+        assertThatThrownBy(() -> executor.execute(() -> {
+            throw failure;
+        })).isSameAs(failure);
+    }
+
+    @Test
+    void defersBackgroundTasksWhileOverloaded() throws InterruptedException {
+        load = 0.9;
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.submitDeferrable(ran::countDown);
+
+        assertThat(ran.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        load = 0.5;
+        nanoTime += Duration.ofSeconds(1).toNanos();
+
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void runsDeferredTasksAfterTheMaximumDeferral() throws InterruptedException {
+        load = 0.9;
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.submitDeferrable(ran::countDown);
+
+        assertThat(ran.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        nanoTime += Duration.ofMinutes(1).toNanos();
+
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
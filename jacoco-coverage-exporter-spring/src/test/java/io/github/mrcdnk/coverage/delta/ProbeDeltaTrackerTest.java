@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.delta;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProbeDeltaTrackerTest {
+
+    private final ProbeDeltaTracker tracker = new ProbeDeltaTracker();
+
+    @Test
+    void firstRequestIsFull() {
+        final ExecDataDelta delta = tracker.since("s", store(1, true, false, 2, false, true), null);
+
+        assertThat(delta.full()).isTrue();
+        assertThat(delta.executionData().getContents()).extracting(ExecutionData::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(delta.watermark()).isNotEmpty();
+    }
+
+    @Test
+    void deltaContainsOnlyClassesThatGainedProbes() {
+        final String watermark = tracker.since("s", store(1, true, false, 2, false, true), null).watermark();
+
+        final ExecDataDelta unchanged = tracker.since("s", store(1, true, false, 2, false, true), watermark);
+        assertThat(unchanged.full()).isFalse();
+        assertThat(unchanged.executionData().getContents()).isEmpty();
+        assertThat(unchanged.watermark()).isEqualTo(watermark);
+
+        final ExecDataDelta changed = tracker.since("s", store(1, true, true, 2, false, true, 3, true), watermark);
+        assertThat(changed.full()).isFalse();
+        assertThat(changed.executionData().getContents()).extracting(ExecutionData::getId).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(changed.executionData().get(1).getProbes()).containsExactly(true, true);
+
+        // an older watermark of the same epoch receives everything that changed after it
+        assertThat(tracker.since("s", store(1, true, true, 2, false, true, 3, true), watermark).executionData().getContents())
+                .hasSize(2);
+        assertThat(tracker.since("s", store(1, true, true, 2, false, true, 3, true), changed.watermark()).executionData().getContents())
+                .isEmpty();
+    }
+
+    @Test
+    void newEpochOnSessionChangeLostProbesOrReset() {
+        final String first = tracker.since("s", store(1, true, false), null).watermark();
+
+        final ExecDataDelta session = tracker.since("other", store(1, true, false), first);
+        assertThat(session.full()).isTrue();
+        assertThat(session.watermark()).isNotEqualTo(first);
+
+        // the agent has been reset behind the tracker's back, the class is missing from the dump
+        final ExecDataDelta lost = tracker.since("other", store(2, true), session.watermark());
+        assertThat(lost.full()).isTrue();
+        assertThat(lost.executionData().getContents()).extracting(ExecutionData::getId).containsExactly(2L);
+
+        tracker.reset();
+        assertThat(tracker.since("other", store(2, true), lost.watermark()).full()).isTrue();
+    }
+
+    @Test
+    void malformedWatermarkIsFull() {
+        tracker.since("s", store(1, true), null);
+
+        assertThat(tracker.since("s", store(1, true), "garbage").full()).isTrue();
+        assertThat(tracker.since("s", store(1, true), "0-1").full()).isTrue();
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        final ExecDataDelta delta = tracker.since("s", store(1, true, false, 2, false, true), null);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        delta.write(out);
+        final ExecDataDelta read = ExecDataDelta.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(read.full()).isTrue();
+        assertThat(read.watermark()).isEqualTo(delta.watermark());
+        assertThat(read.executionData().get(2).getProbes()).containsExactly(false, true);
+    }
+
+    /**
+     * @param classes ids, each followed by the probes of the class
+     */
+    private static ExecutionDataStore store(Object... classes) {
+        final ExecutionDataStore store = new ExecutionDataStore();
+
+        for (int i = 0; i < classes.length; ) {
+            final long id = ((Integer) classes[i++]).longValue();
+            int end = i;
+
+            while (end < classes.length && classes[end] instanceof Boolean) {
+                end++;
+            }
+
+            final boolean[] probes = new boolean[end - i];
+
+            for (int p = 0; p < probes.length; p++) {
+                probes[p] = (Boolean) classes[i + p];
+            }
+
+            store.put(new ExecutionData(id, "Class" + id, probes));
+            i = end;
+        }
+
+        return store;
+    }
+}
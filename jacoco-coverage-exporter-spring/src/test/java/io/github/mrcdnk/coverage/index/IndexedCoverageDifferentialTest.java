@@ -0,0 +1,178 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import io.github.mrcdnk.coverage.index.fixture.CoverageFixtures;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import io.github.mrcdnk.coverage.snapshot.CoverageTable;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the counters of the probe index with the ones of JaCoCo's {@link Analyzer} and {@link CoverageBuilder} for
+ * the same class files and probes.
+ */
+class IndexedCoverageDifferentialTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<Path> classFiles = new ArrayList<>();
+
+    @BeforeEach
+    void collectFixtures() throws IOException, URISyntaxException {
+        final Path classes = Path.of(CoverageFixtures.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+        try (Stream<Path> files = Files.walk(classes.resolve(CoverageFixtures.class.getPackageName().replace('.', '/')))) {
+            files.filter(file -> file.toString().endsWith(".class")).sorted().forEach(classFiles::add);
+        }
+
+        assertThat(classFiles).hasSizeGreaterThan(8);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0, 0.2, 0.5, 0.8, 1})
+    void classFiles(double executed) throws IOException {
+        assertSameCounters(classFiles.stream().map(Path::toFile).toList(), executed);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0, 0.5, 1})
+    void nestedJars(double executed) throws IOException {
+        final Path outer = directory.resolve("outer.jar");
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outer))) {
+            out.putNextEntry(new ZipEntry("BOOT-INF/lib/inner.jar"));
+            out.write(jar(classFiles));
+            out.closeEntry();
+        }
+
+        assertSameCounters(List.of(outer.toFile()), executed);
+    }
+
+    private static void assertSameCounters(List<File> files, double executed) throws IOException {
+        final List<ClassProbeIndex> indices = new ClassProbeIndexer().index(files);
+        final ExecutionDataStore executionData = executionData(indices, executed);
+
+        final CoverageBuilder coverageBuilder = new CoverageBuilder();
+        final Analyzer analyzer = new Analyzer(executionData, coverageBuilder);
+
+        for (File file : files) {
+            analyzer.analyzeAll(file);
+        }
+
+        final CoverageSnapshot expected = CoverageSnapshot.of(coverageBuilder.getBundle("fixtures"), true);
+        final CoverageSnapshot actual = new IndexedCoverageCalculator().update(indices, executionData, true);
+
+        assertThat(indices).hasSameSizeAs(coverageBuilder.getClasses());
+        assertThat(expected.getCounter(ICoverageNode.CounterEntity.BRANCH).getTotalCount()).isPositive();
+
+        for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+            assertThat(actual.getCounter(counterEntity).getMissedCount()).as("missed %s", counterEntity)
+                    .isEqualTo(expected.getCounter(counterEntity).getMissedCount());
+            assertThat(actual.getCounter(counterEntity).getCoveredCount()).as("covered %s", counterEntity)
+                    .isEqualTo(expected.getCounter(counterEntity).getCoveredCount());
+        }
+
+        assertSameRows(actual.getClasses(), expected.getClasses());
+        assertSameRows(actual.getPackages(), expected.getPackages());
+    }
+
+    private static void assertSameRows(CoverageTable actual, CoverageTable expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+
+        for (int row = 0; row < expected.size(); row++) {
+            final String name = expected.getName(row);
+            final int actualRow = indexOf(actual, name);
+
+            for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+                assertThat(actual.getMissed(actualRow, counterEntity)).as("missed %s of %s", counterEntity, name)
+                        .isEqualTo(expected.getMissed(row, counterEntity));
+                assertThat(actual.getCovered(actualRow, counterEntity)).as("covered %s of %s", counterEntity, name)
+                        .isEqualTo(expected.getCovered(row, counterEntity));
+            }
+        }
+    }
+
+    private static int indexOf(CoverageTable table, String name) {
+        for (int row = 0; row < table.size(); row++) {
+            if (table.getName(row).equals(name)) {
+                return row;
+            }
+        }
+
+        throw new AssertionError(name + " is missing");
+    }
+
+    /**
+     * @param executed share of the probes that are executed, the probes are drawn with a fixed seed
+     */
+    private static ExecutionDataStore executionData(List<ClassProbeIndex> indices, double executed) {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+        final Random random = new Random(42);
+
+        for (ClassProbeIndex index : indices) {
+            final boolean[] probes = new boolean[index.getProbeCount()];
+
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = random.nextDouble() < executed;
+            }
+
+            executionData.put(new ExecutionData(index.getClassId(), index.getClassName(), probes));
+        }
+
+        return executionData;
+    }
+
+    private static byte[] jar(List<Path> classFiles) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (Path classFile : classFiles) {
+                out.putNextEntry(new ZipEntry("classes/" + classFile.getFileName()));
+                Files.copy(classFile, (OutputStream) out);
+                out.closeEntry();
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index;
+
+import io.github.mrcdnk.coverage.index.fixture.CoverageFixtures;
+import io.github.mrcdnk.coverage.snapshot.CoverageSnapshot;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PersistentClassProbeIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private Path classes;
+    private Path indexFile;
+    private final List<File> classFiles = new ArrayList<>();
+
+    @BeforeEach
+    void copyFixtures() throws IOException, URISyntaxException {
+        final Path compiled = Path.of(CoverageFixtures.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .resolve(CoverageFixtures.class.getPackageName().replace('.', '/'));
+
+        classes = Files.createDirectories(directory.resolve("classes"));
+        indexFile = directory.resolve("index/app.idx");
+
+        try (Stream<Path> files = Files.list(compiled)) {
+            for (Path file : files.sorted().toList()) {
+                classFiles.add(Files.copy(file, classes.resolve(file.getFileName())).toFile());
+            }
+        }
+    }
+
+    @Test
+    void restoresAllClassesAfterRestart() throws IOException {
+        final List<ClassProbeIndex> indexed = index(new PersistentClassProbeIndex(indexFile));
+
+        assertThat(indexFile).exists();
+
+        final PersistentClassProbeIndex restarted = new PersistentClassProbeIndex(indexFile);
+        final List<ClassProbeIndex> restored = index(restarted);
+
+        assertThat(restarted.getRestoredClasses()).isEqualTo(indexed.size());
+        assertSameCounters(restored, indexed);
+    }
+
+    @Test
+    void restoresCopiedFilesByContentHash() throws IOException {
+        final List<ClassProbeIndex> indexed = index(new PersistentClassProbeIndex(indexFile));
+
+        final File copied = classFiles.getFirst();
+        Files.setLastModifiedTime(copied.toPath(), FileTime.fromMillis(copied.lastModified() + 60_000));
+
+        final File changed = classFiles.getLast();
+        final long replacedId = ClassProbeIndexer.indexClass(Files.readAllBytes(changed.toPath()), changed.getPath()).getClassId();
+        final byte[] replacement = Files.readAllBytes(classFiles.get(1).toPath());
+        Files.write(changed.toPath(), replacement);
+
+        final PersistentClassProbeIndex restarted = new PersistentClassProbeIndex(indexFile);
+        final List<ClassProbeIndex> restored = index(restarted);
+
+        // the copied file is restored, the replaced one is indexed again
+        assertThat(restarted.getRestoredClasses()).isEqualTo(indexed.size() - 1);
+        assertThat(restored).extracting(ClassProbeIndex::getClassId)
+                .doesNotContain(replacedId)
+                .containsOnlyOnce(ClassProbeIndexer.indexClass(Files.readAllBytes(copied.toPath()), copied.getPath()).getClassId())
+                .contains(ClassProbeIndexer.indexClass(replacement, changed.getPath()).getClassId());
+    }
+
+    @Test
+    void indexesDamagedClassesAgainAndRewritesTheFile() throws IOException {
+        final List<ClassProbeIndex> indexed = index(new PersistentClassProbeIndex(indexFile));
+
+        // the class records are at the end of the file, each one is protected by its checksum
+        final byte[] bytes = Files.readAllBytes(indexFile);
+        bytes[bytes.length - 10] ^= 0x5A;
+        Files.write(indexFile, bytes);
+
+        final PersistentClassProbeIndex damaged = new PersistentClassProbeIndex(indexFile);
+        final List<ClassProbeIndex> reindexed = index(damaged);
+
+        assertThat(damaged.getRestoredClasses()).isLessThan(indexed.size());
+        assertSameCounters(reindexed, indexed);
+
+        final PersistentClassProbeIndex repaired = new PersistentClassProbeIndex(indexFile);
+        index(repaired);
+
+        assertThat(repaired.getRestoredClasses()).isEqualTo(indexed.size());
+    }
+
+    @Test
+    void ignoresFilesOfAnotherFormat() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Files.write(indexFile, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        final PersistentClassProbeIndex index = new PersistentClassProbeIndex(indexFile);
+        final List<ClassProbeIndex> indexed = index(index);
+
+        assertThat(index.getRestoredClasses()).isZero();
+        assertThat(indexed).isNotEmpty();
+        assertThat(Files.size(indexFile)).isGreaterThan(8);
+    }
+
+    private List<ClassProbeIndex> index(PersistentClassProbeIndex persistentIndex) throws IOException {
+        final List<ClassProbeIndex> indexed = new ClassProbeIndexer(null, null, persistentIndex).index(List.of(classes.toFile()));
+        // written by a background thread otherwise
+        persistentIndex.flush();
+
+        return indexed;
+    }
+
+    private static void assertSameCounters(List<ClassProbeIndex> actual, List<ClassProbeIndex> expected) {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+
+        for (ClassProbeIndex index : expected) {
+            final boolean[] probes = new boolean[index.getProbeCount()];
+
+            for (int i = 0; i < probes.length; i += 2) {
+                probes[i] = true;
+            }
+
+            executionData.put(new ExecutionData(index.getClassId(), index.getClassName(), probes));
+        }
+
+        final CoverageSnapshot actualSnapshot = IndexedCoverageCalculator.calculate(actual, executionData);
+        final CoverageSnapshot expectedSnapshot = IndexedCoverageCalculator.calculate(expected, executionData);
+
+        assertThat(actual).extracting(ClassProbeIndex::getClassId)
+                .containsExactlyInAnyOrderElementsOf(expected.stream().map(ClassProbeIndex::getClassId).toList());
+
+        for (ICoverageNode.CounterEntity counterEntity : ICoverageNode.CounterEntity.values()) {
+            assertThat(actualSnapshot.getCounter(counterEntity)).as(counterEntity.name()).isEqualTo(expectedSnapshot.getCounter(counterEntity));
+        }
+    }
+}
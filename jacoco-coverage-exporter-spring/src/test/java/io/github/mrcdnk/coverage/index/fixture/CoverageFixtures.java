@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.index.fixture;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Classes compiled with the constructs the probe index has to count like JaCoCo's analyzer: lambdas, synthetic and
+ * bridge methods, finally blocks, switches and records. They are only analyzed, never executed.
+ */
+public final class CoverageFixtures {
+
+    private CoverageFixtures() {
+    }
+
+    public static int lambdas(List<String> values) {
+        final Function<String, Integer> length = String::length;
+        final Supplier<Integer> sum = () -> values.stream()
+                .filter(value -> !value.isEmpty())
+                .mapToInt(length::apply)
+                .sum();
+
+        return sum.get() > 10 ? sum.get() : -1;
+    }
+
+    public static Callable<String> anonymous(String value) {
+        return new Callable<>() {
+            @Override
+            public String call() {
+                return value == null ? "" : value.trim();
+            }
+        };
+    }
+
+    public static String tryFinally(String value) {
+        final StringBuilder result = new StringBuilder();
+
+        try {
+            if (value.isEmpty()) {
+                return "empty";
+            }
+
+            result.append(value);
+        } catch (IllegalStateException e) {
+            result.append("failed");
+        } finally {
+            result.append('.');
+        }
+
+        try (StringReader reader = new StringReader(value)) {
+            result.append((char) reader.read());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return result.toString();
+    }
+
+    public static synchronized int loops(int[][] values) {
+        int sum = 0;
+
+        outer:
+        for (int[] row : values) {
+            for (int value : row) {
+                if (value < 0) {
+                    continue outer;
+                }
+
+                if (value > 100) {
+                    break outer;
+                }
+
+                sum += value;
+            }
+        }
+
+        synchronized (CoverageFixtures.class) {
+            do {
+                sum--;
+            } while (sum > 1000);
+        }
+
+        return sum;
+    }
+
+    public static String switches(int number, String text, Color color, Shape shape) {
+        final String numberName = switch (number) {
+            case 1 -> "one";
+            case 2, 3 -> "few";
+            case 1000 -> "many";
+            default -> "other";
+        };
+
+        final int textValue;
+        switch (text) {
+            case "a":
+                textValue = 1;
+                break;
+            case "b":
+            case "c":
+                textValue = 2;
+                break;
+            default:
+                textValue = 0;
+        }
+
+        final String colorName = switch (color) {
+            case RED -> "red";
+            case GREEN -> "green";
+            case BLUE -> "blue";
+        };
+
+        final double area = switch (shape) {
+            case Circle circle when circle.radius() == 0 -> 0;
+            case Circle circle -> Math.PI * circle.radius() * circle.radius();
+            case Square(double side) -> side * side;
+        };
+
+        return numberName + textValue + colorName + (area > 1 && number > 0 || text.isEmpty() ? "large" : "small");
+    }
+
+    public enum Color {
+        RED, GREEN, BLUE;
+
+        public Color next() {
+            return values()[(ordinal() + 1) % values().length];
+        }
+    }
+
+    public sealed interface Shape permits Circle, Square {
+    }
+
+    public record Circle(double radius) implements Shape {
+
+        public Circle {
+            if (radius < 0) {
+                throw new IllegalArgumentException("radius");
+            }
+        }
+    }
+
+    public record Square(double side) implements Shape {
+    }
+
+    public record Named<T>(String name, List<T> values) implements Comparable<Named<T>> {
+
+        @Override
+        public int compareTo(Named<T> other) {
+            return Comparator.comparing((Named<T> named) -> named.name()).compare(this, other);
+        }
+    }
+
+    /**
+     * The covariant override and the generic interface method produce bridge methods.
+     */
+    public static class Sorted<T extends Comparable<T>> implements Comparator<T> {
+
+        private final List<T> seen = new ArrayList<>();
+
+        @Override
+        public int compare(T a, T b) {
+            seen.add(a);
+            return a.compareTo(b);
+        }
+
+        @Override
+        public Sorted<T> clone() {
+            return new Sorted<>();
+        }
+
+        public class Inner {
+            public int seen() {
+                return seen.size();
+            }
+        }
+    }
+}
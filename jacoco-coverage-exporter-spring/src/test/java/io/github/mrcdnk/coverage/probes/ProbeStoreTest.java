@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.probes;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProbeStoreTest {
+
+    private final Random random = new Random(7);
+
+    @Test
+    void roundTripAcrossWordBoundaries() {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+        final int[] probeCounts = {0, 1, 63, 64, 65, 128, 130};
+
+        for (int i = 0; i < probeCounts.length; i++) {
+            executionData.put(new ExecutionData(i, "Class" + i, probes(probeCounts[i], 0.5)));
+        }
+
+        final ProbeStore store = ProbeStore.of(executionData);
+
+        assertThat(store.size()).isEqualTo(probeCounts.length);
+
+        for (ExecutionData data : executionData.getContents()) {
+            assertThat(store.getProbes(data.getId())).containsExactly(data.getProbes());
+            assertThat(store.popcount(data.getId())).isEqualTo(count(data.getProbes()));
+        }
+
+        final ExecutionDataStore exported = store.toExecutionDataStore();
+
+        for (ExecutionData data : executionData.getContents()) {
+            assertThat(exported.get(data.getId()).getName()).isEqualTo(data.getName());
+            assertThat(exported.get(data.getId()).getProbes()).containsExactly(data.getProbes());
+        }
+
+        assertThat(store.getProbes(100)).isNull();
+        assertThat(store.contains(100)).isFalse();
+    }
+
+    @Test
+    void orMatchesMergedProbeArrays() {
+        final Map<Long, boolean[]> expected = new HashMap<>();
+        final ProbeStore store = new ProbeStore();
+        final ProbeStore other = new ProbeStore();
+
+        // more classes than the initial capacity, so the table and the words grow several times
+        for (int round = 0; round < 3; round++) {
+            for (long id = 0; id < 500; id++) {
+                final boolean[] probes = probes((int) (id % 150), 0.1);
+                final boolean[] previous = expected.get(id);
+                final boolean gained = previous == null || gained(previous, probes);
+
+                assertThat(store.or(new ExecutionData(id, "Class" + id, probes))).isEqualTo(gained);
+                expected.merge(id, probes, ProbeStoreTest::or);
+
+                other.or(new ExecutionData(id, "Class" + id, probes(probes.length, 0.1)));
+            }
+        }
+
+        final Map<Long, boolean[]> merged = new HashMap<>(expected);
+        for (long id = 0; id < 500; id++) {
+            merged.merge(id, other.getProbes(id), ProbeStoreTest::or);
+        }
+
+        final ProbeStore copy = store.copy();
+
+        assertThat(copy.or(other)).isTrue();
+        assertThat(copy.or(other)).isFalse();
+
+        long popcount = 0;
+        for (long id = 0; id < 500; id++) {
+            assertThat(store.getProbes(id)).containsExactly(expected.get(id));
+            assertThat(copy.getProbes(id)).containsExactly(merged.get(id));
+            popcount += count(merged.get(id));
+        }
+
+        assertThat(copy.popcount()).isEqualTo(popcount);
+    }
+
+    @Test
+    void probesOfCollidingIdsAreNotCombined() {
+        final ProbeStore store = new ProbeStore();
+
+        assertThat(store.or(new ExecutionData(1, "A", new boolean[]{true, false}))).isTrue();
+        assertThat(store.or(new ExecutionData(1, "B", new boolean[]{false, true, true}))).isFalse();
+
+        final ProbeStore other = new ProbeStore();
+        other.or(new ExecutionData(1, "B", new boolean[]{false, true, true}));
+
+        assertThat(store.or(other)).isFalse();
+        assertThat(store.getProbes(1)).containsExactly(true, false);
+        assertThat(store.andNot(other).getProbes(1)).containsExactly(true, false);
+    }
+
+    @Test
+    void putReplacesProbesAndResizesClasses() {
+        final ProbeStore store = new ProbeStore();
+
+        for (long id = 0; id < 40; id++) {
+            store.put(new ExecutionData(id, "Class" + id, probes(70, 0.5)));
+        }
+
+        store.put(new ExecutionData(3, "Class3", new boolean[]{false, false}));
+        assertThat(store.getProbes(3)).containsExactly(false, false);
+
+        // resized classes release their words, which are compacted away once they add up
+        final Map<Long, boolean[]> expected = new HashMap<>();
+        for (int round = 0; round < 50; round++) {
+            final long id = random.nextInt(40);
+            final boolean[] probes = probes(random.nextInt(200), 0.5);
+
+            store.put(new ExecutionData(id, "Class" + id, probes));
+            expected.put(id, probes);
+        }
+
+        expected.forEach((id, probes) -> assertThat(store.getProbes(id)).containsExactly(probes));
+        assertThat(store.size()).isEqualTo(40);
+        assertThat(store.copy().getSizeInBytes()).isLessThanOrEqualTo(store.getSizeInBytes());
+    }
+
+    @Test
+    void andNotKeepsOnlyProbesMissingInTheOther() {
+        final ProbeStore store = new ProbeStore();
+        store.or(new ExecutionData(1, "A", new boolean[]{true, true, false}));
+        store.or(new ExecutionData(2, "B", new boolean[]{true, false}));
+        store.or(new ExecutionData(3, "C", new boolean[]{true}));
+
+        final ProbeStore other = new ProbeStore();
+        other.or(new ExecutionData(1, "A", new boolean[]{true, false, false}));
+        other.or(new ExecutionData(2, "B", new boolean[]{true, true}));
+
+        final ProbeStore difference = store.andNot(other);
+
+        assertThat(difference.size()).isEqualTo(2);
+        assertThat(difference.getProbes(1)).containsExactly(false, true, false);
+        assertThat(difference.contains(2)).isFalse();
+        assertThat(difference.getProbes(3)).containsExactly(true);
+    }
+
+    @Test
+    void clearedStoreCanBeReused() {
+        final ProbeStore store = ProbeStore.of(executionData(100));
+
+        store.clear();
+
+        assertThat(store.size()).isZero();
+        assertThat(store.popcount()).isZero();
+        assertThat(store.contains(1)).isFalse();
+
+        store.or(new ExecutionData(1, "A", new boolean[]{false, true}));
+        assertThat(store.getProbes(1)).containsExactly(false, true);
+        assertThat(store.popcount()).isEqualTo(1);
+    }
+
+    private ExecutionDataStore executionData(int classes) {
+        final ExecutionDataStore executionData = new ExecutionDataStore();
+
+        for (long id = 0; id < classes; id++) {
+            executionData.put(new ExecutionData(id, "Class" + id, probes(random.nextInt(100), 0.5)));
+        }
+
+        return executionData;
+    }
+
+    private boolean[] probes(int count, double executed) {
+        final boolean[] probes = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            probes[i] = random.nextDouble() < executed;
+        }
+
+        return probes;
+    }
+
+    private static boolean gained(boolean[] previous, boolean[] current) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] && !previous[i]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean[] or(boolean[] a, boolean[] b) {
+        final boolean[] result = a.clone();
+
+        for (int i = 0; i < b.length; i++) {
+            result[i] |= b[i];
+        }
+
+        return result;
+    }
+
+    private static int count(boolean[] probes) {
+        int count = 0;
+
+        for (boolean probe : probes) {
+            count += probe ? 1 : 0;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package io.github.mrcdnk.coverage.prometheus;
+
+import io.github.mrcdnk.coverage.GaugeFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CollectionMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CollectionMetrics metrics = new CollectionMetrics(meterRegistry, name -> new String[]{"application", name});
+
+    @Test
+    void registersPhasesWithTheFirstCycleRecordingThem() {
+        final CollectionCycle cycle = metrics.start("app");
+        cycle.record(CollectionCycle.Phase.CONNECT, System.nanoTime());
+        cycle.record(CollectionCycle.Phase.CONNECT, System.nanoTime());
+
+        assertThat(meterRegistry.find(GaugeFactory.PROMETHEUS_METRIC_PREFIX + "collection.phase").tag("phase", "connect").timer())
+                .isNotNull()
+                .satisfies(timer -> assertThat(timer.count()).isEqualTo(2));
+    }
+
+    @Test
+    void removesAllMetersOfTheProvider() {
+        final CollectionCycle cycle = metrics.start("app");
+        cycle.record(CollectionCycle.Phase.CONNECT, System.nanoTime());
+        cycle.finish(true);
+
+        metrics.remove("app");
+
+        assertThat(meterRegistry.getMeters()).isEmpty();
+    }
+
+    @Test
+    void doesNotRegisterPhasesOfCyclesRunningAfterTheRemoval() {
+        final CollectionCycle cycle = metrics.start("app");
+        cycle.record(CollectionCycle.Phase.CONNECT, System.nanoTime());
+
+        metrics.remove("app");
+
+        cycle.record(CollectionCycle.Phase.CONNECT, System.nanoTime());
+        cycle.record(CollectionCycle.Phase.TRANSFER, System.nanoTime());
+        cycle.finish(true);
+
+        assertThat(meterRegistry.getMeters()).isEmpty();
+    }
+}
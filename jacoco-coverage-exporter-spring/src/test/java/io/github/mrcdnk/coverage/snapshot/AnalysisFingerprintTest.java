@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2024 Marco Deneke
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.mrcdnk.coverage.snapshot;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnalysisFingerprintTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void changesWithProbesAndSession() {
+        final ExecutionDataStore executionData = store(new boolean[]{true, false});
+
+        assertThat(AnalysisFingerprint.of("a", executionData, List.of()))
+                .isEqualTo(AnalysisFingerprint.of("a", store(new boolean[]{true, false}), List.of()))
+                .isNotEqualTo(AnalysisFingerprint.of("b", executionData, List.of()))
+                .isNotEqualTo(AnalysisFingerprint.of("a", store(new boolean[]{true, true}), List.of()));
+    }
+
+    @Test
+    void changesWithClassFileReplacedInPlace() throws IOException {
+        final Path classFile = Files.write(directory.resolve("Foo.class"), new byte[]{1, 2, 3});
+        final List<File> classFiles = List.of(classFile.toFile());
+        final ExecutionDataStore executionData = store(new boolean[]{true});
+
+        final long before = AnalysisFingerprint.of("a", executionData, classFiles);
+        assertThat(AnalysisFingerprint.of("a", executionData, classFiles)).isEqualTo(before);
+
+        Files.write(classFile, new byte[]{4, 5, 6});
+        Files.setLastModifiedTime(classFile, FileTime.fromMillis(Files.getLastModifiedTime(classFile).toMillis() + 1000));
+        final long modified = AnalysisFingerprint.of("a", executionData, classFiles);
+        assertThat(modified).isNotEqualTo(before);
+
+        Files.write(classFile, new byte[]{4, 5, 6, 7});
+        Files.setLastModifiedTime(classFile, FileTime.fromMillis(Files.getLastModifiedTime(classFile).toMillis() + 1000));
+        assertThat(AnalysisFingerprint.of("a", executionData, classFiles)).isNotEqualTo(modified);
+    }
+
+    private static ExecutionDataStore store(boolean[] probes) {
+        final ExecutionDataStore store = new ExecutionDataStore();
+        store.put(new ExecutionData(1, "Foo", probes));
+        return store;
+    }
+}